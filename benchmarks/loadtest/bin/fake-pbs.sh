@@ -0,0 +1,77 @@
+#!/bin/bash
+# Shared by the fake PBS commands of the load test. Jobs are simulated from
+# their submit time: each one waits for one of FAKE_PBS_SLOTS slots, runs
+# for a random duration and ends. Nothing runs; qstat and tracejob compute
+# the state of a job from the clock when they are called.
+#
+# Settings, from the environment:
+#   FAKE_PBS_HOME               state directory (required)
+#   FAKE_PBS_SLOTS              jobs running at once (100)
+#   FAKE_PBS_BACKLOG_MS         time the slots are busy with other jobs when the cluster starts (0)
+#   FAKE_PBS_MIN_DURATION_MS    shortest job (1000)
+#   FAKE_PBS_MAX_DURATION_MS    longest job (5000)
+#   FAKE_PBS_LATENCY_MS         added to every command (0)
+#   FAKE_PBS_FAIL_PERCENT       commands failing at random (0)
+#   FAKE_PBS_JOB_FAIL_PERCENT   jobs ending with exit status 1 (0)
+#   FAKE_PBS_KEEP_COMPLETED_MS  how long qstat still lists finished jobs (60000)
+
+if [ -z "$FAKE_PBS_HOME" ]; then
+	echo "$(basename "$0"): FAKE_PBS_HOME is not set" >&2
+	exit 1
+fi
+SERVER=fakepbs
+
+now_ms() {
+	date +%s%3N
+}
+
+fake_latency() {
+	if [ "${FAKE_PBS_LATENCY_MS:-0}" -gt 0 ]; then
+		sleep "$(awk -v ms="$FAKE_PBS_LATENCY_MS" 'BEGIN { printf "%.3f", ms / 1000 }')"
+	fi
+}
+
+fake_failure() {
+	if [ $((RANDOM % 100)) -lt "${FAKE_PBS_FAIL_PERCENT:-0}" ]; then
+		echo "$1: simulated failure" >&2
+		exit 1
+	fi
+}
+
+# fake_lock: serialize the updates of the cluster state
+fake_lock() {
+	exec 9>"$FAKE_PBS_HOME/lock"
+	flock 9
+}
+
+# fake_job <id>: read the state of a job into submit, start, end, exit, name
+# and owner, returns 1 if there is no such job
+fake_job() {
+	local seq="${1%%.*}"
+	seq="${seq%%[*}"
+	[ -f "$FAKE_PBS_HOME/jobs/$seq" ] || return 1
+	job_seq="$seq"
+	read -r submit start end exit name owner < "$FAKE_PBS_HOME/jobs/$seq"
+}
+
+# fake_state <now>: state of the job read by fake_job
+fake_state() {
+	if [ "$1" -lt "$start" ]; then
+		echo Q
+	elif [ "$1" -lt "$end" ]; then
+		echo R
+	else
+		echo C
+	fi
+}
+
+# fake_duration <ms>: hh:mm:ss
+fake_duration() {
+	local s=$(($1 / 1000))
+	printf '%02d:%02d:%02d' $((s / 3600)) $((s / 60 % 60)) $((s % 60))
+}
+
+# fake_date <ms>: timestamp as printed by tracejob
+fake_date() {
+	date -d "@$(($1 / 1000))" '+%m/%d/%Y %H:%M:%S'
+}
@@ -0,0 +1,17 @@
+#!/bin/bash
+# Runs the load test of the agent against the fake PBS commands in bin.
+#
+# Build first: "mvn install -DskipTests" in the plug-in, then "mvn package" in
+# benchmarks. The simulated cluster is set up with the FAKE_PBS_* variables
+# described in bin/fake-pbs.sh, the load test with -Dloadtest.* options
+# described in LoadTest, e.g.
+#
+#   FAKE_PBS_SLOTS=50 FAKE_PBS_LATENCY_MS=200 loadtest/loadtest.sh -Dloadtest.jobs=2000 -Dloadtest.concurrency=500
+
+dir=$(cd "$(dirname "$0")" && pwd)
+export FAKE_PBS_HOME=${FAKE_PBS_HOME:-$(mktemp -d -t fake-pbs.XXXXXX)}
+export PATH="$dir/bin:$PATH"
+echo "Fake PBS cluster in $FAKE_PBS_HOME"
+# the fake cluster writes no server logs, so jobs are followed with qstat and tracejob
+exec java -Djenkins.plugins.pbs.util.ServerLogIndex.home="$FAKE_PBS_HOME" "$@" \
+	-cp "$dir/../target/benchmarks.jar" jenkins.plugins.pbs.loadtest.LoadTest
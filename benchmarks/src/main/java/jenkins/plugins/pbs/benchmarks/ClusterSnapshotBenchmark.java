@@ -0,0 +1,126 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.benchmarks;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import jenkins.plugins.pbs.model.ClusterSnapshot;
+import jenkins.plugins.pbs.model.ClusterSnapshotDelta;
+import jenkins.plugins.pbs.model.JobSummary;
+import jenkins.plugins.pbs.util.QstatParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Building the queue and job snapshot shown by the widget: parsing qstat on
+ * the slave, diffing against the previous snapshot, applying the delta on
+ * the master and grouping the jobs by queue for the page.
+ * @since 0.3
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClusterSnapshotBenchmark {
+
+	private static final int QUEUES = 10;
+
+	/**
+	 * Jobs on the server; every 100th job changes between snapshots.
+	 */
+	@Param({ "10", "1000", "10000", "100000" })
+	public int jobs;
+
+	private String qstatQueues;
+	private String qstatFull;
+	private ClusterSnapshot previous;
+	private ClusterSnapshot current;
+	private ClusterSnapshotDelta delta;
+
+	@Setup
+	public void setUp() {
+		qstatQueues = Samples.qstatQueues(QUEUES);
+		qstatFull = Samples.qstatFull(jobs, QUEUES);
+		previous = Samples.snapshot(jobs, QUEUES, 1L, 0);
+		current = Samples.snapshot(jobs, QUEUES, 2L, 100);
+		delta = current.diff(previous);
+	}
+
+	/**
+	 * What <code>GetClusterSnapshot</code> does with the output of qstat.
+	 */
+	@Benchmark
+	public ClusterSnapshot parseQstat() {
+		final List<String> queues = QstatParser.parseQueues(qstatQueues);
+		final Map<String, JobSummary> summaries = new LinkedHashMap<String, JobSummary>();
+		for (Map.Entry<String, Map<String, String>> job : QstatParser.parse(qstatFull).entrySet()) {
+			summaries.put(job.getKey(), JobSummary.fromAttributes(job.getKey(), job.getValue()));
+		}
+		return new ClusterSnapshot(1L, System.currentTimeMillis(), queues, summaries);
+	}
+
+	@Benchmark
+	public boolean sameContent() {
+		return current.sameContent(previous);
+	}
+
+	@Benchmark
+	public ClusterSnapshotDelta diff() {
+		return current.diff(previous);
+	}
+
+	@Benchmark
+	public ClusterSnapshot apply() {
+		return previous.apply(delta);
+	}
+
+	/**
+	 * Rendering the widget on a fresh snapshot, whose jobs are not grouped
+	 * by queue yet.
+	 */
+	@Benchmark
+	public void jobsByQueue(Blackhole blackhole) {
+		final ClusterSnapshot snapshot = current.withTimestamp(System.currentTimeMillis());
+		for (String queue : snapshot.getQueues()) {
+			blackhole.consume(snapshot.getJobs(queue));
+		}
+	}
+
+}
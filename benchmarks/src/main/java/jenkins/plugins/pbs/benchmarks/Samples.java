@@ -0,0 +1,167 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.benchmarks;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import jenkins.plugins.pbs.model.ClusterSnapshot;
+import jenkins.plugins.pbs.model.JobSummary;
+
+/**
+ * Synthetic outputs of the PBS commands, shaped like those of Torque.
+ * @since 0.3
+ */
+final class Samples {
+
+	static final String JOB_ID = "128.localhost";
+
+	private static final String HEADER = "Job: " + JOB_ID + "\n"
+			+ "\n"
+			+ "11/10/2013 12:52:40  S    enqueuing into batch, state 1 hop 1\n"
+			+ "11/10/2013 12:52:40  S    Job Queued at request of kinow@localhost, owner =\n"
+			+ "                          kinow@localhost, job name = jenkins_job, queue =\n"
+			+ "                          batch\n"
+			+ "11/10/2013 12:52:40  L    Job Run\n"
+			+ "11/10/2013 12:52:40  S    Job Run at request of Scheduler@localhost\n"
+			+ "11/10/2013 12:52:40  A    user=kinow group=kinow jobname=jenkins_job queue=batch\n"
+			+ "                          ctime=1384095160 qtime=1384095160 etime=1384095160\n"
+			+ "                          start=1384095160 owner=kinow@localhost\n"
+			+ "                          exec_host=chuva/0 Resource_List.neednodes=1\n"
+			+ "                          Resource_List.nodect=1 Resource_List.nodes=1\n"
+			+ "                          Resource_List.walltime=240:00:00 \n";
+
+	private static final String[] RUNNING = {
+			"11/10/2013 12:53:%02d  S    Job Modified at request of Scheduler@localhost\n",
+			"11/10/2013 12:53:%02d  M    task 1 still running, sid=4801\n",
+			"11/10/2013 12:53:%02d  S    Not sending email: User does not want mail of this\n"
+					+ "                          type.\n" };
+
+	private static final String END = "11/10/2013 12:54:40  S    Exit_status=0 resources_used.cput=00:00:00\n"
+			+ "                          resources_used.mem=3196kb resources_used.vmem=31756kb\n"
+			+ "                          resources_used.walltime=00:01:00\n"
+			+ "11/10/2013 12:54:40  S    dequeuing from batch, state COMPLETE\n"
+			+ "11/10/2013 12:54:40  M    obit sent to server\n"
+			+ "11/10/2013 12:54:40  A    user=kinow group=kinow jobname=jenkins_job queue=batch\n"
+			+ "                          ctime=1384095160 qtime=1384095160 etime=1384095160\n"
+			+ "                          start=1384095160 owner=kinow@localhost\n"
+			+ "                          Resource_List.walltime=240:00:00 session=4801\n"
+			+ "                          end=1384095280 Exit_status=0\n"
+			+ "                          resources_used.cput=00:00:00 resources_used.mem=3196kb\n"
+			+ "                          resources_used.vmem=31756kb\n"
+			+ "                          resources_used.walltime=00:01:00\n";
+
+	private Samples() {
+	}
+
+	/**
+	 * @param size approximate size of the output, in characters
+	 * @param finished whether the output ends with the records of the job end
+	 * @return output of tracejob for a job that logged many records
+	 */
+	static String traceJob(int size, boolean finished) {
+		final StringBuilder out = new StringBuilder(size + END.length());
+		out.append(HEADER);
+		int i = 0;
+		while (out.length() < size - (finished ? END.length() : 0)) {
+			out.append(String.format(RUNNING[i % RUNNING.length], i % 60));
+			i++;
+		}
+		if (finished) {
+			out.append(END);
+		}
+		return out.toString();
+	}
+
+	/**
+	 * @param queues number of queues
+	 * @return output of <code>qstat -Q</code>
+	 */
+	static String qstatQueues(int queues) {
+		final StringBuilder out = new StringBuilder();
+		out.append("Queue              Max    Tot   Ena   Str   Que   Run   Hld   Wat   Trn   Ext T   Cpt\n");
+		out.append("----------------   ---   ----    --    --   ---   ---   ---   ---   ---   --- -   ---\n");
+		for (int q = 0; q < queues; q++) {
+			out.append(String.format("%-16s     0      0   yes   yes     0     0     0     0     0     0 E     0%n", queue(q)));
+		}
+		return out.toString();
+	}
+
+	/**
+	 * @param jobs number of jobs
+	 * @param queues number of queues the jobs are spread over
+	 * @return output of <code>qstat -f</code>
+	 */
+	static String qstatFull(int jobs, int queues) {
+		final StringBuilder out = new StringBuilder(jobs * 640);
+		for (int j = 0; j < jobs; j++) {
+			out.append("Job Id: ").append(j).append(".localhost\n");
+			out.append("    Job_Name = jenkins_job_").append(j).append('\n');
+			out.append("    Job_Owner = kinow@localhost\n");
+			out.append("    job_state = ").append(j % 3 == 0 ? 'R' : 'Q').append('\n');
+			out.append("    queue = ").append(queue(j % queues)).append('\n');
+			out.append("    server = localhost\n");
+			out.append("    Checkpoint = u\n");
+			out.append("    ctime = Sun Nov 10 12:52:40 2013\n");
+			out.append("    Error_Path = localhost:/tmp/jenkins/err\n");
+			out.append("    Output_Path = localhost:/tmp/jenkins/out\n");
+			out.append("    Resource_List.nodect = 1\n");
+			out.append("    Resource_List.nodes = 1\n");
+			out.append("    Resource_List.walltime = 240:00:00\n");
+			out.append("    Variable_List = PBS_O_HOME=/home/kinow,PBS_O_LANG=en_US.UTF-8,\n");
+			out.append("\tPBS_O_LOGNAME=kinow,PBS_O_PATH=/usr/local/bin:/usr/bin:/bin,\n");
+			out.append("\tPBS_O_SHELL=/bin/bash,PBS_O_WORKDIR=/tmp/jenkins\n");
+			out.append('\n');
+		}
+		return out.toString();
+	}
+
+	/**
+	 * @param jobs number of jobs
+	 * @param queues number of queues the jobs are spread over
+	 * @param version snapshot version
+	 * @param changeEvery every n-th job gets another state, 0 for none
+	 * @return snapshot
+	 */
+	static ClusterSnapshot snapshot(int jobs, int queues, long version, int changeEvery) {
+		final List<String> names = new ArrayList<String>(queues);
+		for (int q = 0; q < queues; q++) {
+			names.add(queue(q));
+		}
+		final Map<String, JobSummary> summaries = new LinkedHashMap<String, JobSummary>();
+		for (int j = 0; j < jobs; j++) {
+			final String id = j + ".localhost";
+			final String state = changeEvery > 0 && j % changeEvery == 0 ? "C" : "R";
+			summaries.put(id, new JobSummary(id, "jenkins_job_" + j, "kinow@localhost", state, queue(j % queues)));
+		}
+		return new ClusterSnapshot(version, System.currentTimeMillis(), names, summaries);
+	}
+
+	private static String queue(int q) {
+		return "queue" + q;
+	}
+
+}
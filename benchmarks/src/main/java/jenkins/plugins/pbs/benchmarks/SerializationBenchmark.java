@@ -0,0 +1,146 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import jenkins.plugins.pbs.model.ClusterSnapshot;
+import jenkins.plugins.pbs.model.ClusterSnapshotDelta;
+import jenkins.plugins.pbs.model.PBSJob;
+import jenkins.plugins.pbs.model.TraceJobEvent;
+import jenkins.plugins.pbs.util.TraceJobParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Java serialization of what crosses the remoting channel between the slave
+ * and the master: snapshot deltas, full and incremental, and the result of
+ * a tracejob call.
+ * @since 0.3
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+	@State(Scope.Thread)
+	public static class Snapshots {
+
+		@Param({ "10", "1000", "10000", "100000" })
+		public int jobs;
+
+		private ClusterSnapshotDelta full;
+		private ClusterSnapshotDelta incremental;
+		private byte[] fullBytes;
+
+		@Setup
+		public void setUp() throws IOException {
+			final ClusterSnapshot previous = Samples.snapshot(jobs, 10, 1L, 0);
+			final ClusterSnapshot current = Samples.snapshot(jobs, 10, 2L, 100);
+			full = current.diff(null);
+			incremental = current.diff(previous);
+			fullBytes = serialize(full);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Jobs {
+
+		@Param({ "1024", "1048576", "52428800" })
+		public int size;
+
+		private PBSJob job;
+		private byte[] bytes;
+
+		@Setup
+		public void setUp() throws IOException {
+			final String output = Samples.traceJob(size, true);
+			final TraceJobParser parser = new TraceJobParser();
+			parser.parse(output);
+			job = new PBSJob(Samples.JOB_ID, output, "", new ArrayList<TraceJobEvent>(parser.getEvents()));
+			bytes = serialize(job);
+		}
+	}
+
+	@Benchmark
+	public byte[] writeFullDelta(Snapshots state) throws IOException {
+		return serialize(state.full);
+	}
+
+	@Benchmark
+	public byte[] writeIncrementalDelta(Snapshots state) throws IOException {
+		return serialize(state.incremental);
+	}
+
+	@Benchmark
+	public Object readFullDelta(Snapshots state) throws IOException, ClassNotFoundException {
+		return deserialize(state.fullBytes);
+	}
+
+	@Benchmark
+	public byte[] writePBSJob(Jobs state) throws IOException {
+		return serialize(state.job);
+	}
+
+	@Benchmark
+	public Object readPBSJob(Jobs state) throws IOException, ClassNotFoundException {
+		return deserialize(state.bytes);
+	}
+
+	static byte[] serialize(Object object) throws IOException {
+		final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		final ObjectOutputStream out = new ObjectOutputStream(buffer);
+		out.writeObject(object);
+		out.close();
+		return buffer.toByteArray();
+	}
+
+	static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+		final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+		try {
+			return in.readObject();
+		} finally {
+			in.close();
+		}
+	}
+
+}
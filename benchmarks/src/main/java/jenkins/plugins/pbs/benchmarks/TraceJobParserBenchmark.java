@@ -0,0 +1,124 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import jenkins.plugins.pbs.util.TraceJobParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reading the status of a job from the output of tracejob, as done on every
+ * poll: the regular expressions used by <code>Qsub</code> up to 0.2 against
+ * the single pass {@link TraceJobParser}.
+ * @since 0.3
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TraceJobParserBenchmark {
+
+	private static final Pattern JOB_STATUS_REGEX = Pattern.compile(
+			"(job_substate_(.*)$|exit_status=|dequeuing [^,]+, state (.*)$)", Pattern.MULTILINE | Pattern.CASE_INSENSITIVE);
+
+	private static final Pattern JOB_SUBSTATUS_REGEX = Pattern.compile("exit_status=([0-9]+)",
+			Pattern.MULTILINE | Pattern.CASE_INSENSITIVE);
+
+	/**
+	 * Size of the output, from 1 KB to 50 MB.
+	 */
+	@Param({ "1024", "65536", "1048576", "52428800" })
+	public int size;
+
+	@Param({ "true", "false" })
+	public boolean finished;
+
+	private String output;
+	private TraceJobParser parsed;
+
+	@Setup
+	public void setUp() {
+		output = Samples.traceJob(size, finished);
+		parsed = new TraceJobParser();
+		parsed.parse(output);
+	}
+
+	/**
+	 * The regular expressions of <code>Qsub</code> 0.2.
+	 */
+	@Benchmark
+	public String regex() {
+		Matcher matcher = JOB_STATUS_REGEX.matcher(output);
+		if (!matcher.find()) {
+			return null;
+		}
+		String state = matcher.group(2);
+		if (state == null || state.trim().length() == 0) {
+			state = matcher.group(1);
+		}
+		state = state.toLowerCase();
+		if (state.contains("complete") || state.contains("exit_status")) {
+			matcher = JOB_SUBSTATUS_REGEX.matcher(output);
+			if (matcher.find()) {
+				state = matcher.group(1);
+			}
+		}
+		return state;
+	}
+
+	/**
+	 * First poll: the whole output is parsed.
+	 */
+	@Benchmark
+	public TraceJobParser parse() {
+		final TraceJobParser parser = new TraceJobParser();
+		parser.parse(output);
+		return parser;
+	}
+
+	/**
+	 * Later polls with no new records: the parser resumes where it stopped.
+	 */
+	@Benchmark
+	public int parseUnchanged() {
+		return parsed.parse(output).size();
+	}
+
+}
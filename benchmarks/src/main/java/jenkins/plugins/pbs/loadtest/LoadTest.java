@@ -0,0 +1,318 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.loadtest;
+
+import hudson.model.StreamBuildListener;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jenkins.plugins.pbs.model.ClusterSnapshotDelta;
+import jenkins.plugins.pbs.model.CommandStat;
+import jenkins.plugins.pbs.model.PBSJobResult;
+import jenkins.plugins.pbs.model.SubmitLimits;
+import jenkins.plugins.pbs.monitor.JobStatusMonitor;
+import jenkins.plugins.pbs.monitor.PollSchedule;
+import jenkins.plugins.pbs.tasks.GetClusterSnapshot;
+import jenkins.plugins.pbs.tasks.Qsub;
+import jenkins.plugins.pbs.tasks.TraceJob;
+import jenkins.plugins.pbs.util.CommandStats;
+
+/**
+ * Load test of the agent side of the plug-in, against the fake PBS commands
+ * of <code>loadtest/bin</code>; run it with <code>loadtest/loadtest.sh</code>.
+ *
+ * <p>Runs many {@link Qsub}s at once, as concurrent builds would, while
+ * refreshing the cluster snapshot like a {@link jenkins.plugins.pbs.slaves.PBSSlaveComputer}
+ * and opening the trace of some of the jobs like the job page does. Reports
+ * the submit throughput, how long after their end the jobs were seen
+ * finished, the commands run per job, and the CPU and heap used.</p>
+ *
+ * <p>Settings are system properties: <code>loadtest.jobs</code>,
+ * <code>loadtest.concurrency</code>, <code>loadtest.span</code>,
+ * <code>loadtest.minSpan</code>, <code>loadtest.maxSpan</code>,
+ * <code>loadtest.snapshotPeriod</code> (ms, 0 for none),
+ * <code>loadtest.traceEvery</code> (every n-th job, 0 for none) and the
+ * submission limits of the slave, <code>loadtest.submitRate</code>,
+ * <code>loadtest.submitConcurrency</code> and
+ * <code>loadtest.submitBacklog</code> (0 for no limit).</p>
+ * @since 0.3
+ */
+public final class LoadTest {
+
+	private static final String SUBMITTED = "PBS Job submitted: ";
+
+	private final int jobs = Integer.getInteger("loadtest.jobs", 500);
+	private final int concurrency = Integer.getInteger("loadtest.concurrency", 100);
+	private final PollSchedule schedule = new PollSchedule(Long.getLong("loadtest.span", 2000L),
+			Long.getLong("loadtest.minSpan", 500L), Long.getLong("loadtest.maxSpan", 10000L));
+	private final long snapshotPeriod = Long.getLong("loadtest.snapshotPeriod", 5000L);
+	private final int traceEvery = Integer.getInteger("loadtest.traceEvery", 10);
+	private final SubmitLimits limits = new SubmitLimits(Double.parseDouble(System.getProperty("loadtest.submitRate", "0")),
+			Integer.getInteger("loadtest.submitConcurrency", 0), Integer.getInteger("loadtest.submitBacklog", 0));
+	private final Path home;
+	private final Path work;
+	private final AtomicLong snapshots = new AtomicLong();
+	private final AtomicLong snapshotErrors = new AtomicLong();
+	private final AtomicLong traces = new AtomicLong();
+	private final AtomicLong traceErrors = new AtomicLong();
+	private volatile long peakHeap;
+
+	private LoadTest(Path home) throws IOException {
+		this.home = home;
+		this.work = Files.createDirectories(home.resolve("work"));
+	}
+
+	public static void main(String[] args) throws Exception {
+		final String home = System.getenv("FAKE_PBS_HOME");
+		if (home == null) {
+			System.err.println("FAKE_PBS_HOME is not set, run loadtest/loadtest.sh");
+			System.exit(2);
+		}
+		System.exit(new LoadTest(Paths.get(home)).run() ? 0 : 1);
+	}
+
+	private boolean run() throws Exception {
+		System.out.println(String.format("Running %d jobs, %d at once", jobs, concurrency));
+		final ScheduledExecutorService background = Executors.newScheduledThreadPool(2);
+		background.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				peakHeap = Math.max(peakHeap, ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+			}
+		}, 0L, 200L, TimeUnit.MILLISECONDS);
+		if (snapshotPeriod > 0L) {
+			background.scheduleWithFixedDelay(new Runnable() {
+				private long version = -1L;
+				public void run() {
+					try {
+						final ClusterSnapshotDelta delta = new GetClusterSnapshot(version).call();
+						version = delta.getVersion();
+						snapshots.incrementAndGet();
+					} catch (RuntimeException e) {
+						snapshotErrors.incrementAndGet();
+					}
+				}
+			}, 0L, snapshotPeriod, TimeUnit.MILLISECONDS);
+		}
+
+		final long cpuStart = getProcessCpuTime();
+		final long start = System.currentTimeMillis();
+		final ExecutorService builds = Executors.newFixedThreadPool(concurrency);
+		final List<Future<JobRecord>> futures = new ArrayList<Future<JobRecord>>(jobs);
+		for (int i = 0; i < jobs; i++) {
+			final int index = i;
+			futures.add(builds.submit(new Callable<JobRecord>() {
+				public JobRecord call() {
+					return runJob(index);
+				}
+			}));
+		}
+		final List<JobRecord> records = new ArrayList<JobRecord>(jobs);
+		for (Future<JobRecord> future : futures) {
+			records.add(future.get());
+		}
+		final long elapsed = System.currentTimeMillis() - start;
+		final long cpu = getProcessCpuTime() - cpuStart;
+		builds.shutdown();
+		background.shutdownNow();
+		return report(records, elapsed, cpu);
+	}
+
+	private JobRecord runJob(int index) {
+		final JobRecord record = new JobRecord();
+		final JobLog log = new JobLog(record);
+		try {
+			final PBSJobResult result = new Qsub("echo load test\n", 1, schedule, "", "", work.toString(),
+					new HashMap<String, String>(), 0L, null, limits, null, null, new StreamBuildListener(log)).call();
+			record.detected = System.currentTimeMillis();
+			record.unknown = result.isUnknown();
+			record.success = result.isSuccess();
+			record.end = readEnd(record.jobId);
+		} catch (RuntimeException e) {
+			record.error = e.toString();
+		}
+		if (record.jobId != null && traceEvery > 0 && index % traceEvery == 0) {
+			try {
+				new TraceJob(record.jobId, 1).call();
+				traces.incrementAndGet();
+			} catch (Throwable e) {
+				traceErrors.incrementAndGet();
+			}
+		}
+		return record;
+	}
+
+	/**
+	 * @return when the fake cluster ended the job, or -1
+	 */
+	private long readEnd(String jobId) {
+		try {
+			final String seq = jobId.substring(0, jobId.indexOf('.'));
+			final String line = Files.readAllLines(home.resolve("jobs").resolve(seq), Charset.defaultCharset()).get(0);
+			return Long.parseLong(line.split(" ")[2]);
+		} catch (IOException e) {
+			return -1L;
+		} catch (RuntimeException e) {
+			return -1L;
+		}
+	}
+
+	private boolean report(List<JobRecord> records, long elapsed, long cpu) {
+		long firstSubmit = Long.MAX_VALUE;
+		long lastSubmit = 0L;
+		int submitted = 0;
+		int succeeded = 0;
+		int unknown = 0;
+		int errors = 0;
+		final List<Long> latencies = new ArrayList<Long>(records.size());
+		for (JobRecord record : records) {
+			if (record.submitted > 0L) {
+				submitted++;
+				firstSubmit = Math.min(firstSubmit, record.submitted);
+				lastSubmit = Math.max(lastSubmit, record.submitted);
+			}
+			if (record.error != null) {
+				errors++;
+			} else if (record.unknown) {
+				unknown++;
+			} else {
+				if (record.success) {
+					succeeded++;
+				}
+				if (record.end > 0L) {
+					latencies.add(Math.max(0L, record.detected - record.end));
+				}
+			}
+		}
+		Collections.sort(latencies);
+		final double submitSeconds = Math.max(1L, lastSubmit - firstSubmit) / 1000d;
+
+		System.out.println();
+		System.out.println(String.format("Jobs: %d submitted, %d succeeded, %d unknown, %d errors, in %.1f s",
+				submitted, succeeded, unknown, errors, elapsed / 1000d));
+		System.out.println(String.format("Submit throughput: %.1f jobs/s", submitted / submitSeconds));
+		System.out.println(String.format("Completion detection latency (ms): mean %d, p50 %d, p95 %d, p99 %d, max %d",
+				mean(latencies), percentile(latencies, 0.5d), percentile(latencies, 0.95d), percentile(latencies, 0.99d),
+				latencies.isEmpty() ? 0L : latencies.get(latencies.size() - 1)));
+		final JobStatusMonitor monitor = JobStatusMonitor.get();
+		System.out.println(String.format("Status monitor: %d ticks, %.1f polls per job, %d qstat and %d tracejob calls",
+				monitor.getTicks(), monitor.getCompletedJobs() == 0L ? 0d
+						: (double) monitor.getCompletedJobPolls() / monitor.getCompletedJobs(),
+				monitor.getQstatCalls(), monitor.getTraceJobCalls()));
+		System.out.println(String.format("Snapshots: %d, %d failed; traces: %d, %d failed",
+				snapshots.get(), snapshotErrors.get(), traces.get(), traceErrors.get()));
+		System.out.println();
+		System.out.println(String.format("%-12s %8s %9s %7s %10s %10s %10s", "Command", "Calls", "Per job", "Errors",
+				"Mean (ms)", "p95 (ms)", "Max (ms)"));
+		for (CommandStat stat : CommandStats.get().snapshot()) {
+			System.out.println(String.format("%-12s %8d %9.2f %7d %10.1f %10.1f %10.1f", stat.getCommand(),
+					stat.getCount(), (double) stat.getCount() / Math.max(1, records.size()), stat.getErrors(),
+					stat.getMeanMillis(), stat.getP95Millis(), stat.getMaxMillis()));
+		}
+		System.out.println();
+		System.out.println(String.format("Agent CPU: %s, heap peak: %d MB",
+				cpu < 0L ? "unavailable" : String.format("%.1f s (%.0f%% of one core)", cpu / 1e9d, cpu / 1e4d / elapsed),
+				peakHeap / (1024 * 1024)));
+		return errors == 0 && unknown == 0;
+	}
+
+	private static long getProcessCpuTime() {
+		final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if (os instanceof com.sun.management.OperatingSystemMXBean) {
+			return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+		}
+		return -1L;
+	}
+
+	private static long mean(List<Long> values) {
+		if (values.isEmpty()) {
+			return 0L;
+		}
+		long total = 0L;
+		for (Long value : values) {
+			total += value;
+		}
+		return total / values.size();
+	}
+
+	private static long percentile(List<Long> sorted, double fraction) {
+		if (sorted.isEmpty()) {
+			return 0L;
+		}
+		return sorted.get((int) Math.min(sorted.size() - 1, Math.ceil(fraction * sorted.size()) - 1));
+	}
+
+	private static final class JobRecord {
+		private String jobId;
+		private long submitted;
+		private long end = -1L;
+		private long detected;
+		private boolean unknown;
+		private boolean success;
+		private String error;
+	}
+
+	/**
+	 * Build log of a job, only read for the time of the submission.
+	 */
+	private static final class JobLog extends OutputStream {
+		private final JobRecord record;
+		private final StringBuilder line = new StringBuilder();
+		JobLog(JobRecord record) {
+			this.record = record;
+		}
+		@Override
+		public void write(int b) {
+			if (b != '\n') {
+				if (line.length() < 256) {
+					line.append((char) b);
+				}
+				return;
+			}
+			if (line.indexOf(SUBMITTED) == 0) {
+				record.submitted = System.currentTimeMillis();
+				record.jobId = line.substring(SUBMITTED.length()).trim();
+			}
+			line.setLength(0);
+		}
+	}
+
+}
@@ -27,16 +27,21 @@ import hudson.Extension;
 import hudson.model.RootAction;
 import hudson.model.Computer;
 import hudson.model.View;
+import hudson.remoting.VirtualChannel;
 
 import java.io.IOException;
+import java.util.concurrent.Callable;
 
 import javax.servlet.ServletException;
 
 import jenkins.model.Jenkins;
 import jenkins.plugins.pbs.PBSBuilder.PBSBuilderDescriptor;
-import jenkins.plugins.pbs.model.PBSJob;
+import jenkins.plugins.pbs.model.TracePage;
 import jenkins.plugins.pbs.slaves.PBSSlaveComputer;
-import jenkins.plugins.pbs.tasks.TraceJob;
+import jenkins.plugins.pbs.tasks.GetTracePage;
+import jenkins.plugins.pbs.util.TraceJobSpool;
+import jenkins.plugins.pbs.util.TracePageCache;
+import net.sf.json.JSONObject;
 
 import org.apache.commons.lang.StringUtils;
 import org.kohsuke.stapler.StaplerRequest;
@@ -50,6 +55,18 @@ import org.kohsuke.stapler.StaplerResponse;
 @Extension
 public class DisplayPBSJobAction implements RootAction {
 
+	/**
+	 * Bytes of tracejob output returned per request, unless asked otherwise.
+	 */
+	static final int DEFAULT_PAGE_SIZE = 64 * 1024;
+
+	/**
+	 * Most days of logs a request may search, unless more are configured.
+	 */
+	static final int MAX_NUMBER_OF_DAYS = Integer.getInteger(DisplayPBSJobAction.class.getName() + ".maxNumberOfDays", 31);
+
+	private static final TracePageCache CACHE = new TracePageCache(512, 16L * 1024L * 1024L);
+
 	public String getIconFileName() {
 		return null;
 	}
@@ -66,38 +83,113 @@ public class DisplayPBSJobAction implements RootAction {
 		return Jenkins.getInstance().getPrimaryView();
 	}
 	
+	/**
+	 * Renders the page right away; the tracejob output is loaded in pages by
+	 * {@link #doPage(StaplerRequest, StaplerResponse)}.
+	 */
 	public void doIndex(StaplerRequest request, StaplerResponse response) throws ServletException, IOException {
-		String jobId = request.getParameter("jobId");
-		String sNumberOfDays = request.getParameter("numberOfDays");
-		int numberOfDays = 1;
-		if (StringUtils.isNotBlank(sNumberOfDays)) {
-			numberOfDays = Integer.parseInt(sNumberOfDays);
-		} else {
-			PBSBuilderDescriptor descriptor = (PBSBuilderDescriptor) Jenkins.getInstance().getDescriptor(PBSBuilder.class);
-			numberOfDays = descriptor.getNumberOfDays();
+		final String jobId = request.getParameter("jobId");
+		final String slaveName = request.getParameter("slaveName");
+		getComputer(slaveName);
+		request.setAttribute("jobId", jobId);
+		request.setAttribute("slaveName", slaveName);
+		request.setAttribute("numberOfDays", getNumberOfDays(request));
+		request.setAttribute("pageSize", DEFAULT_PAGE_SIZE);
+		request.getView(this, "index.jelly").forward(request, response);
+	}
+
+	/**
+	 * Returns a page of the tracejob output of a job as JSON.
+	 */
+	public void doPage(StaplerRequest request, StaplerResponse response) throws ServletException, IOException {
+		final String jobId = StringUtils.trimToNull(request.getParameter("jobId"));
+		if (jobId == null) {
+			response.sendError(400, "Missing jobId");
+			return;
 		}
-		String slaveName = request.getParameter("slaveName");
-		
-		Computer computer = Jenkins.getInstance().getComputer(slaveName);
-		if (!(computer instanceof PBSSlaveComputer)) {
-			throw new RuntimeException(String.format("%s is not a PBS Slave!", computer.getName()));
+		final PBSSlaveComputer computer = getComputer(request.getParameter("slaveName"));
+		final VirtualChannel channel = computer.getChannel();
+		if (channel == null) {
+			response.sendError(503, String.format("%s is offline", computer.getName()));
+			return;
 		}
-		PBSSlaveComputer pbsSlaveComputer = (PBSSlaveComputer) computer;
-		
-		TraceJob traceJob = new TraceJob(jobId, numberOfDays);
-		
-		PBSJob pbsJob = null;
+		final boolean error = "err".equals(request.getParameter("stream"));
+		final long offset = parseLong(request.getParameter("offset"), 0L);
+		final int length = (int) Math.min(parseLong(request.getParameter("length"), DEFAULT_PAGE_SIZE),
+				TraceJobSpool.MAX_PAGE_SIZE);
+		final int numberOfDays = getNumberOfDays(request);
+		final String key = String.format("%s/%s/%d/%s/%d/%d", computer.getName(), jobId, numberOfDays,
+				error ? "err" : "out", offset, length);
+		final TracePage page;
 		try {
-			pbsJob = pbsSlaveComputer.getChannel().call(traceJob);
-			
-			request.setAttribute("output", pbsJob.getOut());
-			request.setAttribute("error", pbsJob.getErr());
-			request.getView(this, "index.jelly").forward(request, response);
+			page = CACHE.get(key, new Callable<TracePage>() {
+				public TracePage call() throws IOException, InterruptedException {
+					return channel.call(new GetTracePage(jobId, numberOfDays, error, offset, length));
+				}
+			});
 		} catch (InterruptedException e) {
-			e.printStackTrace();
-		} catch (Throwable e) {
-			e.printStackTrace();
+			response.sendError(503, "Interrupted");
+			return;
 		}
+		final JSONObject json = new JSONObject();
+		json.element("offset", page.getOffset());
+		json.element("nextOffset", page.getNextOffset());
+		json.element("size", page.getSize());
+		json.element("eof", page.isEof());
+		json.element("timestamp", page.getTimestamp());
+		json.element("finished", page.isFinished());
+		json.element("text", page.getText());
+		response.setContentType("application/json;charset=UTF-8");
+		json.write(response.getWriter());
 	}
-	
+
+	/**
+	 * Returns the statistics of the tracejob page cache as JSON.
+	 */
+	public void doCacheStats(StaplerRequest request, StaplerResponse response) throws IOException {
+		final JSONObject json = new JSONObject();
+		json.element("size", CACHE.getSize());
+		json.element("chars", CACHE.getChars());
+		json.element("hits", CACHE.getHits());
+		json.element("misses", CACHE.getMisses());
+		json.element("coalesced", CACHE.getCoalesced());
+		json.element("evictions", CACHE.getEvictions());
+		response.setContentType("application/json;charset=UTF-8");
+		json.write(response.getWriter());
+	}
+
+	private static PBSSlaveComputer getComputer(String slaveName) {
+		final Computer computer = StringUtils.isBlank(slaveName) ? null : Jenkins.getInstance().getComputer(slaveName);
+		if (!(computer instanceof PBSSlaveComputer)) {
+			throw new RuntimeException(String.format("%s is not a PBS Slave!", slaveName));
+		}
+		return (PBSSlaveComputer) computer;
+	}
+
+	private static int getNumberOfDays(StaplerRequest request) {
+		final PBSBuilderDescriptor descriptor = (PBSBuilderDescriptor) Jenkins.getInstance().getDescriptor(PBSBuilder.class);
+		final int configured = descriptor.getNumberOfDays();
+		final String sNumberOfDays = request.getParameter("numberOfDays");
+		if (StringUtils.isBlank(sNumberOfDays)) {
+			return configured;
+		}
+		try {
+			// every day is read by tracejob on the agent, and keys its own cached pages
+			return Math.max(1, Math.min(Integer.parseInt(sNumberOfDays.trim()), Math.max(configured, MAX_NUMBER_OF_DAYS)));
+		} catch (NumberFormatException e) {
+			return configured;
+		}
+	}
+
+	private static long parseLong(String value, long defaultValue) {
+		if (StringUtils.isBlank(value)) {
+			return defaultValue;
+		}
+		try {
+			return Math.max(0L, Long.parseLong(value));
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
 }
@@ -0,0 +1,80 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs;
+
+import hudson.model.Action;
+
+import java.util.List;
+
+import jenkins.plugins.pbs.model.BatchJobResult;
+
+/**
+ * Shows the scripts of a batch submission on the build page, with the time
+ * taken to submit each of them.
+ * @since 0.3
+ */
+public class PBSBatchAction implements Action {
+
+	private final List<BatchJobResult> results;
+	private final long totalSubmitTime;
+
+	public PBSBatchAction(List<BatchJobResult> results, long totalSubmitTime) {
+		this.results = results;
+		this.totalSubmitTime = totalSubmitTime;
+	}
+
+	public String getIconFileName() {
+		return null;
+	}
+
+	public String getDisplayName() {
+		return "PBS batch";
+	}
+
+	public String getUrlName() {
+		return null;
+	}
+
+	public List<BatchJobResult> getResults() {
+		return results;
+	}
+
+	/**
+	 * @return time taken by the remote call that submitted every script, in ms
+	 */
+	public long getTotalSubmitTime() {
+		return totalSubmitTime;
+	}
+
+	public int getSucceeded() {
+		int succeeded = 0;
+		for (BatchJobResult result : results) {
+			if (result.isSuccess()) {
+				succeeded++;
+			}
+		}
+		return succeeded;
+	}
+
+}
@@ -24,22 +24,48 @@
 package jenkins.plugins.pbs;
 
 import hudson.AbortException;
+import hudson.EnvVars;
 import hudson.Extension;
+import hudson.FilePath;
 import hudson.Launcher;
+import hudson.Util;
+import hudson.model.Action;
 import hudson.model.BuildListener;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.Computer;
+import hudson.model.Result;
+import hudson.remoting.Callable;
+import hudson.remoting.VirtualChannel;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.Builder;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
 
+import jenkins.plugins.pbs.model.ArrayRange;
+import jenkins.plugins.pbs.model.BatchJobResult;
+import jenkins.plugins.pbs.model.JobMetrics;
+import jenkins.plugins.pbs.model.PBSJobResult;
+import jenkins.plugins.pbs.model.Staging;
+import jenkins.plugins.pbs.model.SubmitLimits;
+import jenkins.plugins.pbs.monitor.PollSchedule;
+import jenkins.plugins.pbs.slaves.PBSOrphanSweeper;
+import jenkins.plugins.pbs.slaves.PBSSlave;
 import jenkins.plugins.pbs.slaves.PBSSlaveComputer;
 import jenkins.plugins.pbs.tasks.Qsub;
+import jenkins.plugins.pbs.tasks.QsubArray;
+import jenkins.plugins.pbs.tasks.QsubBatch;
+import jenkins.plugins.pbs.tasks.QsubPacked;
+import jenkins.plugins.pbs.tasks.Reattachable;
+import jenkins.plugins.pbs.tasks.SubmitJob;
 import net.sf.json.JSONObject;
 
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.StaplerRequest;
 
 import com.tupilabs.pbs.util.PBSException;
@@ -53,10 +79,43 @@ public class PBSBuilder extends Builder {
     @Extension
     public static final PBSBuilderDescriptor DESCRIPTOR = new PBSBuilderDescriptor();
 
+    /**
+     * How long a build waits for its PBS slave to reconnect, to re-attach to its job.
+     */
+    private static final int REATTACH_MINUTES = Integer.getInteger(PBSBuilder.class.getName() + ".reattachMinutes", 30);
+
+    private static final long LOST_CONNECTION_GRACE_MS = 10000L;
+
+    private static final long RECONNECT_POLL_MS = 5000L;
+
     /**
      * PBS script.
      */
     private final String script;
+    /**
+     * Job array indices, or <code>null</code> for a single job.
+     */
+    private String arrayRange;
+    /**
+     * Percentage of sub-jobs that must succeed for the build to pass.
+     */
+    private Integer successThreshold;
+    /**
+     * Ant-style patterns of script files in the workspace, submitted in one batch.
+     */
+    private String scriptFiles;
+    /**
+     * Whether the script runs in a pilot job shared with other short scripts.
+     */
+    private boolean packed;
+    /**
+     * Ant-style patterns of workspace files copied to the job before qsub.
+     */
+    private String stageIn;
+    /**
+     * Ant-style patterns of job files copied back to the workspace.
+     */
+    private String stageOut;
 
     @DataBoundConstructor
     public PBSBuilder(String script) {
@@ -68,6 +127,65 @@ public class PBSBuilder extends Builder {
         return script;
     }
 
+    public String getArrayRange() {
+        return arrayRange;
+    }
+
+    @DataBoundSetter
+    public void setArrayRange(String arrayRange) {
+        this.arrayRange = Util.fixEmptyAndTrim(arrayRange);
+    }
+
+    public String getScriptFiles() {
+        return scriptFiles;
+    }
+
+    @DataBoundSetter
+    public void setScriptFiles(String scriptFiles) {
+        this.scriptFiles = Util.fixEmptyAndTrim(scriptFiles);
+    }
+
+    public boolean isPacked() {
+        return packed;
+    }
+
+    @DataBoundSetter
+    public void setPacked(boolean packed) {
+        this.packed = packed;
+    }
+
+    public String getStageIn() {
+        return stageIn;
+    }
+
+    @DataBoundSetter
+    public void setStageIn(String stageIn) {
+        this.stageIn = Util.fixEmptyAndTrim(stageIn);
+    }
+
+    public String getStageOut() {
+        return stageOut;
+    }
+
+    @DataBoundSetter
+    public void setStageOut(String stageOut) {
+        this.stageOut = Util.fixEmptyAndTrim(stageOut);
+    }
+
+    public int getSuccessThreshold() {
+        return successThreshold == null ? 100 : successThreshold;
+    }
+
+    @DataBoundSetter
+    public void setSuccessThreshold(int successThreshold) {
+        this.successThreshold = Math.max(0, Math.min(100, successThreshold));
+    }
+
+    @Override
+    public Action getProjectAction(AbstractProject<?, ?> project) {
+        return new PBSMetricsProjectAction(project);
+    }
+
     /* (non-Javadoc)
      * @see hudson.tasks.BuildStepCompatibilityLayer#perform(hudson.model.AbstractBuild, hudson.Launcher, hudson.model.BuildListener)
      */
@@ -83,21 +201,251 @@ public class PBSBuilder extends Builder {
         final PBSBuilderDescriptor descriptor = (PBSBuilderDescriptor) getDescriptor();
         
         final int numberOfDays = descriptor.getNumberOfDays();
-        final long span = descriptor.getSpan();
+        final PollSchedule schedule = new PollSchedule(descriptor.getSpan(), descriptor.getMinSpan(),
+                descriptor.getMaxSpan());
         final String runUser = descriptor.getRunUser();
         final String logHostname = descriptor.getLogHostname();
         final String logBasename = descriptor.getLogBasename();
+        final PBSSlave node = ((PBSSlaveComputer) Computer.currentComputer()).getNode();
+        final SubmitLimits limits = node == null ? null : node.getSubmitLimits();
+
+        if ((stageIn != null || stageOut != null) && (packed || scriptFiles != null || arrayRange != null)) {
+            throw new AbortException("Staging cannot be combined with packed scripts, script files or job arrays");
+        }
+
+        if (packed) {
+            if (scriptFiles != null || arrayRange != null) {
+                throw new AbortException("Packed scripts cannot be combined with script files or job arrays");
+            }
+            final QsubPacked submit = new QsubPacked(getScript(), numberOfDays, schedule, runUser, logHostname,
+                    logBasename, getEnvironment(build, listener), descriptor.getLogCapBytes(), getLogArchive(build),
+                    limits, descriptor.getPilotTasks(), descriptor.getPilotLifetimeMs(), listener);
+            try {
+                return launcher.getChannel().call(submit).isSuccess();
+            } catch (PBSException e) {
+                listener.fatalError(e.getMessage(), e);
+                throw new AbortException(e.getMessage());
+            }
+        }
 
-        final Qsub submit = new Qsub(getScript(), numberOfDays, span, runUser, logHostname,
-        		logBasename, build.getEnvironment(listener), listener);
+        if (scriptFiles != null) {
+            if (arrayRange != null) {
+                throw new AbortException("Job arrays cannot be combined with script files");
+            }
+            return performBatch(build, launcher, listener, numberOfDays, schedule, runUser, logHostname,
+                    logBasename, limits);
+        }
+
+        // identifies the job of this step in the journal of the slave, to re-attach to it
+        final String token = UUID.randomUUID().toString();
+        if (arrayRange != null) {
+            final ArrayRange range;
+            try {
+                range = ArrayRange.parse(build.getEnvironment(listener).expand(arrayRange),
+                        SubmitJob.PBS_PRO_ARRAY_OPTION.equals(descriptor.getArrayOption()), ArrayRange.MAX_SIZE);
+            } catch (IllegalArgumentException e) {
+                throw new AbortException(e.getMessage());
+            }
+            final QsubArray submit = new QsubArray(getScript(), numberOfDays, schedule, runUser, logHostname,
+                    logBasename, descriptor.getArrayOption(), range, getEnvironment(build, listener),
+                    descriptor.getLogCapBytes(), getLogArchive(build), limits, token, listener);
+            try {
+                return report(build, listener, callReattaching(submit, listener));
+            } catch (PBSException e) {
+                listener.fatalError(e.getMessage(), e);
+                throw new AbortException(e.getMessage());
+            }
+        }
+
+        final Qsub submit = new Qsub(getScript(), numberOfDays, schedule, runUser, logHostname,
+        		logBasename, getEnvironment(build, listener), descriptor.getLogCapBytes(), getLogArchive(build),
+        		limits, getStaging(build, listener), token, listener);
         try {
-            return launcher.getChannel().call(submit);
+            final PBSJobResult result = callReattaching(submit, listener);
+            if (!result.isUnknown()) {
+                build.addAction(new PBSMetricsAction(Collections.singletonList(
+                        JobMetrics.fromEvents(result.getJobId(), result.getEvents()))));
+            }
+            return result.isSuccess();
         } catch (PBSException e) {
             listener.fatalError(e.getMessage(), e);
             throw new AbortException(e.getMessage());
         }
     }
 
+    /**
+     * Run a qsub call on the current PBS slave. If the connection to the
+     * slave is lost, wait for it to come back and call it again: the slave
+     * re-attaches to the job it recorded in its journal instead of
+     * submitting it again.
+     */
+    private static <V, C extends Callable<V, PBSException> & Reattachable> V callReattaching(C submit,
+            BuildListener listener) throws IOException, InterruptedException {
+        final Computer computer = Computer.currentComputer();
+        VirtualChannel channel = computer.getChannel();
+        final long deadline = System.currentTimeMillis() + REATTACH_MINUTES * 60L * 1000L;
+        while (true) {
+            if (channel == null) {
+                throw new AbortException(String.format("PBS Slave %s is offline", computer.getName()));
+            }
+            try {
+                return channel.call(submit);
+            } catch (PBSException e) {
+                throw e;
+            } catch (IOException e) {
+                channel = reconnected(computer, channel, deadline, e, listener);
+            } catch (RuntimeException e) {
+                channel = reconnected(computer, channel, deadline, e, listener);
+            }
+            submit.reattach();
+        }
+    }
+
+    /**
+     * @return the new channel of the slave
+     * @throws E the failure, if the channel did not change, i.e. it was not a
+     * lost connection, or if the slave did not come back in time
+     */
+    private static <E extends Exception> VirtualChannel reconnected(Computer computer, VirtualChannel lost,
+            long deadline, E failure, BuildListener listener) throws E, InterruptedException {
+        final long grace = System.currentTimeMillis() + LOST_CONNECTION_GRACE_MS;
+        boolean waiting = false;
+        while (true) {
+            final VirtualChannel current = computer.getChannel();
+            if (current != null && current != lost) {
+                listener.getLogger().println(String.format("PBS Slave %s is back, re-attaching to the PBS job",
+                        computer.getName()));
+                return current;
+            }
+            final long now = System.currentTimeMillis();
+            if ((current == lost && now > grace) || now > deadline) {
+                throw failure;
+            }
+            if (current == null && !waiting) {
+                listener.getLogger().println(String.format(
+                        "Lost the connection to PBS Slave %s, waiting up to %d minutes for it to come back",
+                        computer.getName(), REATTACH_MINUTES));
+                waiting = true;
+            }
+            Thread.sleep(RECONNECT_POLL_MS);
+        }
+    }
+
+    /**
+     * @return files to stage, or <code>null</code> if none
+     */
+    private Staging getStaging(AbstractBuild<?, ?> build, BuildListener listener)
+            throws IOException, InterruptedException {
+        if (stageIn == null && stageOut == null) {
+            return null;
+        }
+        final FilePath workspace = build.getWorkspace();
+        if (workspace == null) {
+            throw new AbortException("No workspace to stage PBS job files from");
+        }
+        final EnvVars env = build.getEnvironment(listener);
+        return new Staging(workspace.getRemote(), stageIn == null ? null : env.expand(stageIn),
+                stageOut == null ? null : env.expand(stageOut));
+    }
+
+    /**
+     * @return environment of the PBS jobs, recording this Jenkins instance as their owner
+     */
+    private static EnvVars getEnvironment(AbstractBuild<?, ?> build, BuildListener listener)
+            throws IOException, InterruptedException {
+        return PBSOrphanSweeper.withInstance(build.getEnvironment(listener));
+    }
+
+    /**
+     * @return where logs over the console cap are archived
+     */
+    private static FilePath getLogArchive(AbstractBuild<?, ?> build) {
+        return new FilePath(build.getArtifactsDir()).child("pbs");
+    }
+
+    private boolean performBatch(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener,
+            int numberOfDays, PollSchedule schedule, String runUser, String logHostname, String logBasename,
+            SubmitLimits limits) throws InterruptedException, IOException {
+        final FilePath workspace = build.getWorkspace();
+        if (workspace == null) {
+            throw new AbortException("No workspace to look for PBS scripts in");
+        }
+        final EnvVars env = getEnvironment(build, listener);
+        final QsubBatch submit = new QsubBatch(getScript(), workspace.getRemote(), env.expand(scriptFiles),
+                numberOfDays, schedule, runUser, logHostname, logBasename, env,
+                ((PBSBuilderDescriptor) getDescriptor()).getLogCapBytes(), getLogArchive(build), limits,
+                listener);
+        final long start = System.currentTimeMillis();
+        final List<BatchJobResult> results;
+        try {
+            results = launcher.getChannel().call(submit);
+        } catch (PBSException e) {
+            listener.fatalError(e.getMessage(), e);
+            throw new AbortException(e.getMessage());
+        }
+        long totalSubmitTime = 0L;
+        for (BatchJobResult result : results) {
+            totalSubmitTime += result.getSubmitTime();
+        }
+        final PBSBatchAction action = new PBSBatchAction(results, totalSubmitTime);
+        build.addAction(action);
+        final List<JobMetrics> metrics = new ArrayList<JobMetrics>();
+        for (BatchJobResult result : results) {
+            if (result.getMetrics() != null) {
+                metrics.add(result.getMetrics());
+            }
+        }
+        if (!metrics.isEmpty()) {
+            build.addAction(new PBSMetricsAction(metrics));
+        }
+        listener.getLogger().println(String.format("%d of %d PBS scripts succeeded, submitted in %d ms, finished in %s",
+                action.getSucceeded(), results.size(), totalSubmitTime,
+                Util.getTimeSpanString(System.currentTimeMillis() - start)));
+        return action.getSucceeded() == results.size();
+    }
+
+    /**
+     * Print the exit status of each sub-job and compare the share of
+     * successful ones with the success threshold. Failed sub-jobs above the
+     * threshold make the build unstable.
+     */
+    private boolean report(AbstractBuild<?, ?> build, BuildListener listener, List<PBSJobResult> results) {
+        int succeeded = 0;
+        final List<JobMetrics> metrics = new ArrayList<JobMetrics>(results.size());
+        listener.getLogger().println("Index\tExit status\tJob id");
+        for (PBSJobResult result : results) {
+            if (!result.isUnknown()) {
+                metrics.add(JobMetrics.fromEvents(result.getJobId(), result.getEvents()));
+            }
+            final String exitStatus;
+            if (result.isUnknown()) {
+                exitStatus = "unknown";
+            } else if (result.getExitStatus() == null) {
+                exitStatus = "none";
+            } else {
+                exitStatus = result.getExitStatus().toString();
+            }
+            listener.getLogger().println(String.format("%s\t%s\t%s", ArrayRange.getIndex(result.getJobId()),
+                    exitStatus, result.getJobId()));
+            if (result.isSuccess()) {
+                succeeded++;
+            }
+        }
+        if (!metrics.isEmpty()) {
+            build.addAction(new PBSMetricsAction(metrics));
+        }
+        final int percent = results.isEmpty() ? 0 : (int) (succeeded * 100L / results.size());
+        listener.getLogger().println(String.format("%d of %d sub-jobs succeeded (%d%%, threshold %d%%)",
+                succeeded, results.size(), percent, getSuccessThreshold()));
+        if (percent < getSuccessThreshold()) {
+            return false;
+        }
+        if (succeeded < results.size()) {
+            build.setResult(Result.UNSTABLE);
+        }
+        return true;
+    }
+
     /**
      * PBSBuilder descriptor.
      * @since 0.1
@@ -105,9 +453,26 @@ public class PBSBuilder extends Builder {
     public static class PBSBuilderDescriptor extends BuildStepDescriptor<Builder> {
 
         private static final Long DEFAULT_SPAN_TIME_MS = 15000L;
+        private static final Long DEFAULT_MIN_SPAN_TIME_MS = 2000L;
+        private static final Long DEFAULT_MAX_SPAN_TIME_MS = 300000L;
+        private static final Long DEFAULT_SNAPSHOT_REFRESH_MS = 30000L;
+        private static final Long DEFAULT_SNAPSHOT_MAX_AGE_MS = 120000L;
+        private static final Long DEFAULT_SNAPSHOT_TIMEOUT_MS = 30000L;
+        private static final Integer DEFAULT_LOG_CAP_MB = 10;
+        private static final Integer DEFAULT_PILOT_TASKS = 20;
+        private static final Integer DEFAULT_PILOT_LIFETIME_MINUTES = 60;
 
 		private Integer numberOfDays;
         private Long span;
+        private Long minSpan;
+        private Long maxSpan;
+        private Long snapshotRefresh;
+        private Long snapshotMaxAge;
+        private Long snapshotTimeout;
+        private String arrayOption;
+        private Integer logCap;
+        private Integer pilotTasks;
+        private Integer pilotLifetime;
         private String runUser;
         private String logHostname;
         private String logBasename;
@@ -128,6 +493,42 @@ public class PBSBuilder extends Builder {
             if (span == null || this.span < 0) {
                 span = DEFAULT_SPAN_TIME_MS;
             }
+            minSpan = json.optLong("minSpan", DEFAULT_MIN_SPAN_TIME_MS);
+            if (minSpan < 0) {
+                minSpan = DEFAULT_MIN_SPAN_TIME_MS;
+            }
+            maxSpan = json.optLong("maxSpan", DEFAULT_MAX_SPAN_TIME_MS);
+            if (maxSpan < minSpan) {
+                maxSpan = DEFAULT_MAX_SPAN_TIME_MS;
+            }
+            snapshotRefresh = json.optLong("snapshotRefresh", DEFAULT_SNAPSHOT_REFRESH_MS);
+            if (snapshotRefresh <= 0) {
+                snapshotRefresh = DEFAULT_SNAPSHOT_REFRESH_MS;
+            }
+            snapshotMaxAge = json.optLong("snapshotMaxAge", DEFAULT_SNAPSHOT_MAX_AGE_MS);
+            if (snapshotMaxAge < snapshotRefresh) {
+                snapshotMaxAge = snapshotRefresh;
+            }
+            snapshotTimeout = json.optLong("snapshotTimeout", DEFAULT_SNAPSHOT_TIMEOUT_MS);
+            if (snapshotTimeout <= 0) {
+                snapshotTimeout = DEFAULT_SNAPSHOT_TIMEOUT_MS;
+            }
+            logCap = json.optInt("logCap", DEFAULT_LOG_CAP_MB);
+            if (logCap < 0) {
+                logCap = DEFAULT_LOG_CAP_MB;
+            }
+            pilotTasks = json.optInt("pilotTasks", DEFAULT_PILOT_TASKS);
+            if (pilotTasks <= 0) {
+                pilotTasks = DEFAULT_PILOT_TASKS;
+            }
+            pilotLifetime = json.optInt("pilotLifetime", DEFAULT_PILOT_LIFETIME_MINUTES);
+            if (pilotLifetime <= 0) {
+                pilotLifetime = DEFAULT_PILOT_LIFETIME_MINUTES;
+            }
+            arrayOption = json.optString("arrayOption", SubmitJob.TORQUE_ARRAY_OPTION);
+            if (!SubmitJob.PBS_PRO_ARRAY_OPTION.equals(arrayOption)) {
+                arrayOption = SubmitJob.TORQUE_ARRAY_OPTION;
+            }
             runUser = json.optString("runUser", "root");
             logHostname = json.optString("logHostname", "localhost");
             logBasename = json.optString("logBasename", "/tmp");
@@ -154,6 +555,59 @@ public class PBSBuilder extends Builder {
         public Long getSpan() {
             return this.span;
         }
+
+        public Long getMinSpan() {
+            return this.minSpan == null ? DEFAULT_MIN_SPAN_TIME_MS : this.minSpan;
+        }
+
+        public Long getMaxSpan() {
+            return this.maxSpan == null ? DEFAULT_MAX_SPAN_TIME_MS : this.maxSpan;
+        }
+
+        public Long getSnapshotRefresh() {
+            return this.snapshotRefresh == null ? DEFAULT_SNAPSHOT_REFRESH_MS : this.snapshotRefresh;
+        }
+
+        public Long getSnapshotMaxAge() {
+            return this.snapshotMaxAge == null ? DEFAULT_SNAPSHOT_MAX_AGE_MS : this.snapshotMaxAge;
+        }
+
+        public Long getSnapshotTimeout() {
+            return this.snapshotTimeout == null ? DEFAULT_SNAPSHOT_TIMEOUT_MS : this.snapshotTimeout;
+        }
+
+        /**
+         * @return MB of the head and tail of each job log kept in the console, 0 to keep everything
+         */
+        public Integer getLogCap() {
+            return this.logCap == null ? DEFAULT_LOG_CAP_MB : this.logCap;
+        }
+
+        public long getLogCapBytes() {
+            return getLogCap() * 1024L * 1024L;
+        }
+
+        /**
+         * @return maximum number of packed scripts run by a pilot job
+         */
+        public Integer getPilotTasks() {
+            return this.pilotTasks == null ? DEFAULT_PILOT_TASKS : this.pilotTasks;
+        }
+
+        /**
+         * @return minutes after its start a pilot job stops taking packed scripts
+         */
+        public Integer getPilotLifetime() {
+            return this.pilotLifetime == null ? DEFAULT_PILOT_LIFETIME_MINUTES : this.pilotLifetime;
+        }
+
+        public long getPilotLifetimeMs() {
+            return getPilotLifetime() * 60000L;
+        }
+
+        public String getArrayOption() {
+            return this.arrayOption == null ? SubmitJob.TORQUE_ARRAY_OPTION : this.arrayOption;
+        }
                 
         public String getRunUser() {
             return runUser;
@@ -0,0 +1,73 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs;
+
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.ManagementLink;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jenkins.model.Jenkins;
+import jenkins.plugins.pbs.slaves.PBSSlaveComputer;
+
+/**
+ * Management page with the latency and volume of the PBS commands run on
+ * each PBS slave, and of the remoting calls made to it.
+ * @since 0.3
+ */
+@Extension
+public class PBSManagementLink extends ManagementLink {
+
+	@Override
+	public String getIconFileName() {
+		return "computer.png";
+	}
+
+	@Override
+	public String getUrlName() {
+		return "pbsStats";
+	}
+
+	public String getDisplayName() {
+		return "PBS statistics";
+	}
+
+	@Override
+	public String getDescription() {
+		return "Latency and number of the PBS commands run on each PBS slave.";
+	}
+
+	public List<PBSSlaveComputer> getComputers() {
+		final List<PBSSlaveComputer> computers = new ArrayList<PBSSlaveComputer>();
+		for (Computer computer : Jenkins.getInstance().getComputers()) {
+			if (computer instanceof PBSSlaveComputer) {
+				computers.add((PBSSlaveComputer) computer);
+			}
+		}
+		return computers;
+	}
+
+}
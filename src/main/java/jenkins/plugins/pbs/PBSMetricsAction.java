@@ -0,0 +1,141 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs;
+
+import hudson.Util;
+import hudson.model.Action;
+
+import java.util.List;
+
+import jenkins.plugins.pbs.model.JobMetrics;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Queue wait and resource usage of the PBS jobs of a build.
+ * @since 0.3
+ */
+public class PBSMetricsAction implements Action {
+
+	private final List<JobMetrics> jobs;
+
+	public PBSMetricsAction(List<JobMetrics> jobs) {
+		this.jobs = jobs;
+	}
+
+	public String getIconFileName() {
+		return null;
+	}
+
+	public String getDisplayName() {
+		return "PBS metrics";
+	}
+
+	public String getUrlName() {
+		return null;
+	}
+
+	public List<JobMetrics> getJobs() {
+		return jobs;
+	}
+
+	/**
+	 * @return average time spent in the queue in ms, or -1
+	 */
+	public long getQueueWait() {
+		long total = 0L;
+		int count = 0;
+		for (JobMetrics job : jobs) {
+			if (job.getQueueWait() >= 0L) {
+				total += job.getQueueWait();
+				count++;
+			}
+		}
+		return count == 0 ? -1L : total / count;
+	}
+
+	/**
+	 * @return average wall time in ms, or -1
+	 */
+	public long getWalltime() {
+		long total = 0L;
+		int count = 0;
+		for (JobMetrics job : jobs) {
+			if (job.getWalltime() >= 0L) {
+				total += job.getWalltime();
+				count++;
+			}
+		}
+		return count == 0 ? -1L : total / count;
+	}
+
+	/**
+	 * @return total CPU time over total wall time, or -1
+	 */
+	public double getCpuEfficiency() {
+		long cput = 0L;
+		long walltime = 0L;
+		for (JobMetrics job : jobs) {
+			if (job.getCput() >= 0L && job.getWalltime() > 0L) {
+				cput += job.getCput();
+				walltime += job.getWalltime();
+			}
+		}
+		return walltime == 0L ? -1d : (double) cput / walltime;
+	}
+
+	/**
+	 * @return highest memory used by a job in bytes, or -1
+	 */
+	public long getPeakMemory() {
+		long peak = -1L;
+		for (JobMetrics job : jobs) {
+			peak = Math.max(peak, job.getMem());
+		}
+		return peak;
+	}
+
+	public String getQueueWaitString() {
+		return duration(getQueueWait());
+	}
+
+	public String getWalltimeString() {
+		return duration(getWalltime());
+	}
+
+	public String getCpuEfficiencyString() {
+		final double efficiency = getCpuEfficiency();
+		return efficiency < 0d ? "unknown" : String.format("%.0f%%", efficiency * 100d);
+	}
+
+	public String getPeakMemoryString() {
+		final long peak = getPeakMemory();
+		return peak < 0L ? "unknown" : FileUtils.byteCountToDisplaySize(peak);
+	}
+
+	private static String duration(long ms) {
+		return ms < 0L ? "unknown" : Util.getTimeSpanString(ms);
+	}
+
+}
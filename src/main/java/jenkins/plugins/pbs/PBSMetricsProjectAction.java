@@ -0,0 +1,138 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs;
+
+import hudson.model.Action;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.util.ChartUtil.NumberOnlyBuildLabel;
+import hudson.util.DataSetBuilder;
+import hudson.util.Graph;
+
+import java.awt.Color;
+import java.io.IOException;
+
+import org.jfree.chart.ChartFactory;
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.plot.PlotOrientation;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * Trend graphs of the {@link PBSMetricsAction}s of a project.
+ * @since 0.3
+ */
+public class PBSMetricsProjectAction implements Action {
+
+	/**
+	 * Number of builds shown in the graphs.
+	 */
+	static final int MAX_BUILDS = 50;
+
+	private final AbstractProject<?, ?> project;
+
+	public PBSMetricsProjectAction(AbstractProject<?, ?> project) {
+		this.project = project;
+	}
+
+	public String getIconFileName() {
+		return null;
+	}
+
+	public String getDisplayName() {
+		return "PBS metrics";
+	}
+
+	public String getUrlName() {
+		return "pbsMetrics";
+	}
+
+	public AbstractProject<?, ?> getProject() {
+		return project;
+	}
+
+	/**
+	 * @return <code>true</code> if a recent build has PBS metrics
+	 */
+	public boolean hasMetrics() {
+		int count = 0;
+		for (AbstractBuild<?, ?> build : project.getBuilds()) {
+			if (build.getAction(PBSMetricsAction.class) != null) {
+				return true;
+			}
+			if (++count >= MAX_BUILDS) {
+				break;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Renders a trend graph, <code>?metric=time</code> for the queue wait and
+	 * wall time in minutes, or <code>?metric=usage</code> for the CPU
+	 * efficiency in percent and the peak memory in MB.
+	 */
+	public void doGraph(StaplerRequest request, StaplerResponse response) throws IOException {
+		final boolean usage = "usage".equals(request.getParameter("metric"));
+		final DataSetBuilder<String, NumberOnlyBuildLabel> dataset = new DataSetBuilder<String, NumberOnlyBuildLabel>();
+		int count = 0;
+		for (AbstractBuild<?, ?> build : project.getBuilds()) {
+			final PBSMetricsAction metrics = build.getAction(PBSMetricsAction.class);
+			if (metrics != null) {
+				final NumberOnlyBuildLabel label = new NumberOnlyBuildLabel(build);
+				if (usage) {
+					add(dataset, metrics.getCpuEfficiency() * 100d, "CPU efficiency (%)", label);
+					add(dataset, metrics.getPeakMemory() / (1024d * 1024d), "Peak memory (MB)", label);
+				} else {
+					add(dataset, metrics.getQueueWait() / 60000d, "Queue wait (min)", label);
+					add(dataset, metrics.getWalltime() / 60000d, "Wall time (min)", label);
+				}
+			}
+			if (++count >= MAX_BUILDS) {
+				break;
+			}
+		}
+		final String title = usage ? "PBS resource usage" : "PBS queue wait and wall time";
+		new Graph(System.currentTimeMillis(), 500, 200) {
+			@Override
+			protected JFreeChart createGraph() {
+				final JFreeChart chart = ChartFactory.createLineChart(title, null, null, dataset.build(),
+						PlotOrientation.VERTICAL, true, true, false);
+				chart.setBackgroundPaint(Color.white);
+				chart.getCategoryPlot().setBackgroundPaint(Color.white);
+				chart.getCategoryPlot().setRangeGridlinePaint(Color.lightGray);
+				return chart;
+			}
+		}.doPng(request, response);
+	}
+
+	private static void add(DataSetBuilder<String, NumberOnlyBuildLabel> dataset, double value, String row,
+			NumberOnlyBuildLabel label) {
+		// unknown values are negative, and left out of the graph
+		if (value >= 0d) {
+			dataset.add(value, row, label);
+		}
+	}
+
+}
@@ -0,0 +1,104 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.model;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Statistics of the PBS commands run by an agent, and of its job status
+ * monitor.
+ * @since 0.3
+ */
+public class AgentStats implements Serializable {
+
+	private static final long serialVersionUID = -3120785829357145907L;
+
+	private final List<CommandStat> commands;
+	private final long qstatCalls;
+	private final long traceJobCalls;
+	private final long logLookups;
+	private final long pushedCompletions;
+	private final long ticks;
+	private final long completedJobs;
+	private final long completedJobPolls;
+	private final long timestamp;
+
+	public AgentStats(List<CommandStat> commands, long qstatCalls, long traceJobCalls, long logLookups,
+			long pushedCompletions, long ticks, long completedJobs, long completedJobPolls) {
+		this.commands = commands;
+		this.qstatCalls = qstatCalls;
+		this.traceJobCalls = traceJobCalls;
+		this.logLookups = logLookups;
+		this.pushedCompletions = pushedCompletions;
+		this.ticks = ticks;
+		this.completedJobs = completedJobs;
+		this.completedJobPolls = completedJobPolls;
+		this.timestamp = System.currentTimeMillis();
+	}
+
+	public List<CommandStat> getCommands() {
+		return commands;
+	}
+
+	public long getQstatCalls() {
+		return qstatCalls;
+	}
+
+	public long getTraceJobCalls() {
+		return traceJobCalls;
+	}
+
+	public long getLogLookups() {
+		return logLookups;
+	}
+
+	public long getPushedCompletions() {
+		return pushedCompletions;
+	}
+
+	public long getTicks() {
+		return ticks;
+	}
+
+	public long getCompletedJobs() {
+		return completedJobs;
+	}
+
+	/**
+	 * @return average number of status queries that included a job, over the
+	 * jobs that completed
+	 */
+	public double getPollsPerJob() {
+		return completedJobs == 0L ? 0d : (double) completedJobPolls / completedJobs;
+	}
+
+	/**
+	 * @return when the statistics were taken on the agent
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+}
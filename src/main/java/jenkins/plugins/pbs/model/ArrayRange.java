@@ -0,0 +1,197 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Indices of a PBS job array, e.g. <code>1-100</code>, <code>1-100:2</code>
+ * or <code>1,3,5-7</code>.
+ * @since 0.3
+ */
+public class ArrayRange implements Serializable {
+
+	private static final long serialVersionUID = 3326513296081386271L;
+
+	private static final Pattern SUB_JOB_INDEX = Pattern.compile("\\[(\\d+)\\]");
+
+	/**
+	 * Maximum number of indices of an array.
+	 */
+	public static final int MAX_SIZE = Integer.getInteger(ArrayRange.class.getName() + ".maxSize", 100000);
+
+	private final String spec;
+	private final List<Integer> indices;
+
+	private ArrayRange(String spec, List<Integer> indices) {
+		this.spec = spec;
+		this.indices = indices;
+	}
+
+	/**
+	 * Parse an array range.
+	 * @param spec comma separated list of indices and ranges, ranges with an optional <code>:step</code>
+	 * @return array range
+	 * @throws IllegalArgumentException if the range is invalid, empty or larger than {@link #MAX_SIZE}
+	 */
+	public static ArrayRange parse(String spec) {
+		return parse(spec, false, MAX_SIZE);
+	}
+
+	/**
+	 * Parse an array range.
+	 * @param spec comma separated list of indices and ranges, ranges with an optional <code>:step</code>
+	 * @param singleRange <code>true</code> to only accept one range, as <code>qsub -J</code> of PBS Pro
+	 * @param maxSize maximum number of indices
+	 * @return array range
+	 * @throws IllegalArgumentException if the range is invalid, empty or larger than <code>maxSize</code>
+	 */
+	public static ArrayRange parse(String spec, boolean singleRange, int maxSize) {
+		if (StringUtils.isBlank(spec)) {
+			throw new IllegalArgumentException("Empty job array range");
+		}
+		final String trimmed = StringUtils.deleteWhitespace(spec);
+		if (singleRange && (trimmed.contains(",") || !trimmed.contains("-"))) {
+			throw new IllegalArgumentException("Invalid job array range: " + trimmed
+					+ ", PBS Pro only accepts a range such as 1-100 or 1-100:2");
+		}
+		final TreeSet<Integer> indices = new TreeSet<Integer>();
+		long size = 0L;
+		for (String part : StringUtils.split(trimmed, ',')) {
+			try {
+				int step = 1;
+				String range = part;
+				if (part.contains(":")) {
+					step = Integer.parseInt(StringUtils.substringAfter(part, ":"));
+					range = StringUtils.substringBefore(part, ":");
+				}
+				final int from;
+				final int to;
+				if (range.contains("-")) {
+					from = Integer.parseInt(StringUtils.substringBefore(range, "-"));
+					to = Integer.parseInt(StringUtils.substringAfter(range, "-"));
+				} else {
+					from = Integer.parseInt(range);
+					to = from;
+				}
+				if (from < 0 || to < from || step < 1) {
+					throw new IllegalArgumentException("Invalid job array range: " + part);
+				}
+				// in long, as from + step may overflow
+				size += ((long) to - from) / step + 1;
+				if (size > maxSize) {
+					throw new IllegalArgumentException(String.format(
+							"Job array range %s has more than %d indices", trimmed, maxSize));
+				}
+				for (long i = from; i <= to; i += step) {
+					indices.add((int) i);
+				}
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid job array range: " + part, e);
+			}
+		}
+		if (indices.isEmpty()) {
+			throw new IllegalArgumentException("Empty job array range");
+		}
+		return new ArrayRange(trimmed, Collections.unmodifiableList(new ArrayList<Integer>(indices)));
+	}
+
+	/**
+	 * @return the range as given to qsub
+	 */
+	public String getSpec() {
+		return spec;
+	}
+
+	/**
+	 * @return sorted indices of the array
+	 */
+	public List<Integer> getIndices() {
+		return indices;
+	}
+
+	public int size() {
+		return indices.size();
+	}
+
+	/**
+	 * @param arrayJobId id returned by qsub, e.g. <code>123[].server</code>
+	 * @return ids of the sub-jobs, e.g. <code>123[1].server</code>
+	 */
+	public List<String> getSubJobIds(String arrayJobId) {
+		final List<String> ids = new ArrayList<String>(indices.size());
+		for (Integer index : indices) {
+			ids.add(getSubJobId(arrayJobId, index));
+		}
+		return ids;
+	}
+
+	/**
+	 * @param arrayJobId id returned by qsub, e.g. <code>123[].server</code>
+	 * @param index array index
+	 * @return id of the sub-job, e.g. <code>123[1].server</code>
+	 */
+	public static String getSubJobId(String arrayJobId, int index) {
+		if (arrayJobId.contains("[]")) {
+			return arrayJobId.replace("[]", "[" + index + "]");
+		}
+		// some servers print the id without the brackets
+		final int dot = arrayJobId.indexOf('.');
+		if (dot < 0) {
+			return arrayJobId + "[" + index + "]";
+		}
+		return arrayJobId.substring(0, dot) + "[" + index + "]" + arrayJobId.substring(dot);
+	}
+
+	/**
+	 * @param subJobId sub-job id, e.g. <code>123[1].server</code>
+	 * @return id of its array, e.g. <code>123[].server</code>, or the given id if it is not a sub-job
+	 */
+	public static String getArrayJobId(String subJobId) {
+		return SUB_JOB_INDEX.matcher(subJobId).replaceFirst("[]");
+	}
+
+	/**
+	 * @param subJobId sub-job id, e.g. <code>123[1].server</code>
+	 * @return array index, or <code>null</code> if it is not a sub-job
+	 */
+	public static Integer getIndex(String subJobId) {
+		final Matcher matcher = SUB_JOB_INDEX.matcher(subJobId);
+		return matcher.find() ? Integer.valueOf(matcher.group(1)) : null;
+	}
+
+	@Override
+	public String toString() {
+		return spec;
+	}
+
+}
@@ -0,0 +1,94 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.model;
+
+import java.io.Serializable;
+
+/**
+ * Outcome of one script of a batch submission.
+ * @since 0.3
+ */
+public class BatchJobResult implements Serializable {
+
+	private static final long serialVersionUID = 8174452390816732553L;
+	private final String script;
+	private final String jobId;
+	private final long submitTime;
+	private final Integer exitStatus;
+	private final boolean unknown;
+	private final JobMetrics metrics;
+
+	public BatchJobResult(String script, String jobId, long submitTime, Integer exitStatus, boolean unknown,
+			JobMetrics metrics) {
+		super();
+		this.script = script;
+		this.jobId = jobId;
+		this.submitTime = submitTime;
+		this.exitStatus = exitStatus;
+		this.unknown = unknown;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @return script file name, relative to the workspace
+	 */
+	public String getScript() {
+		return script;
+	}
+
+	/**
+	 * @return PBS job id, or <code>null</code> if the submission failed
+	 */
+	public String getJobId() {
+		return jobId;
+	}
+
+	/**
+	 * @return time taken to submit the script in ms
+	 */
+	public long getSubmitTime() {
+		return submitTime;
+	}
+
+	public Integer getExitStatus() {
+		return exitStatus;
+	}
+
+	public boolean isUnknown() {
+		return unknown;
+	}
+
+	/**
+	 * @return queue wait and resources used, or <code>null</code> if the
+	 * script was not submitted
+	 */
+	public JobMetrics getMetrics() {
+		return metrics;
+	}
+
+	public boolean isSuccess() {
+		return exitStatus != null && exitStatus.intValue() == 0;
+	}
+
+}
@@ -0,0 +1,192 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.model;
+
+import hudson.Util;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Queues and jobs of a PBS server at a given time. Snapshots are versioned,
+ * so that the slave only needs to send the changes since the version the
+ * master already has.
+ * @since 0.3
+ */
+public class ClusterSnapshot implements Serializable {
+
+	private static final long serialVersionUID = 8167365064862093410L;
+	private final long version;
+	private final long timestamp;
+	private final List<String> queues;
+	private final Map<String, JobSummary> jobs;
+	private transient Map<String, List<JobSummary>> jobsByQueue;
+
+	/**
+	 * @param version snapshot version
+	 * @param timestamp when the snapshot was taken
+	 * @param queues queue names
+	 * @param jobs jobs, by id
+	 */
+	public ClusterSnapshot(long version, long timestamp, List<String> queues, Map<String, JobSummary> jobs) {
+		super();
+		this.version = version;
+		this.timestamp = timestamp;
+		this.queues = queues;
+		this.jobs = jobs;
+	}
+
+	/**
+	 * @param delta a full delta
+	 * @return snapshot with the jobs of the delta
+	 */
+	public static ClusterSnapshot fromDelta(ClusterSnapshotDelta delta) {
+		final Map<String, JobSummary> jobs = new LinkedHashMap<String, JobSummary>();
+		for (JobSummary job : delta.getChanged()) {
+			jobs.put(job.getId(), job);
+		}
+		final List<String> queues = delta.getQueues() == null ? Collections.<String>emptyList() : delta.getQueues();
+		return new ClusterSnapshot(delta.getVersion(), delta.getTimestamp(), queues, jobs);
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return when the snapshot was taken, in ms since the epoch
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @return age of the snapshot in ms
+	 */
+	public long getAge() {
+		return System.currentTimeMillis() - timestamp;
+	}
+
+	public String getAgeString() {
+		return Util.getTimeSpanString(getAge());
+	}
+
+	/**
+	 * @return queue names
+	 */
+	public List<String> getQueues() {
+		return queues;
+	}
+
+	public Collection<JobSummary> getAllJobs() {
+		return Collections.unmodifiableCollection(jobs.values());
+	}
+
+	public synchronized List<JobSummary> getJobs(String queue) {
+		if (jobsByQueue == null) {
+			jobsByQueue = new HashMap<String, List<JobSummary>>();
+			for (JobSummary job : jobs.values()) {
+				List<JobSummary> list = jobsByQueue.get(job.getQueue());
+				if (list == null) {
+					list = new ArrayList<JobSummary>();
+					jobsByQueue.put(job.getQueue(), list);
+				}
+				list.add(job);
+			}
+		}
+		final List<JobSummary> list = jobsByQueue.get(queue);
+		return list == null ? Collections.<JobSummary>emptyList() : list;
+	}
+
+	/**
+	 * @param previous snapshot known to the master, or <code>null</code>
+	 * @return changes from the previous snapshot to this one, or a full delta
+	 * if there is no previous snapshot
+	 */
+	public ClusterSnapshotDelta diff(ClusterSnapshot previous) {
+		if (previous == null) {
+			return new ClusterSnapshotDelta(true, -1L, version, timestamp, queues,
+					new ArrayList<JobSummary>(jobs.values()), Collections.<String>emptyList());
+		}
+		final List<JobSummary> changed = new ArrayList<JobSummary>();
+		for (JobSummary job : jobs.values()) {
+			if (!job.equals(previous.jobs.get(job.getId()))) {
+				changed.add(job);
+			}
+		}
+		final List<String> removed = new ArrayList<String>();
+		for (String id : previous.jobs.keySet()) {
+			if (!jobs.containsKey(id)) {
+				removed.add(id);
+			}
+		}
+		return new ClusterSnapshotDelta(false, previous.version, version, timestamp,
+				queues.equals(previous.queues) ? null : queues, changed, removed);
+	}
+
+	/**
+	 * @param delta changes since this snapshot
+	 * @return new snapshot
+	 */
+	public ClusterSnapshot apply(ClusterSnapshotDelta delta) {
+		if (delta.isFull()) {
+			return fromDelta(delta);
+		}
+		if (delta.getBaseVersion() != version) {
+			throw new IllegalArgumentException(String.format("Delta from version %d cannot be applied to version %d",
+					delta.getBaseVersion(), version));
+		}
+		final Map<String, JobSummary> newJobs = new LinkedHashMap<String, JobSummary>(jobs);
+		for (String id : delta.getRemoved()) {
+			newJobs.remove(id);
+		}
+		for (JobSummary job : delta.getChanged()) {
+			newJobs.put(job.getId(), job);
+		}
+		final List<String> newQueues = delta.getQueues() == null ? queues : delta.getQueues();
+		return new ClusterSnapshot(delta.getVersion(), delta.getTimestamp(), newQueues, newJobs);
+	}
+
+	/**
+	 * @param newTimestamp timestamp, e.g. from the clock of the master
+	 * @return the same snapshot, with another timestamp
+	 */
+	public ClusterSnapshot withTimestamp(long newTimestamp) {
+		return new ClusterSnapshot(version, newTimestamp, queues, jobs);
+	}
+
+	/**
+	 * @return <code>true</code> if both snapshots have the same queues and jobs
+	 */
+	public boolean sameContent(ClusterSnapshot other) {
+		return other != null && queues.equals(other.queues) && jobs.equals(other.jobs);
+	}
+
+}
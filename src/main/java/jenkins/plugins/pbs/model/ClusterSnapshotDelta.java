@@ -0,0 +1,96 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.model;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Changes between two {@link ClusterSnapshot}s, sent by the slave instead of
+ * the whole snapshot when the master already has the previous one. A full
+ * delta carries every job, and applies to no snapshot.
+ * @since 0.3
+ */
+public class ClusterSnapshotDelta implements Serializable {
+
+	private static final long serialVersionUID = 5066453627386373436L;
+	private final boolean full;
+	private final long baseVersion;
+	private final long version;
+	private final long timestamp;
+	private final List<String> queues;
+	private final Collection<JobSummary> changed;
+	private final Collection<String> removed;
+
+	/**
+	 * @param full whether this delta carries every job
+	 * @param baseVersion version of the snapshot this delta applies to
+	 * @param version version of the resulting snapshot
+	 * @param timestamp when the resulting snapshot was taken
+	 * @param queues queue names, or <code>null</code> if they did not change
+	 * @param changed jobs added or changed
+	 * @param removed ids of the jobs removed
+	 */
+	public ClusterSnapshotDelta(boolean full, long baseVersion, long version, long timestamp, List<String> queues,
+			Collection<JobSummary> changed, Collection<String> removed) {
+		super();
+		this.full = full;
+		this.baseVersion = baseVersion;
+		this.version = version;
+		this.timestamp = timestamp;
+		this.queues = queues;
+		this.changed = changed;
+		this.removed = removed;
+	}
+
+	public boolean isFull() {
+		return full;
+	}
+
+	public long getBaseVersion() {
+		return baseVersion;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public List<String> getQueues() {
+		return queues;
+	}
+
+	public Collection<JobSummary> getChanged() {
+		return changed;
+	}
+
+	public Collection<String> getRemoved() {
+		return removed;
+	}
+
+}
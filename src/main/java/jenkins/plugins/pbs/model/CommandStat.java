@@ -0,0 +1,146 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.model;
+
+import java.io.Serializable;
+
+/**
+ * Statistics of one command, as recorded by
+ * {@link jenkins.plugins.pbs.util.CommandStats}. Latencies are kept in a
+ * histogram of fixed buckets, so percentiles are upper bounds.
+ * @since 0.3
+ */
+public class CommandStat implements Serializable {
+
+	private static final long serialVersionUID = 4176318930567713822L;
+
+	/**
+	 * Upper bounds of the latency buckets, in ms. One more bucket holds
+	 * everything slower.
+	 */
+	public static final long[] BUCKETS_MS = { 10L, 25L, 50L, 100L, 250L, 500L, 1000L, 2500L, 5000L, 10000L, 30000L, 60000L };
+
+	private final String command;
+	private final long count;
+	private final long errors;
+	private final long totalNanos;
+	private final long maxNanos;
+	private final long outputSize;
+	private final long[] histogram;
+
+	public CommandStat(String command, long count, long errors, long totalNanos, long maxNanos, long outputSize,
+			long[] histogram) {
+		this.command = command;
+		this.count = count;
+		this.errors = errors;
+		this.totalNanos = totalNanos;
+		this.maxNanos = maxNanos;
+		this.outputSize = outputSize;
+		this.histogram = histogram;
+	}
+
+	/**
+	 * @param millis latency in ms
+	 * @return index of the bucket of the histogram holding the latency
+	 */
+	public static int bucket(long millis) {
+		for (int i = 0; i < BUCKETS_MS.length; i++) {
+			if (millis <= BUCKETS_MS[i]) {
+				return i;
+			}
+		}
+		return BUCKETS_MS.length;
+	}
+
+	public String getCommand() {
+		return command;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getErrors() {
+		return errors;
+	}
+
+	/**
+	 * @return characters of output, over every invocation
+	 */
+	public long getOutputSize() {
+		return outputSize;
+	}
+
+	public long getMeanOutputSize() {
+		return count == 0L ? 0L : outputSize / count;
+	}
+
+	public double getMeanMillis() {
+		return count == 0L ? 0d : totalNanos / 1000000d / count;
+	}
+
+	public double getMaxMillis() {
+		return maxNanos / 1000000d;
+	}
+
+	public double getP50Millis() {
+		return percentile(0.5d);
+	}
+
+	public double getP95Millis() {
+		return percentile(0.95d);
+	}
+
+	public double getP99Millis() {
+		return percentile(0.99d);
+	}
+
+	/**
+	 * @return number of invocations in each latency bucket
+	 */
+	public long[] getHistogram() {
+		return histogram.clone();
+	}
+
+	/**
+	 * @param fraction e.g. 0.95
+	 * @return upper bound of the bucket holding the percentile, in ms, capped
+	 * by the slowest invocation
+	 */
+	public double percentile(double fraction) {
+		if (count == 0L) {
+			return 0d;
+		}
+		final long rank = (long) Math.ceil(fraction * count);
+		long seen = 0L;
+		for (int i = 0; i < histogram.length; i++) {
+			seen += histogram[i];
+			if (seen >= rank) {
+				return i < BUCKETS_MS.length ? Math.min(BUCKETS_MS[i], getMaxMillis()) : getMaxMillis();
+			}
+		}
+		return getMaxMillis();
+	}
+
+}
@@ -0,0 +1,207 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.model;
+
+import java.io.Serializable;
+import java.util.List;
+
+import jenkins.plugins.pbs.model.TraceJobEvent.Type;
+import jenkins.plugins.pbs.monitor.PollSchedule;
+
+/**
+ * Queue wait and resource usage of a finished job, taken from the
+ * accounting records of its trace.
+ * @since 0.3
+ */
+public class JobMetrics implements Serializable {
+
+	private static final long serialVersionUID = -1706931453316327862L;
+	private final String jobId;
+	private final long queueWait;
+	private final long walltime;
+	private final long cput;
+	private final long mem;
+	private final long vmem;
+
+	public JobMetrics(String jobId, long queueWait, long walltime, long cput, long mem, long vmem) {
+		super();
+		this.jobId = jobId;
+		this.queueWait = queueWait;
+		this.walltime = walltime;
+		this.cput = cput;
+		this.mem = mem;
+		this.vmem = vmem;
+	}
+
+	/**
+	 * Compute the metrics of a job from its trace events. The times of the
+	 * accounting records are preferred, the times of the server records are
+	 * used when they are missing.
+	 * @param jobId job id
+	 * @param events trace events
+	 * @return metrics, with -1 for what is unknown
+	 */
+	public static JobMetrics fromEvents(String jobId, List<TraceJobEvent> events) {
+		long queued = -1L;
+		long run = -1L;
+		long qtime = -1L;
+		long start = -1L;
+		long end = -1L;
+		long walltime = -1L;
+		long cput = -1L;
+		long mem = -1L;
+		long vmem = -1L;
+		for (TraceJobEvent event : events) {
+			if (event.getType() == Type.QUEUED && queued < 0L) {
+				queued = event.getTimestamp();
+			} else if (event.getType() == Type.RUN && run < 0L) {
+				run = event.getTimestamp();
+			} else if (event.getType() == Type.TIME) {
+				final long seconds = parseLong(event.getValue());
+				if ("qtime".equals(event.getName())) {
+					qtime = seconds;
+				} else if ("start".equals(event.getName())) {
+					start = seconds;
+				} else if ("end".equals(event.getName())) {
+					end = seconds;
+				}
+			} else if (event.getType() == Type.RESOURCES_USED) {
+				if ("walltime".equals(event.getName())) {
+					walltime = Math.max(walltime, PollSchedule.parseDuration(event.getValue()));
+				} else if ("cput".equals(event.getName())) {
+					cput = Math.max(cput, PollSchedule.parseDuration(event.getValue()));
+				} else if ("mem".equals(event.getName())) {
+					mem = Math.max(mem, parseSize(event.getValue()));
+				} else if ("vmem".equals(event.getName())) {
+					vmem = Math.max(vmem, parseSize(event.getValue()));
+				}
+			}
+		}
+		long queueWait = -1L;
+		if (qtime >= 0L && start >= qtime) {
+			queueWait = (start - qtime) * 1000L;
+		} else if (queued >= 0L && run >= queued) {
+			queueWait = run - queued;
+		}
+		if (walltime < 0L && start >= 0L && end >= start) {
+			walltime = (end - start) * 1000L;
+		}
+		return new JobMetrics(jobId, queueWait, walltime, cput, mem, vmem);
+	}
+
+	/**
+	 * @param size size as printed by PBS, e.g. <code>3196kb</code>
+	 * @return size in bytes, or -1
+	 */
+	static long parseSize(String size) {
+		if (size == null) {
+			return -1L;
+		}
+		final String value = size.trim().toLowerCase();
+		int digits = 0;
+		while (digits < value.length() && Character.isDigit(value.charAt(digits))) {
+			digits++;
+		}
+		if (digits == 0) {
+			return -1L;
+		}
+		final long number = Long.parseLong(value.substring(0, digits));
+		final String unit = value.substring(digits);
+		if (unit.startsWith("k")) {
+			return number << 10;
+		} else if (unit.startsWith("m")) {
+			return number << 20;
+		} else if (unit.startsWith("g")) {
+			return number << 30;
+		} else if (unit.startsWith("t")) {
+			return number << 40;
+		} else if (unit.startsWith("w")) {
+			// words of 8 bytes
+			return number << 3;
+		}
+		return number;
+	}
+
+	private static long parseLong(String value) {
+		if (value == null) {
+			return -1L;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			return -1L;
+		}
+	}
+
+	public String getJobId() {
+		return jobId;
+	}
+
+	/**
+	 * @return time spent in the queue in ms, or -1
+	 */
+	public long getQueueWait() {
+		return queueWait;
+	}
+
+	/**
+	 * @return wall time used in ms, or -1
+	 */
+	public long getWalltime() {
+		return walltime;
+	}
+
+	/**
+	 * @return CPU time used in ms, or -1
+	 */
+	public long getCput() {
+		return cput;
+	}
+
+	/**
+	 * @return peak memory in bytes, or -1
+	 */
+	public long getMem() {
+		return mem;
+	}
+
+	/**
+	 * @return peak virtual memory in bytes, or -1
+	 */
+	public long getVmem() {
+		return vmem;
+	}
+
+	/**
+	 * @return CPU time over wall time, above 1 for jobs using several cores,
+	 * or -1
+	 */
+	public double getCpuEfficiency() {
+		if (cput < 0L || walltime <= 0L) {
+			return -1d;
+		}
+		return (double) cput / walltime;
+	}
+
+}
@@ -0,0 +1,175 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.model;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * The build that submitted a PBS job, recorded in the
+ * <code>.jenkins-owner</code> file of the job execution directory. It lets
+ * the orphan sweeper find jobs and directories left behind by builds that no
+ * longer run.
+ * @since 0.3
+ */
+public class JobOwner implements Serializable {
+
+	private static final long serialVersionUID = -5316924128790364416L;
+
+	public static final String OWNER_FILE = ".jenkins-owner";
+
+	/**
+	 * Variable holding the id of the Jenkins instance that runs the build, so
+	 * that the sweepers of other instances using the same slave keep away
+	 * from its jobs.
+	 */
+	public static final String INSTANCE_VARIABLE = "JENKINS_INSTANCE_ID";
+
+	private final String instance;
+	private final String jobName;
+	private final int buildNumber;
+	private final String jobId;
+	private final String executionDirectory;
+
+	/**
+	 * @param instance id of the Jenkins instance, or <code>null</code> if unknown
+	 */
+	public JobOwner(String instance, String jobName, int buildNumber, String jobId, String executionDirectory) {
+		this.instance = instance;
+		this.jobName = jobName;
+		this.buildNumber = buildNumber;
+		this.jobId = jobId;
+		this.executionDirectory = executionDirectory;
+	}
+
+	/**
+	 * @param environment build environment
+	 * @return owner from the <code>JOB_NAME</code>, <code>BUILD_NUMBER</code>
+	 * and {@link #INSTANCE_VARIABLE} variables, or <code>null</code> if the
+	 * first two are not set, e.g. for cloud agents
+	 */
+	public static JobOwner fromEnvironment(Map<String, String> environment) {
+		if (environment == null) {
+			return null;
+		}
+		final String jobName = environment.get("JOB_NAME");
+		final String buildNumber = environment.get("BUILD_NUMBER");
+		if (StringUtils.isBlank(jobName) || !StringUtils.isNumeric(buildNumber) || buildNumber.isEmpty()) {
+			return null;
+		}
+		return new JobOwner(StringUtils.trimToNull(environment.get(INSTANCE_VARIABLE)), jobName,
+				Integer.parseInt(buildNumber), null, null);
+	}
+
+	/**
+	 * @param directory execution directory
+	 * @return owner recorded in the directory, or <code>null</code> if there is none
+	 */
+	public static JobOwner read(File directory) throws IOException {
+		final File file = new File(directory, OWNER_FILE);
+		if (!file.isFile()) {
+			return null;
+		}
+		final Properties properties = new Properties();
+		final InputStream in = new FileInputStream(file);
+		try {
+			properties.load(in);
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+		final String buildNumber = properties.getProperty("build", "");
+		if (!StringUtils.isNumeric(buildNumber) || buildNumber.isEmpty()) {
+			return null;
+		}
+		return new JobOwner(StringUtils.trimToNull(properties.getProperty("instance")), properties.getProperty("job"),
+				Integer.parseInt(buildNumber), StringUtils.trimToNull(properties.getProperty("id")),
+				directory.getAbsolutePath());
+	}
+
+	/**
+	 * Record this owner, and the given job id, in the directory.
+	 * @param directory execution directory
+	 * @param id PBS job id, or <code>null</code> before qsub
+	 */
+	public void write(File directory, String id) throws IOException {
+		final Properties properties = new Properties();
+		if (instance != null) {
+			properties.setProperty("instance", instance);
+		}
+		properties.setProperty("job", jobName);
+		properties.setProperty("build", Integer.toString(buildNumber));
+		if (id != null) {
+			properties.setProperty("id", id);
+		}
+		final OutputStream out = new FileOutputStream(new File(directory, OWNER_FILE));
+		try {
+			properties.store(out, null);
+		} finally {
+			IOUtils.closeQuietly(out);
+		}
+	}
+
+	/**
+	 * @return id of the Jenkins instance, or <code>null</code> for jobs
+	 * submitted by older versions
+	 */
+	public String getInstance() {
+		return instance;
+	}
+
+	public String getJobName() {
+		return jobName;
+	}
+
+	public int getBuildNumber() {
+		return buildNumber;
+	}
+
+	/**
+	 * @return PBS job id, or <code>null</code> if qsub failed
+	 */
+	public String getJobId() {
+		return jobId;
+	}
+
+	public String getExecutionDirectory() {
+		return executionDirectory;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s #%d", jobName, buildNumber);
+	}
+
+}
@@ -0,0 +1,103 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.model;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * The few attributes of a PBS job shown in the PBS Status widget.
+ * @since 0.3
+ */
+public class JobSummary implements Serializable {
+
+	private static final long serialVersionUID = -1867606424577434313L;
+	private final String id;
+	private final String name;
+	private final String owner;
+	private final String state;
+	private final String queue;
+
+	public JobSummary(String id, String name, String owner, String state, String queue) {
+		super();
+		this.id = id;
+		this.name = name;
+		this.owner = owner;
+		this.state = state;
+		this.queue = queue;
+	}
+
+	/**
+	 * @param id job id
+	 * @param attributes job attributes, as listed by <code>qstat -f</code>
+	 * @return job summary
+	 */
+	public static JobSummary fromAttributes(String id, Map<String, String> attributes) {
+		return new JobSummary(id, attributes.get("Job_Name"), attributes.get("Job_Owner"),
+				attributes.get("job_state"), attributes.get("queue"));
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getOwner() {
+		return owner;
+	}
+
+	public String getState() {
+		return state;
+	}
+
+	public String getQueue() {
+		return queue;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof JobSummary)) {
+			return false;
+		}
+		final JobSummary other = (JobSummary) obj;
+		return equal(id, other.id) && equal(name, other.name) && equal(owner, other.owner)
+				&& equal(state, other.state) && equal(queue, other.queue);
+	}
+
+	@Override
+	public int hashCode() {
+		return id == null ? 0 : id.hashCode();
+	}
+
+	private static boolean equal(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+}
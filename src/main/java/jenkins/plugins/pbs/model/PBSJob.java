@@ -24,6 +24,8 @@
 package jenkins.plugins.pbs.model;
 
 import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
 
 import hudson.model.ModelObject;
 
@@ -38,12 +40,18 @@ public class PBSJob implements ModelObject, Serializable {
 	private final String jobId;
 	private final String out;
 	private final String err;
+	private final List<TraceJobEvent> events;
 
 	public PBSJob(String jobId, String out, String err) {
+		this(jobId, out, err, Collections.<TraceJobEvent>emptyList());
+	}
+
+	public PBSJob(String jobId, String out, String err, List<TraceJobEvent> events) {
 		super();
 		this.jobId = jobId;
 		this.out = out;
 		this.err = err;
+		this.events = events;
 	}
 	
 	public String getJobId() {
@@ -58,6 +66,14 @@ public class PBSJob implements ModelObject, Serializable {
 		return err;
 	}
 
+	/**
+	 * @return events parsed from the tracejob output
+	 * @since 0.3
+	 */
+	public List<TraceJobEvent> getEvents() {
+		return events == null ? Collections.<TraceJobEvent>emptyList() : events;
+	}
+
 	public String getDisplayName() {
 		return "PBS Job " + jobId;
 	}
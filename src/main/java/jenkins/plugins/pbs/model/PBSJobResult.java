@@ -0,0 +1,79 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.model;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Outcome of a finished PBS job.
+ * @since 0.3
+ */
+public class PBSJobResult implements Serializable {
+
+	private static final long serialVersionUID = -3297316962372785610L;
+	private final String jobId;
+	private final Integer exitStatus;
+	private final boolean unknown;
+	private final List<TraceJobEvent> events;
+
+	public PBSJobResult(String jobId, Integer exitStatus, boolean unknown, List<TraceJobEvent> events) {
+		super();
+		this.jobId = jobId;
+		this.exitStatus = exitStatus;
+		this.unknown = unknown;
+		this.events = events;
+	}
+
+	public String getJobId() {
+		return jobId;
+	}
+
+	/**
+	 * @return exit status, or <code>null</code> if the job finished without
+	 * one, e.g. deleted while queued
+	 */
+	public Integer getExitStatus() {
+		return exitStatus;
+	}
+
+	/**
+	 * @return <code>true</code> if the job could not be found on the server
+	 */
+	public boolean isUnknown() {
+		return unknown;
+	}
+
+	public boolean isSuccess() {
+		return exitStatus != null && exitStatus.intValue() == 0;
+	}
+
+	/**
+	 * @return events parsed from the tracejob output of the job
+	 */
+	public List<TraceJobEvent> getEvents() {
+		return events;
+	}
+
+}
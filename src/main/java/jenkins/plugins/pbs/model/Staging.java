@@ -0,0 +1,64 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.model;
+
+import java.io.Serializable;
+
+/**
+ * Workspace files copied to the execution directory of a job before qsub,
+ * and job files copied back to the workspace once it finished.
+ * @since 0.3
+ */
+public class Staging implements Serializable {
+
+	private static final long serialVersionUID = -3290461737128890513L;
+
+	private final String workspace;
+	private final String stageIn;
+	private final String stageOut;
+
+	/**
+	 * @param workspace workspace of the build, on the PBS slave
+	 * @param stageIn Ant-style patterns of workspace files, or <code>null</code>
+	 * @param stageOut Ant-style patterns of job files, or <code>null</code>
+	 */
+	public Staging(String workspace, String stageIn, String stageOut) {
+		this.workspace = workspace;
+		this.stageIn = stageIn;
+		this.stageOut = stageOut;
+	}
+
+	public String getWorkspace() {
+		return workspace;
+	}
+
+	public String getStageIn() {
+		return stageIn;
+	}
+
+	public String getStageOut() {
+		return stageOut;
+	}
+
+}
@@ -0,0 +1,86 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.model;
+
+import java.io.Serializable;
+
+/**
+ * Limits on the qsub calls of a PBS slave, see
+ * {@link jenkins.plugins.pbs.util.SubmitGovernor}. Zero means no limit.
+ * @since 0.3
+ */
+public class SubmitLimits implements Serializable {
+
+	private static final long serialVersionUID = -4906172436431085372L;
+
+	private final double rate;
+	private final int concurrency;
+	private final int backlog;
+
+	/**
+	 * @param rate qsub calls per second
+	 * @param concurrency qsub calls running at once
+	 * @param backlog submissions allowed to wait, further ones fail
+	 */
+	public SubmitLimits(double rate, int concurrency, int backlog) {
+		this.rate = Math.max(0d, rate);
+		this.concurrency = Math.max(0, concurrency);
+		this.backlog = Math.max(0, backlog);
+	}
+
+	public double getRate() {
+		return rate;
+	}
+
+	public int getConcurrency() {
+		return concurrency;
+	}
+
+	public int getBacklog() {
+		return backlog;
+	}
+
+	/**
+	 * @return <code>true</code> if submissions may have to wait
+	 */
+	public boolean isLimited() {
+		return rate > 0d || concurrency > 0;
+	}
+
+	/**
+	 * @return submissions released at once when the rate allows, one
+	 * second's worth
+	 */
+	public int getBatchSize() {
+		return rate > 0d ? (int) Math.max(1d, Math.ceil(rate)) : Integer.MAX_VALUE;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s/s, %s at once, backlog %s", rate > 0d ? String.valueOf(rate) : "unlimited",
+				concurrency > 0 ? String.valueOf(concurrency) : "unlimited",
+				backlog > 0 ? String.valueOf(backlog) : "unlimited");
+	}
+
+}
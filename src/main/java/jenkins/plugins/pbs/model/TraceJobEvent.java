@@ -0,0 +1,105 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.model;
+
+import java.io.Serializable;
+
+/**
+ * An event found in the output of <code>tracejob</code>.
+ * @since 0.3
+ */
+public class TraceJobEvent implements Serializable {
+
+	private static final long serialVersionUID = 4964325830184436601L;
+
+	/**
+	 * Event types.
+	 */
+	public enum Type {
+		/** Job queued. */
+		QUEUED,
+		/** Job started running. */
+		RUN,
+		/** Job exit status, the value is the exit code. */
+		EXIT_STATUS,
+		/** Job removed from the queue, the value is the final state. */
+		DEQUEUED,
+		/** A resource used by the job, e.g. <code>walltime</code>. */
+		RESOURCES_USED,
+		/** An accounting time, e.g. <code>qtime</code>, the value is in seconds since the epoch. */
+		TIME
+	}
+
+	private final Type type;
+	private final long timestamp;
+	private final char source;
+	private final String name;
+	private final String value;
+
+	public TraceJobEvent(Type type, long timestamp, char source, String name, String value) {
+		super();
+		this.type = type;
+		this.timestamp = timestamp;
+		this.source = source;
+		this.name = name;
+		this.value = value;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * @return time of the log record, in ms since the epoch
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @return log source, e.g. <code>S</code> for server or <code>A</code>
+	 * for accounting
+	 */
+	public char getSource() {
+		return source;
+	}
+
+	/**
+	 * @return resource name for {@link Type#RESOURCES_USED}, <code>null</code>
+	 * otherwise
+	 */
+	public String getName() {
+		return name;
+	}
+
+	public String getValue() {
+		return value;
+	}
+
+	@Override
+	public String toString() {
+		return name == null ? type + " " + value : type + " " + name + "=" + value;
+	}
+
+}
@@ -0,0 +1,96 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.model;
+
+import java.io.Serializable;
+
+/**
+ * A page of the tracejob output of a job.
+ * @since 0.3
+ */
+public class TracePage implements Serializable {
+
+	private static final long serialVersionUID = -6086316468212359520L;
+	private final long offset;
+	private final long nextOffset;
+	private final long size;
+	private final String text;
+	private final long timestamp;
+	private final boolean finished;
+
+	public TracePage(long offset, long nextOffset, long size, String text, long timestamp, boolean finished) {
+		super();
+		this.offset = offset;
+		this.nextOffset = nextOffset;
+		this.size = size;
+		this.text = text;
+		this.timestamp = timestamp;
+		this.finished = finished;
+	}
+
+	/**
+	 * @return offset of the first byte of the page
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
+	/**
+	 * @return offset of the next page
+	 */
+	public long getNextOffset() {
+		return nextOffset;
+	}
+
+	/**
+	 * @return size of the whole output in bytes
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * @return when tracejob was run
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @return <code>true</code> if the trace shows that the job finished, in
+	 * which case it will not change any more
+	 */
+	public boolean isFinished() {
+		return finished;
+	}
+
+	public boolean isEof() {
+		return nextOffset >= size;
+	}
+
+}
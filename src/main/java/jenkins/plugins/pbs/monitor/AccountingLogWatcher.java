@@ -0,0 +1,216 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.monitor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jenkins.plugins.pbs.util.LogTailer;
+import jenkins.plugins.pbs.util.ServerLogIndex;
+
+/**
+ * Follows today's accounting log of the PBS server and completes the jobs
+ * of the {@link JobStatusMonitor} as soon as their <code>E</code> (end)
+ * record is written, instead of waiting for the next poll.
+ *
+ * <p>It wakes up on file change notifications, or every few seconds on
+ * file systems that do not send them, reads what was appended since the
+ * last offset, and moves to the next file at midnight. It only runs while
+ * the monitor has jobs to wait for, and only when the logs are readable
+ * from this machine; polling still completes the jobs otherwise.</p>
+ * @since 0.3
+ */
+final class AccountingLogWatcher implements Runnable {
+
+	private static final Logger LOGGER = Logger.getLogger(AccountingLogWatcher.class.getName());
+
+	/**
+	 * Longest wait for a change notification.
+	 */
+	static final long POLL_MS = 5000L;
+
+	private static final String END_RECORD = ";E;";
+	private static final String EXIT_STATUS = "Exit_status=";
+
+	private final JobStatusMonitor monitor;
+	private final File directory;
+	private LogTailer tailer;
+	private String day;
+
+	AccountingLogWatcher(JobStatusMonitor monitor, File directory) {
+		this.monitor = monitor;
+		this.directory = directory;
+	}
+
+	/**
+	 * @param monitor monitor to notify
+	 * @return a started watcher, or <code>null</code> if there is no readable
+	 * accounting log on this machine
+	 */
+	static AccountingLogWatcher start(JobStatusMonitor monitor) {
+		final ServerLogIndex index = ServerLogIndex.get();
+		if (index == null || !index.getAccounting().isDirectory() || !index.getAccounting().canRead()) {
+			return null;
+		}
+		final AccountingLogWatcher watcher = new AccountingLogWatcher(monitor, index.getAccounting());
+		final Thread thread = new Thread(watcher, "PBS accounting log watcher");
+		thread.setDaemon(true);
+		thread.start();
+		return watcher;
+	}
+
+	public void run() {
+		WatchService watcher = null;
+		try {
+			watcher = FileSystems.getDefault().newWatchService();
+			directory.toPath().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_MODIFY);
+		} catch (IOException e) {
+			LOGGER.log(Level.FINE, "No change notifications for " + directory + ", checking it every " + POLL_MS + " ms", e);
+		}
+		try {
+			// records written before we started are left to polling
+			open(today(), true);
+			while (monitor.isWatching(this)) {
+				if (watcher != null) {
+					final WatchKey key = watcher.poll(POLL_MS, TimeUnit.MILLISECONDS);
+					if (key != null) {
+						key.pollEvents();
+						key.reset();
+					}
+				} else {
+					Thread.sleep(POLL_MS);
+				}
+				read();
+			}
+		} catch (InterruptedException e) {
+			LOGGER.log(Level.FINE, "PBS accounting log watcher interrupted", e);
+		} catch (RuntimeException e) {
+			LOGGER.log(Level.WARNING, "PBS accounting log watcher failed", e);
+		} finally {
+			monitor.watcherStopped(this);
+			if (watcher != null) {
+				try {
+					watcher.close();
+				} catch (IOException e) {
+					LOGGER.log(Level.FINE, "Failed to close the watch service", e);
+				}
+			}
+		}
+	}
+
+	private void open(String name, boolean atEnd) {
+		day = name;
+		tailer = new LogTailer(new File(directory, name).toPath());
+		if (atEnd) {
+			try {
+				tailer.skip(Long.MAX_VALUE);
+			} catch (IOException e) {
+				LOGGER.log(Level.FINE, "Failed to read " + tailer.getPath(), e);
+			}
+		}
+	}
+
+	/**
+	 * Read the new records, moving to the next file after midnight once the
+	 * previous one has been read to its end.
+	 */
+	void read() {
+		final String today = today();
+		read(tailer.getPath(), !today.equals(day));
+		if (!today.equals(day)) {
+			open(today, false);
+			read(tailer.getPath(), false);
+		}
+	}
+
+	private void read(Path path, boolean complete) {
+		final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		try {
+			tailer.tail(buffer, complete);
+		} catch (IOException e) {
+			LOGGER.log(Level.FINE, "Failed to read " + path, e);
+			return;
+		}
+		if (buffer.size() == 0) {
+			return;
+		}
+		for (String line : buffer.toString().split("\n")) {
+			record(line);
+		}
+	}
+
+	/**
+	 * Parse a record, e.g.
+	 * <code>11/10/2013 12:53:40;E;128.localhost;user=kinow ... Exit_status=0 ...</code>
+	 */
+	void record(String line) {
+		final int end = line.indexOf(END_RECORD);
+		if (end < 0) {
+			return;
+		}
+		final int idStart = end + END_RECORD.length();
+		final int idEnd = line.indexOf(';', idStart);
+		if (idEnd < 0) {
+			return;
+		}
+		final String jobId = line.substring(idStart, idEnd);
+		Integer exitStatus = null;
+		final int exit = line.indexOf(EXIT_STATUS, idEnd);
+		if (exit >= 0) {
+			int i = exit + EXIT_STATUS.length();
+			final int from = i;
+			if (i < line.length() && line.charAt(i) == '-') {
+				i++;
+			}
+			while (i < line.length() && Character.isDigit(line.charAt(i))) {
+				i++;
+			}
+			try {
+				exitStatus = Integer.valueOf(line.substring(from, i));
+			} catch (NumberFormatException e) {
+				exitStatus = null;
+			}
+		}
+		// the record as tracejob prints it
+		final String record = line.length() > 19 ? line.substring(0, 19) + "  A    " + line.substring(idEnd + 1) + "\n" : "";
+		monitor.ended(jobId, exitStatus, record);
+	}
+
+	private static String today() {
+		return new SimpleDateFormat("yyyyMMdd").format(new Date());
+	}
+
+}
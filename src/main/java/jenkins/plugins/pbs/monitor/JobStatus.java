@@ -0,0 +1,247 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.monitor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import jenkins.plugins.pbs.model.TraceJobEvent;
+import jenkins.plugins.pbs.util.JobJournal;
+import jenkins.plugins.pbs.util.TraceJobParser;
+
+/**
+ * Status of a job tracked by the {@link JobStatusMonitor}. Callers wait on
+ * it until the job has finished.
+ * @since 0.3
+ */
+public class JobStatus {
+
+	private final String jobId;
+	private final int numberOfDays;
+	private final PollSchedule schedule;
+	private final long submitted;
+	private final CountDownLatch done = new CountDownLatch(1);
+	private final TraceJobParser parser = new TraceJobParser();
+	private volatile List<TraceJobEvent> endEvents = Collections.emptyList();
+	private volatile String state;
+	private volatile Integer exitStatus;
+	private volatile boolean seen;
+	private volatile boolean unknown;
+	private volatile int polls;
+	private volatile int pollsInState;
+	private volatile int misses;
+	private volatile long walltimeRequested = -1L;
+	private volatile long walltimeUsed = -1L;
+	private volatile long nextPoll;
+
+	JobStatus(String jobId, int numberOfDays, PollSchedule schedule) {
+		this(jobId, numberOfDays, schedule, System.currentTimeMillis());
+	}
+
+	JobStatus(String jobId, int numberOfDays, PollSchedule schedule, long submitted) {
+		this.jobId = jobId;
+		this.numberOfDays = numberOfDays;
+		this.schedule = schedule;
+		this.submitted = submitted;
+	}
+
+	public String getJobId() {
+		return jobId;
+	}
+
+	public int getNumberOfDays() {
+		return numberOfDays;
+	}
+
+	/**
+	 * @return when the job was submitted
+	 */
+	public long getSubmitted() {
+		return submitted;
+	}
+
+	public PollSchedule getSchedule() {
+		return schedule;
+	}
+
+	/**
+	 * @return last state reported by the PBS server, or <code>null</code>
+	 */
+	public String getState() {
+		return state;
+	}
+
+	/**
+	 * @return exit status, or <code>null</code> if the job is still running or
+	 * finished without one (e.g. deleted while queued)
+	 */
+	public Integer getExitStatus() {
+		return exitStatus;
+	}
+
+	/**
+	 * @return <code>true</code> if the job could not be found on the server
+	 */
+	public boolean isUnknown() {
+		return unknown;
+	}
+
+	public boolean isComplete() {
+		return done.getCount() == 0;
+	}
+
+	/**
+	 * @return how many times this job was included in a status query
+	 */
+	public int getPolls() {
+		return polls;
+	}
+
+	/**
+	 * @return how many times this job was checked since its state last changed
+	 */
+	public int getPollsInState() {
+		return pollsInState;
+	}
+
+	/**
+	 * @return walltime requested by the job in ms, or -1 if unknown
+	 */
+	public long getWalltimeRequested() {
+		return walltimeRequested;
+	}
+
+	/**
+	 * @return walltime used so far by the job in ms, or -1 if unknown
+	 */
+	public long getWalltimeUsed() {
+		return walltimeUsed;
+	}
+
+	/**
+	 * Wait until the job completes.
+	 * @param timeout maximum time to wait in ms
+	 * @return <code>true</code> if the job is complete
+	 * @throws InterruptedException
+	 */
+	public boolean await(long timeout) throws InterruptedException {
+		return done.await(timeout, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return events found in the tracejob output of the job so far, and in
+	 * its end record if it was read from the accounting log
+	 */
+	public List<TraceJobEvent> getEvents() {
+		if (endEvents.isEmpty()) {
+			return parser.getEvents();
+		}
+		final List<TraceJobEvent> events = new ArrayList<TraceJobEvent>(parser.getEvents());
+		events.addAll(endEvents);
+		return events;
+	}
+
+	/**
+	 * @return <code>true</code> if the events include the resources used
+	 */
+	boolean hasResourcesUsed() {
+		for (TraceJobEvent event : getEvents()) {
+			if (event.getType() == TraceJobEvent.Type.RESOURCES_USED) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	TraceJobParser getParser() {
+		return parser;
+	}
+
+	boolean isSeen() {
+		return seen;
+	}
+
+	long getNextPoll() {
+		return nextPoll;
+	}
+
+	void setNextPoll(long nextPoll) {
+		this.nextPoll = nextPoll;
+	}
+
+	void polled() {
+		polls++;
+		pollsInState++;
+	}
+
+	/**
+	 * @return number of successful qstat calls in a row that did not list the job
+	 */
+	int getMisses() {
+		return misses;
+	}
+
+	void listed() {
+		misses = 0;
+	}
+
+	void missed() {
+		misses++;
+	}
+
+	void update(String state) {
+		this.seen = true;
+		if (state != null && !state.equals(this.state)) {
+			pollsInState = 0;
+			JobJournal.changed(jobId, state, null);
+		}
+		this.state = state;
+	}
+
+	void walltime(long requested, long used) {
+		this.walltimeRequested = requested;
+		this.walltimeUsed = used;
+	}
+
+	void complete(String state, Integer exitStatus) {
+		this.seen = true;
+		this.state = state;
+		this.exitStatus = exitStatus;
+		JobJournal.changed(jobId, state, exitStatus);
+		done.countDown();
+	}
+
+	void ended(List<TraceJobEvent> events) {
+		this.endEvents = events;
+	}
+
+	void notFound() {
+		this.unknown = true;
+		done.countDown();
+	}
+
+}
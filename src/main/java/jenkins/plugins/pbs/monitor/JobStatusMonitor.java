@@ -0,0 +1,636 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.monitor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jenkins.plugins.pbs.model.ArrayRange;
+import jenkins.plugins.pbs.model.TraceJobEvent;
+import jenkins.plugins.pbs.util.CommandResult;
+import jenkins.plugins.pbs.util.CommandStats;
+import jenkins.plugins.pbs.util.Commands;
+import jenkins.plugins.pbs.util.QstatParser;
+import jenkins.plugins.pbs.util.ServerLogIndex;
+import jenkins.plugins.pbs.util.TraceJobParser;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.tupilabs.pbs.PBS;
+import com.tupilabs.pbs.util.CommandOutput;
+
+/**
+ * Tracks every job submitted from this agent and checks their status in one
+ * batched <code>qstat -f</code> per tick, instead of one
+ * <code>tracejob</code> loop per build. <code>tracejob</code> is only
+ * called for jobs that left the queue, to find their exit status.
+ *
+ * <p>There is one monitor per agent JVM, i.e. per PBS slave computer. Its
+ * worker thread stops when there are no jobs left to track.</p>
+ * @since 0.3
+ */
+public final class JobStatusMonitor {
+
+	private static final Logger LOGGER = Logger.getLogger(JobStatusMonitor.class.getName());
+
+	private static final JobStatusMonitor INSTANCE = new JobStatusMonitor();
+
+	/**
+	 * Maximum number of job ids passed to a single qstat call.
+	 */
+	static final int MAX_IDS_PER_QSTAT = 100;
+
+	/**
+	 * Number of successful qstat calls in a row that must miss a job, with
+	 * no trace of it in the logs, before it is reported as not found.
+	 */
+	static final int NOT_FOUND_AFTER = 3;
+
+	/**
+	 * Maximum number of times the delay is doubled while qstat fails.
+	 */
+	private static final int MAX_FAILED_TICKS_BACKOFF = 6;
+
+	/**
+	 * State of a job that left qstat without an exit status yet, checked
+	 * at the minimum span.
+	 */
+	static final String EXITING = "E";
+
+	/**
+	 * How long an aborted build waits for the server to end its deleted jobs, in seconds.
+	 */
+	public static final int CANCEL_TIMEOUT_SECONDS = Integer.getInteger(JobStatusMonitor.class.getName() + ".cancelTimeoutSeconds", 60);
+
+	private final Map<String, JobStatus> jobs = new LinkedHashMap<String, JobStatus>();
+	private final AtomicLong qstatCalls = new AtomicLong();
+	private final AtomicLong traceJobCalls = new AtomicLong();
+	private final AtomicLong logLookups = new AtomicLong();
+	private final AtomicLong pushedCompletions = new AtomicLong();
+	private final AtomicLong ticks = new AtomicLong();
+	private final AtomicLong completedJobs = new AtomicLong();
+	private final AtomicLong completedJobPolls = new AtomicLong();
+	private Thread worker;
+	/**
+	 * Ticks in a row where some qstat call failed, only used by the worker thread.
+	 */
+	private int failedTicks;
+	private AccountingLogWatcher accounting;
+
+	JobStatusMonitor() {
+	}
+
+	public static JobStatusMonitor get() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Start tracking a job.
+	 * @param jobId PBS job id
+	 * @param numberOfDays number of days of logs searched by tracejob
+	 * @param schedule when to check the job status
+	 * @return job status, completed once the job finishes
+	 */
+	public JobStatus register(String jobId, int numberOfDays, PollSchedule schedule) {
+		return register(jobId, numberOfDays, schedule, System.currentTimeMillis());
+	}
+
+	/**
+	 * Start tracking a job submitted some time ago, e.g. when re-attaching to it.
+	 * @param jobId PBS job id
+	 * @param numberOfDays number of days of logs searched by tracejob
+	 * @param schedule when to check the job status
+	 * @param submitted when the job was submitted, the logs are searched from that day on
+	 * @return job status, completed once the job finishes
+	 */
+	public synchronized JobStatus register(String jobId, int numberOfDays, PollSchedule schedule, long submitted) {
+		JobStatus status = jobs.get(jobId);
+		if (status == null) {
+			status = new JobStatus(jobId, numberOfDays, schedule, submitted);
+			status.setNextPoll(System.currentTimeMillis() + schedule.getMinSpan());
+			jobs.put(jobId, status);
+			notifyAll();
+		}
+		if (worker == null) {
+			worker = new Thread(new Runnable() {
+				public void run() {
+					loop();
+				}
+			}, "PBS job status monitor");
+			worker.setDaemon(true);
+			worker.start();
+		}
+		if (accounting == null) {
+			accounting = AccountingLogWatcher.start(this);
+		}
+		return status;
+	}
+
+	/**
+	 * Stop tracking a job.
+	 * @param status job status
+	 */
+	public synchronized void unregister(JobStatus status) {
+		if (jobs.remove(status.getJobId()) != null && status.isComplete()) {
+			completedJobs.incrementAndGet();
+			completedJobPolls.addAndGet(status.getPolls());
+		}
+	}
+
+	/**
+	 * Stop tracking a job, if it is tracked.
+	 * @param jobId PBS job id
+	 */
+	public synchronized void unregister(String jobId) {
+		final JobStatus status = jobs.get(jobId);
+		if (status != null) {
+			unregister(status);
+		}
+	}
+
+	/**
+	 * Delete jobs with qdel and wait until the server no longer runs them.
+	 * Their status is checked right away, and then at their minimum span,
+	 * instead of following their schedule.
+	 * @param jobIds ids given to qdel, e.g. the id of a whole job array
+	 * @param statuses registered statuses of the jobs, or of the sub-jobs of an array
+	 * @param timeout how long to wait for the jobs to end, in ms
+	 * @return <code>true</code> if all the jobs ended within the timeout
+	 */
+	public boolean cancel(Collection<String> jobIds, Collection<JobStatus> statuses, long timeout) {
+		qdel(new ArrayList<String>(jobIds));
+		final long deadline = System.currentTimeMillis() + timeout;
+		for (JobStatus status : statuses) {
+			while (!status.isComplete()) {
+				final long now = System.currentTimeMillis();
+				if (now >= deadline) {
+					return false;
+				}
+				synchronized (this) {
+					if (status.getNextPoll() > now) {
+						status.setNextPoll(now);
+						notifyAll();
+					}
+				}
+				try {
+					status.await(Math.min(deadline - now, status.getSchedule().getMinSpan()));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Delete jobs that are not tracked, with batched qdel and qstat calls,
+	 * without waiting for them to end.
+	 * @param jobIds job ids
+	 * @return ids of the jobs the server still lists as not finished
+	 */
+	public Set<String> delete(Collection<String> jobIds) {
+		final List<String> ids = new ArrayList<String>(jobIds);
+		qdel(ids);
+		final Set<String> answered = new HashSet<String>();
+		final Set<String> running = new HashSet<String>();
+		for (Map.Entry<String, Map<String, String>> job : qstat(ids, answered).entrySet()) {
+			if (!isFinished(job.getValue().get("job_state"))) {
+				running.add(sequence(job.getKey()));
+			}
+		}
+		final Set<String> alive = new LinkedHashSet<String>();
+		for (String jobId : ids) {
+			// a job whose qstat failed may still be running
+			if (running.contains(sequence(jobId)) || !answered.contains(jobId)) {
+				alive.add(jobId);
+			}
+		}
+		return alive;
+	}
+
+	private void qdel(List<String> jobIds) {
+		for (int from = 0; from < jobIds.size(); from += MAX_IDS_PER_QSTAT) {
+			final List<String> command = new ArrayList<String>();
+			command.add("qdel");
+			command.addAll(jobIds.subList(from, Math.min(jobIds.size(), from + MAX_IDS_PER_QSTAT)));
+			final CommandResult result = Commands.run(command.toArray(new String[command.size()]));
+			if (result.getExitCode() != 0) {
+				// jobs that already ended are reported as unknown
+				LOGGER.log(Level.FINE, "qdel {0}: {1}", new Object[] { command, result.getError() });
+			}
+		}
+	}
+
+	public long getQstatCalls() {
+		return qstatCalls.get();
+	}
+
+	public long getTraceJobCalls() {
+		return traceJobCalls.get();
+	}
+
+	/**
+	 * @return number of jobs whose end was looked up in the indexed server logs
+	 */
+	public long getLogLookups() {
+		return logLookups.get();
+	}
+
+	/**
+	 * @return number of jobs completed from their accounting log record,
+	 * before any poll found them finished
+	 */
+	public long getPushedCompletions() {
+		return pushedCompletions.get();
+	}
+
+	public long getTicks() {
+		return ticks.get();
+	}
+
+	/**
+	 * @return number of jobs that completed and were unregistered
+	 */
+	public long getCompletedJobs() {
+		return completedJobs.get();
+	}
+
+	/**
+	 * @return number of status queries that included the completed jobs
+	 */
+	public long getCompletedJobPolls() {
+		return completedJobPolls.get();
+	}
+
+	/**
+	 * Complete a job from its end record in the accounting log.
+	 * @param jobId job id, as written by the server
+	 * @param exitStatus exit status, or <code>null</code> if there was none
+	 * @param record end record in the format of tracejob
+	 * @return <code>true</code> if a job waiting for completion was found
+	 */
+	synchronized boolean ended(String jobId, Integer exitStatus, String record) {
+		JobStatus status = jobs.get(jobId);
+		if (status == null) {
+			// the server may print a different suffix than qsub
+			final String sequence = StringUtils.substringBefore(jobId, ".");
+			for (JobStatus candidate : jobs.values()) {
+				if (sequence.equals(StringUtils.substringBefore(candidate.getJobId(), "."))) {
+					status = candidate;
+					break;
+				}
+			}
+		}
+		if (status == null || status.isComplete()) {
+			return false;
+		}
+		final TraceJobParser parser = new TraceJobParser();
+		parser.parse(record);
+		status.ended(parser.getEvents());
+		status.complete("C", exitStatus);
+		pushedCompletions.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * @return <code>true</code> while the given watcher is the current one
+	 * and there are jobs to wait for, otherwise the watcher must exit
+	 */
+	synchronized boolean isWatching(AccountingLogWatcher watcher) {
+		if (accounting != watcher) {
+			return false;
+		}
+		for (JobStatus status : jobs.values()) {
+			if (!status.isComplete()) {
+				return true;
+			}
+		}
+		accounting = null;
+		return false;
+	}
+
+	synchronized void watcherStopped(AccountingLogWatcher watcher) {
+		if (accounting == watcher) {
+			accounting = null;
+		}
+	}
+
+	/**
+	 * Make sure the events of a finished job include the resources it used,
+	 * reading its trace once more if the job was completed from qstat.
+	 * @param status finished job
+	 * @return events of the job
+	 */
+	public List<TraceJobEvent> details(JobStatus status) {
+		return details(status, true);
+	}
+
+	/**
+	 * @param status finished job
+	 * @param traceJob <code>false</code> to only look in the indexed server
+	 * logs, e.g. for the many sub-jobs of an array
+	 * @return events of the job
+	 */
+	public List<TraceJobEvent> details(JobStatus status, boolean traceJob) {
+		if (status.isComplete() && !status.isUnknown() && !status.hasResourcesUsed()) {
+			final String out = traceJob ? trace(status) : ServerLogIndex.lookup(status.getJobId(), status.getSubmitted());
+			if (StringUtils.isNotBlank(out)) {
+				status.getParser().parse(out);
+			}
+		}
+		return status.getEvents();
+	}
+
+	/**
+	 * @return jobs still waiting for completion, or an empty list, in which
+	 * case the worker thread must exit
+	 */
+	private synchronized List<JobStatus> pending() {
+		final List<JobStatus> pending = new ArrayList<JobStatus>(jobs.size());
+		for (JobStatus status : jobs.values()) {
+			if (!status.isComplete()) {
+				pending.add(status);
+			}
+		}
+		if (pending.isEmpty()) {
+			worker = null;
+		}
+		return pending;
+	}
+
+	private void loop() {
+		while (true) {
+			final List<JobStatus> pending = pending();
+			if (pending.isEmpty()) {
+				return;
+			}
+			// jobs due soon are checked now too, so that they share the same qstat
+			long window = Long.MAX_VALUE;
+			for (JobStatus status : pending) {
+				window = Math.min(window, status.getSchedule().getMinSpan());
+			}
+			final long now = System.currentTimeMillis();
+			final List<JobStatus> due = new ArrayList<JobStatus>();
+			for (JobStatus status : pending) {
+				if (status.getNextPoll() <= now + window) {
+					due.add(status);
+				}
+			}
+			if (!due.isEmpty()) {
+				List<JobStatus> unchecked = due;
+				try {
+					unchecked = poll(due);
+				} catch (RuntimeException e) {
+					LOGGER.log(Level.WARNING, "Failed to check the status of PBS jobs", e);
+				}
+				failedTicks = unchecked.isEmpty() ? 0 : failedTicks + 1;
+				final long polled = System.currentTimeMillis();
+				for (JobStatus status : due) {
+					status.setNextPoll(polled + status.getSchedule().nextDelay(status));
+				}
+				for (JobStatus status : unchecked) {
+					// back off while the server does not answer
+					final PollSchedule schedule = status.getSchedule();
+					status.setNextPoll(polled + Math.min(schedule.getMaxSpan(),
+							schedule.getSpan() << Math.min(failedTicks, MAX_FAILED_TICKS_BACKOFF)));
+				}
+			}
+			sleepUntilNextPoll();
+		}
+	}
+
+	private synchronized void sleepUntilNextPoll() {
+		long next = Long.MAX_VALUE;
+		for (JobStatus status : jobs.values()) {
+			if (!status.isComplete()) {
+				next = Math.min(next, status.getNextPoll());
+			}
+		}
+		final long delay = next - System.currentTimeMillis();
+		if (next != Long.MAX_VALUE && delay > 0) {
+			try {
+				wait(delay);
+			} catch (InterruptedException e) {
+				LOGGER.log(Level.FINE, "PBS job status monitor interrupted", e);
+			}
+		}
+	}
+
+	/**
+	 * Check the status of the given jobs with batched qstat calls, followed
+	 * by tracejob for jobs that are no longer in the queue. Sub-jobs of an
+	 * array are queried through their array, so a whole array costs one id.
+	 * Jobs whose qstat failed, e.g. while the server is unreachable, are
+	 * left for a later tick.
+	 * @param pending jobs to check
+	 * @return jobs that could not be checked
+	 */
+	List<JobStatus> poll(List<JobStatus> pending) {
+		ticks.incrementAndGet();
+		final Set<String> queryIds = new LinkedHashSet<String>();
+		for (JobStatus status : pending) {
+			queryIds.add(ArrayRange.getArrayJobId(status.getJobId()));
+		}
+		final Set<String> answered = new HashSet<String>();
+		final Map<String, Map<String, String>> attributes = qstat(new ArrayList<String>(queryIds), answered);
+		final Map<String, Map<String, String>> bySequence = bySequence(attributes);
+		final List<JobStatus> left = new ArrayList<JobStatus>();
+		final List<JobStatus> unchecked = new ArrayList<JobStatus>();
+		for (JobStatus status : pending) {
+			if (!answered.contains(ArrayRange.getArrayJobId(status.getJobId()))) {
+				unchecked.add(status);
+				continue;
+			}
+			status.polled();
+			Map<String, String> job = attributes.get(status.getJobId());
+			if (job == null) {
+				// qstat may print a different server suffix than qsub, e.g. 128.host and 128.host.domain
+				job = bySequence.get(StringUtils.substringBefore(status.getJobId(), "."));
+			}
+			if (job == null) {
+				status.missed();
+				left.add(status);
+				continue;
+			}
+			status.listed();
+			final String state = job.get("job_state");
+			final String exitStatus = job.containsKey("exit_status") ? job.get("exit_status") : job.get("Exit_status");
+			if (isFinished(state)) {
+				if (StringUtils.isNotBlank(exitStatus)) {
+					status.complete(state, parseExitStatus(exitStatus));
+				} else {
+					left.add(status);
+				}
+			} else {
+				status.update(state);
+				status.walltime(PollSchedule.parseDuration(job.get("Resource_List.walltime")),
+						PollSchedule.parseDuration(job.get("resources_used.walltime")));
+			}
+		}
+		for (JobStatus status : left) {
+			traceJob(status);
+		}
+		return unchecked;
+	}
+
+	/**
+	 * @param answered filled with the ids whose qstat call succeeded
+	 * @return attributes of the jobs listed by qstat
+	 */
+	private Map<String, Map<String, String>> qstat(List<String> jobIds, Set<String> answered) {
+		final Map<String, Map<String, String>> attributes = new HashMap<String, Map<String, String>>();
+		for (int from = 0; from < jobIds.size(); from += MAX_IDS_PER_QSTAT) {
+			final List<String> batch = jobIds.subList(from, Math.min(jobIds.size(), from + MAX_IDS_PER_QSTAT));
+			final List<String> command = new ArrayList<String>(batch.size() + 3);
+			command.add("qstat");
+			command.add("-f");
+			for (String jobId : batch) {
+				if (jobId.contains("[]") && !command.contains("-t")) {
+					// list the sub-jobs of arrays
+					command.add("-t");
+				}
+			}
+			command.addAll(batch);
+			qstatCalls.incrementAndGet();
+			final CommandResult result = Commands.run(command.toArray(new String[command.size()]));
+			if (result.getExitCode() != 0 && !onlyUnknownJobs(result.getError())) {
+				LOGGER.log(Level.WARNING, "qstat failed with exit code {0}: {1}",
+						new Object[] { result.getExitCode(), result.getError().trim() });
+				continue;
+			}
+			answered.addAll(batch);
+			attributes.putAll(QstatParser.parse(result.getOutput()));
+		}
+		return attributes;
+	}
+
+	/**
+	 * @return <code>true</code> if qstat only complained about jobs it does
+	 * not know, which are still listed by a successful call
+	 */
+	static boolean onlyUnknownJobs(String error) {
+		boolean unknown = false;
+		for (String line : error.split("\n")) {
+			if (line.trim().length() == 0) {
+				continue;
+			}
+			// Torque and PBS Pro, and PBS Pro for jobs kept in the history
+			if (!line.contains("Unknown Job Id") && !line.contains("Job has finished")) {
+				return false;
+			}
+			unknown = true;
+		}
+		return unknown;
+	}
+
+	private void traceJob(JobStatus status) {
+		final String out = trace(status);
+		if (StringUtils.isBlank(out)) {
+			if (status.isSeen()) {
+				status.update(EXITING);
+			} else if (status.getMisses() >= NOT_FOUND_AFTER) {
+				status.notFound();
+			}
+			return;
+		}
+		final TraceJobParser parser = status.getParser();
+		parser.parse(out);
+		final String dequeued = parser.getDequeuedState();
+		if (parser.getExitStatus() != null) {
+			status.complete(dequeued != null ? dequeued.toLowerCase() : "exit_status", parser.getExitStatus());
+		} else if (dequeued != null && dequeued.toLowerCase().contains("complete")) {
+			// e.g. deleted before it started running
+			status.complete(dequeued.toLowerCase(), null);
+		} else if (status.isSeen() || parser.isRunning()) {
+			// left qstat, its exit status should be in the logs shortly
+			status.update(EXITING);
+		} else {
+			status.update(status.getState());
+		}
+	}
+
+	/**
+	 * @return records of the job from the indexed server logs, or else from
+	 * tracejob over the days since the job was submitted
+	 */
+	private String trace(JobStatus status) {
+		final String logs = ServerLogIndex.lookup(status.getJobId(), status.getSubmitted());
+		if (logs != null) {
+			logLookups.incrementAndGet();
+			return logs;
+		}
+		traceJobCalls.incrementAndGet();
+		final long days = (System.currentTimeMillis() - status.getSubmitted()) / ServerLogIndex.DAY_MS + 1;
+		final long start = System.nanoTime();
+		String output = null;
+		try {
+			final CommandOutput cmd = PBS.traceJob(status.getJobId(), (int) Math.min(days, status.getNumberOfDays()),
+					true /* quiet mode */);
+			output = cmd.getOutput();
+			return output;
+		} finally {
+			CommandStats.get().record("tracejob", start, output != null, output == null ? 0L : output.length());
+		}
+	}
+
+	private static Map<String, Map<String, String>> bySequence(Map<String, Map<String, String>> attributes) {
+		final Map<String, Map<String, String>> bySequence = new HashMap<String, Map<String, String>>();
+		for (Map.Entry<String, Map<String, String>> entry : attributes.entrySet()) {
+			bySequence.put(StringUtils.substringBefore(entry.getKey(), "."), entry.getValue());
+		}
+		return bySequence;
+	}
+
+	/**
+	 * @return job sequence number, the same for an array and its sub-jobs
+	 */
+	private static String sequence(String jobId) {
+		return StringUtils.substringBefore(StringUtils.substringBefore(jobId, "."), "[");
+	}
+
+	private static boolean isFinished(String state) {
+		// X is a finished sub-job in PBS Pro
+		return "C".equalsIgnoreCase(state) || "F".equalsIgnoreCase(state) || "X".equalsIgnoreCase(state);
+	}
+
+	private static Integer parseExitStatus(String exitStatus) {
+		try {
+			return Integer.valueOf(exitStatus.trim());
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,522 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.monitor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.GroupPrincipal;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import jenkins.plugins.pbs.model.SubmittedJob;
+
+import org.apache.commons.io.FileUtils;
+
+import com.tupilabs.pbs.util.PBSException;
+
+/**
+ * Packs short scripts into long-lived pilot PBS jobs, so that a script costs
+ * a few file writes instead of a scheduler cycle. Each pilot has a directory
+ * on the shared file system, with one sub-directory per task, and runs the
+ * tasks queued there one after the other.
+ *
+ * <p>Scripts share a pilot when they have the same <code>#PBS</code>
+ * directives and run-as user. A pilot takes a limited number of tasks, and
+ * stops taking new ones after its lifetime or once idle for a while. Tasks
+ * it did not start are then moved to another pilot.</p>
+ *
+ * <p>A task only gets the build variables, not the environment of the
+ * agent, as with <code>qsub -v</code>. A started task is killed, with the
+ * processes of its group, once a <code>cancel</code> file appears in its
+ * directory.</p>
+ *
+ * <p>When the pilot runs as another user, its directories are shared with
+ * the group given by the <code>jenkins.plugins.pbs.monitor.PilotPool.group</code>
+ * system property, by default the primary group of the agent user. The run
+ * user must belong to that group; nobody else can read or write them.</p>
+ *
+ * <p>There is one pool per agent JVM, i.e. per PBS slave computer. Pilots
+ * are tracked by the {@link JobStatusMonitor}.</p>
+ * @since 0.3
+ */
+public final class PilotPool {
+
+	private static final Logger LOGGER = Logger.getLogger(PilotPool.class.getName());
+
+	private static final PilotPool INSTANCE = new PilotPool();
+
+	/**
+	 * Seconds a pilot waits for a new task before it ends.
+	 */
+	static final int IDLE_SECONDS = Integer.getInteger(PilotPool.class.getName() + ".idleSeconds", 300);
+
+	/**
+	 * How often a waiting build checks whether its task has finished.
+	 */
+	static final long TASK_POLL_MS = 1000L;
+
+	/**
+	 * Group sharing the pilot directories with the run user.
+	 */
+	static final String GROUP = System.getProperty(PilotPool.class.getName() + ".group");
+
+	private static final Pattern DIRECTIVE = Pattern.compile("^#PBS\\s.*$", Pattern.MULTILINE);
+	private static final Pattern VARIABLE = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+	/**
+	 * Variables of the login session, set by the node running the task.
+	 */
+	private static final Set<String> SESSION_VARIABLES = new HashSet<String>(Arrays.asList("PATH", "HOME",
+			"USER", "LOGNAME", "SHELL", "PWD", "OLDPWD", "SHLVL", "HOSTNAME", "TERM", "MAIL", "TMPDIR", "_"));
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final Map<String, List<Pilot>> pilots = new HashMap<String, List<Pilot>>();
+	private final AtomicLong taskIds = new AtomicLong();
+
+	PilotPool() {
+	}
+
+	public static PilotPool get() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Submits the job of a new pilot.
+	 */
+	public interface Submitter {
+		/**
+		 * @param pilotScript script of the pilot job
+		 * @return the submitted pilot job
+		 */
+		SubmittedJob submit(String pilotScript);
+	}
+
+	/**
+	 * Queue a script in a pilot that can take it, submitting a new pilot if
+	 * none can. The pool stays locked while a pilot is submitted, so that a
+	 * burst of scripts fills one pilot instead of starting one each.
+	 * @param script script of the task; its <code>#PBS</code> directives are
+	 * those of the pilot
+	 * @param environment environment of the task
+	 * @param runUser user the pilot runs as, or empty
+	 * @param logBasename directory of the pilot directories
+	 * @param maxTasks maximum number of tasks run by a pilot
+	 * @param lifetime ms after its start a pilot stops taking tasks
+	 * @param numberOfDays number of days of logs searched by tracejob for the pilot
+	 * @param schedule when to check the status of the pilot
+	 * @param submitter submits a new pilot
+	 * @return the queued task
+	 */
+	public synchronized Task dispatch(String script, Map<String, String> environment, String runUser,
+			String logBasename, int maxTasks, long lifetime, int numberOfDays, PollSchedule schedule,
+			Submitter submitter) {
+		sweep();
+		final String key = runUser + "\n" + getDirectives(script);
+		List<Pilot> candidates = pilots.get(key);
+		if (candidates == null) {
+			candidates = new ArrayList<Pilot>();
+			pilots.put(key, candidates);
+		}
+		Pilot pilot = null;
+		for (Pilot candidate : candidates) {
+			if (candidate.accepts()) {
+				pilot = candidate;
+				break;
+			}
+		}
+		try {
+			if (pilot == null) {
+				pilot = startPilot(script, runUser, logBasename, maxTasks, lifetime, numberOfDays, schedule, submitter);
+				candidates.add(pilot);
+			}
+			return pilot.queue(Long.toString(taskIds.incrementAndGet()), script, environment);
+		} catch (IOException e) {
+			throw new PBSException("Failed to queue the script in a PBS pilot job: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Take a task back from its pilot, if the pilot has not started it.
+	 * @return <code>true</code> if the task was taken back and can be
+	 * dispatched again
+	 */
+	public synchronized boolean withdraw(Task task) {
+		try {
+			return Files.deleteIfExists(task.pilot.directory.resolve("queue").resolve(task.id));
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Failed to withdraw task " + task.id, e);
+			return false;
+		}
+	}
+
+	/**
+	 * Take a task back from its pilot, or have the pilot kill it if it
+	 * already started, and wait until it ends.
+	 * @param timeout how long to wait for the task to end, in ms
+	 * @return <code>true</code> if the task was taken back or ended within the timeout
+	 */
+	public boolean cancel(Task task, long timeout) {
+		if (withdraw(task)) {
+			return true;
+		}
+		try {
+			Files.createFile(task.directory.resolve("cancel"));
+		} catch (FileAlreadyExistsException e) {
+			// cancelled already
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Failed to cancel task " + task.id, e);
+			return false;
+		}
+		try {
+			return task.await(timeout);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/**
+	 * Remove the directory of a finished or withdrawn task, and the pilots
+	 * that are over and have no task left. The directory of a task the pilot
+	 * still runs, e.g. one that did not end yet after its cancellation, is
+	 * kept for the pilot and removed with it.
+	 */
+	public synchronized void release(Task task) {
+		if (task.isDone() || !Files.exists(task.pilot.directory.resolve("claimed").resolve(task.id))) {
+			try {
+				FileUtils.deleteDirectory(task.directory.toFile());
+			} catch (IOException e) {
+				LOGGER.log(Level.WARNING, "Failed to remove task directory " + task.directory, e);
+			}
+		}
+		task.pilot.outstanding--;
+		sweep();
+	}
+
+	/**
+	 * @return number of pilots tracked by this agent
+	 */
+	public synchronized int getPilots() {
+		int count = 0;
+		for (List<Pilot> list : pilots.values()) {
+			count += list.size();
+		}
+		return count;
+	}
+
+	private void sweep() {
+		for (Iterator<List<Pilot>> lists = pilots.values().iterator(); lists.hasNext();) {
+			final List<Pilot> list = lists.next();
+			for (Iterator<Pilot> it = list.iterator(); it.hasNext();) {
+				final Pilot pilot = it.next();
+				if (pilot.status.isComplete() && pilot.outstanding <= 0) {
+					JobStatusMonitor.get().unregister(pilot.status);
+					delete(pilot.directory.toFile());
+					delete(new File(pilot.executionDirectory));
+					it.remove();
+				}
+			}
+			if (list.isEmpty()) {
+				lists.remove();
+			}
+		}
+	}
+
+	private static void delete(File directory) {
+		try {
+			FileUtils.deleteDirectory(directory);
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Failed to remove pilot directory " + directory, e);
+		}
+	}
+
+	private Pilot startPilot(String script, String runUser, String logBasename, int maxTasks, long lifetime,
+			int numberOfDays, PollSchedule schedule, Submitter submitter) throws IOException {
+		final String base = logBasename.length() > 0 ? logBasename : System.getProperty("java.io.tmpdir");
+		final Path directory = Files.createTempDirectory(Paths.get(base), "jenkinsPilot_");
+		final boolean shared = runUser.length() > 0;
+		share(directory, shared);
+		share(Files.createDirectory(directory.resolve("tasks")), shared);
+		share(Files.createDirectory(directory.resolve("queue")), shared);
+		share(Files.createDirectory(directory.resolve("claimed")), shared);
+		final SubmittedJob job;
+		try {
+			job = submitter.submit(getPilotScript(directory, getDirectives(script), maxTasks, lifetime));
+		} catch (RuntimeException e) {
+			delete(directory.toFile());
+			throw e;
+		}
+		final JobStatus status = JobStatusMonitor.get().register(job.getJobId(), numberOfDays, schedule);
+		return new Pilot(job.getJobId(), job.getExecutionDirectory(), directory, status, maxTasks, lifetime, shared);
+	}
+
+	private static String getDirectives(String script) {
+		final StringBuilder directives = new StringBuilder();
+		final Matcher matcher = DIRECTIVE.matcher(script);
+		while (matcher.find()) {
+			directives.append(matcher.group().trim()).append('\n');
+		}
+		return directives.toString();
+	}
+
+	/**
+	 * The pilot claims a task by moving its marker from <code>queue</code> to
+	 * <code>claimed</code>, so that a task it did not claim can be withdrawn
+	 * safely. Each task runs in its own session, watched for a
+	 * <code>cancel</code> file. The exit status is written last, under a
+	 * temporary name.
+	 */
+	private static String getPilotScript(Path directory, String directives, int maxTasks, long lifetime) {
+		final StringBuilder script = new StringBuilder("#!/bin/sh\n");
+		script.append("#PBS -N jenkins-pilot\n");
+		script.append(directives);
+		script.append("dir='").append(directory).append("'\n");
+		script.append("# a process group per task, where setsid is available\n");
+		script.append("setsid=$(command -v setsid)\n");
+		script.append("date +%s > \"$dir/started\"\n");
+		script.append("end=$(( $(date +%s) + ").append(lifetime / 1000L).append(" ))\n");
+		script.append("idle_end=$(( $(date +%s) + ").append(IDLE_SECONDS).append(" ))\n");
+		script.append("tasks=0\n");
+		script.append("while [ \"$tasks\" -lt ").append(maxTasks).append(" ] && [ \"$(date +%s)\" -lt \"$end\" ]; do\n");
+		script.append("    task=$(ls \"$dir/queue\" | head -n 1)\n");
+		script.append("    if [ -z \"$task\" ]; then\n");
+		script.append("        [ \"$(date +%s)\" -ge \"$idle_end\" ] && break\n");
+		script.append("        sleep 1\n");
+		script.append("        continue\n");
+		script.append("    fi\n");
+		script.append("    mv \"$dir/queue/$task\" \"$dir/claimed/$task\" || continue\n");
+		script.append("    tasks=$(( tasks + 1 ))\n");
+		script.append("    task_dir=\"$dir/tasks/$task\"\n");
+		script.append("    (cd \"$task_dir\" && . ./env && exec $setsid ./script > out 2> err) &\n");
+		script.append("    pid=$!\n");
+		script.append("    (while kill -0 \"$pid\" 2> /dev/null; do\n");
+		script.append("        if [ -e \"$task_dir/cancel\" ]; then kill -TERM -\"$pid\" 2> /dev/null || kill -TERM \"$pid\"; break; fi\n");
+		script.append("        sleep 1\n");
+		script.append("    done) &\n");
+		script.append("    watcher=$!\n");
+		script.append("    wait \"$pid\"\n");
+		script.append("    echo $? > \"$task_dir/exit.tmp\"\n");
+		script.append("    kill \"$watcher\" 2> /dev/null\n");
+		script.append("    mv \"$task_dir/exit.tmp\" \"$task_dir/exit\"\n");
+		script.append("    idle_end=$(( $(date +%s) + ").append(IDLE_SECONDS).append(" ))\n");
+		script.append("done\n");
+		return script.toString();
+	}
+
+	/**
+	 * Let the agent and the run user, and only them, work in a directory.
+	 */
+	private static void share(Path path, boolean shared) throws IOException {
+		if (!shared) {
+			return;
+		}
+		if (GROUP != null) {
+			final GroupPrincipal group = path.getFileSystem().getUserPrincipalLookupService().lookupPrincipalByGroupName(GROUP);
+			Files.getFileAttributeView(path, PosixFileAttributeView.class).setGroup(group);
+		}
+		Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("rwxrwx---"));
+	}
+
+	/**
+	 * @return exports of the build variables, leaving out the variables of
+	 * the login session and those inherited unchanged from the agent
+	 */
+	static String getEnvironmentFile(Map<String, String> environment) {
+		final StringBuilder env = new StringBuilder();
+		for (Map.Entry<String, String> entry : environment.entrySet()) {
+			if (entry.getValue() == null || !VARIABLE.matcher(entry.getKey()).matches()
+					|| SESSION_VARIABLES.contains(entry.getKey())
+					|| entry.getValue().equals(System.getenv(entry.getKey()))) {
+				continue;
+			}
+			env.append("export ").append(entry.getKey()).append("='")
+					.append(entry.getValue().replace("'", "'\\''")).append("'\n");
+		}
+		return env.toString();
+	}
+
+	/**
+	 * A pilot job and its directory.
+	 */
+	static final class Pilot {
+		private final String jobId;
+		private final String executionDirectory;
+		private final Path directory;
+		private final JobStatus status;
+		private final int maxTasks;
+		private final long lifetime;
+		private final boolean shared;
+		private int assigned;
+		private int outstanding;
+
+		Pilot(String jobId, String executionDirectory, Path directory, JobStatus status, int maxTasks,
+				long lifetime, boolean shared) {
+			this.jobId = jobId;
+			this.executionDirectory = executionDirectory;
+			this.directory = directory;
+			this.status = status;
+			this.maxTasks = maxTasks;
+			this.lifetime = lifetime;
+			this.shared = shared;
+		}
+
+		boolean accepts() {
+			return !status.isComplete() && assigned < maxTasks && getRemaining() > 0;
+		}
+
+		/**
+		 * @return ms left before the pilot stops taking tasks; the whole
+		 * lifetime while it waits in the PBS queue
+		 */
+		long getRemaining() {
+			final Path started = directory.resolve("started");
+			if (!Files.exists(started)) {
+				return lifetime;
+			}
+			try {
+				final String seconds = new String(Files.readAllBytes(started), UTF_8).trim();
+				return Long.parseLong(seconds) * 1000L + lifetime - System.currentTimeMillis();
+			} catch (IOException e) {
+				return lifetime;
+			} catch (NumberFormatException e) {
+				// being written
+				return lifetime;
+			}
+		}
+
+		Task queue(String id, String script, Map<String, String> environment) throws IOException {
+			final Path taskDirectory = Files.createDirectory(directory.resolve("tasks").resolve(id));
+			share(taskDirectory, shared);
+			final Path scriptFile = Files.write(taskDirectory.resolve("script"), script.getBytes(UTF_8));
+			// run as ./script, so that its shebang is honored
+			Files.setPosixFilePermissions(scriptFile, PosixFilePermissions.fromString(shared ? "rwxr-x---" : "rwx------"));
+			Files.write(taskDirectory.resolve("env"), getEnvironmentFile(environment).getBytes(UTF_8));
+			// the marker goes last, the pilot may start the task right away
+			Files.createFile(directory.resolve("queue").resolve(id));
+			assigned++;
+			outstanding++;
+			return new Task(id, this, taskDirectory);
+		}
+	}
+
+	/**
+	 * A script queued in a pilot.
+	 */
+	public static final class Task {
+		private final String id;
+		private final Pilot pilot;
+		private final Path directory;
+
+		Task(String id, Pilot pilot, Path directory) {
+			this.id = id;
+			this.pilot = pilot;
+			this.directory = directory;
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		/**
+		 * @return id of the pilot job
+		 */
+		public String getJobId() {
+			return pilot.jobId;
+		}
+
+		public Path getOut() {
+			return directory.resolve("out");
+		}
+
+		public Path getErr() {
+			return directory.resolve("err");
+		}
+
+		/**
+		 * @return <code>true</code> once the task has finished
+		 */
+		public boolean isDone() {
+			return Files.exists(directory.resolve("exit"));
+		}
+
+		/**
+		 * @return <code>true</code> if the pilot is over; tasks it did not
+		 * finish have to be withdrawn or failed
+		 */
+		public boolean isPilotOver() {
+			return pilot.status.isComplete();
+		}
+
+		/**
+		 * @return exit status of the task, or <code>null</code> if unknown
+		 */
+		public Integer getExitStatus() {
+			try {
+				return Integer.valueOf(new String(Files.readAllBytes(directory.resolve("exit")), UTF_8).trim());
+			} catch (IOException e) {
+				return null;
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+
+		/**
+		 * Wait until the task finishes or the pilot is over.
+		 * @param timeout maximum time to wait in ms
+		 * @return <code>true</code> if the task finished or the pilot is over
+		 */
+		public boolean await(long timeout) throws InterruptedException {
+			final long deadline = System.currentTimeMillis() + timeout;
+			while (true) {
+				if (isDone() || isPilotOver()) {
+					return true;
+				}
+				final long left = deadline - System.currentTimeMillis();
+				if (left <= 0) {
+					return false;
+				}
+				pilot.status.await(Math.min(left, TASK_POLL_MS));
+			}
+		}
+	}
+
+}
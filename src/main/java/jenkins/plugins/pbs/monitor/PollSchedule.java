@@ -0,0 +1,142 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.monitor;
+
+import java.io.Serializable;
+import java.util.Random;
+
+/**
+ * Decides when a job must be checked again, based on its state. Queued jobs
+ * are checked less and less often, running jobs more often as they get close
+ * to their requested walltime, and jobs that are exiting as soon as possible.
+ * A random jitter keeps jobs submitted together from being polled in
+ * lockstep.
+ * @since 0.3
+ */
+public class PollSchedule implements Serializable {
+
+	private static final long serialVersionUID = -2206573931620009451L;
+
+	/**
+	 * Jitter, as a fraction of the computed delay.
+	 */
+	static final double JITTER = 0.2d;
+
+	/**
+	 * Maximum number of times the delay of a queued job is doubled.
+	 */
+	private static final int MAX_BACKOFF = 6;
+
+	private static final Random RANDOM = new Random();
+
+	private final long span;
+	private final long minSpan;
+	private final long maxSpan;
+
+	/**
+	 * @param span delay used for running jobs, in ms
+	 * @param minSpan minimum delay, in ms
+	 * @param maxSpan maximum delay, in ms
+	 */
+	public PollSchedule(long span, long minSpan, long maxSpan) {
+		this.minSpan = Math.max(1L, Math.min(minSpan, span));
+		this.maxSpan = Math.max(maxSpan, span);
+		this.span = span;
+	}
+
+	public long getSpan() {
+		return span;
+	}
+
+	public long getMinSpan() {
+		return minSpan;
+	}
+
+	public long getMaxSpan() {
+		return maxSpan;
+	}
+
+	/**
+	 * @param status job status
+	 * @return delay until the next check of the job, in ms
+	 */
+	public long nextDelay(JobStatus status) {
+		final String state = status.getState();
+		final long delay;
+		if (state == null || isQueued(state)) {
+			delay = span << Math.min(status.getPollsInState(), MAX_BACKOFF);
+		} else if ("R".equalsIgnoreCase(state)) {
+			final long requested = status.getWalltimeRequested();
+			final long used = status.getWalltimeUsed();
+			if (requested > 0L && used >= 0L) {
+				delay = Math.min(span, (requested - used) / 4);
+			} else {
+				delay = span;
+			}
+		} else {
+			// exiting, or left the queue and waiting for its exit status in the logs
+			delay = minSpan;
+		}
+		return clamp(jitter(delay));
+	}
+
+	private long jitter(long delay) {
+		final double factor;
+		synchronized (RANDOM) {
+			factor = 1.0d - JITTER + 2 * JITTER * RANDOM.nextDouble();
+		}
+		return (long) (delay * factor);
+	}
+
+	private long clamp(long delay) {
+		return Math.max(minSpan, Math.min(maxSpan, delay));
+	}
+
+	private static boolean isQueued(String state) {
+		return "Q".equalsIgnoreCase(state) || "H".equalsIgnoreCase(state)
+				|| "W".equalsIgnoreCase(state) || "T".equalsIgnoreCase(state)
+				|| "S".equalsIgnoreCase(state);
+	}
+
+	/**
+	 * Parse a PBS duration, e.g. <code>240:00:00</code>.
+	 * @param duration duration as <code>[[HH:]MM:]SS</code>
+	 * @return duration in ms, or -1 if it cannot be parsed
+	 */
+	public static long parseDuration(String duration) {
+		if (duration == null || duration.trim().length() == 0) {
+			return -1L;
+		}
+		long seconds = 0L;
+		for (String part : duration.trim().split(":")) {
+			try {
+				seconds = seconds * 60 + Long.parseLong(part);
+			} catch (NumberFormatException e) {
+				return -1L;
+			}
+		}
+		return seconds * 1000L;
+	}
+
+}
@@ -0,0 +1,399 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.slaves;
+
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.Computer;
+import hudson.model.Descriptor;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.Channel;
+import hudson.slaves.Cloud;
+import hudson.slaves.NodeProvisioner.PlannedNode;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jenkins.model.Jenkins;
+import jenkins.plugins.pbs.PBSBuilder;
+import jenkins.plugins.pbs.PBSBuilder.PBSBuilderDescriptor;
+import jenkins.plugins.pbs.model.ClusterSnapshot;
+import jenkins.plugins.pbs.model.JobSummary;
+import jenkins.plugins.pbs.model.SubmittedJob;
+import jenkins.plugins.pbs.tasks.Qdel;
+import jenkins.plugins.pbs.tasks.SubmitJob;
+import jenkins.plugins.pbs.util.CommandResult;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import com.tupilabs.pbs.util.PBSException;
+
+/**
+ * Cloud that provisions agents as PBS jobs. The launcher job is submitted
+ * through a {@link PBSSlave}, starts a JNLP agent on the compute node and is
+ * deleted with qdel once the agent is idle. A pool of idle agents is kept
+ * running, so that builds do not wait in the PBS queue.
+ * @since 0.3
+ */
+public class PBSCloud extends Cloud {
+
+	private static final Logger LOGGER = Logger.getLogger(PBSCloud.class.getName());
+
+	private static final int DEFAULT_LAUNCH_TIMEOUT = 600;
+
+	private static final Random RANDOM = new Random();
+
+	private final String slave;
+	private final String labelString;
+	private final int numExecutors;
+	private final String remoteFS;
+	private final String jobHeader;
+	private final String queue;
+	private final int maxAgents;
+	private final int poolSize;
+	private final int idleMinutes;
+	private final int maxQueuedJobs;
+	private final int launchTimeout;
+
+	/**
+	 * @param slave name of the {@link PBSSlave} that submits the agent jobs
+	 * @param jobHeader lines added at the top of the agent job script
+	 * @param queue PBS queue of the agent jobs, or empty for the default one
+	 * @param maxAgents maximum agents, 0 for no limit
+	 * @param poolSize idle agents to keep running
+	 * @param idleMinutes minutes an agent over the pool size stays idle before it is released
+	 * @param maxQueuedJobs no new agents while the PBS queue has this many jobs waiting, 0 for no limit
+	 * @param launchTimeout seconds an agent job may take to start and connect
+	 */
+	@DataBoundConstructor
+	public PBSCloud(String name, String slave, String labelString, int numExecutors, String remoteFS,
+			String jobHeader, String queue, int maxAgents, int poolSize, int idleMinutes, int maxQueuedJobs,
+			int launchTimeout) {
+		super(name);
+		this.slave = Util.fixEmptyAndTrim(slave);
+		this.labelString = Util.fixNull(labelString).trim();
+		this.numExecutors = Math.max(1, numExecutors);
+		this.remoteFS = Util.fixEmptyAndTrim(remoteFS) == null ? "/tmp/jenkins" : remoteFS.trim();
+		this.jobHeader = Util.fixNull(jobHeader).trim();
+		this.queue = Util.fixEmptyAndTrim(queue);
+		this.maxAgents = Math.max(0, maxAgents);
+		this.poolSize = Math.max(0, poolSize);
+		this.idleMinutes = Math.max(1, idleMinutes);
+		this.maxQueuedJobs = Math.max(0, maxQueuedJobs);
+		this.launchTimeout = launchTimeout > 0 ? launchTimeout : DEFAULT_LAUNCH_TIMEOUT;
+	}
+
+	public String getSlave() {
+		return slave;
+	}
+
+	public String getLabelString() {
+		return labelString;
+	}
+
+	public int getNumExecutors() {
+		return numExecutors;
+	}
+
+	public String getRemoteFS() {
+		return remoteFS;
+	}
+
+	public String getJobHeader() {
+		return jobHeader;
+	}
+
+	public String getQueue() {
+		return queue;
+	}
+
+	public int getMaxAgents() {
+		return maxAgents;
+	}
+
+	public int getPoolSize() {
+		return poolSize;
+	}
+
+	public int getIdleMinutes() {
+		return idleMinutes;
+	}
+
+	public int getMaxQueuedJobs() {
+		return maxQueuedJobs;
+	}
+
+	public int getLaunchTimeout() {
+		return launchTimeout;
+	}
+
+	@Override
+	public boolean canProvision(Label label) {
+		return label == null ? labelString.isEmpty() : label.matches(Label.parse(labelString));
+	}
+
+	@Override
+	public synchronized Collection<PlannedNode> provision(Label label, int excessWorkload) {
+		final int count = countToProvision(label, excessWorkload);
+		final List<PlannedNode> planned = new ArrayList<PlannedNode>(count);
+		for (int i = 0; i < count; i++) {
+			final PBSCloudSlave agent;
+			try {
+				agent = newAgent();
+			} catch (Exception e) {
+				LOGGER.log(Level.WARNING, "Failed to create a PBS agent of " + name, e);
+				break;
+			}
+			planned.add(new PlannedNode(agent.getNodeName(), Computer.threadPoolForRemoting.submit(new Callable<Node>() {
+				public Node call() {
+					return agent;
+				}
+			}), numExecutors));
+		}
+		if (count > 0) {
+			LOGGER.info(String.format("Provisioning %d PBS agents of %s for an excess workload of %d", count, name,
+					excessWorkload));
+		}
+		return planned;
+	}
+
+	/**
+	 * Agents to start for the load of a label. Never more than the builds
+	 * waiting in the Jenkins queue need, as the excess workload is a smoothed
+	 * estimate, and none while the PBS queue is over its limit, since a new
+	 * allocation would only wait there.
+	 */
+	private int countToProvision(Label label, int excessWorkload) {
+		final PBSSlaveComputer computer = getSubmitComputer();
+		if (computer == null) {
+			return 0;
+		}
+		final int waiting = Jenkins.getInstance().getQueue().countBuildableItemsFor(label);
+		int count = (Math.min(excessWorkload, waiting) + numExecutors - 1) / numExecutors;
+		if (maxAgents > 0) {
+			count = Math.min(count, maxAgents - getAgents().size());
+		}
+		if (maxQueuedJobs > 0) {
+			count = Math.min(count, maxQueuedJobs - countQueuedJobs(computer));
+		}
+		return Math.max(0, count);
+	}
+
+	/**
+	 * Start agents until the pool has enough idle ones. Called by the
+	 * {@link PBSCloudPool}.
+	 */
+	synchronized void maintainPool() throws IOException, Descriptor.FormException {
+		if (poolSize == 0 || getSubmitComputer() == null) {
+			return;
+		}
+		final List<PBSCloudSlave> agents = getAgents();
+		int idle = countIdle(agents);
+		int total = agents.size();
+		while (idle < poolSize && (maxAgents == 0 || total < maxAgents)) {
+			final PBSCloudSlave agent = newAgent();
+			LOGGER.info(String.format("Starting PBS agent %s for the pool of %s", agent.getNodeName(), name));
+			Jenkins.getInstance().addNode(agent);
+			idle++;
+			total++;
+		}
+	}
+
+	/**
+	 * Release an idle agent, unless it is needed to keep the pool full.
+	 * @return <code>true</code> if the agent was released
+	 */
+	synchronized boolean release(PBSCloudSlave agent) throws IOException, InterruptedException {
+		if (countIdle(getAgents()) <= poolSize) {
+			return false;
+		}
+		LOGGER.info(String.format("Releasing idle PBS agent %s of %s", agent.getNodeName(), name));
+		agent.terminate();
+		return true;
+	}
+
+	/**
+	 * Submit the job that starts an agent.
+	 * @param secret JNLP secret of the agent
+	 */
+	SubmittedJob submit(PBSCloudSlave agent, String secret, TaskListener listener)
+			throws IOException, InterruptedException {
+		final PBSSlaveComputer computer = getSubmitComputer();
+		final Channel channel = computer == null ? null : computer.getChannel();
+		if (channel == null) {
+			throw new AbortException(String.format("PBS slave %s is offline, cannot start agent %s", slave,
+					agent.getNodeName()));
+		}
+		final String rootUrl = Jenkins.getInstance().getRootUrl();
+		if (rootUrl == null) {
+			throw new AbortException("The Jenkins URL is not configured, PBS agents cannot connect");
+		}
+		final PBSBuilderDescriptor descriptor = (PBSBuilderDescriptor) Jenkins.getInstance().getDescriptor(PBSBuilder.class);
+		final PBSSlave node = computer.getNode();
+		try {
+			return channel.call(new SubmitJob(getScript(agent, rootUrl), descriptor.getRunUser(),
+					descriptor.getLogHostname(), descriptor.getLogBasename(), new HashMap<String, String>(),
+					node == null ? null : node.getSubmitLimits(), secret, listener));
+		} catch (PBSException e) {
+			throw new AbortException(e.getMessage());
+		}
+	}
+
+	/**
+	 * Delete the job of an agent and its work directory.
+	 */
+	void cancel(String jobId, String executionDirectory, TaskListener listener)
+			throws IOException, InterruptedException {
+		final PBSSlaveComputer computer = getSubmitComputer();
+		final Channel channel = computer == null ? null : computer.getChannel();
+		if (channel == null) {
+			listener.error("PBS slave %s is offline, cannot delete PBS job %s", slave, jobId);
+			return;
+		}
+		final CommandResult result = channel.call(new Qdel(jobId));
+		if (result.getExitCode() != 0) {
+			// the job is usually just over
+			listener.getLogger().println(String.format("qdel %s: %s", jobId, result.getError().trim()));
+		}
+		if (executionDirectory != null) {
+			new FilePath(channel, executionDirectory).deleteRecursive();
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if a snapshot taken after the given time no
+	 * longer lists the job as queued or running
+	 */
+	boolean isJobOver(String jobId, long since) {
+		final PBSSlaveComputer computer = getSubmitComputer();
+		final ClusterSnapshot snapshot = computer == null ? null : computer.getSnapshot();
+		if (snapshot == null || snapshot.getTimestamp() < since) {
+			return false;
+		}
+		for (JobSummary job : snapshot.getAllJobs()) {
+			if (job.getId().equals(jobId)) {
+				return "C".equalsIgnoreCase(job.getState()) || "E".equalsIgnoreCase(job.getState());
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the slave that submits the agent jobs, or <code>null</code> if
+	 * it is offline
+	 */
+	private PBSSlaveComputer getSubmitComputer() {
+		final Computer computer = slave == null ? null : Jenkins.getInstance().getComputer(slave);
+		if (!(computer instanceof PBSSlaveComputer) || computer.isOffline()) {
+			return null;
+		}
+		return (PBSSlaveComputer) computer;
+	}
+
+	private int countQueuedJobs(PBSSlaveComputer computer) {
+		final ClusterSnapshot snapshot = computer.getSnapshot();
+		if (snapshot == null) {
+			return 0;
+		}
+		int queued = 0;
+		for (JobSummary job : snapshot.getAllJobs()) {
+			if ("Q".equalsIgnoreCase(job.getState()) && (queue == null || queue.equals(job.getQueue()))) {
+				queued++;
+			}
+		}
+		return queued;
+	}
+
+	private List<PBSCloudSlave> getAgents() {
+		final List<PBSCloudSlave> agents = new ArrayList<PBSCloudSlave>();
+		for (Node node : Jenkins.getInstance().getNodes()) {
+			if (node instanceof PBSCloudSlave && name.equals(((PBSCloudSlave) node).getCloudName())) {
+				agents.add((PBSCloudSlave) node);
+			}
+		}
+		return agents;
+	}
+
+	/**
+	 * Agents that can take a build now or once their job starts.
+	 */
+	private static int countIdle(List<PBSCloudSlave> agents) {
+		int idle = 0;
+		for (PBSCloudSlave agent : agents) {
+			final Computer computer = agent.toComputer();
+			if (computer == null || computer.isConnecting() || (computer.isOnline() && computer.isIdle())) {
+				idle++;
+			}
+		}
+		return idle;
+	}
+
+	private PBSCloudSlave newAgent() throws IOException, Descriptor.FormException {
+		final String agentName;
+		synchronized (RANDOM) {
+			agentName = String.format("%s-%08x", name, RANDOM.nextInt());
+		}
+		return new PBSCloudSlave(agentName, name, remoteFS + "/" + agentName, numExecutors, labelString,
+				new PBSCloudRetentionStrategy(idleMinutes));
+	}
+
+	/**
+	 * @return script starting the agent, with the secret that {@link SubmitJob}
+	 * sets in the script
+	 */
+	private String getScript(PBSCloudSlave agent, String rootUrl) {
+		final StringBuilder script = new StringBuilder("#!/bin/sh\n");
+		script.append("#PBS -N jenkins-agent\n");
+		if (queue != null) {
+			script.append("#PBS -q ").append(queue).append('\n');
+		}
+		if (!jobHeader.isEmpty()) {
+			script.append(jobHeader).append('\n');
+		}
+		script.append(String.format("mkdir -p '%1$s' && cd '%1$s' || exit 1\n", agent.getRemoteFS()));
+		script.append(String.format("curl -sSf -o slave.jar '%sjnlpJars/slave.jar' || exit 1\n", rootUrl));
+		script.append(String.format("exec java -jar slave.jar -jnlpUrl '%scomputer/%s/slave-agent.jnlp' -secret \"$%s\"\n",
+				rootUrl, Util.rawEncode(agent.getNodeName()), SubmitJob.SECRET_VARIABLE));
+		return script.toString();
+	}
+
+	@Extension
+	public static final class DescriptorImpl extends Descriptor<Cloud> {
+		public String getDisplayName() {
+			return "PBS Cloud";
+		}
+	}
+
+}
@@ -0,0 +1,82 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.slaves;
+
+import hudson.model.TaskListener;
+import hudson.slaves.JNLPLauncher;
+import hudson.slaves.SlaveComputer;
+
+import java.io.IOException;
+
+/**
+ * Submits the PBS job of a {@link PBSCloudSlave} and waits until the agent
+ * started by the job connects back over JNLP.
+ * @since 0.3
+ */
+public class PBSCloudLauncher extends JNLPLauncher {
+
+	private static final long POLL_MS = 2000L;
+
+	@Override
+	public boolean isLaunchSupported() {
+		return true;
+	}
+
+	@Override
+	public void launch(SlaveComputer computer, TaskListener listener) {
+		final PBSCloudSlave agent = (PBSCloudSlave) computer.getNode();
+		final PBSCloud cloud = agent == null ? null : agent.getCloud();
+		if (cloud == null) {
+			listener.error("PBS cloud of agent %s no longer exists", computer.getName());
+			return;
+		}
+		try {
+			if (agent.getJobId() == null) {
+				agent.setJob(cloud.submit(agent, computer.getJnlpMac(), listener));
+			}
+			listener.getLogger().println(String.format("Waiting for PBS job %s to start agent %s", agent.getJobId(),
+					agent.getNodeName()));
+			final long deadline = agent.getSubmitted() + cloud.getLaunchTimeout() * 1000L;
+			while (!computer.isOnline()) {
+				if (System.currentTimeMillis() > deadline) {
+					listener.error("Agent %s did not connect within %d s, deleting PBS job %s", agent.getNodeName(),
+							cloud.getLaunchTimeout(), agent.getJobId());
+					agent.terminate();
+					return;
+				}
+				if (cloud.isJobOver(agent.getJobId(), agent.getSubmitted())) {
+					listener.error("PBS job %s ended before agent %s connected", agent.getJobId(), agent.getNodeName());
+					agent.terminate();
+					return;
+				}
+				Thread.sleep(POLL_MS);
+			}
+		} catch (IOException e) {
+			e.printStackTrace(listener.error("Failed to start PBS agent " + agent.getNodeName()));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,65 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.slaves;
+
+import hudson.Extension;
+import hudson.model.PeriodicWork;
+import hudson.slaves.Cloud;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jenkins.model.Jenkins;
+
+/**
+ * Keeps the pool of idle agents of every {@link PBSCloud} full.
+ * @since 0.3
+ */
+@Extension
+public class PBSCloudPool extends PeriodicWork {
+
+	private static final Logger LOGGER = Logger.getLogger(PBSCloudPool.class.getName());
+
+	private static final long RECURRENCE_PERIOD_MS = 30000L;
+
+	@Override
+	public long getRecurrencePeriod() {
+		return RECURRENCE_PERIOD_MS;
+	}
+
+	@Override
+	protected void doRun() throws Exception {
+		for (Cloud cloud : Jenkins.getInstance().clouds) {
+			if (!(cloud instanceof PBSCloud)) {
+				continue;
+			}
+			try {
+				((PBSCloud) cloud).maintainPool();
+			} catch (Exception e) {
+				LOGGER.log(Level.WARNING, "Failed to fill the agent pool of " + cloud.name, e);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,100 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.slaves;
+
+import hudson.Extension;
+import hudson.model.Descriptor;
+import hudson.slaves.RetentionStrategy;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Releases a {@link PBSCloudSlave} with qdel once it has been idle for a
+ * while and is not needed by the pool, once its PBS job is over, or once it
+ * has waited longer than the launch timeout for a job.
+ * @since 0.3
+ */
+public class PBSCloudRetentionStrategy extends RetentionStrategy<PBSCloudComputer> {
+
+	private static final Logger LOGGER = Logger.getLogger(PBSCloudRetentionStrategy.class.getName());
+
+	private static final long MINUTE_MS = 60000L;
+
+	private final int idleMinutes;
+
+	public PBSCloudRetentionStrategy(int idleMinutes) {
+		this.idleMinutes = idleMinutes;
+	}
+
+	public int getIdleMinutes() {
+		return idleMinutes;
+	}
+
+	@Override
+	public synchronized long check(PBSCloudComputer computer) {
+		final PBSCloudSlave agent = computer.getNode();
+		if (agent == null) {
+			return 1;
+		}
+		try {
+			if (agent.getJobId() == null) {
+				// the submission failed, or Jenkins restarted before it was recorded
+				final PBSCloud cloud = agent.getCloud();
+				if (cloud == null || System.currentTimeMillis() - agent.getCreated() > cloud.getLaunchTimeout() * 1000L) {
+					LOGGER.info(String.format("PBS agent %s has no PBS job, removing it", agent.getNodeName()));
+					agent.terminate();
+				}
+			} else if (computer.isOffline() && !computer.isConnecting()) {
+				// walltime reached, or the job was deleted outside Jenkins
+				LOGGER.info(String.format("PBS agent %s disconnected, removing it", agent.getNodeName()));
+				agent.terminate();
+			} else if (computer.isOnline() && computer.isIdle()
+					&& System.currentTimeMillis() - computer.getIdleStartMilliseconds() > idleMinutes * MINUTE_MS) {
+				final PBSCloud cloud = agent.getCloud();
+				if (cloud == null) {
+					agent.terminate();
+				} else {
+					cloud.release(agent);
+				}
+			}
+		} catch (Exception e) {
+			LOGGER.log(Level.WARNING, "Failed to release PBS agent " + agent.getNodeName(), e);
+		}
+		return 1;
+	}
+
+	@Override
+	public void start(PBSCloudComputer computer) {
+		computer.connect(false);
+	}
+
+	@Extension
+	public static final class DescriptorImpl extends Descriptor<RetentionStrategy<?>> {
+		public String getDisplayName() {
+			return "Release idle PBS agents";
+		}
+	}
+
+}
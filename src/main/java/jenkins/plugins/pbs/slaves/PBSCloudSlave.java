@@ -0,0 +1,132 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.slaves;
+
+import hudson.Extension;
+import hudson.model.Descriptor;
+import hudson.model.TaskListener;
+import hudson.slaves.AbstractCloudSlave;
+import hudson.slaves.Cloud;
+import hudson.slaves.NodeProperty;
+import hudson.slaves.RetentionStrategy;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import jenkins.model.Jenkins;
+import jenkins.plugins.pbs.model.SubmittedJob;
+
+/**
+ * Agent started by a {@link PBSCloud}, running inside a PBS job.
+ * @since 0.3
+ */
+public class PBSCloudSlave extends AbstractCloudSlave {
+
+	private static final long serialVersionUID = 4087323411285163523L;
+
+	private final String cloudName;
+	private final long created = System.currentTimeMillis();
+	private volatile String jobId;
+	private volatile String executionDirectory;
+	private volatile long submitted;
+
+	public PBSCloudSlave(String name, String cloudName, String remoteFS, int numExecutors, String labelString,
+			RetentionStrategy<PBSCloudComputer> retentionStrategy) throws Descriptor.FormException, IOException {
+		super(name, "PBS agent of " + cloudName, remoteFS, numExecutors,
+				labelString.isEmpty() ? Mode.NORMAL : Mode.EXCLUSIVE, labelString, new PBSCloudLauncher(),
+				retentionStrategy, Collections.<NodeProperty<?>> emptyList());
+		this.cloudName = cloudName;
+	}
+
+	public String getCloudName() {
+		return cloudName;
+	}
+
+	/**
+	 * @return the cloud of this agent, or <code>null</code> if it was removed
+	 */
+	public PBSCloud getCloud() {
+		final Cloud cloud = Jenkins.getInstance().getCloud(cloudName);
+		return cloud instanceof PBSCloud ? (PBSCloud) cloud : null;
+	}
+
+	/**
+	 * @return when the agent was provisioned
+	 */
+	public long getCreated() {
+		return created;
+	}
+
+	/**
+	 * @return id of the PBS job running the agent, or <code>null</code> if
+	 * not submitted yet
+	 */
+	public String getJobId() {
+		return jobId;
+	}
+
+	/**
+	 * @return when the PBS job was submitted
+	 */
+	public long getSubmitted() {
+		return submitted;
+	}
+
+	void setJob(SubmittedJob job) {
+		this.jobId = job.getJobId();
+		this.executionDirectory = job.getExecutionDirectory();
+		this.submitted = System.currentTimeMillis();
+	}
+
+	@Override
+	public PBSCloudComputer createComputer() {
+		return new PBSCloudComputer(this);
+	}
+
+	@Override
+	protected void _terminate(TaskListener listener) throws IOException, InterruptedException {
+		if (jobId == null) {
+			return;
+		}
+		final PBSCloud cloud = getCloud();
+		if (cloud == null) {
+			listener.error("PBS cloud %s no longer exists, cannot delete PBS job %s", cloudName, jobId);
+			return;
+		}
+		cloud.cancel(jobId, executionDirectory, listener);
+	}
+
+	@Extension
+	public static final class DescriptorImpl extends SlaveDescriptor {
+		public String getDisplayName() {
+			return "PBS Cloud Agent";
+		}
+
+		@Override
+		public boolean isInstantiable() {
+			return false;
+		}
+	}
+
+}
@@ -0,0 +1,172 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.slaves;
+
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.Job;
+import hudson.model.PeriodicWork;
+import hudson.model.Run;
+import hudson.remoting.VirtualChannel;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jenkins.model.Jenkins;
+import jenkins.plugins.pbs.PBSBuilder;
+import jenkins.plugins.pbs.PBSBuilder.PBSBuilderDescriptor;
+import jenkins.plugins.pbs.model.JobOwner;
+import jenkins.plugins.pbs.tasks.DeleteOrphans;
+import jenkins.plugins.pbs.tasks.ListJobOwners;
+
+/**
+ * Finds the execution directories and PBS jobs of every online
+ * {@link PBSSlaveComputer} whose owning build no longer runs, e.g. after the
+ * build was deleted, or was aborted while its agent was disconnected, and
+ * deletes them in batches.
+ *
+ * <p>Only the jobs submitted by this Jenkins instance are considered, as
+ * several instances may share a slave. A build that cannot be found, e.g.
+ * while its job is being loaded or renamed, is only given up after a grace
+ * period.</p>
+ * @since 0.3
+ */
+@Extension
+public class PBSOrphanSweeper extends PeriodicWork {
+
+	private static final Logger LOGGER = Logger.getLogger(PBSOrphanSweeper.class.getName());
+
+	private static final long RECURRENCE_PERIOD_MS = 10 * 60 * 1000L;
+
+	/**
+	 * Maximum number of orphans deleted per slave and sweep.
+	 */
+	static final int BATCH_SIZE = Integer.getInteger(PBSOrphanSweeper.class.getName() + ".batchSize", 100);
+
+	/**
+	 * Minutes a build must stay unknown before its jobs are orphans.
+	 */
+	static final int GRACE_MINUTES = Integer.getInteger(PBSOrphanSweeper.class.getName() + ".graceMinutes", 60);
+
+	/**
+	 * When the build of an execution directory was first found missing, by
+	 * slave and directory.
+	 */
+	private final Map<String, Long> missingSince = new HashMap<String, Long>();
+
+	/**
+	 * @return environment of a build, recording this Jenkins instance as the
+	 * owner of the jobs submitted with it
+	 */
+	public static EnvVars withInstance(EnvVars environment) {
+		final EnvVars owned = new EnvVars(environment);
+		owned.put(JobOwner.INSTANCE_VARIABLE, getInstanceId());
+		return owned;
+	}
+
+	private static String getInstanceId() {
+		return Jenkins.getInstance().getLegacyInstanceId();
+	}
+
+	@Override
+	public long getRecurrencePeriod() {
+		return RECURRENCE_PERIOD_MS;
+	}
+
+	@Override
+	protected void doRun() throws Exception {
+		final PBSBuilderDescriptor descriptor = (PBSBuilderDescriptor) Jenkins.getInstance().getDescriptor(PBSBuilder.class);
+		for (Computer computer : Jenkins.getInstance().getComputers()) {
+			if (!(computer instanceof PBSSlaveComputer) || computer.isOffline()) {
+				continue;
+			}
+			final VirtualChannel channel = computer.getChannel();
+			if (channel == null) {
+				continue;
+			}
+			try {
+				sweep(computer.getName(), channel, descriptor.getLogBasename());
+			} catch (Exception e) {
+				LOGGER.log(Level.WARNING, "Failed to delete the orphaned PBS jobs of " + computer.getName(), e);
+			}
+		}
+	}
+
+	private void sweep(String name, VirtualChannel channel, String logBasename) throws Exception {
+		final String instance = getInstanceId();
+		final long now = System.currentTimeMillis();
+		final List<JobOwner> orphans = new ArrayList<JobOwner>();
+		final Set<String> listed = new HashSet<String>();
+		for (JobOwner owner : channel.call(new ListJobOwners(logBasename))) {
+			if (instance == null || !instance.equals(owner.getInstance())) {
+				continue;
+			}
+			final String key = name + "\n" + owner.getExecutionDirectory();
+			listed.add(key);
+			if (isOrphan(key, owner, now) && orphans.size() < BATCH_SIZE) {
+				orphans.add(owner);
+			}
+		}
+		for (Iterator<String> keys = missingSince.keySet().iterator(); keys.hasNext();) {
+			final String key = keys.next();
+			if (key.startsWith(name + "\n") && !listed.contains(key)) {
+				keys.remove();
+			}
+		}
+		if (orphans.isEmpty()) {
+			return;
+		}
+		final List<JobOwner> deleted = channel.call(new DeleteOrphans(orphans));
+		LOGGER.log(Level.INFO, "Deleted {0} of {1} orphaned PBS job directories on {2}, the others wait for their job to end",
+				new Object[] { deleted.size(), orphans.size(), name });
+	}
+
+	/**
+	 * @return <code>true</code> if the build that submitted the job is over,
+	 * or has been missing for the grace period
+	 */
+	private boolean isOrphan(String key, JobOwner owner, long now) {
+		final Job<?, ?> job = Jenkins.getInstance().getItemByFullName(owner.getJobName(), Job.class);
+		final Run<?, ?> build = job == null ? null : job.getBuildByNumber(owner.getBuildNumber());
+		if (build != null) {
+			missingSince.remove(key);
+			return !build.isBuilding();
+		}
+		Long since = missingSince.get(key);
+		if (since == null) {
+			since = now;
+			missingSince.put(key, since);
+		}
+		return now - since >= GRACE_MINUTES * 60L * 1000L;
+	}
+
+}
@@ -35,7 +35,10 @@ import java.io.IOException;
 import java.util.List;
 import java.util.logging.Logger;
 
+import jenkins.plugins.pbs.model.SubmitLimits;
+
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 
 /**
  * PBS slave.
@@ -47,6 +50,10 @@ public class PBSSlave extends Slave {
 	
 	private static final Logger LOGGER = Logger.getLogger(PBSSlave.class.getName());
 
+	private double submitRate;
+	private int submitConcurrency;
+	private int submitBacklog;
+
 	/*
 	 * Due to warning defined in the inherited types.
 	 */
@@ -55,6 +62,53 @@ public class PBSSlave extends Slave {
 	public PBSSlave(String name, String nodeDescription, String remoteFS, String numExecutors, Mode mode, String labelString, ComputerLauncher launcher, RetentionStrategy retentionStrategy, List<? extends NodeProperty<?>> nodeProperties) throws Descriptor.FormException, IOException {
 		super(name, nodeDescription, remoteFS, numExecutors, mode, labelString, launcher, retentionStrategy, nodeProperties);
 	}
+
+	/**
+	 * @return qsub calls per second allowed on this slave, 0 for no limit
+	 * @since 0.3
+	 */
+	public double getSubmitRate() {
+		return submitRate;
+	}
+
+	@DataBoundSetter
+	public void setSubmitRate(double submitRate) {
+		this.submitRate = Math.max(0d, submitRate);
+	}
+
+	/**
+	 * @return qsub calls allowed to run at the same time on this slave, 0 for no limit
+	 * @since 0.3
+	 */
+	public int getSubmitConcurrency() {
+		return submitConcurrency;
+	}
+
+	@DataBoundSetter
+	public void setSubmitConcurrency(int submitConcurrency) {
+		this.submitConcurrency = Math.max(0, submitConcurrency);
+	}
+
+	/**
+	 * @return submissions allowed to wait for the limits before failing, 0 for no limit
+	 * @since 0.3
+	 */
+	public int getSubmitBacklog() {
+		return submitBacklog;
+	}
+
+	@DataBoundSetter
+	public void setSubmitBacklog(int submitBacklog) {
+		this.submitBacklog = Math.max(0, submitBacklog);
+	}
+
+	/**
+	 * @return the submission limits, enforced on the slave by the {@link jenkins.plugins.pbs.util.SubmitGovernor}
+	 * @since 0.3
+	 */
+	public SubmitLimits getSubmitLimits() {
+		return new SubmitLimits(submitRate, submitConcurrency, submitBacklog);
+	}
 	
 	/* (non-Javadoc)
 	 * @see hudson.model.Slave#createComputer()
@@ -30,8 +30,29 @@ import hudson.slaves.SlaveComputer;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import jenkins.model.Jenkins;
+import jenkins.plugins.pbs.PBSBuilder;
+import jenkins.plugins.pbs.PBSBuilder.PBSBuilderDescriptor;
+import jenkins.plugins.pbs.model.AgentStats;
+import jenkins.plugins.pbs.model.ClusterSnapshot;
+import jenkins.plugins.pbs.model.ClusterSnapshotDelta;
+import jenkins.plugins.pbs.model.CommandStat;
+import jenkins.plugins.pbs.tasks.GetAgentStats;
+import jenkins.plugins.pbs.tasks.GetClusterSnapshot;
+import jenkins.plugins.pbs.util.CommandStats;
+
 import org.jenkinsci.remoting.RoleChecker;
 
 import com.tupilabs.pbs.PBS;
@@ -46,6 +67,27 @@ public class PBSSlaveComputer extends SlaveComputer {
 	
 	protected static final Logger LOGGER = Logger.getLogger(PBSSlaveComputer.class.getName());
 
+	/**
+	 * Threads shared by the snapshot refreshes of all PBS slaves.
+	 */
+	private static final int REFRESH_THREADS = Integer.getInteger(PBSSlaveComputer.class.getName() + ".refreshThreads", 8);
+
+	private static final ExecutorService REFRESH_POOL = Executors.newFixedThreadPool(REFRESH_THREADS, new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+		public Thread newThread(Runnable r) {
+			final Thread thread = new Thread(r, "PBS snapshot refresh " + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private final AtomicBoolean refreshing = new AtomicBoolean();
+	private final AtomicBoolean collecting = new AtomicBoolean();
+	private final CommandStats remoting = new CommandStats();
+	private volatile ClusterSnapshot snapshot;
+	private volatile String snapshotError;
+	private volatile AgentStats agentStats;
+
 	/**
 	 * @param slave
 	 */
@@ -61,6 +103,10 @@ public class PBSSlaveComputer extends SlaveComputer {
 		return (PBSSlave)super.getNode();
 	}
 	
+	/**
+	 * @deprecated use {@link #getSnapshot()}, which does not call the slave
+	 */
+	@Deprecated
 	public List<Queue> getQueues() throws IOException, InterruptedException {
 		Channel channel = getChannel();
 		if (channel == null)
@@ -69,16 +115,174 @@ public class PBSSlaveComputer extends SlaveComputer {
 		return queues;
 	}
 	
+	/**
+	 * @deprecated use {@link #getSnapshot()}, which does not call the slave
+	 */
+	@Deprecated
 	public List<Job> getJobs(Queue queue) throws IOException, InterruptedException {
 		List<Job> jobs = getChannel().call(new GetPBSJobs(queue));
 		return jobs;
 	}
 	
+	/**
+	 * Get the last snapshot of the queues and jobs of the PBS server, without
+	 * calling the slave. If the snapshot is older than the maximum age, a
+	 * refresh is started in the background.
+	 * @return last snapshot, or <code>null</code> if none was taken yet
+	 * @since 0.3
+	 */
+	public ClusterSnapshot getSnapshot() {
+		final ClusterSnapshot current = snapshot;
+		if (current == null || current.getAge() > getDescriptor().getSnapshotMaxAge()) {
+			refreshSnapshotAsync();
+		}
+		return current;
+	}
+
+	/**
+	 * @return <code>true</code> if there is no snapshot or it is older than the
+	 * maximum age
+	 * @since 0.3
+	 */
+	public boolean isSnapshotStale() {
+		final ClusterSnapshot current = snapshot;
+		return current == null || current.getAge() > getDescriptor().getSnapshotMaxAge();
+	}
+
+	/**
+	 * Refresh the snapshot in the background, unless a refresh is already
+	 * running.
+	 * @since 0.3
+	 */
+	public void refreshSnapshotAsync() {
+		if (!refreshing.compareAndSet(false, true)) {
+			return;
+		}
+		REFRESH_POOL.submit(new Runnable() {
+			public void run() {
+				try {
+					refreshSnapshot();
+				} catch (Exception e) {
+					LOGGER.log(Level.FINE, "Failed to refresh the PBS status of " + getName(), e);
+					snapshotError = e.getMessage();
+				} finally {
+					refreshing.set(false);
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return why the last refresh failed, or <code>null</code> if it succeeded
+	 * @since 0.3
+	 */
+	public String getSnapshotError() {
+		return snapshotError;
+	}
+
+	/**
+	 * Take a new snapshot of the queues and jobs of the PBS server. Gives up
+	 * after the snapshot timeout, keeping the previous snapshot.
+	 * @return new snapshot, or the previous one if the slave is offline
+	 * @since 0.3
+	 */
+	public ClusterSnapshot refreshSnapshot() throws IOException, InterruptedException {
+		final Channel channel = getChannel();
+		if (channel == null) {
+			return snapshot;
+		}
+		final long deadline = System.currentTimeMillis() + getDescriptor().getSnapshotTimeout();
+		final ClusterSnapshot current = snapshot;
+		ClusterSnapshotDelta delta = call(channel, new GetClusterSnapshot(current == null ? -1L : current.getVersion()), deadline);
+		if (!delta.isFull() && (current == null || delta.getBaseVersion() != current.getVersion())) {
+			// the slave does not know our version any more
+			delta = call(channel, new GetClusterSnapshot(-1L), deadline);
+		}
+		final ClusterSnapshot updated = delta.isFull() ? ClusterSnapshot.fromDelta(delta) : current.apply(delta);
+		snapshot = updated.withTimestamp(System.currentTimeMillis());
+		snapshotError = null;
+		return snapshot;
+	}
+
+	/**
+	 * Collect the command statistics of the slave in the background, unless
+	 * a collection is already running.
+	 * @since 0.3
+	 */
+	public void refreshStatsAsync() {
+		if (!collecting.compareAndSet(false, true)) {
+			return;
+		}
+		REFRESH_POOL.submit(new Runnable() {
+			public void run() {
+				try {
+					final Channel channel = getChannel();
+					if (channel != null) {
+						agentStats = call(channel, new GetAgentStats(),
+								System.currentTimeMillis() + getDescriptor().getSnapshotTimeout());
+					}
+				} catch (Exception e) {
+					LOGGER.log(Level.FINE, "Failed to collect the PBS statistics of " + getName(), e);
+				} finally {
+					collecting.set(false);
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return statistics of the PBS commands run by the slave, as last
+	 * collected, or <code>null</code>
+	 * @since 0.3
+	 */
+	public AgentStats getAgentStats() {
+		return agentStats;
+	}
+
+	/**
+	 * @return round-trip time of the calls made to the slave by the master,
+	 * by callable
+	 * @since 0.3
+	 */
+	public List<CommandStat> getRemotingStats() {
+		return remoting.snapshot();
+	}
+
+	private <V, T extends Throwable> V call(Channel channel, Callable<V, T> callable, long deadline)
+			throws IOException, InterruptedException {
+		final long start = System.nanoTime();
+		boolean success = false;
+		final Future<V> future = channel.callAsync(callable);
+		try {
+			final V result = future.get(Math.max(0L, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+			success = true;
+			return result;
+		} catch (TimeoutException e) {
+			future.cancel(true);
+			throw new IOException("PBS slave did not answer in time", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Failed to get the PBS status: " + e.getCause().getMessage(), e.getCause());
+		} finally {
+			remoting.record(callable.getClass().getSimpleName(), start, success, 0L);
+		}
+	}
+
+	private static PBSBuilderDescriptor getDescriptor() {
+		return (PBSBuilderDescriptor) Jenkins.getInstance().getDescriptor(PBSBuilder.class);
+	}
+
 	private static final class GetPBSQueues implements Callable<List<Queue>,RuntimeException> {
 		private static final long serialVersionUID = -9174853723996041340L;
 
 		public List<Queue> call() {
-            return PBS.qstatQueues();
+			final long start = System.nanoTime();
+			List<Queue> queues = null;
+			try {
+				queues = PBS.qstatQueues();
+				return queues;
+			} finally {
+				CommandStats.get().record("qstat", start, queues != null, 0L);
+			}
         }
 
 		@Override
@@ -95,7 +299,13 @@ public class PBSSlaveComputer extends SlaveComputer {
 			this.queue = queue;
 		}
         public List<Job> call() {
-            List<Job> jobs = PBS.qstat(queue.getName());
+            final long start = System.nanoTime();
+            List<Job> jobs = null;
+            try {
+                jobs = PBS.qstat(queue.getName());
+            } finally {
+                CommandStats.get().record("qstat", start, jobs != null, 0L);
+            }
             for(Job job : jobs) {
             	job.setId(job.getId().trim());
             }
@@ -0,0 +1,164 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.slaves;
+
+import hudson.model.Computer;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import jenkins.model.Jenkins;
+import jenkins.plugins.pbs.model.AgentStats;
+import jenkins.plugins.pbs.model.CommandStat;
+
+/**
+ * {@link PBSStatsMXBean} of one slave. Reads the last statistics collected
+ * by its {@link PBSSlaveComputer} on every access.
+ * @since 0.3
+ */
+public class PBSStats implements PBSStatsMXBean {
+
+	private static final Logger LOGGER = Logger.getLogger(PBSStats.class.getName());
+
+	private static final String DOMAIN = "jenkins.plugins.pbs";
+
+	/**
+	 * Beans registered by this plug-in, by slave name.
+	 */
+	private static final Map<String, ObjectName> REGISTERED = new HashMap<String, ObjectName>();
+
+	private final String agent;
+
+	PBSStats(String agent) {
+		this.agent = agent;
+	}
+
+	/**
+	 * Register a bean for every given slave and unregister the beans of
+	 * slaves that are gone.
+	 * @param agents names of the PBS slaves
+	 */
+	static synchronized void register(Set<String> agents) {
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (Map.Entry<String, ObjectName> entry : new HashMap<String, ObjectName>(REGISTERED).entrySet()) {
+			if (!agents.contains(entry.getKey())) {
+				try {
+					server.unregisterMBean(entry.getValue());
+				} catch (JMException e) {
+					LOGGER.log(Level.FINE, "Failed to unregister " + entry.getValue(), e);
+				}
+				REGISTERED.remove(entry.getKey());
+			}
+		}
+		for (String agent : agents) {
+			if (REGISTERED.containsKey(agent)) {
+				continue;
+			}
+			try {
+				final ObjectName name = new ObjectName(DOMAIN + ":type=PBSStats,agent=" + ObjectName.quote(agent));
+				if (!server.isRegistered(name)) {
+					server.registerMBean(new PBSStats(agent), name);
+				}
+				REGISTERED.put(agent, name);
+			} catch (JMException e) {
+				LOGGER.log(Level.WARNING, "Failed to register the PBS statistics of " + agent, e);
+			}
+		}
+	}
+
+	public String getAgent() {
+		return agent;
+	}
+
+	public boolean isOnline() {
+		final PBSSlaveComputer computer = getComputer();
+		return computer != null && computer.isOnline();
+	}
+
+	public long getTimestamp() {
+		final AgentStats stats = getStats();
+		return stats == null ? 0L : stats.getTimestamp();
+	}
+
+	public List<CommandStat> getCommands() {
+		final AgentStats stats = getStats();
+		return stats == null ? Collections.<CommandStat>emptyList() : stats.getCommands();
+	}
+
+	public List<CommandStat> getRemoting() {
+		final PBSSlaveComputer computer = getComputer();
+		return computer == null ? Collections.<CommandStat>emptyList() : computer.getRemotingStats();
+	}
+
+	public long getQstatCalls() {
+		final AgentStats stats = getStats();
+		return stats == null ? 0L : stats.getQstatCalls();
+	}
+
+	public long getTraceJobCalls() {
+		final AgentStats stats = getStats();
+		return stats == null ? 0L : stats.getTraceJobCalls();
+	}
+
+	public long getLogLookups() {
+		final AgentStats stats = getStats();
+		return stats == null ? 0L : stats.getLogLookups();
+	}
+
+	public long getPushedCompletions() {
+		final AgentStats stats = getStats();
+		return stats == null ? 0L : stats.getPushedCompletions();
+	}
+
+	public long getCompletedJobs() {
+		final AgentStats stats = getStats();
+		return stats == null ? 0L : stats.getCompletedJobs();
+	}
+
+	public double getPollsPerJob() {
+		final AgentStats stats = getStats();
+		return stats == null ? 0d : stats.getPollsPerJob();
+	}
+
+	private AgentStats getStats() {
+		final PBSSlaveComputer computer = getComputer();
+		return computer == null ? null : computer.getAgentStats();
+	}
+
+	private PBSSlaveComputer getComputer() {
+		final Computer computer = Jenkins.getInstance().getComputer(agent);
+		return computer instanceof PBSSlaveComputer ? (PBSSlaveComputer) computer : null;
+	}
+
+}
@@ -0,0 +1,68 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.slaves;
+
+import java.util.List;
+
+import jenkins.plugins.pbs.model.CommandStat;
+
+/**
+ * PBS command statistics of a slave, exposed over JMX as
+ * <code>jenkins.plugins.pbs:type=PBSStats,agent=&lt;name&gt;</code>.
+ * @since 0.3
+ */
+public interface PBSStatsMXBean {
+
+	String getAgent();
+
+	boolean isOnline();
+
+	/**
+	 * @return when the statistics were last collected from the slave, or 0
+	 */
+	long getTimestamp();
+
+	/**
+	 * @return statistics of the commands run on the slave
+	 */
+	List<CommandStat> getCommands();
+
+	/**
+	 * @return round-trip time of the remoting calls made to the slave
+	 */
+	List<CommandStat> getRemoting();
+
+	long getQstatCalls();
+
+	long getTraceJobCalls();
+
+	long getLogLookups();
+
+	long getPushedCompletions();
+
+	long getCompletedJobs();
+
+	double getPollsPerJob();
+
+}
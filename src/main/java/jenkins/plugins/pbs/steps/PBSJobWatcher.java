@@ -0,0 +1,143 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.steps;
+
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.PeriodicWork;
+import hudson.remoting.VirtualChannel;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jenkins.model.Jenkins;
+import jenkins.plugins.pbs.model.PBSJobResult;
+import jenkins.plugins.pbs.monitor.PollSchedule;
+import jenkins.plugins.pbs.tasks.GetJobStatuses;
+
+/**
+ * Waits for the jobs of every running {@link PBSStep}. Once per period it
+ * sends each PBS slave one {@link GetJobStatuses} call with all the jobs
+ * submitted there, and completes the steps whose jobs have finished.
+ * @since 0.3
+ */
+@Extension
+public class PBSJobWatcher extends PeriodicWork {
+
+	private static final Logger LOGGER = Logger.getLogger(PBSJobWatcher.class.getName());
+
+	private static final long RECURRENCE_PERIOD_MS = 5000L;
+
+	private static final long CALL_TIMEOUT_MS = 60000L;
+
+	private final Map<String, PBSStepExecution> executions = new ConcurrentHashMap<String, PBSStepExecution>();
+
+	public static PBSJobWatcher get() {
+		return PeriodicWork.all().get(PBSJobWatcher.class);
+	}
+
+	@Override
+	public long getRecurrencePeriod() {
+		return RECURRENCE_PERIOD_MS;
+	}
+
+	public void watch(PBSStepExecution execution) {
+		executions.put(key(execution.getAgent(), execution.getJobId()), execution);
+	}
+
+	public void unwatch(PBSStepExecution execution) {
+		executions.remove(key(execution.getAgent(), execution.getJobId()));
+	}
+
+	/**
+	 * @return number of jobs being waited for
+	 */
+	public int getSize() {
+		return executions.size();
+	}
+
+	@Override
+	protected void doRun() throws Exception {
+		// jobs of an agent share a call, unless they were submitted with other settings
+		final Map<String, List<PBSStepExecution>> groups = new HashMap<String, List<PBSStepExecution>>();
+		for (PBSStepExecution execution : executions.values()) {
+			final PollSchedule schedule = execution.getSchedule();
+			final String group = String.format("%s/%d/%d/%d/%d", execution.getAgent(), execution.getNumberOfDays(),
+					schedule.getSpan(), schedule.getMinSpan(), schedule.getMaxSpan());
+			List<PBSStepExecution> list = groups.get(group);
+			if (list == null) {
+				list = new ArrayList<PBSStepExecution>();
+				groups.put(group, list);
+			}
+			list.add(execution);
+		}
+		final Map<String, Future<List<PBSJobResult>>> calls = new HashMap<String, Future<List<PBSJobResult>>>();
+		for (Map.Entry<String, List<PBSStepExecution>> entry : groups.entrySet()) {
+			final PBSStepExecution first = entry.getValue().get(0);
+			final Computer computer = Jenkins.getInstance().getComputer(first.getAgent());
+			final VirtualChannel channel = computer == null ? null : computer.getChannel();
+			if (channel == null) {
+				// offline, try again later
+				continue;
+			}
+			final Map<String, Long> jobs = new HashMap<String, Long>();
+			for (PBSStepExecution execution : entry.getValue()) {
+				jobs.put(execution.getJobId(), execution.getSubmitted());
+			}
+			calls.put(entry.getKey(), channel.callAsync(new GetJobStatuses(jobs, first.getNumberOfDays(), first.getSchedule())));
+		}
+		for (Map.Entry<String, Future<List<PBSJobResult>>> call : calls.entrySet()) {
+			final String agent = groups.get(call.getKey()).get(0).getAgent();
+			final List<PBSJobResult> results;
+			try {
+				results = call.getValue().get(CALL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+			} catch (Exception e) {
+				LOGGER.log(Level.WARNING, "Failed to get the status of PBS jobs on " + agent, e);
+				continue;
+			}
+			for (final PBSJobResult result : results) {
+				final PBSStepExecution execution = executions.remove(key(agent, result.getJobId()));
+				if (execution != null) {
+					Computer.threadPoolForRemoting.submit(new Runnable() {
+						public void run() {
+							execution.finished(result);
+						}
+					});
+				}
+			}
+		}
+	}
+
+	private static String key(String agent, String jobId) {
+		return agent + '/' + jobId;
+	}
+
+}
@@ -0,0 +1,89 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.steps;
+
+import hudson.Extension;
+import hudson.Util;
+
+import org.jenkinsci.plugins.workflow.steps.AbstractStepDescriptorImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepImpl;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+/**
+ * Pipeline step that submits a PBS job and waits for it without holding an
+ * executor or an agent thread. When <code>agent</code> is set the step can
+ * be used outside of a <code>node</code> block.
+ * @since 0.3
+ */
+public class PBSStep extends AbstractStepImpl {
+
+	/**
+	 * PBS script.
+	 */
+	private final String script;
+
+	/**
+	 * Name of the PBS slave used to submit the job.
+	 */
+	private String agent;
+
+	@DataBoundConstructor
+	public PBSStep(String script) {
+		super();
+		this.script = script;
+	}
+
+	public String getScript() {
+		return script;
+	}
+
+	public String getAgent() {
+		return agent;
+	}
+
+	@DataBoundSetter
+	public void setAgent(String agent) {
+		this.agent = Util.fixEmptyAndTrim(agent);
+	}
+
+	@Extension
+	public static final class DescriptorImpl extends AbstractStepDescriptorImpl {
+
+		public DescriptorImpl() {
+			super(PBSStepExecution.class);
+		}
+
+		@Override
+		public String getFunctionName() {
+			return "pbs";
+		}
+
+		@Override
+		public String getDisplayName() {
+			return "Submit PBS job";
+		}
+	}
+
+}
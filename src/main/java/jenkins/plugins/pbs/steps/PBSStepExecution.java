@@ -0,0 +1,272 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.steps;
+
+import hudson.AbortException;
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.model.Computer;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.inject.Inject;
+
+import jenkins.model.Jenkins;
+import jenkins.plugins.pbs.PBSBuilder;
+import jenkins.plugins.pbs.PBSBuilder.PBSBuilderDescriptor;
+import jenkins.plugins.pbs.PBSMetricsAction;
+import jenkins.plugins.pbs.model.JobMetrics;
+import jenkins.plugins.pbs.model.PBSJobResult;
+import jenkins.plugins.pbs.model.SubmittedJob;
+import jenkins.plugins.pbs.monitor.PollSchedule;
+import jenkins.plugins.pbs.slaves.PBSOrphanSweeper;
+import jenkins.plugins.pbs.slaves.PBSSlave;
+import jenkins.plugins.pbs.slaves.PBSSlaveComputer;
+import jenkins.plugins.pbs.tasks.CopyJobLogs;
+import jenkins.plugins.pbs.tasks.Qdel;
+import jenkins.plugins.pbs.tasks.SubmitJob;
+import jenkins.plugins.pbs.tasks.UnregisterJob;
+
+import org.jenkinsci.plugins.workflow.steps.AbstractStepExecutionImpl;
+
+/**
+ * Execution of the {@link PBSStep}. Submits the job and returns right away;
+ * the {@link PBSJobWatcher} completes the step when the job finishes.
+ * @since 0.3
+ */
+public class PBSStepExecution extends AbstractStepExecutionImpl {
+
+	private static final long serialVersionUID = 2920917931071838441L;
+
+	private static final Logger LOGGER = Logger.getLogger(PBSStepExecution.class.getName());
+
+	@Inject
+	private transient PBSStep step;
+
+	private String agent;
+	private String jobId;
+	private String executionDirectory;
+	private long submitted;
+	private int numberOfDays;
+	private PollSchedule schedule;
+	private transient boolean stopped;
+
+	@Override
+	public boolean start() throws Exception {
+		final TaskListener listener = getContext().get(TaskListener.class);
+		final PBSSlaveComputer computer = findComputer();
+		final VirtualChannel channel = computer.getChannel();
+		if (channel == null) {
+			throw new AbortException(String.format("PBS Slave %s is offline", computer.getName()));
+		}
+
+		final PBSBuilderDescriptor descriptor = (PBSBuilderDescriptor) Jenkins.getInstance().getDescriptor(PBSBuilder.class);
+		numberOfDays = descriptor.getNumberOfDays();
+		schedule = new PollSchedule(descriptor.getSpan(), descriptor.getMinSpan(), descriptor.getMaxSpan());
+		EnvVars environment = getContext().get(EnvVars.class);
+		if (environment == null) {
+			environment = new EnvVars();
+		}
+		environment = PBSOrphanSweeper.withInstance(environment);
+
+		final PBSSlave node = computer.getNode();
+		listener.getLogger().println("Submitting PBS job...");
+		agent = computer.getName();
+		// qsub may wait for a submission permit, which must not block the CPS VM thread
+		final Future<SubmittedJob> job = channel.callAsync(new SubmitJob(step.getScript(), descriptor.getRunUser(),
+				descriptor.getLogHostname(), descriptor.getLogBasename(), environment,
+				node == null ? null : node.getSubmitLimits(), listener));
+		Computer.threadPoolForRemoting.submit(new Runnable() {
+			public void run() {
+				submitted(job, listener);
+			}
+		});
+		return false;
+	}
+
+	/**
+	 * Waits for the submission of the job and hands it to the {@link PBSJobWatcher}.
+	 * @param job pending submission
+	 * @param listener task listener
+	 */
+	private void submitted(Future<SubmittedJob> job, TaskListener listener) {
+		final SubmittedJob submitted;
+		try {
+			submitted = job.get();
+		} catch (ExecutionException e) {
+			failed(e.getCause());
+			return;
+		} catch (InterruptedException e) {
+			failed(e);
+			return;
+		}
+		synchronized (this) {
+			if (!stopped) {
+				jobId = submitted.getJobId();
+				executionDirectory = submitted.getExecutionDirectory();
+				this.submitted = System.currentTimeMillis();
+				listener.getLogger().println(String.format("Waiting for PBS job %s on %s", jobId, agent));
+				PBSJobWatcher.get().watch(this);
+				return;
+			}
+		}
+		// stopped while qsub ran
+		try {
+			deleteJob(submitted.getJobId());
+		} catch (Exception e) {
+			LOGGER.log(Level.WARNING, "Cannot delete PBS job " + submitted.getJobId(), e);
+		}
+	}
+
+	@Override
+	public void stop(Throwable cause) throws Exception {
+		try {
+			final String submittedJobId;
+			synchronized (this) {
+				stopped = true;
+				// a job still being submitted is deleted once its id is known
+				submittedJobId = jobId;
+			}
+			if (submittedJobId != null) {
+				PBSJobWatcher.get().unwatch(this);
+				deleteJob(submittedJobId);
+			}
+		} finally {
+			getContext().onFailure(cause);
+		}
+	}
+
+	@Override
+	public void onResume() {
+		super.onResume();
+		if (jobId != null) {
+			PBSJobWatcher.get().watch(this);
+		} else {
+			getContext().onFailure(new AbortException("Jenkins restarted while the PBS job was being submitted"));
+		}
+	}
+
+	private synchronized void failed(Throwable cause) {
+		if (!stopped) {
+			getContext().onFailure(cause);
+		}
+	}
+
+	private void deleteJob(String id) throws IOException, InterruptedException {
+		final Computer computer = Jenkins.getInstance().getComputer(agent);
+		final VirtualChannel channel = computer == null ? null : computer.getChannel();
+		if (channel != null) {
+			channel.call(new Qdel(id));
+			// the agent would otherwise keep polling the deleted job
+			channel.call(new UnregisterJob(id));
+		}
+	}
+
+	String getAgent() {
+		return agent;
+	}
+
+	String getJobId() {
+		return jobId;
+	}
+
+	long getSubmitted() {
+		return submitted;
+	}
+
+	int getNumberOfDays() {
+		return numberOfDays;
+	}
+
+	PollSchedule getSchedule() {
+		return schedule;
+	}
+
+	/**
+	 * Called by the {@link PBSJobWatcher} once the job has finished.
+	 * @param result job result
+	 */
+	void finished(PBSJobResult result) {
+		try {
+			final TaskListener listener = getContext().get(TaskListener.class);
+			final Run<?, ?> run = getContext().get(Run.class);
+			copyLogs(listener, run);
+			if (run != null && !result.isUnknown()) {
+				run.addAction(new PBSMetricsAction(Collections.singletonList(
+						JobMetrics.fromEvents(jobId, result.getEvents()))));
+			}
+			if (result.isUnknown()) {
+				getContext().onFailure(new AbortException(String.format("Could not find job %s in PBS logs", jobId)));
+			} else if (result.isSuccess()) {
+				listener.getLogger().println(String.format("PBS job %s finished with exit status 0", jobId));
+				getContext().onSuccess(result.getExitStatus());
+			} else {
+				getContext().onFailure(new AbortException(String.format("PBS job %s failed with exit status %s",
+						jobId, result.getExitStatus())));
+			}
+		} catch (Exception e) {
+			getContext().onFailure(e);
+		}
+	}
+
+	private void copyLogs(TaskListener listener, Run<?, ?> run) throws IOException, InterruptedException {
+		final Computer computer = Jenkins.getInstance().getComputer(agent);
+		final VirtualChannel channel = computer == null ? null : computer.getChannel();
+		if (channel == null) {
+			listener.getLogger().println(String.format("Cannot copy the logs of job %s, %s is offline", jobId, agent));
+			return;
+		}
+		final PBSBuilderDescriptor descriptor = (PBSBuilderDescriptor) Jenkins.getInstance().getDescriptor(PBSBuilder.class);
+		final FilePath archive = run == null ? null : new FilePath(run.getArtifactsDir()).child("pbs");
+		channel.call(new CopyJobLogs(executionDirectory, descriptor.getLogCapBytes(), archive, listener));
+		final FilePath directory = new FilePath(channel, executionDirectory);
+		try {
+			directory.deleteRecursive();
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Cannot remove work directory " + executionDirectory, e);
+		}
+	}
+
+	private PBSSlaveComputer findComputer() throws IOException, InterruptedException {
+		final Computer computer;
+		if (step.getAgent() != null) {
+			computer = Jenkins.getInstance().getComputer(step.getAgent());
+		} else {
+			computer = getContext().get(Computer.class);
+		}
+		if (!(computer instanceof PBSSlaveComputer)) {
+			throw new AbortException("You need  PBS Slave Computer in order to submit PBS jobs");
+		}
+		return (PBSSlaveComputer) computer;
+	}
+
+}
@@ -0,0 +1,74 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.tasks;
+
+import hudson.FilePath;
+import hudson.model.TaskListener;
+import hudson.remoting.Callable;
+
+import java.nio.file.Paths;
+
+import jenkins.security.Roles;
+
+import org.jenkinsci.remoting.RoleChecker;
+
+/**
+ * Copies the logs of a finished job to the console, with the same cap and
+ * archive as the logs streamed by {@link Qsub}.
+ * @since 0.3
+ */
+public class CopyJobLogs implements Callable<Void, RuntimeException> {
+
+	private static final long serialVersionUID = 5083771563329476470L;
+
+	private final String executionDirectory;
+	private final long logCap;
+	private final FilePath logArchive;
+	private final TaskListener listener;
+
+	/**
+	 * @param executionDirectory directory of the job on the agent
+	 * @param logCap bytes of the head and tail of each log printed to the console, 0 for all
+	 * @param logArchive where to store logs over the cap, may be <code>null</code>
+	 * @param listener
+	 */
+	public CopyJobLogs(String executionDirectory, long logCap, FilePath logArchive, TaskListener listener) {
+		this.executionDirectory = executionDirectory;
+		this.logCap = logCap;
+		this.logArchive = logArchive;
+		this.listener = listener;
+	}
+
+	public Void call() {
+		new RemoteLogStreamer(Paths.get(executionDirectory, "out"), Paths.get(executionDirectory, "err"),
+				listener.getLogger(), logCap, logArchive).finish();
+		return null;
+	}
+
+	@Override
+	public void checkRoles(RoleChecker checker) throws SecurityException {
+		checker.check(this, Roles.SLAVE);
+	}
+
+}
@@ -0,0 +1,84 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.tasks;
+
+import hudson.remoting.Callable;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import jenkins.plugins.pbs.model.JobOwner;
+import jenkins.plugins.pbs.monitor.JobStatusMonitor;
+import jenkins.security.Roles;
+
+import org.apache.commons.io.FileUtils;
+import org.jenkinsci.remoting.RoleChecker;
+
+/**
+ * Deletes the jobs of orphaned execution directories with batched qdel
+ * calls, and the directories of the jobs that are over. Directories of jobs
+ * still running are kept, so that the next sweep deletes them.
+ * @since 0.3
+ */
+public class DeleteOrphans implements Callable<List<JobOwner>, RuntimeException> {
+
+	private static final long serialVersionUID = -3036985720377853640L;
+
+	private final List<JobOwner> orphans;
+
+	public DeleteOrphans(List<JobOwner> orphans) {
+		this.orphans = orphans;
+	}
+
+	/**
+	 * @return orphans whose directory was deleted
+	 */
+	public List<JobOwner> call() {
+		final List<String> jobIds = new ArrayList<String>(orphans.size());
+		for (JobOwner orphan : orphans) {
+			if (orphan.getJobId() != null) {
+				jobIds.add(orphan.getJobId());
+			}
+		}
+		final Set<String> alive = JobStatusMonitor.get().delete(jobIds);
+		final List<JobOwner> deleted = new ArrayList<JobOwner>(orphans.size());
+		for (JobOwner orphan : orphans) {
+			if (orphan.getJobId() != null && alive.contains(orphan.getJobId())) {
+				continue;
+			}
+			if (FileUtils.deleteQuietly(new File(orphan.getExecutionDirectory()))) {
+				deleted.add(orphan);
+			}
+		}
+		return deleted;
+	}
+
+	@Override
+	public void checkRoles(RoleChecker checker) throws SecurityException {
+		checker.check(this, Roles.SLAVE);
+	}
+
+}
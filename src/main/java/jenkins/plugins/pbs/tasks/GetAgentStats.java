@@ -0,0 +1,55 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.tasks;
+
+import hudson.remoting.Callable;
+
+import jenkins.plugins.pbs.model.AgentStats;
+import jenkins.plugins.pbs.monitor.JobStatusMonitor;
+import jenkins.plugins.pbs.util.CommandStats;
+import jenkins.security.Roles;
+
+import org.jenkinsci.remoting.RoleChecker;
+
+/**
+ * Collects the command statistics of the agent.
+ * @since 0.3
+ */
+public class GetAgentStats implements Callable<AgentStats, RuntimeException> {
+
+	private static final long serialVersionUID = 7781524079123645210L;
+
+	public AgentStats call() {
+		final JobStatusMonitor monitor = JobStatusMonitor.get();
+		return new AgentStats(CommandStats.get().snapshot(), monitor.getQstatCalls(), monitor.getTraceJobCalls(),
+				monitor.getLogLookups(), monitor.getPushedCompletions(), monitor.getTicks(),
+				monitor.getCompletedJobs(), monitor.getCompletedJobPolls());
+	}
+
+	@Override
+	public void checkRoles(RoleChecker checker) throws SecurityException {
+		checker.check(this, Roles.SLAVE);
+	}
+
+}
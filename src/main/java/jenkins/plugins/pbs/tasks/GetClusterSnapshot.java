@@ -0,0 +1,105 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.tasks;
+
+import hudson.remoting.Callable;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import jenkins.plugins.pbs.model.ClusterSnapshot;
+import jenkins.plugins.pbs.model.ClusterSnapshotDelta;
+import jenkins.plugins.pbs.model.JobSummary;
+import jenkins.plugins.pbs.util.CommandResult;
+import jenkins.plugins.pbs.util.Commands;
+import jenkins.plugins.pbs.util.QstatParser;
+import jenkins.security.Roles;
+
+import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.remoting.RoleChecker;
+
+import com.tupilabs.pbs.util.PBSException;
+
+/**
+ * Lists every queue and job of the PBS server in one call, with
+ * <code>qstat -Q</code> and a single <code>qstat -f</code>. The slave
+ * remembers the last snapshot it took, and only sends the changes when the
+ * master already has that snapshot.
+ * @since 0.3
+ */
+public class GetClusterSnapshot implements Callable<ClusterSnapshotDelta, PBSException> {
+
+	private static final long serialVersionUID = -4406233935396087683L;
+
+	/**
+	 * Last snapshot taken on this slave.
+	 */
+	private static ClusterSnapshot last;
+
+	private final long knownVersion;
+
+	/**
+	 * @param knownVersion version of the snapshot the master has, or -1
+	 */
+	public GetClusterSnapshot(long knownVersion) {
+		this.knownVersion = knownVersion;
+	}
+
+	public ClusterSnapshotDelta call() {
+		final CommandResult queuesResult = Commands.run("qstat", "-Q");
+		if (queuesResult.getExitCode() != 0) {
+			throw new PBSException("Failed to list PBS queues: " + queuesResult.getError());
+		}
+		final CommandResult jobsResult = Commands.run("qstat", "-f");
+		if (jobsResult.getExitCode() != 0 && StringUtils.isBlank(jobsResult.getOutput())) {
+			throw new PBSException("Failed to list PBS jobs: " + jobsResult.getError());
+		}
+		final List<String> queues = QstatParser.parseQueues(queuesResult.getOutput());
+		final Map<String, JobSummary> jobs = new LinkedHashMap<String, JobSummary>();
+		for (Map.Entry<String, Map<String, String>> job : QstatParser.parse(jobsResult.getOutput()).entrySet()) {
+			jobs.put(job.getKey(), JobSummary.fromAttributes(job.getKey(), job.getValue()));
+		}
+		final long now = System.currentTimeMillis();
+		synchronized (GetClusterSnapshot.class) {
+			final ClusterSnapshot previous = last;
+			long version = 1L;
+			if (previous != null) {
+				final ClusterSnapshot unchanged = new ClusterSnapshot(previous.getVersion(), now, queues, jobs);
+				version = unchanged.sameContent(previous) ? previous.getVersion() : previous.getVersion() + 1;
+			}
+			last = new ClusterSnapshot(version, now, queues, jobs);
+			if (previous != null && previous.getVersion() == knownVersion) {
+				return last.diff(previous);
+			}
+			return last.diff(null);
+		}
+	}
+
+	@Override
+	public void checkRoles(RoleChecker checker) throws SecurityException {
+		checker.check(this, Roles.SLAVE);
+	}
+
+}
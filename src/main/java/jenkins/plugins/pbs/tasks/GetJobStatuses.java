@@ -0,0 +1,87 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.tasks;
+
+import hudson.remoting.Callable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jenkins.plugins.pbs.model.PBSJobResult;
+import jenkins.plugins.pbs.model.TraceJobEvent;
+import jenkins.plugins.pbs.monitor.JobStatus;
+import jenkins.plugins.pbs.monitor.JobStatusMonitor;
+import jenkins.plugins.pbs.monitor.PollSchedule;
+import jenkins.security.Roles;
+
+import org.jenkinsci.remoting.RoleChecker;
+
+/**
+ * Hands jobs over to the {@link JobStatusMonitor} of the agent, and returns
+ * the ones that finished. Lets the master wait for many jobs with one cheap
+ * call, without keeping a thread busy on the agent for each of them.
+ * @since 0.3
+ */
+public class GetJobStatuses implements Callable<List<PBSJobResult>, RuntimeException> {
+
+	private static final long serialVersionUID = 7718263207402417725L;
+
+	private final Map<String, Long> jobs;
+	private final int numberOfDays;
+	private final PollSchedule schedule;
+
+	/**
+	 * @param jobs when each job was submitted, by job id
+	 * @param numberOfDays number of days of logs searched by tracejob
+	 * @param schedule when to check the job status
+	 */
+	public GetJobStatuses(Map<String, Long> jobs, int numberOfDays, PollSchedule schedule) {
+		this.jobs = new HashMap<String, Long>(jobs);
+		this.numberOfDays = numberOfDays;
+		this.schedule = schedule;
+	}
+
+	public List<PBSJobResult> call() {
+		final JobStatusMonitor monitor = JobStatusMonitor.get();
+		final List<PBSJobResult> finished = new ArrayList<PBSJobResult>();
+		for (Map.Entry<String, Long> job : jobs.entrySet()) {
+			final String jobId = job.getKey();
+			final JobStatus status = monitor.register(jobId, numberOfDays, schedule, job.getValue());
+			if (status.isComplete()) {
+				finished.add(new PBSJobResult(jobId, status.getExitStatus(), status.isUnknown(),
+						new ArrayList<TraceJobEvent>(monitor.details(status))));
+				monitor.unregister(status);
+			}
+		}
+		return finished;
+	}
+
+	@Override
+	public void checkRoles(RoleChecker checker) throws SecurityException {
+		checker.check(this, Roles.SLAVE);
+	}
+
+}
@@ -0,0 +1,68 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.tasks;
+
+import hudson.remoting.Callable;
+
+import java.io.IOException;
+
+import jenkins.plugins.pbs.model.TracePage;
+import jenkins.plugins.pbs.util.TraceJobSpool;
+import jenkins.security.Roles;
+
+import org.jenkinsci.remoting.RoleChecker;
+
+/**
+ * Reads a page of the tracejob output of a job, so that the master never
+ * holds more than one page of it per request.
+ * @since 0.3
+ */
+public class GetTracePage implements Callable<TracePage, IOException> {
+
+	private static final long serialVersionUID = 2650985470389180921L;
+
+	private final String jobId;
+	private final int numberOfDays;
+	private final boolean error;
+	private final long offset;
+	private final int length;
+
+	public GetTracePage(String jobId, int numberOfDays, boolean error, long offset, int length) {
+		this.jobId = jobId;
+		this.numberOfDays = numberOfDays;
+		this.error = error;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	public TracePage call() throws IOException {
+		return TraceJobSpool.read(jobId, numberOfDays, error, offset, length);
+	}
+
+	@Override
+	public void checkRoles(RoleChecker checker) throws SecurityException {
+		checker.check(this, Roles.SLAVE);
+	}
+
+}
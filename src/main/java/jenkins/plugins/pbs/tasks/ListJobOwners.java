@@ -0,0 +1,84 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.tasks;
+
+import hudson.remoting.Callable;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import jenkins.plugins.pbs.model.JobOwner;
+import jenkins.security.Roles;
+
+import org.jenkinsci.remoting.RoleChecker;
+
+/**
+ * Lists the owners recorded in the <code>jenkinsPBS_</code> execution
+ * directories of a slave. Directories without an owner, e.g. those of cloud
+ * agents or of older builds, are left out.
+ * @since 0.3
+ */
+public class ListJobOwners implements Callable<List<JobOwner>, IOException> {
+
+	private static final long serialVersionUID = 2860190312870155262L;
+
+	private final String logBasename;
+
+	/**
+	 * @param logBasename directory holding the execution directories, or empty for the temporary directory
+	 */
+	public ListJobOwners(String logBasename) {
+		this.logBasename = logBasename;
+	}
+
+	public List<JobOwner> call() throws IOException {
+		final List<JobOwner> owners = new ArrayList<JobOwner>();
+		final Path base = SubmitJob.baseDirectory(logBasename).toPath();
+		if (!Files.isDirectory(base)) {
+			return owners;
+		}
+		final DirectoryStream<Path> directories = Files.newDirectoryStream(base, "jenkinsPBS_*");
+		try {
+			for (Path directory : directories) {
+				final JobOwner owner = JobOwner.read(directory.toFile());
+				if (owner != null) {
+					owners.add(owner);
+				}
+			}
+		} finally {
+			directories.close();
+		}
+		return owners;
+	}
+
+	@Override
+	public void checkRoles(RoleChecker checker) throws SecurityException {
+		checker.check(this, Roles.SLAVE);
+	}
+
+}
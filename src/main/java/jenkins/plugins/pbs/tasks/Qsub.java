@@ -23,229 +23,162 @@
  */
 package jenkins.plugins.pbs.tasks;
 
+import hudson.FilePath;
 import hudson.model.BuildListener;
 import hudson.remoting.Callable;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
-import org.apache.commons.io.IOUtils;
-import org.apache.commons.lang.StringUtils;
+import jenkins.plugins.pbs.model.JobOwner;
+import jenkins.plugins.pbs.model.PBSJobResult;
+import jenkins.plugins.pbs.model.Staging;
+import jenkins.plugins.pbs.model.SubmitLimits;
+import jenkins.plugins.pbs.model.SubmittedJob;
+import jenkins.plugins.pbs.model.TraceJobEvent;
+import jenkins.plugins.pbs.monitor.JobStatus;
+import jenkins.plugins.pbs.monitor.JobStatusMonitor;
+import jenkins.plugins.pbs.monitor.PollSchedule;
+import jenkins.plugins.pbs.util.JobJournal;
+import jenkins.plugins.pbs.util.WorkspaceStager;
+
+import org.apache.commons.io.FileUtils;
 import org.jenkinsci.remoting.RoleChecker;
 
-import com.tupilabs.pbs.PBS;
-import com.tupilabs.pbs.util.CommandOutput;
 import com.tupilabs.pbs.util.PBSException;
 
 /**
  * qsub command.
  * @since 0.1
  */
-public class Qsub implements Callable<Boolean, PBSException> {
+public class Qsub implements Callable<PBSJobResult, PBSException>, Reattachable {
 
     private static final long serialVersionUID = -8294426519319612072L;
 
-    private static final String REGEX_JOB_STATUS = "(job_substate_(.*)$|exit_status=|dequeuing [^,]+, state (.*)$)";
-    private static final Pattern JOB_STATUS_REGEX = Pattern.compile(REGEX_JOB_STATUS, Pattern.MULTILINE|Pattern.CASE_INSENSITIVE);
-    
-    private static final String REGEX_JOB_SUBSTATUS = "exit_status=([0-9]+)";
-    private static final Pattern JOB_SUBSTATUS_REGEX = Pattern.compile(REGEX_JOB_SUBSTATUS, Pattern.MULTILINE|Pattern.CASE_INSENSITIVE);
-
     private final String script;
     private final int numberOfDays;
-    private final long span;
+    private final PollSchedule schedule;
     private final String runUser;
     private final BuildListener listener;
     private final String logHostname;
 	private final String logBasename;
     private final Map<String, String> environment;
+    private final long logCap;
+    private final FilePath logArchive;
+    private final SubmitLimits limits;
+    private final Staging staging;
+    private final String token;
+    private boolean reattach;
     private String executionDirectory;
-    private String errFileName;
-    private String outFileName;
 
     /**
      * Create a new qsub command.
      * 
      * @param script
      * @param numberOfDays
-     * @param span
+     * @param schedule
+     * @param logCap bytes of the head and tail of each log printed to the console, 0 for all
+     * @param logArchive where to store logs over the cap, may be <code>null</code>
+     * @param limits submission limits of the PBS slave, may be <code>null</code>
+     * @param staging files to stage in and out, may be <code>null</code>
+     * @param token token of the build step, to re-attach to its job
      * @param listener
      */
-    public Qsub(String script, int numberOfDays, long span, String runUser,
-            String logHostname, String logBasename,
-            Map<String, String> environment, BuildListener listener) {
+    public Qsub(String script, int numberOfDays, PollSchedule schedule, String runUser,
+            String logHostname, String logBasename, Map<String, String> environment, long logCap,
+            FilePath logArchive, SubmitLimits limits, Staging staging, String token, BuildListener listener) {
         this.script = script;
         this.numberOfDays = numberOfDays;
-        this.span = span;
+        this.schedule = schedule;
         this.runUser = runUser;
         this.listener = listener;
         this.environment = environment;
         this.logHostname = logHostname;
         this.logBasename = logBasename;
+        this.logCap = logCap;
+        this.logArchive = logArchive;
+        this.limits = limits;
+        this.staging = staging;
+        this.token = token;
     }
 
-    public Boolean call() {
-    	final String myLogBasename = (logBasename.length() > 0) ? logBasename : System.getenv("java.io.tmpdir");
+    public void reattach() {
+        this.reattach = true;
+    }
 
-        try {
-            // If we are running as another user, we are going to make sure we
-            // set permissions more loosely
-        	Path tmpDir = Files.createTempDirectory(Paths.get(myLogBasename), "jenkinsPBS_");
-        	File tmpDirFile = tmpDir.toFile();
-        	if (!tmpDirFile.exists()) {
-        		if (!tmpDirFile.mkdirs()) {
-        			listener.getLogger().println("Failed to create working directory: " + tmpDir.toString());
-        			throw new PBSException("Failed to create working directory: " + tmpDir.toString());
-        		}
-        	}
-        	
-            this.executionDirectory = tmpDir.toString();
-            if (this.runUser.length() > 0) {
-                Files.setPosixFilePermissions(
-                        Paths.get(this.executionDirectory),
-                        PosixFilePermissions.fromString("rwxrwxrwx")
-                );
+    public PBSJobResult call() {
+        if (reattach) {
+            final JobJournal.Entry submitted = SubmitJob.findSubmitted(token, logBasename, listener);
+            if (submitted != null) {
+                // the connection to the agent was lost, or the agent restarted, while the job ran
+                listener.getLogger().println(String.format("Re-attaching to PBS job %s, last known state %s",
+                        submitted.getJobId(), submitted.getState()));
+                this.executionDirectory = submitted.getExecutionDirectory();
+                return this.seekEnd(submitted.getJobId(), submitted.getSubmitted());
             }
-            listener.getLogger().println(String.format("Created working directory '%s' with permissions '%s'", 
-                    this.executionDirectory, 
-                    PosixFilePermissions.toString(Files.getPosixFilePermissions(Paths.get(this.executionDirectory)))
-                )
-            );
-        } catch (IOException e) {
-        	listener.fatalError(e.getMessage(), e);
-            throw new PBSException("Failed to create working directory: " + e.getMessage(), e);
         }
+        final SubmittedJob job = new SubmitJob(script, runUser, logHostname, logBasename, environment, limits,
+                staging, token, listener).call();
+        this.executionDirectory = job.getExecutionDirectory();
+        return this.seekEnd(job.getJobId(), System.currentTimeMillis());
+    }
 
-        if (StringUtils.isNotBlank(logHostname)) {
-            this.errFileName = String.format("%s:%s", logHostname, Paths.get(this.executionDirectory, "err"));
-            this.outFileName = String.format("%s:%s", logHostname, Paths.get(this.executionDirectory, "out"));
-        } else {
-            this.errFileName = Paths.get(this.executionDirectory, "err").toString();
-            this.outFileName = Paths.get(this.executionDirectory, "out").toString();
-        }
-        
-        OutputStream tmpScriptOut = null;
+    private PBSJobResult seekEnd(String jobId, long submitted) {
+        listener.getLogger().println("Seeking job end...");
+        final JobStatus status = JobStatusMonitor.get().register(jobId, numberOfDays, schedule, submitted);
         try {
-            Path tmpScript = Paths.get(this.executionDirectory, "script");
-            tmpScriptOut = Files.newOutputStream(tmpScript);
-            tmpScriptOut.write(script.getBytes());
-            tmpScriptOut.flush();
-
-            listener.getLogger().println("PBS script: " + tmpScript.toString());
-            String[] argList;
-            if (this.runUser.length() > 0) {
-                argList = new String[] { "-P", this.runUser, "-e", this.errFileName, "-o", this.outFileName,
-                        tmpScript.toString(), "-W", "umask=022" };
-            } else {
-                argList = new String[] { "-e", this.errFileName, "-o", this.outFileName, tmpScript.toString() };
-            }
-            String jobId = PBS.qsub(argList, this.environment);
-
-            listener.getLogger().println("PBS Job submitted: " + jobId);
-
-            return this.seekEnd(jobId, numberOfDays, span);
-        } catch (IOException e) {
-        	e.printStackTrace(listener.getLogger());
-            throw new PBSException("Failed to create temp script");
+            final PBSJobResult result = this.loopSeek(status);
+            SubmitJob.completed(token, logBasename, listener);
+            return result;
         } finally {
-            IOUtils.closeQuietly(tmpScriptOut);
-        }
-    }
-
-    // adapted from
-    // https://github.com/jenkinsci/call-remote-job-plugin/blob/master/src/main/java/org/ukiuni/callOtherJenkins/CallOtherJenkins/JenkinsRemoteIF.java
-    private boolean seekEnd(String jobId, int numberOfDays, long span) {
-        final CommandOutput cmd = PBS.traceJob(jobId, numberOfDays);
-
-        String out = cmd.getOutput();
-        String err = cmd.getError();
-
-        if (StringUtils.isBlank(out)) {
-            listener.getLogger().println(String.format("Could not find job %s in PBS logs...Marking build as UNSTABLE", jobId));
-            listener.getLogger().println(err);
-            return false;
+            JobStatusMonitor.get().unregister(status);
         }
-
-        listener.getLogger().println("Seeking job end...");
-        return this.loopSeek(jobId);
     }
 
-    private boolean loopSeek(String jobId) {
-        boolean toReturn = false;
+    private PBSJobResult loopSeek(JobStatus status) {
+        String lastState = null;
+        final RemoteLogStreamer logs = new RemoteLogStreamer(Paths.get(this.executionDirectory, "out"),
+                Paths.get(this.executionDirectory, "err"), listener.getLogger(), logCap, logArchive);
         while (true) {
-            CommandOutput cmd = PBS.traceJob(jobId, numberOfDays, true /* quiet mode */);
-
-            final String out = cmd.getOutput();
-            // String err = cmd.getError();
-
-            // listener.getLogger().println(out);
-            // listener.getLogger().println("----");
-            Matcher matcher = JOB_STATUS_REGEX.matcher(out);
-            if (matcher.find()) {
-            	String state = null;
-            	if (matcher.groupCount() > 1) {
-            		state = matcher.group(2);
-            	}
-                if (StringUtils.isBlank(state)) {
-                	state = matcher.group(1);
-                }
-                state = state.toLowerCase();
-                listener.getLogger().println("Found job state " + state);
-                if (state.contains("complete") || state.contains("exit_status")) {
-                    // Now we look for the status
-                    matcher = JOB_SUBSTATUS_REGEX.matcher(out);
-                    if (matcher.find()) {
-                        state = matcher.group(1);
-                        listener.getLogger().println("Found run job status of " + state);
-                        listener.getLogger().println("---- Remote job output log ----");
-
-                        InputStream outFile = null;
-                        try {
-                            outFile = Files.newInputStream(Paths.get(this.executionDirectory, "out"));
-                            this.outputFileToLogger(outFile);
-                        } catch (IOException e) {
-                            listener.getLogger().println("ERROR: CANNOT PRINT OUT OUTPUT LOG - " + e.getMessage());
-                            e.printStackTrace(listener.getLogger());
-                        } finally {
-                            IOUtils.closeQuietly(outFile);
-                        }
-
-                        listener.getLogger().println("---- End of remote job output log ----");
-                        listener.getLogger().println("---- Remote job error log ----");
-                        outFile = null;
-                        try {
-                            outFile = Files.newInputStream(Paths.get(this.executionDirectory, "err"));
-                            this.outputFileToLogger(outFile);
-                        } catch (IOException e) {
-                            listener.getLogger().println("ERROR: CANNOT PRINT OUT ERROR LOG - " + e.getMessage());
-                            e.printStackTrace(listener.getLogger());
-                        } finally {
-                            IOUtils.closeQuietly(outFile);
-                        }
-                        listener.getLogger().println("---- End of remote job error log ----");
-
-                        // Return error code of the sub job
-                        toReturn = "0".equals(state);
-                        break;
-                    }
-                }
-                break;
-            }
+            boolean complete = false;
             try {
-                // listener.getLogger().println("Sleeping for " + span + "ms");
-                Thread.sleep(span);
+                complete = status.await(schedule.getSpan());
             } catch (InterruptedException e) {
-                e.printStackTrace(listener.getLogger());
+                throw abort(status);
+            }
+            final String state = status.getState();
+            if (state != null && !state.equals(lastState)) {
+                logs.println("Found job state " + state);
+                lastState = state;
+            }
+            if (!complete) {
+                logs.stream(false);
+                continue;
             }
+            if (status.isUnknown()) {
+                listener.getLogger().println(String.format("Could not find job %s in PBS logs...Marking build as UNSTABLE", status.getJobId()));
+                try {
+                    FileUtils.deleteDirectory(new File(this.executionDirectory));
+                } catch (IOException e) {
+                    // Ignore
+                    listener.getLogger().println("Warning: Cannot remove work directory " + this.executionDirectory);
+                }
+                return new PBSJobResult(status.getJobId(), null, true, new ArrayList<TraceJobEvent>());
+            }
+            logs.finish();
+            final Integer exitStatus = status.getExitStatus();
+            if (exitStatus != null) {
+                listener.getLogger().println("Found run job status of " + exitStatus);
+            }
+            break;
+        }
+        if (staging != null && staging.getStageOut() != null) {
+            stageOut();
         }
         // We now know what to return but we can destroy the directory
         try {
@@ -257,22 +190,58 @@ public class Qsub implements Callable<Boolean, PBSException> {
             e.printStackTrace(listener.getLogger());
         }
         try {
-            Files.delete(Paths.get(this.executionDirectory, "script"));
-            Files.delete(Paths.get(this.executionDirectory));
+            if (staging != null) {
+                FileUtils.deleteDirectory(new File(this.executionDirectory));
+            } else {
+                Files.delete(Paths.get(this.executionDirectory, "script"));
+                Files.deleteIfExists(Paths.get(this.executionDirectory, JobOwner.OWNER_FILE));
+                Files.delete(Paths.get(this.executionDirectory));
+            }
         } catch (IOException e) {
             // Ignore
             listener.getLogger().println("Warning: Cannot remove script and work directory");
             e.printStackTrace(listener.getLogger());
         }
-        return toReturn;
+        // Return error code and resources used of the sub job
+        return new PBSJobResult(status.getJobId(), status.getExitStatus(), false,
+                new ArrayList<TraceJobEvent>(JobStatusMonitor.get().details(status)));
     }
 
-    private void outputFileToLogger(InputStream toOutput) throws IOException {
-        byte[] buffer = new byte[4096];
-        int readCount = toOutput.read(buffer);
-        while (readCount > 0) {
-            listener.getLogger().write(buffer, 0, readCount);
-            readCount = toOutput.read(buffer);
+    /**
+     * Delete the job of an aborted build, and its execution directory once
+     * the job is over. A job that outlives the timeout is left to the
+     * orphan sweeper of the slave.
+     */
+    private PBSException abort(JobStatus status) {
+        listener.getLogger().println(String.format("Build aborted, deleting PBS job %s", status.getJobId()));
+        final boolean ended = JobStatusMonitor.get().cancel(Collections.singletonList(status.getJobId()),
+                Collections.singletonList(status), JobStatusMonitor.CANCEL_TIMEOUT_SECONDS * 1000L);
+        if (ended) {
+            try {
+                FileUtils.deleteDirectory(new File(this.executionDirectory));
+            } catch (IOException e) {
+                listener.getLogger().println("Warning: Cannot remove work directory");
+            }
+        } else {
+            listener.getLogger().println(String.format("Warning: PBS job %s did not end within %d seconds",
+                    status.getJobId(), JobStatusMonitor.CANCEL_TIMEOUT_SECONDS));
+        }
+        SubmitJob.completed(token, logBasename, listener);
+        Thread.currentThread().interrupt();
+        return new PBSException(String.format("Build aborted, PBS job %s deleted", status.getJobId()));
+    }
+
+    private void stageOut() {
+        try {
+            final WorkspaceStager.Result result = WorkspaceStager.stageOut(new File(this.executionDirectory),
+                    staging.getStageOut(), new File(staging.getWorkspace()));
+            listener.getLogger().println("Staged out " + result);
+        } catch (IOException e) {
+            listener.getLogger().println("Warning: Failed to stage out " + staging.getStageOut());
+            e.printStackTrace(listener.getLogger());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            listener.getLogger().println("Warning: Interrupted while staging out " + staging.getStageOut());
         }
     }
 
@@ -281,67 +250,4 @@ public class Qsub implements Callable<Boolean, PBSException> {
         // TODO Auto-generated method stub
     }
 
-    // public static void main(String[] args) {
-    // String out = "Job: 128.localhost\n" +
-    // "\n" +
-    // "11/10/2013 12:52:40  S    enqueuing into batch, state 1 hop 1\n" +
-    // "11/10/2013 12:52:40  S    Job Queued at request of kinow@localhost, owner =\n"
-    // +
-    // "                          kinow@localhost, job name = jenkins_job, queue =\n"
-    // +
-    // "                          batch\n" +
-    // "11/10/2013 12:52:40  S    Job Modified at request of Scheduler@localhost\n"
-    // +
-    // "11/10/2013 12:52:40  L    Job Run\n" +
-    // "11/10/2013 12:52:40  S    Job Run at request of Scheduler@localhost\n" +
-    // "11/10/2013 12:52:40  S    Not sending email: User does not want mail of this\n"
-    // +
-    // "                          type.\n" +
-    // "11/10/2013 12:52:40  A    queue=batch\n" +
-    // "11/10/2013 12:52:40  A    user=kinow group=kinow jobname=jenkins_job queue=batch\n"
-    // +
-    // "                          ctime=1384095160 qtime=1384095160 etime=1384095160\n"
-    // +
-    // "                          start=1384095160 owner=kinow@localhost\n" +
-    // "                          exec_host=chuva/0 Resource_List.neednodes=1\n"
-    // +
-    // "                          Resource_List.nodect=1 Resource_List.nodes=1\n"
-    // +
-    // "                          Resource_List.walltime=240:00:00 \n" +
-    // "11/10/2013 12:53:40  S    Not sending email: User does not want mail of this\n"
-    // +
-    // "                          type.\n" +
-    // "11/10/2013 12:53:40  S    Exit_status=0 resources_used.cput=00:00:00\n"
-    // +
-    // "                          resources_used.mem=3196kb resources_used.vmem=31756kb\n"
-    // +
-    // "                          resources_used.walltime=00:01:00\n" +
-    // "11/10/2013 12:53:40  S    dequeuing from batch, state COMPLETE\n" +
-    // "11/10/2013 12:53:40  M    scan_for_terminated: job 128.localhost task 1\n"
-    // +
-    // "                          terminated, sid=4801\n" +
-    // "11/10/2013 12:53:40  M    job was terminated\n" +
-    // "11/10/2013 12:53:40  M    obit sent to server\n" +
-    // "11/10/2013 12:53:40  A    user=kinow group=kinow jobname=jenkins_job queue=batch\n"
-    // +
-    // "                          ctime=1384095160 qtime=1384095160 etime=1384095160\n"
-    // +
-    // "                          start=1384095160 owner=kinow@localhost\n" +
-    // "                          exec_host=chuva/0 Resource_List.neednodes=1\n"
-    // +
-    // "                          Resource_List.nodect=1 Resource_List.nodes=1\n"
-    // +
-    // "                          Resource_List.walltime=240:00:00 session=4801\n"
-    // +
-    // "                          end=1384095220 Exit_status=0\n" +
-    // "                          resources_used.cput=00:00:00 resources_used.mem=3196kb\n"
-    // +
-    // "                          resources_used.vmem=31756kb\n" +
-    // "                          resources_used.walltime=00:01:00\n" +
-    // "";
-    //
-    // SubmitPbsJob submit = new SubmitPbsJob("", 10, 10, System.out);
-    // submit.loopSeek(out);
-    // }
-
 }
@@ -0,0 +1,223 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.tasks;
+
+import hudson.FilePath;
+import hudson.model.BuildListener;
+import hudson.remoting.Callable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import jenkins.plugins.pbs.model.ArrayRange;
+import jenkins.plugins.pbs.model.PBSJobResult;
+import jenkins.plugins.pbs.model.SubmitLimits;
+import jenkins.plugins.pbs.model.SubmittedJob;
+import jenkins.plugins.pbs.model.TraceJobEvent;
+import jenkins.plugins.pbs.monitor.JobStatus;
+import jenkins.plugins.pbs.monitor.JobStatusMonitor;
+import jenkins.plugins.pbs.monitor.PollSchedule;
+import jenkins.plugins.pbs.util.JobJournal;
+import jenkins.security.Roles;
+
+import org.apache.commons.io.FileUtils;
+import org.jenkinsci.remoting.RoleChecker;
+
+import com.tupilabs.pbs.util.PBSException;
+
+/**
+ * qsub of a job array. Every sub-job is tracked by the
+ * {@link JobStatusMonitor}, which checks the whole array with one qstat per
+ * tick.
+ * @since 0.3
+ */
+public class QsubArray implements Callable<List<PBSJobResult>, PBSException>, Reattachable {
+
+    private static final long serialVersionUID = -2751349018357270412L;
+
+    private final String script;
+    private final int numberOfDays;
+    private final PollSchedule schedule;
+    private final String runUser;
+    private final String logHostname;
+    private final String logBasename;
+    private final String arrayOption;
+    private final ArrayRange arrayRange;
+    private final Map<String, String> environment;
+    private final long logCap;
+    private final FilePath logArchive;
+    private final SubmitLimits limits;
+    private final String token;
+    private final BuildListener listener;
+    private boolean reattach;
+
+    /**
+     * @param logCap bytes of the head and tail of each log printed to the console, 0 for all
+     * @param logArchive where to store logs over the cap, in a directory per index, may be <code>null</code>
+     * @param limits submission limits of the PBS slave, may be <code>null</code>
+     * @param token token of the build step, to re-attach to its job array
+     */
+    public QsubArray(String script, int numberOfDays, PollSchedule schedule, String runUser,
+            String logHostname, String logBasename, String arrayOption, ArrayRange arrayRange,
+            Map<String, String> environment, long logCap, FilePath logArchive, SubmitLimits limits,
+            String token, BuildListener listener) {
+        this.script = script;
+        this.numberOfDays = numberOfDays;
+        this.schedule = schedule;
+        this.runUser = runUser;
+        this.logHostname = logHostname;
+        this.logBasename = logBasename;
+        this.arrayOption = arrayOption;
+        this.arrayRange = arrayRange;
+        this.environment = environment;
+        this.logCap = logCap;
+        this.logArchive = logArchive;
+        this.limits = limits;
+        this.token = token;
+        this.listener = listener;
+    }
+
+    public void reattach() {
+        this.reattach = true;
+    }
+
+    public List<PBSJobResult> call() {
+        final JobJournal.Entry submitted = reattach ? SubmitJob.findSubmitted(token, logBasename, listener) : null;
+        final SubmittedJob job;
+        final long submittedAt;
+        if (submitted != null) {
+            listener.getLogger().println(String.format("Re-attaching to PBS job array %s, last known state %s",
+                    submitted.getJobId(), submitted.getState()));
+            job = new SubmittedJob(submitted.getJobId(), submitted.getExecutionDirectory());
+            submittedAt = submitted.getSubmitted();
+        } else {
+            job = new SubmitJob(script, runUser, logHostname, logBasename, arrayOption, arrayRange, environment,
+                    limits, token, listener).call();
+            submittedAt = System.currentTimeMillis();
+        }
+        final JobStatusMonitor monitor = JobStatusMonitor.get();
+        final List<JobStatus> statuses = new ArrayList<JobStatus>(arrayRange.size());
+        try {
+            for (String subJobId : arrayRange.getSubJobIds(job.getJobId())) {
+                statuses.add(monitor.register(subJobId, numberOfDays, schedule, submittedAt));
+            }
+            listener.getLogger().println("Seeking job array end...");
+            waitForAll(job.getJobId(), statuses);
+            final List<PBSJobResult> results = new ArrayList<PBSJobResult>(statuses.size());
+            for (JobStatus status : statuses) {
+                results.add(new PBSJobResult(status.getJobId(), status.getExitStatus(), status.isUnknown(),
+                        new ArrayList<TraceJobEvent>(monitor.details(status, false))));
+            }
+            printLogs(new File(job.getExecutionDirectory()));
+            SubmitJob.completed(token, logBasename, listener);
+            return results;
+        } finally {
+            for (JobStatus status : statuses) {
+                monitor.unregister(status);
+            }
+            try {
+                FileUtils.deleteDirectory(new File(job.getExecutionDirectory()));
+            } catch (IOException e) {
+                // Ignore
+                listener.getLogger().println("Warning: Cannot remove work directory");
+                e.printStackTrace(listener.getLogger());
+            }
+        }
+    }
+
+    private void waitForAll(String arrayJobId, List<JobStatus> statuses) {
+        int reported = -1;
+        while (true) {
+            int complete = 0;
+            for (JobStatus status : statuses) {
+                if (status.isComplete()) {
+                    complete++;
+                }
+            }
+            if (complete != reported) {
+                listener.getLogger().println(String.format("%d of %d sub-jobs finished", complete, statuses.size()));
+                reported = complete;
+            }
+            if (complete == statuses.size()) {
+                return;
+            }
+            for (JobStatus status : statuses) {
+                if (!status.isComplete()) {
+                    try {
+                        status.await(schedule.getSpan());
+                    } catch (InterruptedException e) {
+                        throw abort(arrayJobId, statuses);
+                    }
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Delete the whole array of an aborted build, and wait for its sub-jobs
+     * to end.
+     */
+    private PBSException abort(String arrayJobId, List<JobStatus> statuses) {
+        listener.getLogger().println(String.format("Build aborted, deleting PBS job array %s", arrayJobId));
+        if (!JobStatusMonitor.get().cancel(Collections.singletonList(arrayJobId), statuses,
+                JobStatusMonitor.CANCEL_TIMEOUT_SECONDS * 1000L)) {
+            listener.getLogger().println(String.format("Warning: PBS job array %s did not end within %d seconds",
+                    arrayJobId, JobStatusMonitor.CANCEL_TIMEOUT_SECONDS));
+        }
+        SubmitJob.completed(token, logBasename, listener);
+        Thread.currentThread().interrupt();
+        return new PBSException(String.format("Build aborted, PBS job array %s deleted", arrayJobId));
+    }
+
+    /**
+     * Print the out and err files of the sub-jobs, named <code>out-1</code>
+     * by Torque and <code>out.1</code> by PBS Pro.
+     */
+    private void printLogs(File executionDirectory) {
+        for (Integer index : arrayRange.getIndices()) {
+            final RemoteLogStreamer logs = new RemoteLogStreamer(subJobLog(executionDirectory, "out", index),
+                    subJobLog(executionDirectory, "err", index), listener.getLogger(), logCap,
+                    logArchive == null ? null : logArchive.child(index.toString()));
+            logs.println("---- Sub-job " + index + " ----");
+            logs.finish();
+        }
+    }
+
+    private static Path subJobLog(File executionDirectory, String name, Integer index) {
+        final File torque = new File(executionDirectory, name + "-" + index);
+        return torque.exists() ? torque.toPath() : new File(executionDirectory, name + "." + index).toPath();
+    }
+
+    @Override
+    public void checkRoles(RoleChecker checker) throws SecurityException {
+        checker.check(this, Roles.SLAVE);
+    }
+
+}
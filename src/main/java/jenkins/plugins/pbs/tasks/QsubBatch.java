@@ -0,0 +1,245 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.tasks;
+
+import hudson.FilePath;
+import hudson.model.BuildListener;
+import hudson.remoting.Callable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import jenkins.plugins.pbs.model.BatchJobResult;
+import jenkins.plugins.pbs.model.JobMetrics;
+import jenkins.plugins.pbs.model.SubmitLimits;
+import jenkins.plugins.pbs.model.SubmittedJob;
+import jenkins.plugins.pbs.monitor.JobStatus;
+import jenkins.plugins.pbs.monitor.JobStatusMonitor;
+import jenkins.plugins.pbs.monitor.PollSchedule;
+import jenkins.security.Roles;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.remoting.RoleChecker;
+
+import com.tupilabs.pbs.util.PBSException;
+
+/**
+ * Submits several scripts in one call and waits for all of them, printing
+ * each job's logs as soon as it finishes.
+ * @since 0.3
+ */
+public class QsubBatch implements Callable<List<BatchJobResult>, PBSException> {
+
+    private static final long serialVersionUID = 4470328191573529316L;
+
+    private static final String INLINE_SCRIPT = "(inline script)";
+
+    private final String script;
+    private final String workspace;
+    private final String scriptFiles;
+    private final int numberOfDays;
+    private final PollSchedule schedule;
+    private final String runUser;
+    private final String logHostname;
+    private final String logBasename;
+    private final Map<String, String> environment;
+    private final long logCap;
+    private final FilePath logArchive;
+    private final SubmitLimits limits;
+    private final BuildListener listener;
+
+    /**
+     * @param script inline script, submitted first unless blank
+     * @param workspace workspace directory on the agent
+     * @param scriptFiles Ant-style patterns of the script files in the workspace, e.g. <code>jobs/*.pbs</code>
+     * @param logCap bytes of the head and tail of each log printed to the console, 0 for all
+     * @param logArchive where to store logs over the cap, in a directory per job, may be <code>null</code>
+     * @param limits submission limits of the PBS slave, may be <code>null</code>
+     */
+    public QsubBatch(String script, String workspace, String scriptFiles, int numberOfDays,
+            PollSchedule schedule, String runUser, String logHostname, String logBasename,
+            Map<String, String> environment, long logCap, FilePath logArchive, SubmitLimits limits,
+            BuildListener listener) {
+        this.script = script;
+        this.workspace = workspace;
+        this.scriptFiles = scriptFiles;
+        this.numberOfDays = numberOfDays;
+        this.schedule = schedule;
+        this.runUser = runUser;
+        this.logHostname = logHostname;
+        this.logBasename = logBasename;
+        this.environment = environment;
+        this.logCap = logCap;
+        this.logArchive = logArchive;
+        this.limits = limits;
+        this.listener = listener;
+    }
+
+    public List<BatchJobResult> call() {
+        final Map<String, String> scripts = readScripts();
+        final JobStatusMonitor monitor = JobStatusMonitor.get();
+        final Map<String, BatchJobResult> results = new LinkedHashMap<String, BatchJobResult>();
+        final Map<String, SubmittedJob> submitted = new LinkedHashMap<String, SubmittedJob>();
+        final Map<String, Long> submitTimes = new LinkedHashMap<String, Long>();
+        final Map<String, JobStatus> pending = new LinkedHashMap<String, JobStatus>();
+        final long start = System.nanoTime();
+        try {
+            for (Map.Entry<String, String> entry : scripts.entrySet()) {
+                final long before = System.nanoTime();
+                try {
+                    final SubmittedJob job = new SubmitJob(entry.getValue(), runUser, logHostname, logBasename,
+                            environment, limits, listener).call();
+                    submitted.put(entry.getKey(), job);
+                    submitTimes.put(entry.getKey(), (System.nanoTime() - before) / 1000000L);
+                    pending.put(entry.getKey(), monitor.register(job.getJobId(), numberOfDays, schedule));
+                } catch (PBSException e) {
+                    listener.error(String.format("Failed to submit %s: %s", entry.getKey(), e.getMessage()));
+                    results.put(entry.getKey(), new BatchJobResult(entry.getKey(), null,
+                            (System.nanoTime() - before) / 1000000L, null, false, null));
+                }
+            }
+            listener.getLogger().println(String.format("Submitted %d of %d PBS scripts in %d ms",
+                    submitted.size(), scripts.size(), (System.nanoTime() - start) / 1000000L));
+            while (!pending.isEmpty()) {
+                for (Iterator<Map.Entry<String, JobStatus>> it = pending.entrySet().iterator(); it.hasNext();) {
+                    final Map.Entry<String, JobStatus> entry = it.next();
+                    final JobStatus status = entry.getValue();
+                    if (!status.isComplete()) {
+                        continue;
+                    }
+                    it.remove();
+                    results.put(entry.getKey(), finished(entry.getKey(), submitted.get(entry.getKey()),
+                            submitTimes.get(entry.getKey()), status));
+                    monitor.unregister(status);
+                }
+                if (!pending.isEmpty()) {
+                    try {
+                        // any job may finish first, so check them all again soon
+                        pending.values().iterator().next().await(schedule.getMinSpan());
+                    } catch (InterruptedException e) {
+                        throw abort(pending, submitted);
+                    }
+                }
+            }
+        } finally {
+            for (JobStatus status : pending.values()) {
+                monitor.unregister(status);
+            }
+        }
+        // keep the order of the scripts
+        final List<BatchJobResult> ordered = new ArrayList<BatchJobResult>(scripts.size());
+        for (String name : scripts.keySet()) {
+            ordered.add(results.get(name));
+        }
+        return ordered;
+    }
+
+    /**
+     * Delete the unfinished jobs of an aborted build with batched qdel calls,
+     * and the execution directories of those that ended in time.
+     */
+    private PBSException abort(Map<String, JobStatus> pending, Map<String, SubmittedJob> submitted) {
+        listener.getLogger().println(String.format("Build aborted, deleting %d PBS jobs", pending.size()));
+        final List<String> jobIds = new ArrayList<String>(pending.size());
+        for (JobStatus status : pending.values()) {
+            jobIds.add(status.getJobId());
+        }
+        if (!JobStatusMonitor.get().cancel(jobIds, pending.values(), JobStatusMonitor.CANCEL_TIMEOUT_SECONDS * 1000L)) {
+            listener.getLogger().println(String.format("Warning: Some PBS jobs did not end within %d seconds",
+                    JobStatusMonitor.CANCEL_TIMEOUT_SECONDS));
+        }
+        for (Map.Entry<String, JobStatus> entry : pending.entrySet()) {
+            if (entry.getValue().isComplete()) {
+                FileUtils.deleteQuietly(new File(submitted.get(entry.getKey()).getExecutionDirectory()));
+            }
+        }
+        Thread.currentThread().interrupt();
+        return new PBSException(String.format("Build aborted, %d PBS jobs deleted", jobIds.size()));
+    }
+
+    private BatchJobResult finished(String name, SubmittedJob job, long submitTime, JobStatus status) {
+        final RemoteLogStreamer logs = new RemoteLogStreamer(Paths.get(job.getExecutionDirectory(), "out"),
+                Paths.get(job.getExecutionDirectory(), "err"), listener.getLogger(), logCap,
+                logArchive == null ? null : logArchive.child(job.getJobId()));
+        if (status.isUnknown()) {
+            logs.println(String.format("%s: could not find job %s in PBS logs", name, job.getJobId()));
+        } else {
+            logs.println(String.format("%s: job %s finished with exit status %s", name, job.getJobId(),
+                    status.getExitStatus()));
+            logs.finish();
+        }
+        try {
+            FileUtils.deleteDirectory(new File(job.getExecutionDirectory()));
+        } catch (IOException e) {
+            // Ignore
+            listener.getLogger().println("Warning: Cannot remove work directory " + job.getExecutionDirectory());
+        }
+        return new BatchJobResult(name, job.getJobId(), submitTime, status.getExitStatus(), status.isUnknown(),
+                JobMetrics.fromEvents(job.getJobId(), JobStatusMonitor.get().details(status)));
+    }
+
+    private Map<String, String> readScripts() {
+        final Map<String, String> scripts = new LinkedHashMap<String, String>();
+        if (StringUtils.isNotBlank(script)) {
+            scripts.put(INLINE_SCRIPT, script);
+        }
+        try {
+            final FilePath base = new FilePath(new File(workspace));
+            final FilePath[] files = base.list(scriptFiles);
+            Arrays.sort(files, new Comparator<FilePath>() {
+                public int compare(FilePath a, FilePath b) {
+                    return a.getRemote().compareTo(b.getRemote());
+                }
+            });
+            for (FilePath file : files) {
+                scripts.put(new File(workspace).toPath().relativize(new File(file.getRemote()).toPath()).toString(),
+                        file.readToString());
+            }
+        } catch (IOException e) {
+            e.printStackTrace(listener.getLogger());
+            throw new PBSException("Failed to read PBS scripts " + scriptFiles + ": " + e.getMessage(), e);
+        } catch (InterruptedException e) {
+            throw new PBSException("Interrupted while reading PBS scripts", e);
+        }
+        if (scripts.isEmpty()) {
+            throw new PBSException("No PBS scripts match " + scriptFiles);
+        }
+        return scripts;
+    }
+
+    @Override
+    public void checkRoles(RoleChecker checker) throws SecurityException {
+        checker.check(this, Roles.SLAVE);
+    }
+
+}
@@ -0,0 +1,174 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.tasks;
+
+import hudson.FilePath;
+import hudson.model.BuildListener;
+import hudson.remoting.Callable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import jenkins.plugins.pbs.model.PBSJobResult;
+import jenkins.plugins.pbs.model.SubmitLimits;
+import jenkins.plugins.pbs.model.SubmittedJob;
+import jenkins.plugins.pbs.model.TraceJobEvent;
+import jenkins.plugins.pbs.monitor.JobStatusMonitor;
+import jenkins.plugins.pbs.monitor.PilotPool;
+import jenkins.plugins.pbs.monitor.PollSchedule;
+import jenkins.security.Roles;
+
+import org.jenkinsci.remoting.RoleChecker;
+
+import com.tupilabs.pbs.util.PBSException;
+
+/**
+ * Runs a short script in a pilot job shared with other scripts, instead of
+ * submitting a job of its own. The exit status and logs are those of the
+ * script.
+ * @since 0.3
+ */
+public class QsubPacked implements Callable<PBSJobResult, PBSException> {
+
+    private static final long serialVersionUID = 3172043950375361128L;
+
+    private final String script;
+    private final int numberOfDays;
+    private final PollSchedule schedule;
+    private final String runUser;
+    private final String logHostname;
+    private final String logBasename;
+    private final Map<String, String> environment;
+    private final long logCap;
+    private final FilePath logArchive;
+    private final SubmitLimits limits;
+    private final int pilotTasks;
+    private final long pilotLifetime;
+    private final BuildListener listener;
+
+    /**
+     * @param logCap bytes of the head and tail of each log printed to the console, 0 for all
+     * @param logArchive where to store logs over the cap, may be <code>null</code>
+     * @param limits submission limits of the PBS slave, may be <code>null</code>
+     * @param pilotTasks maximum number of scripts run by a pilot
+     * @param pilotLifetime ms after its start a pilot stops taking scripts
+     */
+    public QsubPacked(String script, int numberOfDays, PollSchedule schedule, String runUser,
+            String logHostname, String logBasename, Map<String, String> environment, long logCap,
+            FilePath logArchive, SubmitLimits limits, int pilotTasks, long pilotLifetime, BuildListener listener) {
+        this.script = script;
+        this.numberOfDays = numberOfDays;
+        this.schedule = schedule;
+        this.runUser = runUser;
+        this.logHostname = logHostname;
+        this.logBasename = logBasename;
+        this.environment = environment;
+        this.logCap = logCap;
+        this.logArchive = logArchive;
+        this.limits = limits;
+        this.pilotTasks = pilotTasks;
+        this.pilotLifetime = pilotLifetime;
+        this.listener = listener;
+    }
+
+    public PBSJobResult call() {
+        final PilotPool pool = PilotPool.get();
+        PilotPool.Task task = dispatch(pool);
+        try {
+            while (true) {
+                final RemoteLogStreamer logs = new RemoteLogStreamer(task.getOut(), task.getErr(),
+                        listener.getLogger(), logCap, logArchive);
+                waitFor(task, logs);
+                if (task.isDone()) {
+                    logs.finish();
+                    final Integer exitStatus = task.getExitStatus();
+                    listener.getLogger().println(String.format("Task %s of pilot job %s finished with exit status %s",
+                            task.getId(), task.getJobId(), exitStatus));
+                    return new PBSJobResult(task.getJobId(), exitStatus, false, new ArrayList<TraceJobEvent>());
+                }
+                if (!pool.withdraw(task)) {
+                    logs.finish();
+                    throw new PBSException(String.format(
+                            "Pilot job %s ended while running task %s, its walltime may be shorter than its lifetime",
+                            task.getJobId(), task.getId()));
+                }
+                listener.getLogger().println(String.format("Pilot job %s ended before running task %s, moving it",
+                        task.getJobId(), task.getId()));
+                pool.release(task);
+                task = null;
+                task = dispatch(pool);
+            }
+        } finally {
+            if (task != null) {
+                pool.release(task);
+            }
+        }
+    }
+
+    private PilotPool.Task dispatch(PilotPool pool) {
+        final PilotPool.Task task = pool.dispatch(script, environment, runUser, logBasename, pilotTasks,
+                pilotLifetime, numberOfDays, schedule, new PilotPool.Submitter() {
+                    public SubmittedJob submit(String pilotScript) {
+                        listener.getLogger().println("Submitting a new PBS pilot job...");
+                        // the pilot is shared by builds, none of them owns it
+                        final Map<String, String> pilotEnvironment = new HashMap<String, String>(environment);
+                        pilotEnvironment.remove("JOB_NAME");
+                        pilotEnvironment.remove("BUILD_NUMBER");
+                        return new SubmitJob(pilotScript, runUser, logHostname, logBasename, pilotEnvironment,
+                                limits, listener).call();
+                    }
+                });
+        listener.getLogger().println(String.format("Queued as task %s of pilot job %s", task.getId(), task.getJobId()));
+        return task;
+    }
+
+    private void waitFor(PilotPool.Task task, RemoteLogStreamer logs) {
+        while (true) {
+            try {
+                if (task.await(schedule.getSpan())) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                listener.getLogger().println(String.format("Build aborted, cancelling task %s of pilot job %s",
+                        task.getId(), task.getJobId()));
+                if (!PilotPool.get().cancel(task, JobStatusMonitor.CANCEL_TIMEOUT_SECONDS * 1000L)) {
+                    listener.getLogger().println(String.format(
+                            "Warning: task %s of pilot job %s did not end within %d seconds", task.getId(),
+                            task.getJobId(), JobStatusMonitor.CANCEL_TIMEOUT_SECONDS));
+                }
+                Thread.currentThread().interrupt();
+                throw new PBSException(String.format("Build aborted, task %s of pilot job %s cancelled",
+                        task.getId(), task.getJobId()));
+            }
+            logs.stream(false);
+        }
+    }
+
+    @Override
+    public void checkRoles(RoleChecker checker) throws SecurityException {
+        checker.check(this, Roles.SLAVE);
+    }
+
+}
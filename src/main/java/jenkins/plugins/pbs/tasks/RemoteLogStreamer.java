@@ -0,0 +1,259 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.tasks;
+
+import hudson.FilePath;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPOutputStream;
+
+import jenkins.plugins.pbs.util.LogTailer;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Streams the output and error logs of a running job into the build console.
+ * Writes are buffered so that each remoting round-trip carries a large chunk
+ * of the logs.
+ *
+ * <p>With a cap, only the first and last <code>cap</code> bytes of each log
+ * go to the console. The full log is then gzipped on the agent and copied
+ * to the archive directory, usually the artifacts of the build.</p>
+ * @since 0.3
+ */
+class RemoteLogStreamer {
+
+	static final int CONSOLE_BUFFER_SIZE = 256 * 1024;
+
+	static final int ARCHIVE_BUFFER_SIZE = 1024 * 1024;
+
+	private static final String OUTPUT_HEADER = "---- Remote job output log ----\n";
+	private static final String ERROR_HEADER = "---- Remote job error log ----\n";
+
+	private final Log out;
+	private final Log err;
+	private final PrintStream logger;
+	private final OutputStream console;
+	private final long cap;
+	private final FilePath archive;
+	private String section;
+	private long omitted;
+	private long archived;
+	private long compressed;
+	private long archiveTime;
+
+	RemoteLogStreamer(Path out, Path err, PrintStream logger) {
+		this(out, err, logger, 0L, null);
+	}
+
+	/**
+	 * @param cap maximum number of bytes of the head and of the tail of each
+	 * log printed to the console, or 0 to print everything
+	 * @param archive where to store the full logs when they exceed the cap,
+	 * or <code>null</code> to drop the middle of the logs
+	 */
+	RemoteLogStreamer(Path out, Path err, PrintStream logger, long cap, FilePath archive) {
+		this.out = new Log(out, "out", OUTPUT_HEADER);
+		this.err = new Log(err, "err", ERROR_HEADER);
+		this.logger = logger;
+		this.console = new BufferedOutputStream(logger, CONSOLE_BUFFER_SIZE);
+		this.cap = cap;
+		this.archive = archive;
+	}
+
+	/**
+	 * Copy what was appended to the logs to the console.
+	 * @param complete <code>true</code> once the job has finished, to also
+	 * copy trailing partial lines
+	 */
+	void stream(boolean complete) {
+		stream(out, complete);
+		stream(err, complete);
+		flush();
+	}
+
+	/**
+	 * Print a message to the console, after the logs streamed so far.
+	 * @param message message
+	 */
+	void println(String message) {
+		flush();
+		logger.println(message);
+	}
+
+	/**
+	 * Copy the rest of the logs and close the log section. Logs over the cap
+	 * get their tail printed and are archived.
+	 */
+	void finish() {
+		stream(true);
+		finish(out);
+		finish(err);
+		flush();
+		if (section != null) {
+			logger.println("---- End of remote job logs ----");
+		}
+		if (omitted > 0L) {
+			final StringBuilder summary = new StringBuilder("Remote job logs: ");
+			summary.append(FileUtils.byteCountToDisplaySize(omitted)).append(" kept out of the console");
+			if (archived > 0L) {
+				summary.append(String.format(", %s archived as %s of gzip in %d ms (%s/s)",
+						FileUtils.byteCountToDisplaySize(archived), FileUtils.byteCountToDisplaySize(compressed),
+						archiveTime, FileUtils.byteCountToDisplaySize(compressed * 1000L / Math.max(1L, archiveTime))));
+			}
+			logger.println(summary);
+		}
+	}
+
+	private void stream(Log log, boolean complete) {
+		try {
+			final long available = log.tailer.available();
+			if (log.truncated || available <= 0L) {
+				return;
+			}
+			final long limit = cap > 0L ? cap - log.tailer.getPosition() : Long.MAX_VALUE;
+			if (limit > 0L) {
+				section(log);
+				// a log over the cap is copied right up to it, even in the middle of a line
+				log.tailer.tail(console, complete || available > limit, limit);
+			}
+			if (cap > 0L && log.tailer.getPosition() >= cap && log.tailer.available() > 0L) {
+				log.truncated = true;
+				section(log);
+				console.write(String.format("[... %s log over %s, the rest is printed when the job ends ...]%n",
+						log.name, FileUtils.byteCountToDisplaySize(cap)).getBytes(Charset.defaultCharset()));
+			}
+		} catch (IOException e) {
+			println("ERROR: CANNOT PRINT OUT LOG " + log.tailer.getPath() + " - " + e.getMessage());
+			e.printStackTrace(logger);
+		}
+	}
+
+	private void finish(Log log) {
+		try {
+			// the log may have grown past the cap since it was last streamed
+			final long remaining = log.tailer.available();
+			if (remaining <= 0L) {
+				return;
+			}
+			final long skip = cap > 0L ? remaining - cap : 0L;
+			if (skip > 0L) {
+				omitted += log.tailer.skip(skip);
+				section(log);
+				console.write(String.format("[... %s of %s log omitted ...]%n",
+						FileUtils.byteCountToDisplaySize(skip), log.name).getBytes(Charset.defaultCharset()));
+			}
+			section(log);
+			log.tailer.tail(console, true);
+			if (skip > 0L && archive != null) {
+				archive(log);
+			}
+		} catch (IOException e) {
+			println("ERROR: CANNOT PRINT OUT LOG " + log.tailer.getPath() + " - " + e.getMessage());
+			e.printStackTrace(logger);
+		}
+	}
+
+	private void archive(Log log) {
+		final FilePath target = archive.child(log.name + ".gz");
+		final long start = System.currentTimeMillis();
+		InputStream in = null;
+		OutputStream gzip = null;
+		final CountingOutputStream counter;
+		try {
+			in = Files.newInputStream(log.tailer.getPath());
+			counter = new CountingOutputStream(new BufferedOutputStream(target.write(), ARCHIVE_BUFFER_SIZE));
+			gzip = new GZIPOutputStream(counter, ARCHIVE_BUFFER_SIZE);
+			archived += IOUtils.copyLarge(in, gzip, new byte[ARCHIVE_BUFFER_SIZE]);
+			gzip.close();
+			gzip = null;
+			compressed += counter.count;
+			archiveTime += System.currentTimeMillis() - start;
+			println("Full " + log.name + " log archived as " + target.getName());
+		} catch (IOException e) {
+			println("ERROR: CANNOT ARCHIVE LOG " + log.tailer.getPath() + " - " + e.getMessage());
+			e.printStackTrace(logger);
+		} catch (InterruptedException e) {
+			println("ERROR: CANNOT ARCHIVE LOG " + log.tailer.getPath() + " - interrupted");
+			Thread.currentThread().interrupt();
+		} finally {
+			IOUtils.closeQuietly(in);
+			IOUtils.closeQuietly(gzip);
+		}
+	}
+
+	private void section(Log log) throws IOException {
+		if (!log.header.equals(section)) {
+			console.write(log.header.getBytes(Charset.defaultCharset()));
+			section = log.header;
+		}
+	}
+
+	private void flush() {
+		try {
+			console.flush();
+		} catch (IOException e) {
+			e.printStackTrace(logger);
+		}
+	}
+
+	private static final class Log {
+		private final LogTailer tailer;
+		private final String name;
+		private final String header;
+		private boolean truncated;
+		Log(Path path, String name, String header) {
+			this.tailer = new LogTailer(path);
+			this.name = name;
+			this.header = header;
+		}
+	}
+
+	private static final class CountingOutputStream extends FilterOutputStream {
+		private long count;
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+
+}
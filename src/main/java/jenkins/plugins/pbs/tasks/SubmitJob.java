@@ -0,0 +1,422 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.tasks;
+
+import hudson.model.TaskListener;
+import hudson.remoting.Callable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Map;
+
+import jenkins.plugins.pbs.model.ArrayRange;
+import jenkins.plugins.pbs.model.JobOwner;
+import jenkins.plugins.pbs.model.Staging;
+import jenkins.plugins.pbs.model.SubmitLimits;
+import jenkins.plugins.pbs.model.SubmittedJob;
+import jenkins.plugins.pbs.util.CommandStats;
+import jenkins.plugins.pbs.util.JobJournal;
+import jenkins.plugins.pbs.util.SubmitGovernor;
+import jenkins.plugins.pbs.util.WorkspaceStager;
+import jenkins.security.Roles;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.remoting.RoleChecker;
+
+import com.tupilabs.pbs.PBS;
+import com.tupilabs.pbs.util.PBSException;
+
+/**
+ * Creates a working directory with the script and submits it with qsub,
+ * without waiting for the job to finish.
+ * @since 0.3
+ */
+public class SubmitJob implements Callable<SubmittedJob, PBSException> {
+
+    private static final long serialVersionUID = 6398563474916582717L;
+
+    public static final String TORQUE_ARRAY_OPTION = "-t";
+    public static final String PBS_PRO_ARRAY_OPTION = "-J";
+
+    /**
+     * Shell variable holding the secret in the job script.
+     */
+    public static final String SECRET_VARIABLE = "JENKINS_SECRET";
+
+    private final String script;
+    private final String runUser;
+    private final TaskListener listener;
+    private final String logHostname;
+    private final String logBasename;
+    private final Map<String, String> environment;
+    private final String arrayOption;
+    private final ArrayRange arrayRange;
+    private final SubmitLimits limits;
+    private final Staging staging;
+    private final String secret;
+    private final String token;
+
+    public SubmitJob(String script, String runUser, String logHostname, String logBasename,
+            Map<String, String> environment, TaskListener listener) {
+        this(script, runUser, logHostname, logBasename, null, null, environment, listener);
+    }
+
+    /**
+     * Submit a job, waiting for the submission limits of the slave.
+     * @param limits limits of the PBS slave, or <code>null</code>
+     */
+    public SubmitJob(String script, String runUser, String logHostname, String logBasename,
+            Map<String, String> environment, SubmitLimits limits, TaskListener listener) {
+        this(script, runUser, logHostname, logBasename, null, null, environment, limits, null, listener);
+    }
+
+    /**
+     * Submit a job with staged files, waiting for the submission limits of
+     * the slave. The script runs in the execution directory, where the
+     * workspace files are staged.
+     * @param limits limits of the PBS slave, or <code>null</code>
+     * @param staging files to stage in, or <code>null</code>
+     * @param token token of the build step, recorded in the job journal so
+     * that the step can re-attach to the job, or <code>null</code>
+     */
+    public SubmitJob(String script, String runUser, String logHostname, String logBasename,
+            Map<String, String> environment, SubmitLimits limits, Staging staging, String token,
+            TaskListener listener) {
+        this(script, runUser, logHostname, logBasename, null, null, environment, limits, staging, null, token,
+                listener);
+    }
+
+    /**
+     * Submit a job that needs a secret, e.g. the JNLP secret of an agent,
+     * waiting for the submission limits of the slave. The secret is set in
+     * the {@link #SECRET_VARIABLE} shell variable of the script, which only
+     * the slave can read and PBS itself hands to the compute node, so that
+     * it shows neither in the job attributes nor in the environment.
+     * @param limits limits of the PBS slave, or <code>null</code>
+     * @param secret secret of the job
+     */
+    public SubmitJob(String script, String runUser, String logHostname, String logBasename,
+            Map<String, String> environment, SubmitLimits limits, String secret, TaskListener listener) {
+        this(script, runUser, logHostname, logBasename, null, null, environment, limits, null, secret, null,
+                listener);
+    }
+
+    /**
+     * Submit a job array.
+     * @param arrayOption qsub option for job arrays, <code>-t</code> (Torque) or <code>-J</code> (PBS Pro)
+     * @param arrayRange array indices, or <code>null</code> for a single job
+     */
+    public SubmitJob(String script, String runUser, String logHostname, String logBasename,
+            String arrayOption, ArrayRange arrayRange, Map<String, String> environment, TaskListener listener) {
+        this(script, runUser, logHostname, logBasename, arrayOption, arrayRange, environment, null, null, listener);
+    }
+
+    /**
+     * Submit a job array, waiting for the submission limits of the slave.
+     * @param arrayOption qsub option for job arrays, <code>-t</code> (Torque) or <code>-J</code> (PBS Pro)
+     * @param arrayRange array indices, or <code>null</code> for a single job
+     * @param limits limits of the PBS slave, or <code>null</code>
+     * @param token token of the build step, recorded in the job journal so
+     * that the step can re-attach to the job, or <code>null</code>
+     */
+    public SubmitJob(String script, String runUser, String logHostname, String logBasename,
+            String arrayOption, ArrayRange arrayRange, Map<String, String> environment, SubmitLimits limits,
+            String token, TaskListener listener) {
+        this(script, runUser, logHostname, logBasename, arrayOption, arrayRange, environment, limits, null, null,
+                token, listener);
+    }
+
+    private SubmitJob(String script, String runUser, String logHostname, String logBasename,
+            String arrayOption, ArrayRange arrayRange, Map<String, String> environment, SubmitLimits limits,
+            Staging staging, String secret, String token, TaskListener listener) {
+        this.script = script;
+        this.runUser = runUser;
+        this.listener = listener;
+        this.environment = environment;
+        this.logHostname = logHostname;
+        this.logBasename = logBasename;
+        this.arrayOption = arrayOption;
+        this.arrayRange = arrayRange;
+        this.limits = limits;
+        this.staging = staging;
+        this.secret = secret;
+        this.token = token;
+    }
+
+    public SubmittedJob call() {
+        final String executionDirectory = createExecutionDirectory();
+        SubmittedJob job = null;
+        try {
+            job = submit(executionDirectory);
+            return job;
+        } finally {
+            if (job == null) {
+                // nothing was submitted, the orphan sweeper must not find the owner file
+                FileUtils.deleteQuietly(new File(executionDirectory));
+            }
+        }
+    }
+
+    /**
+     * Stage in and write the script first, so that the submission limits of
+     * the slave only hold back qsub itself.
+     */
+    private SubmittedJob submit(String executionDirectory) {
+        final JobOwner owner = JobOwner.fromEnvironment(environment);
+        writeOwner(owner, executionDirectory, null);
+        String jobScript = staging == null ? script : stageIn(executionDirectory);
+        if (secret != null) {
+            jobScript = afterHeader(jobScript, String.format("%s='%s'", SECRET_VARIABLE, secret.replace("'", "'\\''")));
+        }
+
+        final String errFileName;
+        final String outFileName;
+        if (StringUtils.isNotBlank(logHostname)) {
+            errFileName = String.format("%s:%s", logHostname, Paths.get(executionDirectory, "err"));
+            outFileName = String.format("%s:%s", logHostname, Paths.get(executionDirectory, "out"));
+        } else {
+            errFileName = Paths.get(executionDirectory, "err").toString();
+            outFileName = Paths.get(executionDirectory, "out").toString();
+        }
+        // Torque appends -index to the log file names of sub-jobs, PBS Pro needs to be told
+        final String logSuffix = arrayRange != null && PBS_PRO_ARRAY_OPTION.equals(arrayOption) ? ".^array_index^" : "";
+
+        OutputStream tmpScriptOut = null;
+        try {
+            Path tmpScript = Paths.get(executionDirectory, "script");
+            if (secret != null) {
+                // qsub reads the script as this user, also when it submits for the run user
+                Files.createFile(tmpScript, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+            }
+            tmpScriptOut = Files.newOutputStream(tmpScript);
+            tmpScriptOut.write(jobScript.getBytes());
+            tmpScriptOut.flush();
+
+            listener.getLogger().println("PBS script: " + tmpScript.toString());
+            String[] argList;
+            if (this.runUser.length() > 0) {
+                argList = new String[] { "-P", this.runUser, "-e", errFileName + logSuffix, "-o", outFileName + logSuffix,
+                        tmpScript.toString(), "-W", "umask=022" };
+            } else {
+                argList = new String[] { "-e", errFileName + logSuffix, "-o", outFileName + logSuffix, tmpScript.toString() };
+            }
+            if (arrayRange != null) {
+                final String[] arrayArgs = new String[argList.length + 2];
+                arrayArgs[0] = StringUtils.isNotBlank(arrayOption) ? arrayOption : TORQUE_ARRAY_OPTION;
+                arrayArgs[1] = arrayRange.getSpec();
+                System.arraycopy(argList, 0, arrayArgs, 2, argList.length);
+                argList = arrayArgs;
+                listener.getLogger().println(String.format("PBS job array of %d sub-jobs: %s", arrayRange.size(), arrayRange));
+            }
+            final SubmitGovernor.Permit permit = acquire();
+            final long start = System.nanoTime();
+            String jobId = null;
+            try {
+                jobId = PBS.qsub(argList, this.environment);
+            } finally {
+                CommandStats.get().record("qsub", start, jobId != null, jobId == null ? 0L : jobId.length());
+                permit.release();
+            }
+
+            listener.getLogger().println("PBS Job submitted: " + jobId);
+            writeOwner(owner, executionDirectory, jobId.trim());
+            if (token != null) {
+                journal(jobId.trim(), executionDirectory);
+            }
+            return new SubmittedJob(jobId.trim(), executionDirectory);
+        } catch (IOException e) {
+            e.printStackTrace(listener.getLogger());
+            throw new PBSException("Failed to create temp script");
+        } finally {
+            IOUtils.closeQuietly(tmpScriptOut);
+        }
+    }
+
+    /**
+     * Stage the workspace files in the execution directory.
+     * @return the script, changing to the execution directory after its
+     * header of comments and <code>#PBS</code> directives
+     */
+    private String stageIn(String executionDirectory) {
+        if (staging.getStageIn() != null) {
+            try {
+                final WorkspaceStager.Result result = WorkspaceStager.stageIn(new File(staging.getWorkspace()),
+                        staging.getStageIn(), new File(executionDirectory), runUser);
+                listener.getLogger().println("Staged in " + result);
+            } catch (IOException e) {
+                e.printStackTrace(listener.getLogger());
+                throw new PBSException("Failed to stage in " + staging.getStageIn() + ": " + e.getMessage(), e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new PBSException("Interrupted while staging in " + staging.getStageIn(), e);
+            }
+        }
+        return afterHeader(script, String.format("cd '%s' || exit 1", executionDirectory));
+    }
+
+    /**
+     * @return the script with a line added after its header of comments
+     * and <code>#PBS</code> directives
+     */
+    private static String afterHeader(String script, String line) {
+        final String[] lines = script.split("\n", -1);
+        int header = 0;
+        while (header < lines.length && (lines[header].startsWith("#") || lines[header].trim().isEmpty())) {
+            header++;
+        }
+        final StringBuilder result = new StringBuilder();
+        for (int i = 0; i < lines.length; i++) {
+            if (i == header) {
+                result.append(line).append('\n');
+            }
+            result.append(lines[i]);
+            if (i < lines.length - 1) {
+                result.append('\n');
+            }
+        }
+        if (header == lines.length) {
+            result.append('\n').append(line).append('\n');
+        }
+        return result.toString();
+    }
+
+    /**
+     * Record the build that owns the job, for the orphan sweeper.
+     */
+    private void writeOwner(JobOwner owner, String executionDirectory, String jobId) {
+        if (owner == null) {
+            return;
+        }
+        try {
+            owner.write(new File(executionDirectory), jobId);
+        } catch (IOException e) {
+            listener.getLogger().println("Warning: Cannot record the owner of the PBS job: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Record the job in the journal of the agent, so that the build step can
+     * re-attach to it after a restart.
+     */
+    private void journal(String jobId, String executionDirectory) {
+        try {
+            JobJournal.get(Paths.get(executionDirectory).getParent().toFile()).submitted(jobId, executionDirectory,
+                    token);
+        } catch (IOException e) {
+            listener.getLogger().println("Warning: Cannot record the PBS job in the journal: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the job the build step already submitted, while its execution
+     * directory exists, or <code>null</code>
+     */
+    static JobJournal.Entry findSubmitted(String token, String logBasename, TaskListener listener) {
+        try {
+            return JobJournal.get(baseDirectory(logBasename)).find(token);
+        } catch (IOException e) {
+            listener.getLogger().println("Warning: Cannot read the PBS job journal: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Remove the jobs of a completed build step from the journal.
+     */
+    static void completed(String token, String logBasename, TaskListener listener) {
+        try {
+            JobJournal.get(baseDirectory(logBasename)).completed(token);
+        } catch (IOException e) {
+            listener.getLogger().println("Warning: Cannot update the PBS job journal: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return directory holding the execution directories, and their journal
+     */
+    static File baseDirectory(String logBasename) {
+        return new File(logBasename.length() > 0 ? logBasename : System.getProperty("java.io.tmpdir"));
+    }
+
+    private SubmitGovernor.Permit acquire() {
+        final SubmitGovernor.Permit permit;
+        try {
+            permit = SubmitGovernor.get().acquire(limits);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PBSException("Interrupted while waiting to submit the PBS job");
+        }
+        if (permit.isGoverned()) {
+            listener.getLogger().println(String.format(
+                    "Waited %d ms for the PBS submission limits of this slave (%s), %d submissions ahead",
+                    permit.getWaited(), limits, permit.getAhead()));
+        }
+        return permit;
+    }
+
+    private String createExecutionDirectory() {
+        try {
+            // If we are running as another user, we are going to make sure we
+            // set permissions more loosely
+            Path tmpDir = Files.createTempDirectory(baseDirectory(logBasename).toPath(), "jenkinsPBS_");
+            File tmpDirFile = tmpDir.toFile();
+            if (!tmpDirFile.exists()) {
+                if (!tmpDirFile.mkdirs()) {
+                    listener.getLogger().println("Failed to create working directory: " + tmpDir.toString());
+                    throw new PBSException("Failed to create working directory: " + tmpDir.toString());
+                }
+            }
+
+            final String executionDirectory = tmpDir.toString();
+            if (this.runUser.length() > 0) {
+                Files.setPosixFilePermissions(
+                        Paths.get(executionDirectory),
+                        PosixFilePermissions.fromString("rwxrwxrwx")
+                );
+            }
+            listener.getLogger().println(String.format("Created working directory '%s' with permissions '%s'",
+                    executionDirectory,
+                    PosixFilePermissions.toString(Files.getPosixFilePermissions(Paths.get(executionDirectory)))
+                )
+            );
+            return executionDirectory;
+        } catch (IOException e) {
+            e.printStackTrace(listener.fatalError(e.getMessage()));
+            throw new PBSException("Failed to create working directory: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void checkRoles(RoleChecker checker) throws SecurityException {
+        checker.check(this, Roles.SLAVE);
+    }
+
+}
@@ -23,10 +23,16 @@
  */
 package jenkins.plugins.pbs.tasks;
 
+import java.util.ArrayList;
+
 import org.jenkinsci.remoting.RoleChecker;
 
 import hudson.remoting.Callable;
 import jenkins.plugins.pbs.model.PBSJob;
+import jenkins.plugins.pbs.model.TraceJobEvent;
+import jenkins.plugins.pbs.util.CommandStats;
+import jenkins.plugins.pbs.util.ServerLogIndex;
+import jenkins.plugins.pbs.util.TraceJobParser;
 
 import com.tupilabs.pbs.PBS;
 import com.tupilabs.pbs.util.CommandOutput;
@@ -56,8 +62,23 @@ public class TraceJob implements Callable<PBSJob, Throwable>{
 	}
 	
 	public PBSJob call() throws Throwable {
-		final CommandOutput commandOutput = PBS.traceJob(jobId, this.numberOfDays);
-		return new PBSJob(jobId, commandOutput.getOutput(), commandOutput.getError());
+		final TraceJobParser parser = new TraceJobParser();
+		final String logs = ServerLogIndex.lookup(jobId, System.currentTimeMillis() - numberOfDays * ServerLogIndex.DAY_MS);
+		if (logs != null) {
+			parser.parse(logs);
+			return new PBSJob(jobId, logs, "", new ArrayList<TraceJobEvent>(parser.getEvents()));
+		}
+		final long start = System.nanoTime();
+		CommandOutput commandOutput = null;
+		try {
+			commandOutput = PBS.traceJob(jobId, this.numberOfDays);
+		} finally {
+			CommandStats.get().record("tracejob", start, commandOutput != null,
+					commandOutput == null ? 0L : commandOutput.getOutput().length());
+		}
+		parser.parse(commandOutput.getOutput());
+		return new PBSJob(jobId, commandOutput.getOutput(), commandOutput.getError(),
+				new ArrayList<TraceJobEvent>(parser.getEvents()));
 	}
 
 	@Override
@@ -0,0 +1,58 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.util;
+
+import java.io.Serializable;
+
+/**
+ * Exit code, output and error of a command.
+ * @since 0.3
+ */
+public class CommandResult implements Serializable {
+
+	private static final long serialVersionUID = 2390848219538224105L;
+	private final int exitCode;
+	private final String output;
+	private final String error;
+
+	public CommandResult(int exitCode, String output, String error) {
+		super();
+		this.exitCode = exitCode;
+		this.output = output;
+		this.error = error;
+	}
+
+	public int getExitCode() {
+		return exitCode;
+	}
+
+	public String getOutput() {
+		return output;
+	}
+
+	public String getError() {
+		return error;
+	}
+
+}
@@ -0,0 +1,127 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import jenkins.plugins.pbs.model.CommandStat;
+
+/**
+ * Invocation counts, errors, latency histogram and output size of the PBS
+ * commands run by this JVM. The agent records every qsub, qstat, qdel and
+ * tracejob it runs in {@link #get()}; the master keeps its own instances
+ * for the remoting calls to each agent.
+ * @since 0.3
+ */
+public final class CommandStats {
+
+	private static final CommandStats INSTANCE = new CommandStats();
+
+	private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+
+	public CommandStats() {
+	}
+
+	/**
+	 * @return statistics of the commands run by this JVM
+	 */
+	public static CommandStats get() {
+		return INSTANCE;
+	}
+
+	/**
+	 * @param command command and arguments
+	 * @return name under which the command is recorded, e.g. <code>qstat</code>
+	 */
+	public static String name(String... command) {
+		return command.length == 0 ? "" : new File(command[0]).getName();
+	}
+
+	/**
+	 * Record a finished invocation.
+	 * @param command command name
+	 * @param startNanos value of {@link System#nanoTime()} when the command started
+	 * @param success <code>false</code> if the command failed
+	 * @param outputSize size of the output of the command, in characters
+	 */
+	public void record(String command, long startNanos, boolean success, long outputSize) {
+		Counter counter = counters.get(command);
+		if (counter == null) {
+			final Counter created = new Counter();
+			counter = counters.putIfAbsent(command, created);
+			if (counter == null) {
+				counter = created;
+			}
+		}
+		counter.add(System.nanoTime() - startNanos, success, outputSize);
+	}
+
+	/**
+	 * @return copy of the statistics of every command, by name
+	 */
+	public List<CommandStat> snapshot() {
+		final List<CommandStat> stats = new ArrayList<CommandStat>(counters.size());
+		for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+			stats.add(entry.getValue().snapshot(entry.getKey()));
+		}
+		Collections.sort(stats, new Comparator<CommandStat>() {
+			public int compare(CommandStat o1, CommandStat o2) {
+				return o1.getCommand().compareTo(o2.getCommand());
+			}
+		});
+		return stats;
+	}
+
+	private static final class Counter {
+		private final long[] histogram = new long[CommandStat.BUCKETS_MS.length + 1];
+		private long count;
+		private long errors;
+		private long totalNanos;
+		private long maxNanos;
+		private long outputSize;
+
+		synchronized void add(long nanos, boolean success, long size) {
+			count++;
+			if (!success) {
+				errors++;
+			}
+			totalNanos += nanos;
+			maxNanos = Math.max(maxNanos, nanos);
+			outputSize += size;
+			histogram[CommandStat.bucket(nanos / 1000000L)]++;
+		}
+
+		synchronized CommandStat snapshot(String command) {
+			return new CommandStat(command, count, errors, totalNanos, maxNanos, outputSize, histogram.clone());
+		}
+	}
+
+}
@@ -0,0 +1,195 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Runs PBS client commands on the local machine. Used where the PBS API
+ * does not expose the arguments we need, e.g. several job ids in one
+ * <code>qstat</code> call.
+ * @since 0.3
+ */
+public final class Commands {
+
+	private static final Logger LOGGER = Logger.getLogger(Commands.class.getName());
+
+	/**
+	 * Commands taking longer than this are killed.
+	 */
+	public static final long DEFAULT_TIMEOUT_MS = 60000L;
+
+	private static final Timer WATCHDOG = new Timer("PBS command watchdog", true);
+
+	private Commands() {
+	}
+
+	/**
+	 * Run a command and wait for it to finish.
+	 * @param command command and arguments
+	 * @return command result, never <code>null</code>
+	 */
+	public static CommandResult run(String... command) {
+		return run(DEFAULT_TIMEOUT_MS, command);
+	}
+
+	/**
+	 * Run a command and wait for it to finish, killing it after timeout.
+	 * @param timeout timeout in ms
+	 * @param command command and arguments
+	 * @return command result, never <code>null</code>
+	 */
+	public static CommandResult run(long timeout, final String... command) {
+		final long start = System.nanoTime();
+		final CommandResult result = execute(timeout, command);
+		CommandStats.get().record(CommandStats.name(command), start, result.getExitCode() == 0,
+				result.getOutput().length());
+		return result;
+	}
+
+	private static CommandResult execute(long timeout, final String... command) {
+		final Process process;
+		try {
+			process = new ProcessBuilder(command).start();
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Failed to run " + Arrays.toString(command), e);
+			return new CommandResult(-1, "", e.getMessage());
+		}
+		final TimerTask killer = new TimerTask() {
+			@Override
+			public void run() {
+				LOGGER.warning("Killing command after timeout: " + Arrays.toString(command));
+				process.destroy();
+			}
+		};
+		WATCHDOG.schedule(killer, timeout);
+		try {
+			process.getOutputStream().close();
+			final StreamCollector err = new StreamCollector(process.getErrorStream());
+			err.start();
+			final String out = read(process.getInputStream());
+			final int exitCode = process.waitFor();
+			err.join();
+			return new CommandResult(exitCode, out, err.getOutput());
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Failed to read output of " + Arrays.toString(command), e);
+			return new CommandResult(-1, "", e.getMessage());
+		} catch (InterruptedException e) {
+			process.destroy();
+			Thread.currentThread().interrupt();
+			return new CommandResult(-1, "", "Interrupted");
+		} finally {
+			killer.cancel();
+		}
+	}
+
+	/**
+	 * Run a command writing its output and error to files, so that large
+	 * outputs are never held in memory.
+	 * @param timeout timeout in ms
+	 * @param out file receiving the standard output
+	 * @param err file receiving the standard error
+	 * @param command command and arguments
+	 * @return exit code, or -1 if the command could not be run
+	 */
+	public static int runToFile(long timeout, File out, File err, final String... command) {
+		final long start = System.nanoTime();
+		final int exitCode = executeToFile(timeout, out, err, command);
+		CommandStats.get().record(CommandStats.name(command), start, exitCode == 0, out.length());
+		return exitCode;
+	}
+
+	private static int executeToFile(long timeout, File out, File err, final String... command) {
+		final Process process;
+		try {
+			process = new ProcessBuilder(command).redirectOutput(out).redirectError(err).start();
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Failed to run " + Arrays.toString(command), e);
+			return -1;
+		}
+		final TimerTask killer = new TimerTask() {
+			@Override
+			public void run() {
+				LOGGER.warning("Killing command after timeout: " + Arrays.toString(command));
+				process.destroy();
+			}
+		};
+		WATCHDOG.schedule(killer, timeout);
+		try {
+			process.getOutputStream().close();
+			return process.waitFor();
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Failed to run " + Arrays.toString(command), e);
+			return -1;
+		} catch (InterruptedException e) {
+			process.destroy();
+			Thread.currentThread().interrupt();
+			return -1;
+		} finally {
+			killer.cancel();
+		}
+	}
+
+	private static String read(InputStream in) throws IOException {
+		final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		try {
+			IOUtils.copy(in, buffer);
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+		return buffer.toString();
+	}
+
+	private static final class StreamCollector extends Thread {
+		private final InputStream in;
+		private volatile String output = "";
+		StreamCollector(InputStream in) {
+			super("PBS command stderr reader");
+			setDaemon(true);
+			this.in = in;
+		}
+		@Override
+		public void run() {
+			try {
+				output = read(in);
+			} catch (IOException e) {
+				output = e.getMessage();
+			}
+		}
+		String getOutput() {
+			return output;
+		}
+	}
+
+}
@@ -0,0 +1,377 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Append-only journal of the jobs submitted from an agent, kept next to
+ * their execution directories in <code>jenkinsPBS.journal</code>. It records
+ * the job id and execution directory of each job, the token of the build
+ * step that submitted it, and its last known state, so that the step can
+ * re-attach to its job after the agent restarts or reconnects, instead of
+ * submitting it again.
+ *
+ * <p>Each record is one line. Records of concurrent jobs are written
+ * together, and only submissions wait for the disk, so a thousand active
+ * jobs share a few writes. Entries stay in the journal until their step
+ * completes, or while their execution directory exists; the journal is
+ * rewritten without the others once it has doubled in size since it was
+ * last rewritten.</p>
+ * @since 0.3
+ */
+public final class JobJournal {
+
+	private static final Logger LOGGER = Logger.getLogger(JobJournal.class.getName());
+
+	public static final String FILE_NAME = "jenkinsPBS.journal";
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * Minimum number of records before the journal is compacted.
+	 */
+	private static final int MIN_COMPACT_RECORDS = 1000;
+
+	private static final Map<File, JobJournal> JOURNALS = new HashMap<File, JobJournal>();
+
+	private final File file;
+	/**
+	 * Entries by job id, in submission order.
+	 */
+	private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+	private final List<String> pending = new ArrayList<String>();
+	private final Object writeLock = new Object();
+	private long appended;
+	private long written;
+	private long synced;
+	private long records;
+	private long compactAt = MIN_COMPACT_RECORDS;
+	private FileOutputStream out;
+
+	private JobJournal(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * @param directory directory holding the execution directories
+	 * @return journal of the directory, read from disk the first time
+	 */
+	public static JobJournal get(File directory) throws IOException {
+		synchronized (JOURNALS) {
+			JobJournal journal = JOURNALS.get(directory.getAbsoluteFile());
+			if (journal == null) {
+				journal = read(directory);
+				JOURNALS.put(directory.getAbsoluteFile(), journal);
+			}
+			return journal;
+		}
+	}
+
+	/**
+	 * @return journal of the directory, read from disk
+	 */
+	static JobJournal read(File directory) throws IOException {
+		final JobJournal journal = new JobJournal(new File(directory, FILE_NAME));
+		journal.replay();
+		return journal;
+	}
+
+	/**
+	 * Record the state of a job, if it is in one of the open journals and
+	 * its state changed. Called by the job status monitor on every change.
+	 * @param exitStatus exit status once the job is over, or <code>null</code>
+	 */
+	public static void changed(String jobId, String state, Integer exitStatus) {
+		final List<JobJournal> journals;
+		synchronized (JOURNALS) {
+			if (JOURNALS.isEmpty()) {
+				return;
+			}
+			journals = new ArrayList<JobJournal>(JOURNALS.values());
+		}
+		for (JobJournal journal : journals) {
+			journal.state(jobId, state, exitStatus);
+		}
+	}
+
+	/**
+	 * Record a submitted job, and wait until the record is on disk.
+	 * @param token token of the build step that submitted the job
+	 */
+	public void submitted(String jobId, String executionDirectory, String token) throws IOException {
+		final Entry entry = new Entry(jobId, executionDirectory, token, System.currentTimeMillis());
+		final long sequence;
+		synchronized (this) {
+			entries.put(jobId, entry);
+			sequence = append(entry.toRecord());
+		}
+		flush(sequence, true);
+	}
+
+	/**
+	 * @return the latest job of the build step whose execution directory
+	 * still exists, or <code>null</code>
+	 */
+	public synchronized Entry find(String token) {
+		Entry found = null;
+		for (Entry entry : entries.values()) {
+			if (entry.token.equals(token) && new File(entry.executionDirectory).isDirectory()) {
+				found = entry;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Forget the jobs of a completed build step.
+	 */
+	public void completed(String token) throws IOException {
+		long sequence = 0;
+		synchronized (this) {
+			for (Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+				final Entry entry = it.next();
+				if (entry.token.equals(token)) {
+					it.remove();
+					sequence = append("R\t" + field(entry.jobId));
+				}
+			}
+		}
+		if (sequence > 0) {
+			// a lost record is dropped with the execution directory of its job
+			flush(sequence, false);
+		}
+	}
+
+	private void state(String jobId, String state, Integer exitStatus) {
+		final long sequence;
+		synchronized (this) {
+			final Entry entry = entries.get(jobId);
+			if (entry == null || (equal(entry.state, state) && equal(entry.exitStatus, exitStatus))) {
+				return;
+			}
+			entry.state = state;
+			entry.exitStatus = exitStatus;
+			sequence = append(entry.toStateRecord());
+		}
+		try {
+			// a lost state is found again by the next poll, no need to wait for the disk
+			flush(sequence, false);
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Failed to write the PBS job journal " + file, e);
+		}
+	}
+
+	private long append(String record) {
+		pending.add(record);
+		return ++appended;
+	}
+
+	/**
+	 * Write the pending records, unless another thread already wrote the
+	 * given one. Threads waiting for the lock have their records written by
+	 * the first one that gets it.
+	 */
+	private void flush(long sequence, boolean force) throws IOException {
+		synchronized (writeLock) {
+			final List<String> batch;
+			final long last;
+			synchronized (this) {
+				if (force ? synced >= sequence : written >= sequence) {
+					return;
+				}
+				batch = new ArrayList<String>(pending);
+				pending.clear();
+				last = appended;
+			}
+			if (out == null) {
+				out = new FileOutputStream(file, true);
+			}
+			if (!batch.isEmpty()) {
+				final StringBuilder lines = new StringBuilder();
+				for (String record : batch) {
+					lines.append(record).append('\n');
+				}
+				out.getChannel().write(ByteBuffer.wrap(lines.toString().getBytes(UTF_8)));
+				records += batch.size();
+			}
+			if (force) {
+				out.getChannel().force(false);
+			}
+			synchronized (this) {
+				written = last;
+				if (force) {
+					synced = last;
+				}
+			}
+			if (records >= compactAt) {
+				compact();
+			}
+		}
+	}
+
+	/**
+	 * Rewrite the journal with the entries whose execution directory exists.
+	 * Called with the write lock held.
+	 */
+	private void compact() throws IOException {
+		final List<String> lines = new ArrayList<String>();
+		synchronized (this) {
+			for (Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+				final Entry entry = it.next();
+				if (!new File(entry.executionDirectory).isDirectory()) {
+					it.remove();
+					continue;
+				}
+				lines.add(entry.toRecord());
+				if (entry.state != null) {
+					lines.add(entry.toStateRecord());
+				}
+			}
+		}
+		final File compacted = new File(file.getPath() + ".tmp");
+		final FileOutputStream tmp = new FileOutputStream(compacted);
+		try {
+			final StringBuilder content = new StringBuilder();
+			for (String line : lines) {
+				content.append(line).append('\n');
+			}
+			tmp.getChannel().write(ByteBuffer.wrap(content.toString().getBytes(UTF_8)));
+			tmp.getChannel().force(false);
+		} finally {
+			IOUtils.closeQuietly(tmp);
+		}
+		IOUtils.closeQuietly(out);
+		Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		out = new FileOutputStream(file, true);
+		records = lines.size();
+		compactAt = Math.max(MIN_COMPACT_RECORDS, 2L * records);
+	}
+
+	private void replay() throws IOException {
+		if (!file.isFile()) {
+			return;
+		}
+		final BufferedReader reader = Files.newBufferedReader(file.toPath(), UTF_8);
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				records++;
+				final String[] fields = line.split("\t", -1);
+				if ("S".equals(fields[0]) && fields.length == 5) {
+					final Entry entry = new Entry(fields[1], fields[2], fields[3], Long.parseLong(fields[4]));
+					entries.put(entry.jobId, entry);
+				} else if ("R".equals(fields[0]) && fields.length == 2) {
+					entries.remove(fields[1]);
+				} else if ("T".equals(fields[0]) && fields.length == 4 && entries.containsKey(fields[1])) {
+					final Entry entry = entries.get(fields[1]);
+					entry.state = fields[2].isEmpty() ? null : fields[2];
+					entry.exitStatus = fields[3].isEmpty() ? null : Integer.valueOf(fields[3]);
+				}
+				// anything else is a record torn by a crash
+			}
+		} catch (NumberFormatException e) {
+			LOGGER.log(Level.WARNING, "Ignoring the end of the PBS job journal " + file, e);
+		} finally {
+			IOUtils.closeQuietly(reader);
+		}
+		LOGGER.log(Level.FINE, "Read {0} jobs from the PBS job journal {1}", new Object[] { entries.size(), file });
+		synchronized (writeLock) {
+			compact();
+		}
+	}
+
+	private static boolean equal(Object a, Object b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	private static String field(String value) {
+		return value == null ? "" : value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+	}
+
+	/**
+	 * A job of the journal.
+	 */
+	public static final class Entry {
+		private final String jobId;
+		private final String executionDirectory;
+		private final String token;
+		private final long submitted;
+		private volatile String state;
+		private volatile Integer exitStatus;
+
+		Entry(String jobId, String executionDirectory, String token, long submitted) {
+			this.jobId = jobId;
+			this.executionDirectory = executionDirectory;
+			this.token = token;
+			this.submitted = submitted;
+		}
+
+		public String getJobId() {
+			return jobId;
+		}
+
+		public String getExecutionDirectory() {
+			return executionDirectory;
+		}
+
+		public long getSubmitted() {
+			return submitted;
+		}
+
+		/**
+		 * @return last known state, or <code>null</code> if none was seen
+		 */
+		public String getState() {
+			return state;
+		}
+
+		String toRecord() {
+			return "S\t" + field(jobId) + '\t' + field(executionDirectory) + '\t' + field(token) + '\t' + submitted;
+		}
+
+		String toStateRecord() {
+			return "T\t" + field(jobId) + '\t' + field(state) + '\t' + (exitStatus == null ? "" : exitStatus);
+		}
+	}
+
+}
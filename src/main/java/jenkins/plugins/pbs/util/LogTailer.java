@@ -0,0 +1,171 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Follows a file that is being written, like <code>tail -f</code>. Each call
+ * to {@link #tail(OutputStream, boolean)} copies what was appended since the
+ * previous call, reading from the remembered offset with positional reads.
+ *
+ * <p>A file that does not exist yet is simply empty. A file that shrinks or
+ * is replaced by another one (rotation) is read again from its start.</p>
+ * @since 0.3
+ */
+public class LogTailer {
+
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	private final Path path;
+	private final ByteBuffer buffer;
+	private long position;
+	private Object fileKey;
+
+	public LogTailer(Path path) {
+		this(path, DEFAULT_BUFFER_SIZE);
+	}
+
+	public LogTailer(Path path, int bufferSize) {
+		this.path = path;
+		this.buffer = ByteBuffer.allocate(bufferSize);
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	/**
+	 * @return offset of the next byte to be read
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	/**
+	 * @return number of bytes appended since the last read
+	 * @throws IOException
+	 */
+	public long available() throws IOException {
+		final BasicFileAttributes attributes;
+		try {
+			attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		} catch (NoSuchFileException e) {
+			return 0L;
+		}
+		final Object key = attributes.fileKey();
+		if ((key != null && fileKey != null && !key.equals(fileKey)) || attributes.size() < position) {
+			// rotated or truncated
+			position = 0L;
+		}
+		fileKey = key;
+		return attributes.size() - position;
+	}
+
+	/**
+	 * Skip bytes without reading them.
+	 * @param bytes number of bytes to skip
+	 * @return number of bytes skipped
+	 * @throws IOException
+	 */
+	public long skip(long bytes) throws IOException {
+		final long skipped = Math.max(0L, Math.min(bytes, available()));
+		position += skipped;
+		return skipped;
+	}
+
+	/**
+	 * Copy the bytes appended since the last call.
+	 * @param out where to copy to
+	 * @param complete if <code>false</code>, a trailing partial line is
+	 * left for the next call
+	 * @return number of bytes copied
+	 * @throws IOException
+	 */
+	public long tail(OutputStream out, boolean complete) throws IOException {
+		return tail(out, complete, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Copy at most <code>limit</code> of the bytes appended since the last call.
+	 * @param out where to copy to
+	 * @param complete if <code>false</code>, a trailing partial line is
+	 * left for the next call
+	 * @param limit maximum number of bytes to copy
+	 * @return number of bytes copied
+	 * @throws IOException
+	 */
+	public long tail(OutputStream out, boolean complete, long limit) throws IOException {
+		long remaining = Math.min(available(), limit);
+		if (remaining <= 0L) {
+			return 0L;
+		}
+		final FileChannel channel;
+		try {
+			channel = FileChannel.open(path, StandardOpenOption.READ);
+		} catch (NoSuchFileException e) {
+			return 0L;
+		}
+		long copied = 0L;
+		try {
+			while (remaining > 0L) {
+				buffer.clear();
+				if (remaining < buffer.capacity()) {
+					buffer.limit((int) remaining);
+				}
+				final int read = channel.read(buffer, position);
+				if (read <= 0) {
+					break;
+				}
+				int length = read;
+				if (!complete && read == remaining) {
+					// last chunk, stop after the last complete line
+					int newline = read - 1;
+					while (newline >= 0 && buffer.get(newline) != '\n') {
+						newline--;
+					}
+					if (newline >= 0 || read < buffer.capacity()) {
+						length = newline + 1;
+					}
+				}
+				out.write(buffer.array(), 0, length);
+				position += length;
+				copied += length;
+				remaining -= read;
+			}
+		} finally {
+			channel.close();
+		}
+		return copied;
+	}
+
+}
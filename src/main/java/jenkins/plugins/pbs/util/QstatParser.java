@@ -0,0 +1,106 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parser for the output of <code>qstat -f</code> and <code>qstat -Q</code>.
+ * With <code>-f</code>, each job is mapped by its id to its attributes.
+ * Continuation lines (starting with a tab) are appended to the previous
+ * attribute value.
+ * @since 0.3
+ */
+public final class QstatParser {
+
+	private static final String JOB_ID_PREFIX = "Job Id:";
+
+	private QstatParser() {
+	}
+
+	public static Map<String, Map<String, String>> parse(String output) {
+		final Map<String, Map<String, String>> jobs = new LinkedHashMap<String, Map<String, String>>();
+		if (output == null) {
+			return jobs;
+		}
+		Map<String, String> current = null;
+		String lastKey = null;
+		int start = 0;
+		final int length = output.length();
+		while (start < length) {
+			int end = output.indexOf('\n', start);
+			if (end < 0) {
+				end = length;
+			}
+			final String line = output.substring(start, end);
+			start = end + 1;
+			if (line.startsWith(JOB_ID_PREFIX)) {
+				current = new LinkedHashMap<String, String>();
+				lastKey = null;
+				jobs.put(line.substring(JOB_ID_PREFIX.length()).trim(), current);
+			} else if (current == null || line.trim().length() == 0) {
+				continue;
+			} else if (line.charAt(0) == '\t' && lastKey != null) {
+				current.put(lastKey, current.get(lastKey) + line.trim());
+			} else {
+				final int equals = line.indexOf(" = ");
+				if (equals > 0) {
+					lastKey = line.substring(0, equals).trim();
+					current.put(lastKey, line.substring(equals + 3).trim());
+				}
+			}
+		}
+		return jobs;
+	}
+
+	/**
+	 * Parse the queue names listed by <code>qstat -Q</code>.
+	 * @param output qstat output
+	 * @return queue names
+	 */
+	public static List<String> parseQueues(String output) {
+		final List<String> queues = new ArrayList<String>();
+		if (output == null) {
+			return queues;
+		}
+		boolean header = true;
+		for (String line : output.split("\n")) {
+			final String trimmed = line.trim();
+			if (header) {
+				// column names, followed by a line of dashes
+				header = !trimmed.startsWith("---");
+				continue;
+			}
+			if (trimmed.length() > 0) {
+				final String[] columns = trimmed.split("\\s+");
+				queues.add(columns[0]);
+			}
+		}
+		return queues;
+	}
+
+}
@@ -0,0 +1,447 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Index of the PBS server logs (<code>server_logs</code>) and accounting
+ * logs (<code>server_priv/accounting</code>) by job id, giving the same
+ * records as <code>tracejob</code> without scanning every day of logs.
+ *
+ * <p>Each daily log file is indexed incrementally: only what was appended
+ * since the last lookup is scanned, through memory-mapped reads, and the
+ * file offset and length of every job record is kept. A lookup then only
+ * reads the records of that job, in the days since it was submitted.</p>
+ *
+ * <p>The PBS home is taken from the <code>jenkins.plugins.pbs.util.ServerLogIndex.home</code>
+ * system property, else the <code>PBS_HOME</code> variable, else the default
+ * locations of Torque and PBS Pro. When the logs are not readable from the
+ * agent, callers fall back to <code>tracejob</code>.</p>
+ * @since 0.3
+ */
+public final class ServerLogIndex {
+
+	private static final Logger LOGGER = Logger.getLogger(ServerLogIndex.class.getName());
+
+	public static final String HOME_PROPERTY = ServerLogIndex.class.getName() + ".home";
+
+	public static final long DAY_MS = 24L * 60L * 60L * 1000L;
+
+	/**
+	 * Index of a file not looked up for this long is dropped.
+	 */
+	static final long IDLE_MS = 60L * 60L * 1000L;
+
+	/**
+	 * How often a missing PBS home is looked for again.
+	 */
+	private static final long DETECT_INTERVAL_MS = 5L * 60L * 1000L;
+
+	private static final int MAP_CHUNK_SIZE = 64 * 1024 * 1024;
+
+	private static final String[] DEFAULT_HOMES = { "/var/spool/torque", "/var/spool/pbs", "/var/spool/PBS" };
+
+	private static ServerLogIndex instance;
+	private static long detected;
+
+	private final File serverLogs;
+	private final File accounting;
+	private final int chunkSize;
+	private final Map<File, FileIndex> files = new HashMap<File, FileIndex>();
+	private long lookups;
+	private long scannedBytes;
+
+	ServerLogIndex(File home) {
+		this(home, MAP_CHUNK_SIZE);
+	}
+
+	/**
+	 * @param home PBS home
+	 * @param chunkSize bytes of a log file mapped at once, also the longest line indexed
+	 */
+	ServerLogIndex(File home, int chunkSize) {
+		this.serverLogs = new File(home, "server_logs");
+		this.accounting = new File(new File(home, "server_priv"), "accounting");
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * @return index of the PBS logs of this machine, or <code>null</code> if
+	 * they cannot be read
+	 */
+	public static synchronized ServerLogIndex get() {
+		final long now = System.currentTimeMillis();
+		if (instance == null && now - detected > DETECT_INTERVAL_MS) {
+			detected = now;
+			final File home = detectHome();
+			if (home != null) {
+				LOGGER.log(Level.FINE, "Indexing PBS logs in {0}", home);
+				instance = new ServerLogIndex(home);
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * Look up the records of a job, as tracejob would print them.
+	 * @param jobId job id
+	 * @param since when the job was submitted, or the start of the window to search
+	 * @return records of the job, or <code>null</code> if the logs cannot be
+	 * read or have no record of the job
+	 */
+	public static String lookup(String jobId, long since) {
+		final ServerLogIndex index = get();
+		if (index == null) {
+			return null;
+		}
+		try {
+			final String trace = index.trace(jobId, since, System.currentTimeMillis());
+			return trace.length() > 0 ? trace : null;
+		} catch (IOException e) {
+			LOGGER.log(Level.FINE, "Failed to read the PBS logs of " + jobId, e);
+			return null;
+		}
+	}
+
+	private static File detectHome() {
+		final List<String> candidates = new ArrayList<String>();
+		if (System.getProperty(HOME_PROPERTY) != null) {
+			// a configured home is the only one, even while its logs are missing
+			candidates.add(System.getProperty(HOME_PROPERTY));
+		} else if (System.getenv("PBS_HOME") != null) {
+			candidates.add(System.getenv("PBS_HOME"));
+		} else {
+			candidates.addAll(Arrays.asList(DEFAULT_HOMES));
+		}
+		for (String candidate : candidates) {
+			final File logs = new File(candidate, "server_logs");
+			if (logs.isDirectory() && logs.canRead()) {
+				return new File(candidate);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param jobId job id, only the part before the first dot is compared
+	 * @param since start of the window to search
+	 * @param until end of the window to search
+	 * @return records of the job in the format of tracejob, may be empty
+	 * @throws IOException if a log file cannot be read
+	 */
+	public synchronized String trace(String jobId, long since, long until) throws IOException {
+		lookups++;
+		final long now = System.currentTimeMillis();
+		for (Iterator<FileIndex> it = files.values().iterator(); it.hasNext();) {
+			if (now - it.next().lastUsed > IDLE_MS) {
+				it.remove();
+			}
+		}
+		final String key = sequence(jobId);
+		final SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd");
+		final StringBuilder trace = new StringBuilder();
+		// a day early, in case the logs roll over in another time zone
+		for (long day = since - DAY_MS; day < until + DAY_MS; day += DAY_MS) {
+			final String name = format.format(new Date(day));
+			final List<String> records = new ArrayList<String>();
+			records.addAll(read(new File(serverLogs, name), 'S', key));
+			records.addAll(read(new File(accounting, name), 'A', key));
+			// both logs of a day, in time order
+			Collections.sort(records, new Comparator<String>() {
+				public int compare(String a, String b) {
+					return a.substring(11, 19).compareTo(b.substring(11, 19));
+				}
+			});
+			for (String record : records) {
+				trace.append(record).append('\n');
+			}
+		}
+		return trace.toString();
+	}
+
+	/**
+	 * @return directory of the daily accounting logs
+	 */
+	public File getAccounting() {
+		return accounting;
+	}
+
+	public synchronized long getLookups() {
+		return lookups;
+	}
+
+	/**
+	 * @return bytes of log files scanned so far
+	 */
+	public synchronized long getScannedBytes() {
+		return scannedBytes;
+	}
+
+	private List<String> read(File file, char source, String key) throws IOException {
+		if (!file.isFile() || !file.canRead()) {
+			return Collections.emptyList();
+		}
+		FileIndex index = files.get(file);
+		if (index == null) {
+			index = new FileIndex(file, source, chunkSize);
+			files.put(file, index);
+		}
+		index.lastUsed = System.currentTimeMillis();
+		scannedBytes += index.update();
+		return index.read(key);
+	}
+
+	static String sequence(String jobId) {
+		final int dot = jobId.indexOf('.');
+		return dot < 0 ? jobId : jobId.substring(0, dot);
+	}
+
+	/**
+	 * Offsets of the records of each job in one log file.
+	 */
+	private static final class FileIndex {
+		private final File file;
+		private final char source;
+		private final int chunkSize;
+		private final Map<String, Postings> jobs = new HashMap<String, Postings>();
+		private long indexed;
+		/** <code>true</code> while skipping a line longer than a chunk. */
+		private boolean skipping;
+		private Object fileKey;
+		private long lastUsed;
+
+		FileIndex(File file, char source, int chunkSize) {
+			this.file = file;
+			this.source = source;
+			this.chunkSize = chunkSize;
+		}
+
+		/**
+		 * Index what was appended since the last call.
+		 * @return number of bytes scanned
+		 */
+		long update() throws IOException {
+			final BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+			if (attributes.size() < indexed || (fileKey != null && !fileKey.equals(attributes.fileKey()))) {
+				// rotated or truncated
+				jobs.clear();
+				indexed = 0L;
+				skipping = false;
+			}
+			fileKey = attributes.fileKey();
+			final long start = indexed;
+			final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			try {
+				final long size = channel.size();
+				while (indexed < size) {
+					final long length = Math.min(chunkSize, size - indexed);
+					final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, indexed, length);
+					final int consumed = scan(buffer, indexed);
+					if (consumed == 0) {
+						if (length < chunkSize) {
+							// partial last line, indexed on the next call
+							break;
+						}
+						// a line longer than a chunk, skip it up to its end
+						indexed += length;
+						skipping = true;
+					}
+					indexed += consumed;
+				}
+			} finally {
+				channel.close();
+			}
+			return indexed - start;
+		}
+
+		/**
+		 * @return number of bytes of complete lines scanned
+		 */
+		private int scan(MappedByteBuffer buffer, long base) {
+			final int limit = buffer.limit();
+			int lineStart = 0;
+			for (int i = 0; i < limit; i++) {
+				if (buffer.get(i) != '\n') {
+					continue;
+				}
+				if (skipping) {
+					// end of a line longer than a chunk
+					skipping = false;
+					lineStart = i + 1;
+					continue;
+				}
+				// the length of longer records does not fit in their postings
+				final String id = i - lineStart <= Postings.MAX_LENGTH ? jobId(buffer, lineStart, i) : null;
+				if (id != null) {
+					final String key = sequence(id);
+					Postings postings = jobs.get(key);
+					if (postings == null) {
+						postings = new Postings();
+						jobs.put(key, postings);
+					}
+					postings.add(base + lineStart, i - lineStart);
+				}
+				lineStart = i + 1;
+			}
+			return lineStart;
+		}
+
+		/**
+		 * Server logs: <code>date;event;source;Job;id;message</code>,
+		 * accounting logs: <code>date;type;id;message</code>.
+		 */
+		private String jobId(MappedByteBuffer buffer, int from, int to) {
+			final int field = source == 'S' ? 4 : 2;
+			int fieldStart = from;
+			int current = 0;
+			for (int i = from; i < to; i++) {
+				if (buffer.get(i) != ';') {
+					continue;
+				}
+				if (current == field) {
+					if (source == 'S' && !isJobRecord(buffer, from, fieldStart)) {
+						return null;
+					}
+					final byte[] id = new byte[i - fieldStart];
+					for (int j = 0; j < id.length; j++) {
+						id[j] = buffer.get(fieldStart + j);
+					}
+					return id.length == 0 ? null : new String(id, Charset.forName("US-ASCII"));
+				}
+				current++;
+				fieldStart = i + 1;
+			}
+			return null;
+		}
+
+		/**
+		 * @return <code>true</code> if the object type field, just before the
+		 * id field, is <code>Job</code>
+		 */
+		private static boolean isJobRecord(MappedByteBuffer buffer, int lineStart, int idStart) {
+			return idStart - lineStart >= 4 && buffer.get(idStart - 4) == 'J' && buffer.get(idStart - 3) == 'o'
+					&& buffer.get(idStart - 2) == 'b' && buffer.get(idStart - 1) == ';';
+		}
+
+		/**
+		 * @return records of the job in the format of tracejob
+		 */
+		List<String> read(String key) throws IOException {
+			final Postings postings = jobs.get(key);
+			if (postings == null) {
+				return Collections.emptyList();
+			}
+			final List<String> records = new ArrayList<String>(postings.size);
+			final long last = postings.offset(postings.size - 1) + postings.length(postings.size - 1);
+			final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			try {
+				// records may be spread over more than 2 GB, mapped one window at a time
+				MappedByteBuffer buffer = null;
+				long windowStart = 0L;
+				for (int i = 0; i < postings.size; i++) {
+					final long offset = postings.offset(i);
+					final byte[] line = new byte[postings.length(i)];
+					if (buffer == null || offset + line.length > windowStart + buffer.limit()) {
+						windowStart = offset;
+						buffer = channel.map(FileChannel.MapMode.READ_ONLY, windowStart,
+								Math.min(chunkSize, last - windowStart));
+					}
+					buffer.position((int) (offset - windowStart));
+					buffer.get(line);
+					final String record = format(new String(line, Charset.defaultCharset()));
+					if (record != null) {
+						records.add(record);
+					}
+				}
+			} finally {
+				channel.close();
+			}
+			return records;
+		}
+
+		private String format(String line) {
+			if (line.length() < 20) {
+				return null;
+			}
+			int start = 0;
+			for (int i = 0, fields = source == 'S' ? 5 : 3; i < fields && start >= 0; i++) {
+				start = line.indexOf(';', start) + 1;
+				if (start == 0) {
+					return null;
+				}
+			}
+			return line.substring(0, 19) + "  " + source + "    " + line.substring(start);
+		}
+	}
+
+	/**
+	 * Offsets and lengths of records, packed in a growing array.
+	 */
+	private static final class Postings {
+		/** Longest record, its length is packed in 24 bits. */
+		static final int MAX_LENGTH = (1 << 24) - 1;
+
+		private long[] entries = new long[4];
+		private int size;
+
+		void add(long offset, int length) {
+			if (length < 0 || length > MAX_LENGTH) {
+				throw new IllegalArgumentException("Record too long to be indexed: " + length + " bytes");
+			}
+			if (size == entries.length) {
+				entries = Arrays.copyOf(entries, size * 2);
+			}
+			entries[size++] = (offset << 24) | length;
+		}
+
+		long offset(int i) {
+			return entries[i] >>> 24;
+		}
+
+		int length(int i) {
+			return (int) (entries[i] & ((1 << 24) - 1));
+		}
+	}
+
+}
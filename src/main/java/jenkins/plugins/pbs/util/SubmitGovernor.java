@@ -0,0 +1,189 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+
+import jenkins.plugins.pbs.model.SubmitLimits;
+
+import com.tupilabs.pbs.util.PBSException;
+
+/**
+ * Throttles the qsub calls of the agent, so that many builds starting at
+ * once do not overload pbs_server. Submissions wait in order of arrival
+ * for both a token of the rate and a free slot of the concurrency limit.
+ * Tokens build up to one second's worth, so waiting submissions are
+ * released in small batches rather than one by one. When the backlog is
+ * full, further submissions fail at once.
+ * @since 0.3
+ */
+public final class SubmitGovernor {
+
+	private static final SubmitGovernor INSTANCE = new SubmitGovernor();
+
+	/**
+	 * Longest wait before checking the limits again, in ms.
+	 */
+	private static final long MAX_WAIT_MS = 1000L;
+
+	private final Deque<Object> waiting = new ArrayDeque<Object>();
+	private int running;
+	private double tokens = -1d;
+	private long refilled;
+
+	SubmitGovernor() {
+	}
+
+	public static SubmitGovernor get() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Wait until the job may be submitted.
+	 * @param limits limits of the PBS slave, or <code>null</code>
+	 * @return permit, to release once qsub returned
+	 * @throws PBSException if too many submissions are already waiting
+	 * @throws InterruptedException
+	 */
+	public Permit acquire(SubmitLimits limits) throws InterruptedException {
+		if (limits == null || !limits.isLimited()) {
+			return new Permit(null, 0L, 0);
+		}
+		final long start = System.nanoTime();
+		final Object ticket = new Object();
+		final int ahead;
+		synchronized (this) {
+			ahead = waiting.size();
+			if (limits.getBacklog() > 0 && ahead >= limits.getBacklog()) {
+				throw new PBSException(String.format(
+						"Too many PBS submissions waiting on this agent (%d, limit %d), not submitting. "
+						+ "Retry later or raise the submission backlog of the PBS slave.", ahead, limits.getBacklog()));
+			}
+			waiting.addLast(ticket);
+			try {
+				while (true) {
+					refill(limits);
+					final int position = position(ticket);
+					final boolean slot = limits.getConcurrency() == 0 || running + position < limits.getConcurrency();
+					final boolean token = limits.getRate() == 0d || tokens >= position + 1;
+					if (slot && token) {
+						break;
+					}
+					long delay = MAX_WAIT_MS;
+					if (!token) {
+						delay = Math.min(delay, (long) Math.ceil((position + 1 - tokens) * 1000d / limits.getRate()));
+					}
+					wait(Math.max(1L, delay));
+				}
+			} finally {
+				waiting.remove(ticket);
+				notifyAll();
+			}
+			running++;
+			if (limits.getRate() > 0d) {
+				tokens -= 1d;
+			}
+		}
+		CommandStats.get().record("submit-wait", start, true, 0L);
+		return new Permit(this, (System.nanoTime() - start) / 1000000L, ahead);
+	}
+
+	private synchronized void release() {
+		running--;
+		notifyAll();
+	}
+
+	/**
+	 * @return number of submissions waiting
+	 */
+	public synchronized int getWaiting() {
+		return waiting.size();
+	}
+
+	private void refill(SubmitLimits limits) {
+		final long now = System.nanoTime();
+		final int batch = limits.getBatchSize();
+		if (tokens < 0d) {
+			tokens = batch;
+		} else {
+			tokens = Math.min(batch, tokens + (now - refilled) / 1e9d * limits.getRate());
+		}
+		refilled = now;
+	}
+
+	private int position(Object ticket) {
+		int position = 0;
+		for (Iterator<Object> it = waiting.iterator(); it.hasNext() && it.next() != ticket;) {
+			position++;
+		}
+		return position;
+	}
+
+	/**
+	 * Right to run one qsub.
+	 */
+	public static final class Permit {
+		private final SubmitGovernor governor;
+		private final long waited;
+		private final int ahead;
+		private boolean released;
+
+		Permit(SubmitGovernor governor, long waited, int ahead) {
+			this.governor = governor;
+			this.waited = waited;
+			this.ahead = ahead;
+		}
+
+		/**
+		 * @return <code>false</code> if the submission was not limited
+		 */
+		public boolean isGoverned() {
+			return governor != null;
+		}
+
+		/**
+		 * @return time spent waiting, in ms
+		 */
+		public long getWaited() {
+			return waited;
+		}
+
+		/**
+		 * @return number of submissions that were waiting on arrival
+		 */
+		public int getAhead() {
+			return ahead;
+		}
+
+		public void release() {
+			if (governor != null && !released) {
+				released = true;
+				governor.release();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,342 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.util;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+
+import jenkins.plugins.pbs.model.TraceJobEvent;
+import jenkins.plugins.pbs.model.TraceJobEvent.Type;
+
+/**
+ * Single pass parser for the output of <code>tracejob</code>.
+ *
+ * <p>Records start with a timestamp and a one letter source, e.g.
+ * <code>11/10/2013 12:52:40  S    Job Run at request of ...</code>, and may be
+ * wrapped over continuation lines starting with blanks. Every record is read
+ * once and turned into {@link TraceJobEvent}s.</p>
+ *
+ * <p>The output of tracejob only grows while a job runs, so the parser
+ * remembers where it stopped and, when given the output of a later call,
+ * resumes from there. If the output no longer starts with what was already
+ * parsed, it starts over. The last record is kept open, since a later call
+ * may bring more of its continuation lines, in which case its events are
+ * replaced.</p>
+ * @since 0.3
+ */
+public class TraceJobParser implements Serializable {
+
+	private static final long serialVersionUID = -5036547123562802338L;
+
+	private static final String JOB_QUEUED = "Job Queued at request of";
+	private static final String JOB_RUN = "Job Run";
+	private static final String DEQUEUING = "dequeuing from ";
+	private static final String STATE = ", state ";
+	private static final String EXIT_STATUS = "Exit_status=";
+	private static final String RESOURCES_USED = "resources_used.";
+	private static final String[] TIMES = { "ctime=", "qtime=", "etime=", "start=", "end=" };
+
+	/** Length of <code>MM/dd/yyyy HH:mm:ss</code>. */
+	private static final int TIMESTAMP_LENGTH = 19;
+
+	private final List<TraceJobEvent> events = new ArrayList<TraceJobEvent>();
+	private transient Calendar calendar;
+	private int offset;
+	private String lastLine = "";
+	private Integer exitStatus;
+	private String dequeuedState;
+	private boolean running;
+	/** Index of the first event of the last record, or -1. */
+	private int openEvents = -1;
+	private long openTimestamp;
+	private char openSource;
+	private String openMessage;
+	/** State before the last record, restored when it is parsed again. */
+	private Integer openExitStatus;
+	private String openDequeuedState;
+	private boolean openRunning;
+
+	/**
+	 * Parse the output of tracejob, starting where the previous call stopped.
+	 * @param output whole output of tracejob
+	 * @return events found in the new part of the output, including those
+	 * of the last record if new continuation lines extended it
+	 */
+	public List<TraceJobEvent> parse(String output) {
+		if (output == null) {
+			return Collections.emptyList();
+		}
+		if (offset > output.length() || !output.regionMatches(offset - lastLine.length(), lastLine, 0, lastLine.length())) {
+			reset();
+		}
+		// only complete lines are parsed, the rest is read on the next call
+		int end = output.lastIndexOf('\n') + 1;
+		if (end <= offset) {
+			return Collections.emptyList();
+		}
+		int first = events.size();
+		int recordStart = -1;
+		final StringBuilder message = new StringBuilder();
+		long timestamp = 0L;
+		char source = ' ';
+		int lineStart = offset;
+		while (lineStart < end) {
+			int lineEnd = output.indexOf('\n', lineStart);
+			if (isRecordStart(output, lineStart, lineEnd)) {
+				if (recordStart >= 0) {
+					close(timestamp, source, message);
+				}
+				recordStart = lineStart;
+				timestamp = parseTimestamp(output, lineStart);
+				int i = lineStart + TIMESTAMP_LENGTH;
+				while (i < lineEnd && output.charAt(i) == ' ') {
+					i++;
+				}
+				source = i < lineEnd ? output.charAt(i) : ' ';
+				message.setLength(0);
+				message.append(output, Math.min(i + 1, lineEnd), lineEnd);
+			} else if (lineEnd > lineStart && Character.isWhitespace(output.charAt(lineStart))) {
+				if (recordStart < 0 && openEvents >= 0) {
+					// the last record of the previous call goes on
+					recordStart = lineStart;
+					timestamp = openTimestamp;
+					source = openSource;
+					message.setLength(0);
+					message.append(openMessage);
+					events.subList(openEvents, events.size()).clear();
+					first = openEvents;
+					exitStatus = openExitStatus;
+					dequeuedState = openDequeuedState;
+					running = openRunning;
+				}
+				if (recordStart >= 0) {
+					// continuation line
+					message.append(' ').append(output, lineStart, lineEnd);
+				}
+			}
+			lastLine = output.substring(lineStart, lineEnd + 1);
+			lineStart = lineEnd + 1;
+		}
+		if (recordStart >= 0) {
+			close(timestamp, source, message);
+		}
+		offset = end;
+		return Collections.unmodifiableList(new ArrayList<TraceJobEvent>(events.subList(first, events.size())));
+	}
+
+	/**
+	 * @return every event parsed so far
+	 */
+	public List<TraceJobEvent> getEvents() {
+		return Collections.unmodifiableList(events);
+	}
+
+	/**
+	 * @return offset of the first character not parsed yet
+	 */
+	public int getOffset() {
+		return offset;
+	}
+
+	/**
+	 * @return first exit status found, or <code>null</code>
+	 */
+	public Integer getExitStatus() {
+		return exitStatus;
+	}
+
+	/**
+	 * @return state of the job when it was dequeued, or <code>null</code>
+	 */
+	public String getDequeuedState() {
+		return dequeuedState;
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	public boolean isFinished() {
+		return exitStatus != null || dequeuedState != null;
+	}
+
+	/**
+	 * Forget everything parsed so far.
+	 */
+	public void reset() {
+		events.clear();
+		offset = 0;
+		lastLine = "";
+		exitStatus = null;
+		dequeuedState = null;
+		running = false;
+		openEvents = -1;
+		openMessage = null;
+	}
+
+	/**
+	 * Record the events of a record, remembering it as the open one.
+	 */
+	private void close(long timestamp, char source, StringBuilder message) {
+		openEvents = events.size();
+		openTimestamp = timestamp;
+		openSource = source;
+		openMessage = message.toString();
+		openExitStatus = exitStatus;
+		openDequeuedState = dequeuedState;
+		openRunning = running;
+		record(timestamp, source, openMessage);
+	}
+
+	private void record(long timestamp, char source, String message) {
+		final String text = message.trim();
+		if (text.startsWith(JOB_QUEUED)) {
+			add(new TraceJobEvent(Type.QUEUED, timestamp, source, null, null));
+		} else if (text.startsWith(JOB_RUN)) {
+			running = true;
+			add(new TraceJobEvent(Type.RUN, timestamp, source, null, null));
+		} else if (text.startsWith(DEQUEUING)) {
+			final int state = text.indexOf(STATE);
+			if (state > 0) {
+				final String value = text.substring(state + STATE.length()).trim();
+				if (dequeuedState == null) {
+					dequeuedState = value;
+				}
+				add(new TraceJobEvent(Type.DEQUEUED, timestamp, source, null, value));
+			}
+		}
+		final int exit = indexOfIgnoreCase(text, EXIT_STATUS, 0);
+		if (exit >= 0) {
+			final String value = token(text, exit + EXIT_STATUS.length());
+			if (exitStatus == null) {
+				try {
+					exitStatus = Integer.valueOf(value);
+				} catch (NumberFormatException e) {
+					// not an exit status after all
+				}
+			}
+			add(new TraceJobEvent(Type.EXIT_STATUS, timestamp, source, null, value));
+		}
+		int resource = text.indexOf(RESOURCES_USED);
+		while (resource >= 0) {
+			final int nameStart = resource + RESOURCES_USED.length();
+			final int equals = text.indexOf('=', nameStart);
+			if (equals < 0) {
+				break;
+			}
+			final String value = token(text, equals + 1);
+			add(new TraceJobEvent(Type.RESOURCES_USED, timestamp, source, text.substring(nameStart, equals), value));
+			resource = text.indexOf(RESOURCES_USED, equals);
+		}
+		if (source == 'A') {
+			for (String time : TIMES) {
+				final int at = indexOfAttribute(text, time);
+				if (at >= 0) {
+					add(new TraceJobEvent(Type.TIME, timestamp, source, time.substring(0, time.length() - 1),
+							token(text, at + time.length())));
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return index of an attribute name starting a word, or -1
+	 */
+	private static int indexOfAttribute(String text, String name) {
+		int at = text.indexOf(name);
+		while (at > 0 && !Character.isWhitespace(text.charAt(at - 1))) {
+			at = text.indexOf(name, at + 1);
+		}
+		return at;
+	}
+
+	private void add(TraceJobEvent event) {
+		events.add(event);
+	}
+
+	private static String token(String text, int start) {
+		int end = start;
+		while (end < text.length() && !Character.isWhitespace(text.charAt(end))) {
+			end++;
+		}
+		return text.substring(start, end);
+	}
+
+	private static int indexOfIgnoreCase(String text, String search, int from) {
+		final int last = text.length() - search.length();
+		for (int i = from; i <= last; i++) {
+			if (text.regionMatches(true, i, search, 0, search.length())) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return <code>true</code> if the line starts with <code>MM/dd/yyyy HH:mm:ss</code>
+	 */
+	private static boolean isRecordStart(String output, int start, int end) {
+		if (end - start < TIMESTAMP_LENGTH) {
+			return false;
+		}
+		return isDigit(output, start, 2) && output.charAt(start + 2) == '/'
+				&& isDigit(output, start + 3, 2) && output.charAt(start + 5) == '/'
+				&& isDigit(output, start + 6, 4) && output.charAt(start + 10) == ' '
+				&& isDigit(output, start + 11, 2) && output.charAt(start + 13) == ':'
+				&& isDigit(output, start + 14, 2) && output.charAt(start + 16) == ':'
+				&& isDigit(output, start + 17, 2);
+	}
+
+	private static boolean isDigit(String s, int start, int count) {
+		for (int i = start; i < start + count; i++) {
+			final char c = s.charAt(i);
+			if (c < '0' || c > '9') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int number(String s, int start, int count) {
+		int n = 0;
+		for (int i = start; i < start + count; i++) {
+			n = n * 10 + (s.charAt(i) - '0');
+		}
+		return n;
+	}
+
+	private long parseTimestamp(String s, int start) {
+		if (calendar == null) {
+			calendar = Calendar.getInstance();
+		}
+		calendar.clear();
+		calendar.set(number(s, start + 6, 4), number(s, start, 2) - 1, number(s, start + 3, 2),
+				number(s, start + 11, 2), number(s, start + 14, 2), number(s, start + 17, 2));
+		return calendar.getTimeInMillis();
+	}
+
+}
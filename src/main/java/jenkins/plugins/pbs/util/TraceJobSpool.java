@@ -0,0 +1,240 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jenkins.plugins.pbs.model.TracePage;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Keeps the output of <code>tracejob</code> in temporary files on the agent,
+ * so that it can be served in pages of bounded size. The output of a job is
+ * reused for a short time, so that reading the next pages does not run
+ * <code>tracejob</code> again.
+ * @since 0.3
+ */
+public final class TraceJobSpool {
+
+	private static final Logger LOGGER = Logger.getLogger(TraceJobSpool.class.getName());
+
+	/**
+	 * How long the output of a tracejob call is reused.
+	 */
+	static final long TTL_MS = 60000L;
+
+	/**
+	 * Largest page ever returned.
+	 */
+	public static final int MAX_PAGE_SIZE = 1024 * 1024;
+
+	private static final Map<String, Spool> SPOOLS = new HashMap<String, Spool>();
+
+	private TraceJobSpool() {
+	}
+
+	/**
+	 * Read a page of the tracejob output of a job.
+	 * @param jobId PBS job id
+	 * @param numberOfDays number of days of logs searched by tracejob
+	 * @param error <code>true</code> to read the error output
+	 * @param offset first byte of the page
+	 * @param length maximum size of the page in bytes
+	 * @return page, never <code>null</code>
+	 * @throws IOException if the output cannot be read
+	 */
+	public static TracePage read(String jobId, int numberOfDays, boolean error, long offset, int length)
+			throws IOException {
+		deleteExpired();
+		while (true) {
+			final Spool spool = spool(jobId, numberOfDays);
+			synchronized (spool) {
+				if (spool.deleted) {
+					// expired while we waited for it
+					continue;
+				}
+				spool.refresh();
+				return spool.read(error ? spool.err : spool.out, offset, Math.max(1, Math.min(length, MAX_PAGE_SIZE)));
+			}
+		}
+	}
+
+	/**
+	 * Delete the files of expired spools, under the lock of each spool so
+	 * that no page is being read from them.
+	 */
+	private static void deleteExpired() {
+		final List<Spool> expired = new ArrayList<Spool>();
+		synchronized (TraceJobSpool.class) {
+			final long now = System.currentTimeMillis();
+			for (Iterator<Spool> it = SPOOLS.values().iterator(); it.hasNext();) {
+				final Spool spool = it.next();
+				// tracejob may run as long as the time to live
+				if (!spool.refreshing && spool.isExpired(now)) {
+					it.remove();
+					expired.add(spool);
+				}
+			}
+		}
+		for (Spool spool : expired) {
+			synchronized (spool) {
+				spool.deleted = true;
+				spool.delete();
+			}
+		}
+	}
+
+	private static synchronized Spool spool(String jobId, int numberOfDays) {
+		final String key = jobId + "/" + numberOfDays;
+		Spool spool = SPOOLS.get(key);
+		if (spool == null) {
+			spool = new Spool(jobId, numberOfDays);
+			SPOOLS.put(key, spool);
+		}
+		return spool;
+	}
+
+	private static final class Spool {
+		private final String jobId;
+		private final int numberOfDays;
+		private File out;
+		private File err;
+		private long created;
+		private boolean finished;
+		private volatile long lastRead;
+		private volatile boolean refreshing;
+		private boolean deleted;
+
+		Spool(String jobId, int numberOfDays) {
+			this.jobId = jobId;
+			this.numberOfDays = numberOfDays;
+			this.lastRead = System.currentTimeMillis();
+		}
+
+		boolean isExpired(long now) {
+			return now - lastRead > TTL_MS;
+		}
+
+		void refresh() throws IOException {
+			final long now = System.currentTimeMillis();
+			lastRead = now;
+			if (out != null && now - created <= TTL_MS) {
+				return;
+			}
+			refreshing = true;
+			try {
+				delete();
+				out = File.createTempFile("pbs-tracejob", ".out");
+				err = File.createTempFile("pbs-tracejob", ".err");
+				final String logs = ServerLogIndex.lookup(jobId, now - numberOfDays * ServerLogIndex.DAY_MS);
+				if (logs != null) {
+					FileUtils.writeStringToFile(out, logs);
+				} else {
+					Commands.runToFile(Commands.DEFAULT_TIMEOUT_MS, out, err, "tracejob", "-n",
+							String.valueOf(numberOfDays), jobId);
+				}
+				created = System.currentTimeMillis();
+				finished = isFinished(out);
+			} finally {
+				lastRead = System.currentTimeMillis();
+				refreshing = false;
+			}
+		}
+
+		/**
+		 * Look for the end of the job in the trace, one line at a time.
+		 */
+		private static boolean isFinished(File trace) throws IOException {
+			final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(trace),
+					Charset.defaultCharset()));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (line.contains("Exit_status=") || (line.contains("dequeuing from") && line.contains("COMPLETE"))) {
+						return true;
+					}
+				}
+				return false;
+			} finally {
+				reader.close();
+			}
+		}
+
+		TracePage read(File file, long offset, int length) throws IOException {
+			final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			try {
+				final long size = channel.size();
+				final long from = Math.max(0L, Math.min(offset, size));
+				final ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(length, size - from));
+				while (buffer.hasRemaining() && channel.read(buffer, from + buffer.position()) > 0) {
+					// keep reading
+				}
+				int end = buffer.position();
+				final boolean eof = from + end >= size;
+				if (!eof) {
+					// end the page on a line break, so that no character is split
+					int newline = end - 1;
+					while (newline >= 0 && buffer.get(newline) != '\n') {
+						newline--;
+					}
+					if (newline >= 0) {
+						end = newline + 1;
+					}
+				}
+				final String text = new String(buffer.array(), 0, end, Charset.defaultCharset());
+				return new TracePage(from, from + end, size, text, created, finished);
+			} finally {
+				channel.close();
+			}
+		}
+
+		void delete() {
+			if (out != null && !out.delete()) {
+				LOGGER.log(Level.FINE, "Failed to delete " + out);
+			}
+			if (err != null && !err.delete()) {
+				LOGGER.log(Level.FINE, "Failed to delete " + err);
+			}
+			out = null;
+			err = null;
+		}
+	}
+
+}
@@ -0,0 +1,214 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.util;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import jenkins.plugins.pbs.model.TracePage;
+
+/**
+ * Least recently used cache of tracejob pages, bounded in entries and in
+ * characters. Pages of finished jobs never change and stay until evicted,
+ * pages of running jobs expire after a short time. Concurrent requests for
+ * the same page share a single call to the agent.
+ * @since 0.3
+ */
+public class TracePageCache {
+
+	/**
+	 * How long a page of a job that is still running is reused.
+	 */
+	public static final long RUNNING_TTL_MS = 10000L;
+
+	private final int maxEntries;
+	private final long maxChars;
+	private final long runningTtl;
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private final Map<String, Future<TracePage>> loading = new HashMap<String, Future<TracePage>>();
+	private long chars;
+	private long hits;
+	private long misses;
+	private long coalesced;
+	private long evictions;
+
+	public TracePageCache(int maxEntries, long maxChars) {
+		this(maxEntries, maxChars, RUNNING_TTL_MS);
+	}
+
+	/**
+	 * @param maxEntries maximum number of pages
+	 * @param maxChars maximum number of characters of all the pages
+	 * @param runningTtl how long a page of a job that is still running is
+	 * reused, in ms
+	 */
+	TracePageCache(int maxEntries, long maxChars, long runningTtl) {
+		this.maxEntries = maxEntries;
+		this.maxChars = maxChars;
+		this.runningTtl = runningTtl;
+	}
+
+	/**
+	 * Get a page from the cache, or load it. Only one loader runs at a time
+	 * for a given key, other callers wait for its result.
+	 * @param key agent, job id, day window and page
+	 * @param loader loads the page from the agent
+	 * @return page
+	 * @throws IOException if the page could not be loaded
+	 * @throws InterruptedException
+	 */
+	public TracePage get(final String key, final Callable<TracePage> loader) throws IOException, InterruptedException {
+		final FutureTask<TracePage> task;
+		final Future<TracePage> future;
+		synchronized (this) {
+			final Entry entry = entries.get(key);
+			if (entry != null) {
+				if (entry.expires > System.currentTimeMillis()) {
+					hits++;
+					return entry.page;
+				}
+				remove(key);
+			}
+			final Future<TracePage> running = loading.get(key);
+			if (running != null) {
+				coalesced++;
+				task = null;
+				future = running;
+			} else {
+				misses++;
+				task = new FutureTask<TracePage>(new Callable<TracePage>() {
+					public TracePage call() throws Exception {
+						final TracePage page = loader.call();
+						// cached before the key stops loading, so that nobody loads it again
+						put(key, page);
+						return page;
+					}
+				});
+				future = task;
+				loading.put(key, task);
+			}
+		}
+		if (task != null) {
+			try {
+				task.run();
+			} finally {
+				synchronized (this) {
+					loading.remove(key);
+				}
+			}
+		}
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof InterruptedException) {
+				throw (InterruptedException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	private synchronized void put(String key, TracePage page) {
+		remove(key);
+		final long expires = page.isFinished() ? Long.MAX_VALUE : System.currentTimeMillis() + runningTtl;
+		entries.put(key, new Entry(page, expires));
+		chars += length(page);
+		for (Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator(); it.hasNext()
+				&& (entries.size() > maxEntries || chars > maxChars);) {
+			chars -= length(it.next().getValue().page);
+			it.remove();
+			evictions++;
+		}
+	}
+
+	private void remove(String key) {
+		final Entry entry = entries.remove(key);
+		if (entry != null) {
+			chars -= length(entry.page);
+		}
+	}
+
+	private static long length(TracePage page) {
+		return page.getText() == null ? 0L : page.getText().length();
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		chars = 0L;
+	}
+
+	public synchronized int getSize() {
+		return entries.size();
+	}
+
+	/**
+	 * @return number of characters held by the cached pages
+	 */
+	public synchronized long getChars() {
+		return chars;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return number of requests that waited for the same page being loaded
+	 * by another request
+	 */
+	public synchronized long getCoalesced() {
+		return coalesced;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	private static final class Entry {
+		private final TracePage page;
+		private final long expires;
+		Entry(TracePage page, long expires) {
+			this.page = page;
+			this.expires = expires;
+		}
+	}
+
+}
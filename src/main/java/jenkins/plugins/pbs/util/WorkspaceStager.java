@@ -0,0 +1,365 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.util;
+
+import hudson.FilePath;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Copies workspace files to the execution directory of a job, and job files
+ * back to the workspace, skipping files whose content did not change.
+ *
+ * <p>Staged-in files go through a content-addressed store next to the
+ * execution directories, <code>jenkinsStage</code>. A file already staged
+ * by an earlier build is not copied again; its hash is only computed again
+ * when its size or modification time changed. Files in the store are
+ * read-only, and are removed after a week without use. They are hard-linked
+ * in the execution directory only when the job runs as another user, who
+ * cannot make them writable; otherwise they are copied, so that a job cannot
+ * change them for the next builds. A stored file whose size changed, or that
+ * became writable, is replaced.</p>
+ *
+ * <p>Staged-out files are only copied when their content differs from the
+ * workspace file, which keeps the modification time of unchanged outputs.
+ * Files are copied in parallel.</p>
+ * @since 0.3
+ */
+public final class WorkspaceStager {
+
+	private static final Logger LOGGER = Logger.getLogger(WorkspaceStager.class.getName());
+
+	static final String STORE = "jenkinsStage";
+
+	private static final int THREADS = Integer.getInteger(WorkspaceStager.class.getName() + ".threads", 4);
+
+	private static final long EVICT_AFTER_MS = 7L * 24L * 60L * 60L * 1000L;
+
+	private static final long EVICT_PERIOD_MS = 60L * 60L * 1000L;
+
+	private static final int BUFFER_SIZE = 1024 * 1024;
+
+	private static final ExecutorService POOL = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+		public Thread newThread(Runnable r) {
+			final Thread thread = new Thread(r, "PBS staging " + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/**
+	 * Most workspace files whose hash is kept.
+	 */
+	static final int MAX_HASHES = Integer.getInteger(WorkspaceStager.class.getName() + ".maxHashes", 100000);
+
+	/**
+	 * Hashes of the workspace files, by path, valid while their size and
+	 * modification time do not change. The least recently used go first.
+	 */
+	private static final LinkedHashMap<String, Hash> HASHES = new LinkedHashMap<String, Hash>(16, 0.75f, true);
+
+	private static final AtomicLong LAST_EVICTION = new AtomicLong();
+
+	private WorkspaceStager() {
+	}
+
+	/**
+	 * Summary of a staging.
+	 */
+	public static final class Result {
+		private final AtomicInteger files = new AtomicInteger();
+		private final AtomicInteger copied = new AtomicInteger();
+		private final AtomicLong bytes = new AtomicLong();
+		private final long start = System.currentTimeMillis();
+
+		public int getFiles() {
+			return files.get();
+		}
+
+		public int getCopied() {
+			return copied.get();
+		}
+
+		public long getBytes() {
+			return bytes.get();
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d files, %d copied (%d KB), %d unchanged, in %d ms", getFiles(), getCopied(),
+					getBytes() / 1024L, getFiles() - getCopied(), System.currentTimeMillis() - start);
+		}
+	}
+
+	/**
+	 * Stage workspace files in the execution directory of a job, keeping
+	 * their path relative to the workspace.
+	 * @param workspace workspace of the build
+	 * @param includes Ant-style patterns of files in the workspace
+	 * @param executionDirectory execution directory of the job
+	 * @param runUser user the job runs as, or empty for the agent user
+	 */
+	public static Result stageIn(File workspace, String includes, File executionDirectory, String runUser)
+			throws IOException, InterruptedException {
+		// the owner of the store could make its files writable
+		final boolean link = runUser.length() > 0 && !runUser.equals(System.getProperty("user.name"));
+		final Path store = executionDirectory.toPath().getParent().resolve(STORE);
+		Files.createDirectories(store);
+		final Result result = new Result();
+		final List<Callable<Void>> copies = new ArrayList<Callable<Void>>();
+		for (final Path file : list(workspace, includes)) {
+			final Path target = executionDirectory.toPath().resolve(workspace.toPath().relativize(file));
+			copies.add(new Callable<Void>() {
+				public Void call() throws IOException {
+					stageIn(file, store, target, link, result);
+					return null;
+				}
+			});
+		}
+		runAll(copies);
+		evict(store);
+		return result;
+	}
+
+	/**
+	 * Copy job files back to the workspace, unless the workspace file has the
+	 * same content.
+	 * @param executionDirectory execution directory of the job
+	 * @param includes Ant-style patterns of files in the execution directory
+	 * @param workspace workspace of the build
+	 */
+	public static Result stageOut(File executionDirectory, String includes, File workspace)
+			throws IOException, InterruptedException {
+		final Result result = new Result();
+		final List<Callable<Void>> copies = new ArrayList<Callable<Void>>();
+		for (final Path file : list(executionDirectory, includes)) {
+			final Path target = workspace.toPath().resolve(executionDirectory.toPath().relativize(file));
+			copies.add(new Callable<Void>() {
+				public Void call() throws IOException {
+					result.files.incrementAndGet();
+					if (Files.exists(target) && Files.size(target) == Files.size(file)
+							&& hash(target).equals(hash(file))) {
+						return null;
+					}
+					Files.createDirectories(target.getParent());
+					copy(file, target, result);
+					return null;
+				}
+			});
+		}
+		runAll(copies);
+		return result;
+	}
+
+	private static void stageIn(Path file, Path store, Path target, boolean link, Result result) throws IOException {
+		result.files.incrementAndGet();
+		final Hash cached = getHash(file);
+		final String hash = cached.hash;
+		final Path stored = store.resolve(hash.substring(0, 2)).resolve(hash);
+		if (Files.exists(stored) && (Files.size(stored) != cached.size || isWritable(stored))) {
+			LOGGER.log(Level.WARNING, "Replacing {0}, changed in the staging store", stored);
+			Files.deleteIfExists(stored);
+		}
+		if (!Files.exists(stored)) {
+			Files.createDirectories(stored.getParent());
+			final Path partial = Files.createTempFile(stored.getParent(), hash, ".partial");
+			try {
+				copy(file, partial, result);
+				partial.toFile().setReadOnly();
+				Files.move(partial, stored, StandardCopyOption.ATOMIC_MOVE);
+			} catch (FileAlreadyExistsException e) {
+				// staged by another build meanwhile
+			} finally {
+				Files.deleteIfExists(partial);
+			}
+		}
+		Files.setLastModifiedTime(stored, FileTime.fromMillis(System.currentTimeMillis()));
+		Files.createDirectories(target.getParent());
+		if (!link) {
+			Files.copy(stored, target, StandardCopyOption.REPLACE_EXISTING);
+			target.toFile().setWritable(true);
+			return;
+		}
+		try {
+			Files.createLink(target, stored);
+		} catch (IOException e) {
+			// e.g. store and execution directory on different file systems
+			Files.copy(stored, target, StandardCopyOption.REPLACE_EXISTING);
+		} catch (UnsupportedOperationException e) {
+			Files.copy(stored, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if anyone may write the file, root aside
+	 */
+	static boolean isWritable(Path file) throws IOException {
+		final Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(file);
+		return permissions.contains(PosixFilePermission.OWNER_WRITE) || permissions.contains(PosixFilePermission.GROUP_WRITE)
+				|| permissions.contains(PosixFilePermission.OTHERS_WRITE);
+	}
+
+	private static Hash getHash(Path file) throws IOException {
+		final String key = file.toAbsolutePath().toString();
+		final long size = Files.size(file);
+		final long modified = Files.getLastModifiedTime(file).toMillis();
+		synchronized (HASHES) {
+			final Hash cached = HASHES.get(key);
+			if (cached != null && cached.size == size && cached.modified == modified) {
+				return cached;
+			}
+		}
+		final Hash hash = new Hash(size, modified, hash(file));
+		synchronized (HASHES) {
+			HASHES.put(key, hash);
+			for (Iterator<String> it = HASHES.keySet().iterator(); HASHES.size() > MAX_HASHES && it.hasNext();) {
+				it.next();
+				it.remove();
+			}
+		}
+		return hash;
+	}
+
+	private static String hash(Path file) throws IOException {
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		final byte[] buffer = new byte[BUFFER_SIZE];
+		final InputStream in = Files.newInputStream(file);
+		try {
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				digest.update(buffer, 0, read);
+			}
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+		final StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest()) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+
+	private static void copy(Path from, Path to, Result result) throws IOException {
+		Files.copy(from, to, StandardCopyOption.REPLACE_EXISTING);
+		result.copied.incrementAndGet();
+		result.bytes.addAndGet(Files.size(to));
+	}
+
+	private static List<Path> list(File base, String includes) throws IOException, InterruptedException {
+		final List<Path> files = new ArrayList<Path>();
+		for (FilePath file : new FilePath(base).list(includes)) {
+			files.add(new File(file.getRemote()).toPath());
+		}
+		return files;
+	}
+
+	private static void runAll(List<Callable<Void>> copies) throws IOException, InterruptedException {
+		for (Future<Void> future : POOL.invokeAll(copies)) {
+			try {
+				future.get();
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new IOException(e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * Remove the files of the store not used for a week, at most once an hour.
+	 */
+	private static void evict(Path store) {
+		final long now = System.currentTimeMillis();
+		final long last = LAST_EVICTION.get();
+		if (now - last < EVICT_PERIOD_MS || !LAST_EVICTION.compareAndSet(last, now)) {
+			return;
+		}
+		final File[] prefixes = store.toFile().listFiles();
+		if (prefixes == null) {
+			return;
+		}
+		int evicted = 0;
+		for (File prefix : prefixes) {
+			final File[] files = prefix.listFiles();
+			if (files == null) {
+				continue;
+			}
+			for (File file : files) {
+				if (now - file.lastModified() > EVICT_AFTER_MS && file.delete()) {
+					evicted++;
+				}
+			}
+		}
+		if (evicted > 0) {
+			LOGGER.log(Level.FINE, "Removed {0} unused files from the staging store {1}", new Object[] { evicted, store });
+		}
+	}
+
+	private static final class Hash {
+		private final long size;
+		private final long modified;
+		private final String hash;
+
+		Hash(long size, long modified, String hash) {
+			this.size = size;
+			this.modified = modified;
+			this.hash = hash;
+		}
+	}
+
+}
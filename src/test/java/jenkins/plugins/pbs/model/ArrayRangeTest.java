@@ -0,0 +1,114 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Tests for the {@link ArrayRange}.
+ */
+public class ArrayRangeTest {
+
+	@Test
+	public void testParse() {
+		assertEquals(Arrays.asList(1, 2, 3, 4), ArrayRange.parse("1-4").getIndices());
+		assertEquals(Arrays.asList(1, 3, 5), ArrayRange.parse("1-6:2").getIndices());
+		assertEquals(Arrays.asList(0, 1, 3, 5, 6, 7), ArrayRange.parse("5-7, 1,3 ,0").getIndices());
+		assertEquals(Arrays.asList(2, 3), ArrayRange.parse("2-3,3").getIndices());
+		assertEquals("1-6:2", ArrayRange.parse(" 1-6:2 ").getSpec());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testEmpty() {
+		ArrayRange.parse(" ");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testReversed() {
+		ArrayRange.parse("5-1");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testZeroStep() {
+		ArrayRange.parse("1-5:0");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNotANumber() {
+		ArrayRange.parse("1-x");
+	}
+
+	@Test(timeout = 5000)
+	public void testNearIntegerMaxValue() {
+		final int max = Integer.MAX_VALUE;
+		assertEquals(Arrays.asList(max - 4, max - 1), ArrayRange.parse((max - 4) + "-" + max + ":3").getIndices());
+		assertEquals(Arrays.asList(max), ArrayRange.parse(max + "-" + max).getIndices());
+	}
+
+	@Test(expected = IllegalArgumentException.class, timeout = 5000)
+	public void testTooLarge() {
+		ArrayRange.parse("0-" + Integer.MAX_VALUE);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTooLargeOverParts() {
+		ArrayRange.parse("1-6,10-15", false, 10);
+	}
+
+	@Test
+	public void testMaxSize() {
+		assertEquals(10, ArrayRange.parse("1-5,11-15", false, 10).size());
+	}
+
+	@Test
+	public void testSingleRange() {
+		assertEquals(Arrays.asList(1, 3, 5), ArrayRange.parse("1-5:2", true, 10).getIndices());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSingleRangeRejectsLists() {
+		ArrayRange.parse("1-5,7", true, 10);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSingleRangeRejectsIndices() {
+		ArrayRange.parse("7", true, 10);
+	}
+
+	@Test
+	public void testSubJobIds() {
+		final ArrayRange range = ArrayRange.parse("1-2");
+		assertEquals(Arrays.asList("12[1].server", "12[2].server"), range.getSubJobIds("12[].server"));
+		assertEquals(Arrays.asList("12[1].server", "12[2].server"), range.getSubJobIds("12.server"));
+		assertEquals("12[].server", ArrayRange.getArrayJobId("12[2].server"));
+		assertEquals(Integer.valueOf(2), ArrayRange.getIndex("12[2].server"));
+		assertNull(ArrayRange.getIndex("12.server"));
+	}
+
+}
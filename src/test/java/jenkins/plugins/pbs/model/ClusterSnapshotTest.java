@@ -0,0 +1,158 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import jenkins.plugins.pbs.tasks.GetClusterSnapshot;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link ClusterSnapshot} deltas.
+ */
+public class ClusterSnapshotTest {
+
+	private static final List<String> QUEUES = Arrays.asList("batch", "long");
+
+	@Test
+	public void testDiffAndApply() {
+		final ClusterSnapshot base = snapshot(1L, QUEUES,
+				job("1.server", "R", "batch"), job("2.server", "Q", "batch"), job("3.server", "Q", "long"));
+		final ClusterSnapshot next = snapshot(2L, QUEUES,
+				job("2.server", "R", "batch"), job("3.server", "Q", "long"), job("4.server", "Q", "long"));
+		final ClusterSnapshotDelta delta = next.diff(base);
+		assertFalse(delta.isFull());
+		assertEquals(1L, delta.getBaseVersion());
+		assertEquals(2L, delta.getVersion());
+		assertEquals(Arrays.asList("2.server", "4.server"), ids(delta.getChanged()));
+		assertEquals(Arrays.asList("1.server"), new ArrayList<String>(delta.getRemoved()));
+		// unchanged queues are not sent
+		assertNull(delta.getQueues());
+
+		final ClusterSnapshot applied = base.apply(delta);
+		assertEquals(2L, applied.getVersion());
+		assertTrue(applied.sameContent(next));
+		assertEquals("R", applied.getJobs("batch").get(0).getState());
+		assertEquals(Arrays.asList("3.server", "4.server"), ids(applied.getJobs("long")));
+	}
+
+	@Test
+	public void testQueueChanges() {
+		final ClusterSnapshot base = snapshot(1L, QUEUES, job("1.server", "R", "batch"));
+		final ClusterSnapshot next = snapshot(2L, Arrays.asList("batch", "short"), job("1.server", "R", "batch"));
+		final ClusterSnapshotDelta delta = next.diff(base);
+		assertTrue(delta.getChanged().isEmpty());
+		assertTrue(delta.getRemoved().isEmpty());
+		assertEquals(Arrays.asList("batch", "short"), delta.getQueues());
+		assertEquals(Arrays.asList("batch", "short"), base.apply(delta).getQueues());
+	}
+
+	@Test
+	public void testFullDelta() {
+		final ClusterSnapshot snapshot = snapshot(3L, QUEUES, job("1.server", "R", "batch"), job("2.server", "Q", "long"));
+		final ClusterSnapshotDelta delta = snapshot.diff(null);
+		assertTrue(delta.isFull());
+		assertEquals(Arrays.asList("1.server", "2.server"), ids(delta.getChanged()));
+		assertTrue(ClusterSnapshot.fromDelta(delta).sameContent(snapshot));
+		// a full delta replaces whatever the master had
+		assertTrue(snapshot(1L, QUEUES).apply(delta).sameContent(snapshot));
+	}
+
+	@Test
+	public void testStaleBaseVersionIsRejected() {
+		final ClusterSnapshot base = snapshot(1L, QUEUES, job("1.server", "R", "batch"));
+		final ClusterSnapshotDelta delta = snapshot(2L, QUEUES).diff(base);
+		try {
+			snapshot(5L, QUEUES, job("1.server", "R", "batch")).apply(delta);
+			fail("applied a delta from version 1 to version 5");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testStaleBaseVersionGetsAFullSnapshot() throws IOException {
+		final File state = new File(System.getenv("STUB_PBS_DIR"));
+		FileUtils.deleteDirectory(state);
+		assertTrue(state.mkdirs());
+		FileUtils.writeStringToFile(new File(state, "qstat-Q.out"), resource("qstat-Q.txt"));
+		FileUtils.writeStringToFile(new File(state, "qstat.out"), resource("qstat-f.txt"));
+		final ClusterSnapshotDelta first = new GetClusterSnapshot(-1L).call();
+		assertTrue(first.isFull());
+		assertEquals(QUEUES, first.getQueues());
+		assertEquals(Arrays.asList("1234.pbs.example.org", "1235.pbs.example.org"), ids(first.getChanged()));
+
+		FileUtils.writeStringToFile(new File(state, "qstat.out"), resource("qstat-f.txt").replace("job_state = R", "job_state = E"));
+		final ClusterSnapshotDelta second = new GetClusterSnapshot(first.getVersion()).call();
+		assertFalse(second.isFull());
+		assertEquals(first.getVersion(), second.getBaseVersion());
+		assertEquals(Arrays.asList("1234.pbs.example.org"), ids(second.getChanged()));
+
+		// the master missed the second snapshot, so it gets every job again
+		final ClusterSnapshotDelta third = new GetClusterSnapshot(first.getVersion()).call();
+		assertTrue(third.isFull());
+		assertEquals(second.getVersion(), third.getVersion());
+		assertEquals("E", ClusterSnapshot.fromDelta(third).getJobs("batch").get(0).getState());
+	}
+
+	private static ClusterSnapshot snapshot(long version, List<String> queues, JobSummary... jobs) {
+		final Map<String, JobSummary> byId = new LinkedHashMap<String, JobSummary>();
+		for (JobSummary job : jobs) {
+			byId.put(job.getId(), job);
+		}
+		return new ClusterSnapshot(version, 0L, queues, byId);
+	}
+
+	private static JobSummary job(String id, String state, String queue) {
+		return new JobSummary(id, "jenkinsPBS_" + id, "jenkins@build01", state, queue);
+	}
+
+	private static List<String> ids(Iterable<JobSummary> jobs) {
+		final List<String> ids = new ArrayList<String>();
+		for (JobSummary job : jobs) {
+			ids.add(job.getId());
+		}
+		return ids;
+	}
+
+	private String resource(String name) throws IOException {
+		return IOUtils.toString(getClass().getResourceAsStream("/jenkins/plugins/pbs/util/" + name), "UTF-8");
+	}
+
+}
@@ -0,0 +1,89 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link JobOwner}.
+ */
+public class JobOwnerTest {
+
+	private File directory;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("jenkinsPBS_").toFile();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(directory);
+	}
+
+	@Test
+	public void testWriteAndRead() throws IOException {
+		final Map<String, String> environment = new HashMap<String, String>();
+		environment.put("JOB_NAME", "folder/job");
+		environment.put("BUILD_NUMBER", "42");
+		environment.put(JobOwner.INSTANCE_VARIABLE, "c0ffee");
+		JobOwner.fromEnvironment(environment).write(directory, "12.server");
+		final JobOwner owner = JobOwner.read(directory);
+		assertEquals("c0ffee", owner.getInstance());
+		assertEquals("folder/job", owner.getJobName());
+		assertEquals(42, owner.getBuildNumber());
+		assertEquals("12.server", owner.getJobId());
+		assertEquals(directory.getAbsolutePath(), owner.getExecutionDirectory());
+	}
+
+	@Test
+	public void testReadWithoutInstance() throws IOException {
+		FileUtils.writeStringToFile(new File(directory, JobOwner.OWNER_FILE), "job=old\nbuild=7\n");
+		final JobOwner owner = JobOwner.read(directory);
+		assertNull(owner.getInstance());
+		assertEquals("old", owner.getJobName());
+		assertNull(owner.getJobId());
+	}
+
+	@Test
+	public void testNoBuild() {
+		final Map<String, String> environment = new HashMap<String, String>();
+		environment.put("JOB_NAME", "folder/job");
+		environment.put(JobOwner.INSTANCE_VARIABLE, "c0ffee");
+		assertNull(JobOwner.fromEnvironment(environment));
+	}
+
+}
@@ -0,0 +1,244 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.monitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link JobStatusMonitor}, with the stub PBS commands of
+ * <code>src/test/stub-pbs</code> on the PATH.
+ */
+public class JobStatusMonitorTest {
+
+	private static final int TICKS = 5;
+
+	private static final String QSTAT_RUNNING = "Job Id: 10.server\n"
+			+ "    Job_Name = jenkinsPBS_1\n"
+			+ "    job_state = R\n"
+			+ "    Resource_List.walltime = 01:00:00\n"
+			+ "    resources_used.walltime = 00:10:00\n\n";
+
+	private File state;
+	private JobStatusMonitor monitor;
+	private PollSchedule schedule;
+
+	@Before
+	public void setUp() throws IOException {
+		state = new File(System.getenv("STUB_PBS_DIR"));
+		FileUtils.deleteDirectory(state);
+		assertTrue(state.mkdirs());
+		monitor = new JobStatusMonitor();
+		schedule = new PollSchedule(1000L, 100L, 10000L);
+	}
+
+	@Test
+	public void testOneQstatPerTickUntilAJobLeavesTheQueue() throws IOException {
+		stub("qstat", qstat("10.server", "Q") + qstat("11.server", "R") + qstat("12.server", "R"), "", 0);
+		final List<JobStatus> jobs = jobs("10.server", "11.server", "12.server");
+		for (int i = 0; i < TICKS; i++) {
+			monitor.poll(jobs);
+		}
+		assertEquals(TICKS, monitor.getTicks());
+		assertEquals(TICKS, monitor.getQstatCalls());
+		assertEquals(0, monitor.getTraceJobCalls());
+		assertEquals("Q", jobs.get(0).getState());
+		assertEquals("R", jobs.get(1).getState());
+		for (String call : calls()) {
+			assertEquals("qstat -f 10.server 11.server 12.server", call);
+		}
+
+		// 12.server left the queue: only it is traced, once
+		stub("qstat", qstat("10.server", "R") + qstat("11.server", "R"), "qstat: Unknown Job Id 12.server\n", 153);
+		stub("tracejob", "03/02/2015 10:20:01  S    Exit_status=0 resources_used.walltime=00:05:00\n", "", 0);
+		monitor.poll(jobs);
+		assertEquals(TICKS + 1, monitor.getQstatCalls());
+		assertEquals(1, monitor.getTraceJobCalls());
+		assertTrue(jobs.get(2).isComplete());
+		assertEquals(Integer.valueOf(0), jobs.get(2).getExitStatus());
+		assertFalse(jobs.get(0).isComplete());
+		assertEquals("R", jobs.get(0).getState());
+		final List<String> calls = calls();
+		assertTrue(calls.get(calls.size() - 1), calls.get(calls.size() - 1).endsWith(" 12.server"));
+	}
+
+	@Test
+	public void testServerDownSkipsTheTick() throws IOException {
+		stub("qstat", "", "Connection refused\nqstat: cannot connect to server server (errno=111)\n", 2);
+		final List<JobStatus> jobs = jobs("10.server", "11.server");
+		for (int i = 0; i < JobStatusMonitor.NOT_FOUND_AFTER + 2; i++) {
+			assertEquals(jobs, monitor.poll(jobs));
+		}
+		for (JobStatus status : jobs) {
+			assertFalse(status.isComplete());
+			assertEquals(0, status.getMisses());
+		}
+		assertEquals(0, monitor.getTraceJobCalls());
+		for (String call : calls()) {
+			assertTrue(call, call.startsWith("qstat "));
+		}
+	}
+
+	@Test
+	public void testJobNotFoundAfterRepeatedMisses() throws IOException {
+		stub("qstat", QSTAT_RUNNING, "qstat: Unknown Job Id 11.server\n", 153);
+		final List<JobStatus> jobs = jobs("10.server", "11.server");
+		final JobStatus running = jobs.get(0);
+		final JobStatus missing = jobs.get(1);
+		for (int i = 1; i < JobStatusMonitor.NOT_FOUND_AFTER; i++) {
+			assertTrue(monitor.poll(jobs).isEmpty());
+			assertFalse(missing.isComplete());
+			assertEquals(i, missing.getMisses());
+		}
+		assertTrue(monitor.poll(jobs).isEmpty());
+		assertTrue(missing.isComplete());
+		assertTrue(missing.isUnknown());
+		assertFalse(running.isComplete());
+		assertEquals("R", running.getState());
+		assertEquals(0, running.getMisses());
+		// only the missing job is traced
+		for (String call : calls()) {
+			if (call.startsWith("tracejob ")) {
+				assertTrue(call, call.endsWith(" 11.server"));
+			}
+		}
+		assertEquals(JobStatusMonitor.NOT_FOUND_AFTER, monitor.getTraceJobCalls());
+	}
+
+	@Test
+	public void testMissesResetWhenTheServerListsTheJob() throws IOException {
+		stub("qstat", "", "qstat: Unknown Job Id 10.server\n", 153);
+		final List<JobStatus> jobs = jobs("10.server");
+		final JobStatus status = jobs.get(0);
+		monitor.poll(jobs);
+		monitor.poll(jobs);
+		assertEquals(2, status.getMisses());
+		stub("qstat", "", "Connection refused\n", 2);
+		monitor.poll(jobs);
+		assertEquals(2, status.getMisses());
+		stub("qstat", QSTAT_RUNNING, "", 0);
+		monitor.poll(jobs);
+		assertEquals(0, status.getMisses());
+		assertFalse(status.isComplete());
+	}
+
+	@Test
+	public void testCompletedFromQstat() throws IOException {
+		stub("qstat", "Job Id: 10.server.domain\n    job_state = C\n    exit_status = 3\n\n", "", 0);
+		final JobStatus status = jobs("10.server").get(0);
+		assertTrue(monitor.poll(Collections.singletonList(status)).isEmpty());
+		assertTrue(status.isComplete());
+		assertEquals(Integer.valueOf(3), status.getExitStatus());
+		assertEquals(0, monitor.getTraceJobCalls());
+	}
+
+	@Test
+	public void testCompletedWithoutExitStatusIsTraced() throws IOException {
+		stub("qstat", "Job Id: 10.server\n    job_state = C\n\n", "", 0);
+		stub("tracejob", "03/02/2015 10:14:33  S    dequeuing from batch, state COMPLETE\n", "", 0);
+		final JobStatus status = jobs("10.server").get(0);
+		monitor.poll(Collections.singletonList(status));
+		assertEquals(1, monitor.getTraceJobCalls());
+		assertTrue(status.isComplete());
+		assertNull(status.getExitStatus());
+	}
+
+	@Test
+	public void testLeftQstatWithoutExitStatusIsExiting() throws IOException {
+		stub("qstat", QSTAT_RUNNING, "", 0);
+		final List<JobStatus> jobs = jobs("10.server");
+		final JobStatus status = jobs.get(0);
+		monitor.poll(jobs);
+		assertTrue(schedule.nextDelay(status) >= schedule.getSpan() / 2);
+		stub("qstat", "", "qstat: Unknown Job Id 10.server\n", 153);
+		stub("tracejob", "03/02/2015 10:14:33  S    Job Run at request of Scheduler@server\n", "", 0);
+		monitor.poll(jobs);
+		assertFalse(status.isComplete());
+		assertEquals(JobStatusMonitor.EXITING, status.getState());
+		assertTrue(schedule.nextDelay(status) < schedule.getSpan() / 2);
+		// nor when the logs have no trace of it
+		stub("tracejob", "", "", 0);
+		monitor.poll(jobs);
+		assertEquals(JobStatusMonitor.EXITING, status.getState());
+		assertFalse(status.isComplete());
+	}
+
+	@Test
+	public void testQstatIsBatched() throws IOException {
+		stub("qstat", "", "", 0);
+		final String[] ids = new String[JobStatusMonitor.MAX_IDS_PER_QSTAT + 1];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = i + ".server";
+		}
+		monitor.poll(jobs(ids));
+		assertEquals(2, monitor.getQstatCalls());
+	}
+
+	@Test
+	public void testOnlyUnknownJobs() {
+		assertTrue(JobStatusMonitor.onlyUnknownJobs("qstat: Unknown Job Id 10.server\n"));
+		assertTrue(JobStatusMonitor.onlyUnknownJobs("qstat: 10.server Job has finished, use -x or -H to obtain historical job information\n"));
+		assertFalse(JobStatusMonitor.onlyUnknownJobs("qstat: Unknown Job Id 10.server\nqstat: cannot connect to server\n"));
+		assertFalse(JobStatusMonitor.onlyUnknownJobs(""));
+	}
+
+	private List<JobStatus> jobs(String... jobIds) {
+		final List<JobStatus> jobs = new ArrayList<JobStatus>();
+		for (String jobId : jobIds) {
+			jobs.add(new JobStatus(jobId, 1, schedule));
+		}
+		return jobs;
+	}
+
+	private static String qstat(String jobId, String jobState) {
+		return "Job Id: " + jobId + "\n"
+				+ "    Job_Name = jenkinsPBS_1\n"
+				+ "    job_state = " + jobState + "\n\n";
+	}
+
+	private void stub(String command, String out, String err, int exitCode) throws IOException {
+		FileUtils.writeStringToFile(new File(state, command + ".out"), out);
+		FileUtils.writeStringToFile(new File(state, command + ".err"), err);
+		FileUtils.writeStringToFile(new File(state, command + ".rc"), Integer.toString(exitCode));
+	}
+
+	private List<String> calls() throws IOException {
+		final File calls = new File(state, "calls");
+		return calls.exists() ? FileUtils.readLines(calls) : Arrays.<String>asList();
+	}
+
+}
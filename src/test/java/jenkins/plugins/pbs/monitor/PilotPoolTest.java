@@ -0,0 +1,166 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.monitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import jenkins.plugins.pbs.model.SubmittedJob;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link PilotPool}, running the pilot script as a local
+ * process, with the stub PBS commands of <code>src/test/stub-pbs</code>
+ * on the PATH.
+ */
+public class PilotPoolTest {
+
+	private static int pilots;
+
+	private File state;
+	private File base;
+	private Process pilot;
+	private String jobId;
+	private PilotPool pool;
+	private PollSchedule schedule;
+
+	@Before
+	public void setUp() throws IOException {
+		state = new File(System.getenv("STUB_PBS_DIR"));
+		FileUtils.deleteDirectory(state);
+		assertTrue(state.mkdirs());
+		jobId = (100 + pilots++) + ".server";
+		FileUtils.writeStringToFile(new File(state, "qstat.out"), "Job Id: " + jobId + "\n    job_state = R\n\n");
+		base = File.createTempFile("pilots", "");
+		assertTrue(base.delete());
+		assertTrue(base.mkdir());
+		pool = new PilotPool();
+		schedule = new PollSchedule(1000L, 100L, 1000L);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		if (pilot != null) {
+			pilot.destroy();
+		}
+		JobStatusMonitor.get().unregister(jobId);
+		FileUtils.deleteDirectory(base);
+	}
+
+	@Test(timeout = 30000)
+	public void testRunsTasksWithTheirShebang() throws Exception {
+		final Map<String, String> environment = new HashMap<String, String>();
+		environment.put("GREETING", "it's me");
+		final PilotPool.Task task = dispatch("#!/bin/bash\necho \"$GREETING ${BASH_VERSION:+from bash}\"\nexit 3\n",
+				environment);
+		assertTrue(task.await(20000));
+		assertTrue(task.isDone());
+		assertEquals(Integer.valueOf(3), task.getExitStatus());
+		assertEquals("it's me from bash\n", FileUtils.readFileToString(task.getOut().toFile()));
+	}
+
+	@Test(timeout = 30000)
+	public void testCancelKillsTheTaskAndItsChildren() throws Exception {
+		final PilotPool.Task task = dispatch("#!/bin/sh\nsleep 60 &\necho $! > child\nwait\n",
+				new HashMap<String, String>());
+		final File child = new File(task.getOut().toFile().getParentFile(), "child");
+		while (!child.exists() || FileUtils.readFileToString(child).trim().isEmpty()) {
+			Thread.sleep(100);
+		}
+		final String pid = FileUtils.readFileToString(child).trim();
+		assertTrue(isRunning(pid));
+		assertTrue(pool.cancel(task, 20000));
+		assertTrue(task.isDone());
+		assertEquals(Integer.valueOf(143), task.getExitStatus());
+		for (int i = 0; i < 50 && isRunning(pid); i++) {
+			Thread.sleep(100);
+		}
+		assertFalse(isRunning(pid));
+	}
+
+	@Test
+	public void testEnvironmentFile() {
+		final Map<String, String> environment = new HashMap<String, String>(System.getenv());
+		environment.put("BUILD_NUMBER", "12");
+		environment.put("JOB_NAME", "a'b");
+		environment.put("HOME", "/elsewhere");
+		environment.put("NOT-A-NAME", "x");
+		assertEquals("export BUILD_NUMBER='12'\n", exports(environment, "BUILD_NUMBER"));
+		assertEquals("export JOB_NAME='a'\\''b'\n", exports(environment, "JOB_NAME"));
+		final String file = PilotPool.getEnvironmentFile(environment);
+		assertFalse(file, file.contains("HOME="));
+		assertFalse(file, file.contains("PATH="));
+		assertFalse(file, file.contains("NOT-A-NAME"));
+	}
+
+	/**
+	 * @return <code>true</code> if the process exists and is not a zombie
+	 */
+	private static boolean isRunning(String pid) {
+		final String content;
+		try {
+			content = FileUtils.readFileToString(new File(new File("/proc", pid), "stat"));
+		} catch (IOException e) {
+			return false;
+		}
+		return !content.substring(content.lastIndexOf(')') + 1).trim().startsWith("Z");
+	}
+
+	private static String exports(Map<String, String> environment, String name) {
+		for (String line : PilotPool.getEnvironmentFile(environment).split("(?<=\n)")) {
+			if (line.startsWith("export " + name + "=")) {
+				return line;
+			}
+		}
+		return null;
+	}
+
+	private PilotPool.Task dispatch(String script, Map<String, String> environment) {
+		return pool.dispatch(script, environment, "", base.getPath(), 10, 60000L, 1, schedule,
+				new PilotPool.Submitter() {
+					public SubmittedJob submit(String pilotScript) {
+						try {
+							final File file = new File(base, "pilot.sh");
+							FileUtils.writeStringToFile(file, pilotScript);
+							pilot = new ProcessBuilder("sh", file.getPath()).redirectErrorStream(true)
+									.redirectOutput(new File(base, "pilot.log")).start();
+							return new SubmittedJob(jobId, base.getPath());
+						} catch (IOException e) {
+							throw new IllegalStateException(e);
+						}
+					}
+				});
+	}
+
+}
@@ -0,0 +1,163 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.tasks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link RemoteLogStreamer}.
+ */
+public class RemoteLogStreamerTest {
+
+	private Path dir;
+	private Path out;
+	private Path err;
+	private ByteArrayOutputStream console;
+	private PrintStream logger;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("logs");
+		out = dir.resolve("out");
+		err = dir.resolve("err");
+		console = new ByteArrayOutputStream();
+		logger = new PrintStream(console, true);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(dir.toFile());
+	}
+
+	@Test
+	public void testNoCap() throws IOException {
+		final RemoteLogStreamer logs = new RemoteLogStreamer(out, err, logger);
+		append(out, lines(0, 100));
+		logs.stream(false);
+		append(out, lines(100, 200));
+		append(err, "oops\n");
+		logs.finish();
+		final String text = console.toString();
+		assertTrue(text.contains(lines(0, 200)));
+		assertTrue(text.contains("oops\n"));
+		assertFalse(text.contains("omitted"));
+	}
+
+	@Test
+	public void testCrossesTheCapOnTheFinalRead() throws IOException {
+		final String log = lines(0, 1000);
+		final int cap = 1000;
+		final RemoteLogStreamer logs = new RemoteLogStreamer(out, err, logger, cap, null);
+		append(out, log.substring(0, 600));
+		logs.stream(false);
+		append(out, log.substring(600));
+		logs.finish();
+		final String text = console.toString();
+		assertTrue(text, text.contains(log.substring(0, cap)));
+		assertTrue(text, text.contains(log.substring(log.length() - cap)));
+		assertFalse(text, text.contains(log.substring(cap, log.length() - cap)));
+		assertTrue(text, text.contains("[... " + FileUtils.byteCountToDisplaySize(log.length() - 2 * cap)
+				+ " of out log omitted ...]"));
+		assertTrue(text, text.contains("kept out of the console"));
+	}
+
+	@Test
+	public void testCapReachedWhileRunning() throws IOException {
+		final String log = lines(0, 1000);
+		final int cap = 1000;
+		final RemoteLogStreamer logs = new RemoteLogStreamer(out, err, logger, cap, null);
+		append(out, log.substring(0, 3000));
+		logs.stream(false);
+		String text = console.toString();
+		assertTrue(text, text.contains(log.substring(0, cap)));
+		assertFalse(text, text.contains(log.substring(0, cap + 1)));
+		assertTrue(text, text.contains("out log over"));
+		append(out, log.substring(3000));
+		logs.stream(false);
+		logs.finish();
+		text = console.toString();
+		assertTrue(text, text.contains(log.substring(log.length() - cap)));
+		assertFalse(text, text.contains(log.substring(cap, log.length() - cap)));
+	}
+
+	@Test
+	public void testUnderTheCap() throws IOException {
+		final String log = lines(0, 100);
+		final RemoteLogStreamer logs = new RemoteLogStreamer(out, err, logger, log.length(), null);
+		append(out, log);
+		logs.finish();
+		final String text = console.toString();
+		assertTrue(text, text.contains(log));
+		assertFalse(text, text.contains("omitted"));
+		assertFalse(text, text.contains("log over"));
+	}
+
+	@Test
+	public void testPartialLineWaitsForTheEnd() throws IOException {
+		final RemoteLogStreamer logs = new RemoteLogStreamer(out, err, logger);
+		append(out, "first\nsec");
+		logs.stream(false);
+		assertTrue(console.toString().contains("first\n"));
+		assertFalse(console.toString().contains("sec"));
+		append(out, "ond");
+		logs.finish();
+		assertTrue(console.toString().contains("first\nsecond"));
+		assertEquals(1, count(console.toString(), "---- Remote job output log ----"));
+	}
+
+	private static String lines(int from, int to) {
+		final StringBuilder lines = new StringBuilder();
+		for (int i = from; i < to; i++) {
+			lines.append(String.format("line %05d%n", i));
+		}
+		return lines.toString();
+	}
+
+	private static void append(Path file, String text) throws IOException {
+		Files.write(file, text.getBytes("UTF-8"), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+	}
+
+	private static int count(String text, String search) {
+		int count = 0;
+		for (int i = text.indexOf(search); i >= 0; i = text.indexOf(search, i + 1)) {
+			count++;
+		}
+		return count;
+	}
+
+}
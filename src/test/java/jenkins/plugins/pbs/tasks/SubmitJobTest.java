@@ -0,0 +1,109 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.tasks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import hudson.model.StreamBuildListener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.HashMap;
+import java.util.List;
+
+import jenkins.plugins.pbs.model.SubmittedJob;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.tupilabs.pbs.util.PBSException;
+
+/**
+ * Tests for the {@link SubmitJob}, with the stub PBS commands of
+ * <code>src/test/stub-pbs</code> on the PATH.
+ */
+public class SubmitJobTest {
+
+	private File state;
+	private File base;
+	private ByteArrayOutputStream console;
+	private StreamBuildListener listener;
+
+	@Before
+	public void setUp() throws IOException {
+		state = new File(System.getenv("STUB_PBS_DIR"));
+		FileUtils.deleteDirectory(state);
+		assertTrue(state.mkdirs());
+		base = Files.createTempDirectory("pbs").toFile();
+		console = new ByteArrayOutputStream();
+		listener = new StreamBuildListener(console);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(base);
+	}
+
+	@Test
+	public void testSecretIsOnlyInTheScript() throws IOException {
+		FileUtils.writeStringToFile(new File(state, "qsub.out"), "12.server\n");
+		final SubmittedJob job = new SubmitJob("#!/bin/sh\n#PBS -N agent\necho hello\n", "", "", base.getPath(),
+				new HashMap<String, String>(), null, "s3cr3t", listener).call();
+		assertEquals("12.server", job.getJobId());
+		final File script = new File(job.getExecutionDirectory(), "script");
+		assertEquals("#!/bin/sh\n#PBS -N agent\n" + SubmitJob.SECRET_VARIABLE + "='s3cr3t'\necho hello\n",
+				FileUtils.readFileToString(script));
+		assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(script.toPath())));
+		final List<String> calls = FileUtils.readLines(new File(state, "calls"));
+		assertEquals(1, calls.size());
+		assertFalse(calls.get(0).contains("s3cr3t"));
+		assertFalse(console.toString().contains("s3cr3t"));
+	}
+
+	@Test
+	public void testFailedSubmissionLeavesNoDirectory() throws IOException {
+		FileUtils.writeStringToFile(new File(state, "qsub.err"), "qsub: Unknown queue\n");
+		FileUtils.writeStringToFile(new File(state, "qsub.rc"), "1\n");
+		final HashMap<String, String> environment = new HashMap<String, String>();
+		environment.put("JOB_NAME", "job");
+		environment.put("BUILD_NUMBER", "3");
+		try {
+			new SubmitJob("#!/bin/sh\necho hello\n", "", "", base.getPath(), environment, null, listener).call();
+			fail("qsub failed");
+		} catch (PBSException e) {
+			// expected
+		}
+		assertEquals(1, FileUtils.readLines(new File(state, "calls")).size());
+		assertEquals(0, base.list().length);
+	}
+
+}
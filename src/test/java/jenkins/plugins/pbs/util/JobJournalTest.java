@@ -0,0 +1,110 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link JobJournal}, replaying what an earlier instance of the
+ * agent wrote.
+ */
+public class JobJournalTest {
+
+	private File base;
+
+	@Before
+	public void setUp() throws IOException {
+		base = Files.createTempDirectory("pbs").toFile();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(base);
+	}
+
+	@Test
+	public void testReplay() throws IOException {
+		final File first = executionDirectory("jenkinsPBS_1");
+		final File second = executionDirectory("jenkinsPBS_2");
+		final JobJournal journal = JobJournal.get(base);
+		journal.submitted("1.server", first.getPath(), "token-a");
+		journal.submitted("2.server", second.getPath(), "token-b");
+		JobJournal.changed("1.server", "R", null);
+
+		final JobJournal replayed = JobJournal.read(base);
+		final JobJournal.Entry entry = replayed.find("token-a");
+		assertEquals("1.server", entry.getJobId());
+		assertEquals(first.getPath(), entry.getExecutionDirectory());
+		assertEquals("R", entry.getState());
+		assertEquals("2.server", replayed.find("token-b").getJobId());
+		assertNull(replayed.find("token-c"));
+	}
+
+	@Test
+	public void testCompletedStepsAreForgotten() throws IOException {
+		final File directory = executionDirectory("jenkinsPBS_1");
+		final JobJournal journal = JobJournal.get(base);
+		journal.submitted("1.server", directory.getPath(), "token-a");
+		journal.completed("token-a");
+		assertNull(journal.find("token-a"));
+		assertNull(JobJournal.read(base).find("token-a"));
+	}
+
+	@Test
+	public void testDeletedDirectoriesAreDropped() throws IOException {
+		final File directory = executionDirectory("jenkinsPBS_1");
+		JobJournal.get(base).submitted("1.server", directory.getPath(), "token-a");
+		FileUtils.deleteDirectory(directory);
+		assertNull(JobJournal.read(base).find("token-a"));
+		assertTrue(FileUtils.readFileToString(new File(base, JobJournal.FILE_NAME)).isEmpty());
+	}
+
+	@Test
+	public void testTornRecordIsIgnored() throws IOException {
+		final File directory = executionDirectory("jenkinsPBS_1");
+		JobJournal.get(base).submitted("1.server", directory.getPath(), "token-a");
+		FileUtils.writeStringToFile(new File(base, JobJournal.FILE_NAME), "S\t2.server\t/tmp/jenk", "UTF-8", true);
+		final JobJournal replayed = JobJournal.read(base);
+		assertEquals("1.server", replayed.find("token-a").getJobId());
+		assertNull(replayed.find("2.server"));
+	}
+
+	private File executionDirectory(String name) {
+		final File directory = new File(base, name);
+		assertTrue(directory.mkdir());
+		return directory;
+	}
+
+}
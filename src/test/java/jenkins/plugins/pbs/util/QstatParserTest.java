@@ -0,0 +1,74 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link QstatParser}.
+ */
+public class QstatParserTest {
+
+	@Test
+	public void testParseJobs() throws IOException {
+		final Map<String, Map<String, String>> jobs = QstatParser.parse(resource("qstat-f.txt"));
+		assertEquals(Arrays.asList("1234.pbs.example.org", "1235.pbs.example.org"), Arrays.asList(jobs.keySet().toArray()));
+		final Map<String, String> running = jobs.get("1234.pbs.example.org");
+		assertEquals("R", running.get("job_state"));
+		assertEquals("01:00:00", running.get("Resource_List.walltime"));
+		assertEquals("00:01:03", running.get("resources_used.walltime"));
+		assertEquals("PBS_O_QUEUE=batch,PBS_O_HOME=/home/jenkins,PBS_O_LOGNAME=jenkins,"
+				+ "PBS_O_PATH=/usr/local/bin:/usr/bin:/bin,PBS_O_SHELL=/bin/bash,PBS_O_HOST=build01.example.org",
+				running.get("Variable_List"));
+		assertEquals("812", running.get("queue_rank"));
+		final Map<String, String> completed = jobs.get("1235.pbs.example.org");
+		assertEquals("C", completed.get("job_state"));
+		assertEquals("1", completed.get("exit_status"));
+	}
+
+	@Test
+	public void testParseEmptyOutput() {
+		assertTrue(QstatParser.parse(null).isEmpty());
+		assertTrue(QstatParser.parse("").isEmpty());
+		assertTrue(QstatParser.parse("qstat: Unknown Job Id 12.server\n").isEmpty());
+	}
+
+	@Test
+	public void testParseQueues() throws IOException {
+		assertEquals(Arrays.asList("batch", "long"), QstatParser.parseQueues(resource("qstat-Q.txt")));
+	}
+
+	private String resource(String name) throws IOException {
+		return IOUtils.toString(getClass().getResourceAsStream(name), "UTF-8");
+	}
+
+}
@@ -0,0 +1,144 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link ServerLogIndex}, against synthetic server and
+ * accounting logs.
+ */
+public class ServerLogIndexTest {
+
+	private static final String DAY = "20150302";
+
+	private File home;
+	private File serverLog;
+	private File accountingLog;
+	private long noon;
+
+	@Before
+	public void setUp() throws IOException, ParseException {
+		home = File.createTempFile("pbs", "home");
+		assertTrue(home.delete());
+		serverLog = new File(new File(home, "server_logs"), DAY);
+		accountingLog = new File(new File(new File(home, "server_priv"), "accounting"), DAY);
+		FileUtils.forceMkdir(serverLog.getParentFile());
+		FileUtils.forceMkdir(accountingLog.getParentFile());
+		noon = new SimpleDateFormat("yyyyMMddHH").parse(DAY + "12").getTime();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(home);
+	}
+
+	@Test
+	public void testTrace() throws IOException {
+		append(serverLog, server("10:14:32", "12.server", "enqueuing into batch, state 1 hop 1")
+				+ server("10:14:32", "13.server", "enqueuing into batch, state 1 hop 1")
+				+ "03/02/2015 10:14:33;0002;PBS_Server.2817;Svr;PBS_Server;Scheduler sent command new\n"
+				+ server("10:15:36", "12.server", "Exit_status=3 resources_used.walltime=00:01:03"));
+		append(accountingLog, "03/02/2015 10:15:00;S;12.server;user=jenkins queue=batch\n");
+		final ServerLogIndex index = new ServerLogIndex(home);
+		assertEquals("03/02/2015 10:14:32  S    enqueuing into batch, state 1 hop 1\n"
+				+ "03/02/2015 10:15:00  A    user=jenkins queue=batch\n"
+				+ "03/02/2015 10:15:36  S    Exit_status=3 resources_used.walltime=00:01:03\n",
+				index.trace("12.server.domain", noon, noon));
+		assertEquals("", index.trace("14.server", noon, noon));
+	}
+
+	@Test
+	public void testIncremental() throws IOException {
+		append(serverLog, server("10:14:32", "12.server", "enqueuing into batch, state 1 hop 1")
+				+ "03/02/2015 10:15:36;0010;PBS_Server.2817;Job;12.server;Exit_st");
+		final ServerLogIndex index = new ServerLogIndex(home);
+		assertEquals(1, count(index.trace("12.server", noon, noon)));
+		final long scanned = index.getScannedBytes();
+		append(serverLog, "atus=0\n");
+		final String trace = index.trace("12.server", noon, noon);
+		assertEquals(2, count(trace));
+		assertTrue(trace, trace.endsWith("Exit_status=0\n"));
+		// only the appended bytes are scanned again
+		assertTrue(index.getScannedBytes() - scanned < 100);
+	}
+
+	@Test
+	public void testLongLines() throws IOException {
+		final char[] message = new char[(1 << 24) + 10];
+		Arrays.fill(message, 'x');
+		append(serverLog, server("10:14:32", "12.server", "enqueuing into batch, state 1 hop 1")
+				+ server("10:14:33", "12.server", new String(message))
+				+ server("10:15:36", "12.server", "Exit_status=0"));
+		final String trace = new ServerLogIndex(home).trace("12.server", noon, noon);
+		// the record over 16 MB is left out instead of being cut
+		assertEquals("03/02/2015 10:14:32  S    enqueuing into batch, state 1 hop 1\n"
+				+ "03/02/2015 10:15:36  S    Exit_status=0\n", trace);
+	}
+
+	@Test
+	public void testRecordsSpreadOverManyChunks() throws IOException {
+		final StringBuilder log = new StringBuilder(server("10:14:32", "12.server", "enqueuing into batch, state 1 hop 1"));
+		for (int i = 0; i < 100; i++) {
+			log.append(server("10:14:40", "13.server", "Job Modified at request of root@server"));
+		}
+		final char[] message = new char[300];
+		Arrays.fill(message, 'x');
+		// a line longer than a chunk
+		log.append(server("10:14:50", "12.server", new String(message)));
+		log.append(server("10:15:36", "12.server", "Exit_status=0"));
+		append(serverLog, log.toString());
+		final ServerLogIndex index = new ServerLogIndex(home, 256);
+		final String trace = index.trace("12.server", noon, noon);
+		assertEquals("03/02/2015 10:14:32  S    enqueuing into batch, state 1 hop 1\n"
+				+ "03/02/2015 10:15:36  S    Exit_status=0\n", trace);
+		assertEquals(serverLog.length(), index.getScannedBytes());
+		assertEquals(100, count(index.trace("13.server", noon, noon)));
+	}
+
+	private static String server(String time, String jobId, String message) {
+		return "03/02/2015 " + time + ";0008;PBS_Server.2817;Job;" + jobId + ";" + message + "\n";
+	}
+
+	private static void append(File log, String text) throws IOException {
+		FileUtils.writeStringToFile(log, text, "US-ASCII", true);
+	}
+
+	private static int count(String trace) {
+		return trace.split("\n").length;
+	}
+
+}
@@ -0,0 +1,131 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import jenkins.plugins.pbs.model.SubmitLimits;
+
+import org.junit.Test;
+
+import com.tupilabs.pbs.util.PBSException;
+
+/**
+ * Tests for the {@link SubmitGovernor}.
+ */
+public class SubmitGovernorTest {
+
+	@Test
+	public void testUnlimited() throws InterruptedException {
+		final SubmitGovernor governor = new SubmitGovernor();
+		assertFalse(governor.acquire(null).isGoverned());
+		assertFalse(governor.acquire(new SubmitLimits(0d, 0, 5)).isGoverned());
+	}
+
+	@Test(timeout = 10000)
+	public void testConcurrency() throws InterruptedException {
+		final SubmitGovernor governor = new SubmitGovernor();
+		final SubmitLimits limits = new SubmitLimits(0d, 1, 0);
+		final SubmitGovernor.Permit first = governor.acquire(limits);
+		assertTrue(first.isGoverned());
+		final CountDownLatch acquired = new CountDownLatch(1);
+		final AtomicReference<SubmitGovernor.Permit> second = new AtomicReference<SubmitGovernor.Permit>();
+		final Thread waiter = new Thread(new Runnable() {
+			public void run() {
+				try {
+					second.set(governor.acquire(limits));
+					acquired.countDown();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		waiter.start();
+		assertFalse(acquired.await(300, TimeUnit.MILLISECONDS));
+		assertEquals(1, governor.getWaiting());
+		first.release();
+		// releasing twice must not free a second slot
+		first.release();
+		assertTrue(acquired.await(5, TimeUnit.SECONDS));
+		assertEquals(0, second.get().getAhead());
+		assertEquals(0, governor.getWaiting());
+		second.get().release();
+		waiter.join();
+	}
+
+	@Test(timeout = 10000)
+	public void testBacklogFull() throws InterruptedException {
+		final SubmitGovernor governor = new SubmitGovernor();
+		final SubmitLimits limits = new SubmitLimits(0d, 1, 1);
+		final SubmitGovernor.Permit first = governor.acquire(limits);
+		final Thread waiter = new Thread(new Runnable() {
+			public void run() {
+				try {
+					governor.acquire(limits).release();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		waiter.start();
+		while (governor.getWaiting() == 0) {
+			Thread.sleep(10);
+		}
+		try {
+			governor.acquire(limits);
+			fail("The backlog is full");
+		} catch (PBSException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("Too many PBS submissions waiting"));
+		}
+		first.release();
+		waiter.join();
+		assertEquals(0, governor.getWaiting());
+	}
+
+	@Test(timeout = 10000)
+	public void testRate() throws InterruptedException {
+		final SubmitGovernor governor = new SubmitGovernor();
+		// one second's worth right away, then one every 100 ms
+		final SubmitLimits limits = new SubmitLimits(10d, 0, 0);
+		final long start = System.nanoTime();
+		for (int i = 0; i < limits.getBatchSize(); i++) {
+			governor.acquire(limits).release();
+		}
+		final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertTrue("took " + elapsed + " ms", elapsed < 1000);
+		for (int i = 0; i < 5; i++) {
+			governor.acquire(limits).release();
+		}
+		final long total = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertTrue("took " + total + " ms", total >= 400);
+	}
+
+}
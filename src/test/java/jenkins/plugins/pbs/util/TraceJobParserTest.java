@@ -0,0 +1,170 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import jenkins.plugins.pbs.model.TraceJobEvent;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link TraceJobParser}, against tracejob output of Torque
+ * and PBS Pro.
+ */
+public class TraceJobParserTest {
+
+	@Test
+	public void testTorque() throws IOException {
+		final TraceJobParser parser = new TraceJobParser();
+		parser.parse(resource("tracejob-torque.txt"));
+		assertTrue(parser.isRunning());
+		assertTrue(parser.isFinished());
+		assertEquals(Integer.valueOf(2), parser.getExitStatus());
+		assertEquals("COMPLETE", parser.getDequeuedState());
+		// "L Job Run" and "S Job Run at request of", and Exit_status in the S and A records
+		assertEquals("[QUEUED, RUN, RUN, EXIT_STATUS, EXIT_STATUS, DEQUEUED] resources=8 times=9",
+				summary(parser.getEvents()));
+		assertEquals("00:01:03", value(parser.getEvents(), TraceJobEvent.Type.RESOURCES_USED, "walltime"));
+		assertEquals("341220kb", value(parser.getEvents(), TraceJobEvent.Type.RESOURCES_USED, "vmem"));
+		assertEquals("1425291336", value(parser.getEvents(), TraceJobEvent.Type.TIME, "end"));
+	}
+
+	@Test
+	public void testTorqueLocalhost() throws IOException {
+		final TraceJobParser parser = new TraceJobParser();
+		parser.parse(resource("tracejob-localhost.txt"));
+		assertTrue(parser.isRunning());
+		assertTrue(parser.isFinished());
+		assertEquals(Integer.valueOf(0), parser.getExitStatus());
+		assertEquals("COMPLETE", parser.getDequeuedState());
+		assertEquals("[QUEUED, RUN, RUN, EXIT_STATUS, DEQUEUED, EXIT_STATUS] resources=8 times=9",
+				summary(parser.getEvents()));
+		assertEquals("3196kb", value(parser.getEvents(), TraceJobEvent.Type.RESOURCES_USED, "mem"));
+		assertEquals("00:01:00", value(parser.getEvents(), TraceJobEvent.Type.RESOURCES_USED, "walltime"));
+		assertEquals("1384095220", value(parser.getEvents(), TraceJobEvent.Type.TIME, "end"));
+	}
+
+	@Test
+	public void testPbsPro() throws IOException {
+		final TraceJobParser parser = new TraceJobParser();
+		parser.parse(resource("tracejob-pbspro.txt"));
+		assertTrue(parser.isRunning());
+		assertEquals(Integer.valueOf(0), parser.getExitStatus());
+		assertEquals("5", parser.getDequeuedState());
+		assertEquals("00:00:03", value(parser.getEvents(), TraceJobEvent.Type.RESOURCES_USED, "walltime"));
+		assertEquals("1425294130", value(parser.getEvents(), TraceJobEvent.Type.TIME, "start"));
+	}
+
+	@Test
+	public void testResumeAtEveryLine() throws IOException {
+		for (String name : new String[] { "tracejob-torque.txt", "tracejob-pbspro.txt" }) {
+			final String output = resource(name);
+			final TraceJobParser whole = new TraceJobParser();
+			whole.parse(output);
+			for (int end = output.indexOf('\n') + 1; end > 0 && end < output.length(); end = output.indexOf('\n', end) + 1) {
+				final TraceJobParser parser = new TraceJobParser();
+				parser.parse(output.substring(0, end));
+				parser.parse(output);
+				assertEquals(name + " split at " + end, whole.getEvents().toString(), parser.getEvents().toString());
+				assertEquals(whole.getExitStatus(), parser.getExitStatus());
+				assertEquals(whole.getDequeuedState(), parser.getDequeuedState());
+			}
+		}
+	}
+
+	@Test
+	public void testContinuationInLaterCall() {
+		final TraceJobParser parser = new TraceJobParser();
+		final String first = "03/02/2015 10:15:36  S    Exit_status=1 resources_used.cput=00:00:12\n";
+		final List<TraceJobEvent> events = parser.parse(first);
+		assertEquals(2, events.size());
+		final List<TraceJobEvent> more = parser.parse(first
+				+ "                          resources_used.walltime=00:01:03\n");
+		// the record is parsed again with its continuation line
+		assertEquals(3, more.size());
+		assertEquals(3, parser.getEvents().size());
+		assertEquals(Integer.valueOf(1), parser.getExitStatus());
+		assertEquals("00:01:03", value(parser.getEvents(), TraceJobEvent.Type.RESOURCES_USED, "walltime"));
+	}
+
+	@Test
+	public void testIncompleteLineWaits() {
+		final TraceJobParser parser = new TraceJobParser();
+		assertTrue(parser.parse("03/02/2015 10:15:36  S    Exit_sta").isEmpty());
+		assertNull(parser.getExitStatus());
+		assertFalse(parser.isFinished());
+		parser.parse("03/02/2015 10:15:36  S    Exit_status=3\n");
+		assertEquals(Integer.valueOf(3), parser.getExitStatus());
+	}
+
+	@Test
+	public void testStartsOverWhenTheOutputChanged() {
+		final TraceJobParser parser = new TraceJobParser();
+		parser.parse("03/02/2015 10:15:36  S    Exit_status=3\n");
+		parser.parse("03/03/2015 08:00:00  S    Job Run at request of Scheduler@server\n");
+		assertNull(parser.getExitStatus());
+		assertTrue(parser.isRunning());
+		assertEquals(1, parser.getEvents().size());
+	}
+
+	private static String summary(List<TraceJobEvent> events) {
+		final List<TraceJobEvent.Type> types = new ArrayList<TraceJobEvent.Type>();
+		int resources = 0;
+		int times = 0;
+		for (TraceJobEvent event : events) {
+			if (event.getType() == TraceJobEvent.Type.RESOURCES_USED) {
+				resources++;
+			} else if (event.getType() == TraceJobEvent.Type.TIME) {
+				times++;
+			} else {
+				types.add(event.getType());
+			}
+		}
+		return types + " resources=" + resources + " times=" + times;
+	}
+
+	private static String value(List<TraceJobEvent> events, TraceJobEvent.Type type, String name) {
+		String value = null;
+		for (TraceJobEvent event : events) {
+			if (event.getType() == type && name.equals(event.getName())) {
+				value = event.getValue();
+			}
+		}
+		return value;
+	}
+
+	private String resource(String name) throws IOException {
+		return IOUtils.toString(getClass().getResourceAsStream(name), "UTF-8");
+	}
+
+}
@@ -0,0 +1,178 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jenkins.plugins.pbs.model.TracePage;
+
+import org.junit.Test;
+
+/**
+ * Tests for the {@link TracePageCache}.
+ */
+public class TracePageCacheTest {
+
+	private static final int CALLERS = 8;
+
+	@Test
+	public void testConcurrentCallersShareOneLoad() throws Exception {
+		final TracePageCache cache = new TracePageCache(16, 1024L);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger loads = new AtomicInteger();
+		final TracePage page = page("trace", false);
+		final Callable<TracePage> loader = new Callable<TracePage>() {
+			public TracePage call() throws Exception {
+				loads.incrementAndGet();
+				release.await();
+				return page;
+			}
+		};
+		final ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+		try {
+			final List<Future<TracePage>> results = new ArrayList<Future<TracePage>>();
+			for (int i = 0; i < CALLERS; i++) {
+				results.add(executor.submit(new Callable<TracePage>() {
+					public TracePage call() throws Exception {
+						return cache.get("agent/10.server/1/0", loader);
+					}
+				}));
+			}
+			final long deadline = System.currentTimeMillis() + 10000L;
+			while (cache.getCoalesced() < CALLERS - 1 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10L);
+			}
+			release.countDown();
+			for (Future<TracePage> result : results) {
+				assertSame(page, result.get(10L, TimeUnit.SECONDS));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals(1, loads.get());
+		assertEquals(1L, cache.getMisses());
+		assertEquals(CALLERS - 1, cache.getCoalesced());
+		assertEquals(1, cache.getSize());
+	}
+
+	@Test
+	public void testRunningPageExpires() throws Exception {
+		final TracePageCache cache = new TracePageCache(16, 1024L, 50L);
+		final CountingLoader loader = new CountingLoader(page("running", false));
+		cache.get("key", loader);
+		cache.get("key", loader);
+		assertEquals(1, loader.loads);
+		assertEquals(1L, cache.getHits());
+		Thread.sleep(100L);
+		cache.get("key", loader);
+		assertEquals(2, loader.loads);
+	}
+
+	@Test
+	public void testFinishedPageDoesNotExpire() throws Exception {
+		final TracePageCache cache = new TracePageCache(16, 1024L, 1L);
+		final CountingLoader loader = new CountingLoader(page("finished", true));
+		cache.get("key", loader);
+		Thread.sleep(50L);
+		cache.get("key", loader);
+		assertEquals(1, loader.loads);
+		assertEquals(1L, cache.getHits());
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyUsed() throws Exception {
+		final TracePageCache cache = new TracePageCache(2, 1024L);
+		final CountingLoader a = new CountingLoader(page("a", true));
+		final CountingLoader b = new CountingLoader(page("b", true));
+		final CountingLoader c = new CountingLoader(page("c", true));
+		cache.get("a", a);
+		cache.get("b", b);
+		cache.get("a", a);
+		cache.get("c", c);
+		assertEquals(2, cache.getSize());
+		assertEquals(1L, cache.getEvictions());
+		cache.get("a", a);
+		cache.get("b", b);
+		assertEquals(1, a.loads);
+		assertEquals(2, b.loads);
+	}
+
+	@Test
+	public void testEvictsOverMaxChars() throws Exception {
+		final TracePageCache cache = new TracePageCache(16, 10L);
+		cache.get("a", new CountingLoader(page("123456", true)));
+		cache.get("b", new CountingLoader(page("123456", true)));
+		assertEquals(1, cache.getSize());
+		assertEquals(6L, cache.getChars());
+	}
+
+	@Test
+	public void testFailedLoadIsNotCached() throws Exception {
+		final TracePageCache cache = new TracePageCache(16, 1024L);
+		try {
+			cache.get("key", new Callable<TracePage>() {
+				public TracePage call() throws Exception {
+					throw new IOException("agent offline");
+				}
+			});
+			fail("the load failed");
+		} catch (IOException e) {
+			assertEquals("agent offline", e.getMessage());
+		}
+		final CountingLoader loader = new CountingLoader(page("trace", true));
+		cache.get("key", loader);
+		assertEquals(1, loader.loads);
+		assertEquals(1, cache.getSize());
+	}
+
+	private static TracePage page(String text, boolean finished) {
+		return new TracePage(0L, text.length(), text.length(), text, System.currentTimeMillis(), finished);
+	}
+
+	private static final class CountingLoader implements Callable<TracePage> {
+		private final TracePage page;
+		private int loads;
+		CountingLoader(TracePage page) {
+			this.page = page;
+		}
+		public TracePage call() {
+			loads++;
+			return page;
+		}
+	}
+
+}
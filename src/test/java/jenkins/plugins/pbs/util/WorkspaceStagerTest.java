@@ -0,0 +1,107 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) <2012-2015> <Bruno P. Kinoshita>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.pbs.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link WorkspaceStager}, staging into a temporary base
+ * directory.
+ */
+public class WorkspaceStagerTest {
+
+	private File workspace;
+	private File base;
+	private File store;
+
+	@Before
+	public void setUp() throws IOException {
+		workspace = Files.createTempDirectory("workspace").toFile();
+		base = Files.createTempDirectory("pbs").toFile();
+		store = new File(base, WorkspaceStager.STORE);
+		FileUtils.writeStringToFile(new File(workspace, "input.txt"), "input");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(workspace);
+		FileUtils.deleteDirectory(base);
+	}
+
+	@Test
+	public void testJobOfTheAgentUserGetsACopy() throws IOException, InterruptedException {
+		final File target = new File(stageIn("job1", ""), "input.txt");
+		assertEquals("input", FileUtils.readFileToString(target));
+		assertTrue(WorkspaceStager.isWritable(target.toPath()));
+		FileUtils.writeStringToFile(target, "changed by the job");
+		assertEquals("input", FileUtils.readFileToString(new File(stageIn("job2", ""), "input.txt")));
+	}
+
+	@Test
+	public void testJobOfAnotherUserGetsALink() throws IOException, InterruptedException {
+		final Path target = new File(stageIn("job1", "someone-else"), "input.txt").toPath();
+		assertTrue(Files.isSameFile(target, stored()));
+		assertFalse(WorkspaceStager.isWritable(stored()));
+	}
+
+	@Test
+	public void testChangedStoreFileIsReplaced() throws IOException, InterruptedException {
+		stageIn("job1", "someone-else");
+		final File stored = stored().toFile();
+		assertTrue(stored.setWritable(true));
+		FileUtils.writeStringToFile(stored, "corrupted");
+		assertEquals("input", FileUtils.readFileToString(new File(stageIn("job2", "someone-else"), "input.txt")));
+		assertEquals("input", FileUtils.readFileToString(stored().toFile()));
+		assertFalse(WorkspaceStager.isWritable(stored()));
+	}
+
+	private File stageIn(String job, String runUser) throws IOException, InterruptedException {
+		final File executionDirectory = new File(base, job);
+		assertTrue(executionDirectory.mkdir());
+		final WorkspaceStager.Result result = WorkspaceStager.stageIn(workspace, "*.txt", executionDirectory, runUser);
+		assertEquals(1, result.getFiles());
+		return executionDirectory;
+	}
+
+	private Path stored() {
+		final File[] prefixes = store.listFiles();
+		assertEquals(1, prefixes.length);
+		final File[] files = prefixes[0].listFiles();
+		assertEquals(1, files.length);
+		return files[0].toPath();
+	}
+
+}
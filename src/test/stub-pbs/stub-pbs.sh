@@ -0,0 +1,21 @@
+#!/bin/bash
+# Shared by the stub PBS commands of the unit tests. Each call is appended
+# to $STUB_PBS_DIR/calls, and the command replies with the files the test
+# wrote: <command>.out on stdout, <command>.err on stderr and the exit code
+# in <command>.rc (0 if missing). Files named after the command and its
+# first argument, e.g. qstat-Q.out, take precedence for that argument.
+name="$1"
+shift
+if [ -z "$STUB_PBS_DIR" ]; then
+	echo "$name: STUB_PBS_DIR is not set" >&2
+	exit 1
+fi
+mkdir -p "$STUB_PBS_DIR"
+echo "$name $*" >> "$STUB_PBS_DIR/calls"
+reply="$STUB_PBS_DIR/$name"
+if [ -n "$1" ] && ls "$STUB_PBS_DIR/$name$1".* >/dev/null 2>&1; then
+	reply="$STUB_PBS_DIR/$name$1"
+fi
+[ -f "$reply.out" ] && cat "$reply.out"
+[ -f "$reply.err" ] && cat "$reply.err" >&2
+exit "$(cat "$reply.rc" 2>/dev/null || echo 0)"